@@ -4,6 +4,7 @@ import org.gradle.api.tasks.testing.logging.TestLogEvent
 plugins {
     alias(libs.plugins.hivemq.extension)
     alias(libs.plugins.defaults)
+    alias(libs.plugins.jmh)
     alias(libs.plugins.oci)
     alias(libs.plugins.spotless)
 }
@@ -47,6 +48,7 @@ dependencies {
     implementation(libs.prometheus.simpleClient.dropwizard)
     implementation(libs.prometheus.simpleClient.httpserver)
     implementation(libs.owner)
+    implementation(libs.aircompressor)
 }
 
 oci {
@@ -153,6 +155,26 @@ testing {
                 }
             }
         }
+        "loadTest"(JvmTestSuite::class) {
+            dependencies {
+                implementation(project())
+                compileOnly(libs.jetbrains.annotations)
+                implementation(libs.assertj)
+                implementation(libs.hivemq.extensionSdk)
+                runtimeOnly(libs.logback.classic)
+            }
+            targets.configureEach {
+                testTask {
+                    // the load is configured by Gradle properties, e.g. -PloadTest.metrics=100000
+                    systemProperties(providers.gradlePropertiesPrefixedBy("loadTest.").get())
+                    testLogging {
+                        showStandardStreams = true
+                    }
+                    // the results are the report, so a load test is never up-to-date
+                    outputs.upToDateWhen { false }
+                }
+            }
+        }
     }
 }
 
@@ -175,6 +197,15 @@ spotless {
     }
 }
 
+jmh {
+    jmhVersion = libs.versions.jmh
+    // the allocation rate is as important as the latency of a scrape
+    profilers = listOf("gc")
+    // a stable location, so the results of runs can be collected to track trends
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+}
+
 // configure reproducible builds
 tasks.withType<AbstractArchiveTask>().configureEach {
     // normalize file permissions for reproducibility
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency and allocation rate (run with the gc profiler) of rendering a Dropwizard {@link MetricRegistry}
+ * via {@link DropwizardExports} and {@link TextFormat} against the {@link DropwizardExpositionRenderer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpositionBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int metrics;
+
+    private CollectorRegistry collectorRegistry;
+    private DropwizardExpositionRenderer renderer;
+    private ExpositionBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        final var metricRegistry = SyntheticRegistry.create(metrics);
+        collectorRegistry = new CollectorRegistry(true);
+        collectorRegistry.register(new DropwizardExports(metricRegistry));
+        renderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        buffer = new ExpositionBuffer(1 << 16);
+    }
+
+    @Benchmark
+    public int dropwizardExports() throws IOException {
+        final var out = new ByteArrayOutputStream(1 << 16);
+        final var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        TextFormat.write004(writer, collectorRegistry.metricFamilySamples());
+        writer.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int dropwizardExpositionRenderer() {
+        buffer.reset();
+        renderer.render(ExpositionFormat.TEXT_004, null, buffer);
+        return buffer.size();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the render latency of the {@link ExpositionFormat}s for the same Dropwizard {@link MetricRegistry}.
+ * <p>
+ * The encoded size of each format is reported as the {@code bytes} secondary result, and its size after gzip
+ * compression as {@code gzipBytes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpositionFormatBenchmark {
+
+    @Param({"1000", "10000"})
+    public int metrics;
+
+    @Param({"TEXT_004", "OPENMETRICS_100", "PROTOBUF"})
+    public String formatName;
+
+    private ExpositionFormat format;
+    private DropwizardExpositionRenderer renderer;
+    private ExpositionBuffer buffer;
+    private long gzipBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        format = ExpositionFormat.valueOf(formatName);
+        final var metricRegistry = SyntheticRegistry.create(metrics);
+        renderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        buffer = new ExpositionBuffer(1 << 16);
+        renderer.render(format, null, buffer);
+        format.writeTerminator(buffer);
+        final var compressed = new ByteArrayOutputStream();
+        try (final var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(buffer.toByteArray());
+        }
+        gzipBytes = compressed.size();
+    }
+
+    @Benchmark
+    public int render(final EncodedSize encodedSize) {
+        buffer.reset();
+        renderer.render(format, null, buffer);
+        format.writeTerminator(buffer);
+        encodedSize.bytes = buffer.size();
+        encodedSize.gzipBytes = gzipBytes;
+        return buffer.size();
+    }
+
+    /**
+     * The encoded size of the last render, reported as-is instead of as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+
+        public long bytes;
+        public long gzipBytes;
+    }
+}
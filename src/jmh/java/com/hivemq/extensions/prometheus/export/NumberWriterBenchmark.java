@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing sample values with the {@link NumberWriter} to writing the result of
+ * {@link Double#toString(double)}.
+ * <p>
+ * The values are integral counts, quantiles with a few decimal digits, or arbitrary doubles that need all 17 digits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NumberWriterBenchmark {
+
+    private static final int VALUES = 1024;
+
+    @Param({"INTEGRAL", "DECIMAL", "RANDOM"})
+    public String values;
+
+    private final double[] doubles = new double[VALUES];
+    private final ExpositionBuffer buffer = new ExpositionBuffer(VALUES * NumberWriter.MAX_LENGTH);
+
+    @Setup
+    public void setUp() {
+        final var random = new Random(42);
+        for (int i = 0; i < VALUES; i++) {
+            switch (values) {
+                case "INTEGRAL":
+                    doubles[i] = random.nextInt(1_000_000);
+                    break;
+                case "DECIMAL":
+                    doubles[i] = random.nextInt(1_000_000) / 1000.0;
+                    break;
+                default:
+                    doubles[i] = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public int numberWriter() {
+        buffer.reset();
+        for (final var value : doubles) {
+            buffer.writeDouble(value);
+        }
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int doubleToString() {
+        buffer.reset();
+        for (final var value : doubles) {
+            buffer.writeAscii(Double.toString(value));
+        }
+        return buffer.size();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the render time of the {@link DropwizardExpositionRenderer} scales with the number of render threads
+ * and the size of the registry. A parallelism of 1 renders sequentially without a render pool.
+ * <p>
+ * The {@link SyntheticRegistry} of 50k metrics renders 50k families and 125k series.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelRenderBenchmark {
+
+    @Param({"10000", "50000", "100000"})
+    public int metrics;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int parallelism;
+
+    private ForkJoinPool renderPool;
+    private DropwizardExpositionRenderer renderer;
+    private ExpositionBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        final var metricRegistry = SyntheticRegistry.create(metrics);
+        renderPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        renderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                renderPool,
+                0);
+        buffer = new ExpositionBuffer(1 << 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.close();
+        if (renderPool != null) {
+            renderPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int renderText() {
+        buffer.reset();
+        renderer.render(ExpositionFormat.TEXT_004, null, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int renderProtobuf() {
+        buffer.reset();
+        renderer.render(ExpositionFormat.PROTOBUF, null, buffer);
+        return buffer.size();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency and allocation rate (run with the gc profiler) of rendering a registry of Timers in all
+ * exposition formats for two endpoints, as it happens within one cache window when scrapers with different formats
+ * scrape both endpoints.
+ * <p>
+ * With a snapshot max-age of zero, every render takes its own reservoir snapshot of every Timer, so six snapshots are
+ * taken per Timer and operation. With a max-age that is longer than the benchmark, the {@link ReservoirSnapshotCache}
+ * reuses the snapshots, so only the rendering itself remains. In production, one snapshot per Timer is taken per cache
+ * window instead of one per format and endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservoirSnapshotBenchmark {
+
+    @Param({"1000", "10000"})
+    public int timers;
+
+    @Param({"0", "3600000"})
+    public long snapshotMaxAgeMillis;
+
+    private DropwizardExpositionRenderer firstEndpoint;
+    private DropwizardExpositionRenderer secondEndpoint;
+    private ExpositionBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        final var metricRegistry = new MetricRegistry();
+        for (int i = 0; i < timers; i++) {
+            final var timer = metricRegistry.timer("com.hivemq.benchmark.timer." + i);
+            for (int j = 0; j < 1028; j++) {
+                timer.update(j, TimeUnit.MICROSECONDS);
+            }
+        }
+        final var snapshotCache = new ReservoirSnapshotCache().withMaxAge(Duration.ofMillis(snapshotMaxAgeMillis));
+        final var histograms = new IncrementalHistograms();
+        firstEndpoint = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                snapshotCache,
+                histograms,
+                null,
+                0);
+        secondEndpoint = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                snapshotCache,
+                histograms,
+                null,
+                0);
+        buffer = new ExpositionBuffer(1 << 16);
+    }
+
+    @TearDown
+    public void tearDown() {
+        firstEndpoint.close();
+        secondEndpoint.close();
+    }
+
+    @Benchmark
+    public int renderAllFormats() {
+        var size = 0;
+        for (final var format : ExpositionFormat.values()) {
+            buffer.reset();
+            firstEndpoint.render(format, null, buffer);
+            size += buffer.size();
+            buffer.reset();
+            secondEndpoint.render(format, null, buffer);
+            size += buffer.size();
+        }
+        return size;
+    }
+}
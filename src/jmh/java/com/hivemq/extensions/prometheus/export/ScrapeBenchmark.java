@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end latency of a scrape of the {@link PrometheusHttpServer} over a keep-alive connection, from
+ * sending the request until the last byte of the response has been read.
+ * <p>
+ * The cache max-age is zero, so every scrape renders the {@link SyntheticRegistry}. The allocation rate reported by
+ * the gc profiler includes the allocations of the HTTP client. The size of the response body is reported as the
+ * {@code bytes} secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScrapeBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int metrics;
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    @Param({"false", "true"})
+    public boolean nonBlocking;
+
+    private final byte[] readBuffer = new byte[1 << 16];
+
+    private PrometheusHttpServer server;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = PrometheusHttpServer.builder()
+                .hostname("127.0.0.1")
+                .port(0)
+                .nonBlocking(nonBlocking)
+                .metricRegistry(SyntheticRegistry.create(metrics))
+                .buildAndStart();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/metrics"))
+                .header("Accept-Encoding", encoding)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public long scrape(final ResponseSize responseSize) throws IOException, InterruptedException {
+        final var response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        var bytes = 0L;
+        try (final var body = response.body()) {
+            for (int read; (read = body.read(readBuffer)) >= 0; ) {
+                bytes += read;
+            }
+        }
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("scrape failed with status " + response.statusCode());
+        }
+        responseSize.bytes = bytes;
+        return bytes;
+    }
+
+    /**
+     * The size of the last response body, reported as-is instead of as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ResponseSize {
+
+        public long bytes;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the synthetic Dropwizard {@link MetricRegistry} the benchmarks render.
+ * <p>
+ * The registry consists of one family per metric with an equal mix of counters, gauges, meters and timers, so a
+ * registry of 10k metrics renders 10k families and 25k series.
+ */
+final class SyntheticRegistry {
+
+    private SyntheticRegistry() {
+    }
+
+    static MetricRegistry create(final int metrics) {
+        final var metricRegistry = new MetricRegistry();
+        for (int i = 0; i < metrics; i++) {
+            switch (i % 4) {
+                case 0:
+                    metricRegistry.counter("com.hivemq.benchmark.counter." + i).inc(i);
+                    break;
+                case 1:
+                    final var value = i;
+                    metricRegistry.gauge("com.hivemq.benchmark.gauge." + i, () -> () -> value);
+                    break;
+                case 2:
+                    metricRegistry.meter("com.hivemq.benchmark.meter." + i).mark(i);
+                    break;
+                default:
+                    final var timer = metricRegistry.timer("com.hivemq.benchmark.timer." + i);
+                    for (int j = 0; j < 100; j++) {
+                        timer.update(j, TimeUnit.MILLISECONDS);
+                    }
+                    break;
+            }
+        }
+        return metricRegistry;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load tests of the {@link PrometheusHttpServer} with many concurrent scrapers, see {@link ScrapeLoad}.
+ * <p>
+ * Each test runs the same mix of keep-alive, non-keep-alive and slow-reading scrapers with and without gzip against
+ * a differently configured server, and prints throughput, latency percentiles and thread counts per group of
+ * scrapers. The load is configured by system properties, which are passed on from Gradle properties, e.g.
+ * {@code ./gradlew loadTest -PloadTest.metrics=100000 -PloadTest.keepAliveScrapers=32}.
+ */
+class PrometheusHttpServerLoadTest {
+
+    private static final int METRICS = Integer.getInteger("loadTest.metrics", 10_000);
+    private static final int KEEP_ALIVE_SCRAPERS = Integer.getInteger("loadTest.keepAliveScrapers", 8);
+    private static final int CLOSE_SCRAPERS = Integer.getInteger("loadTest.closeScrapers", 8);
+    private static final int SLOW_READERS = Integer.getInteger("loadTest.slowReaders", 4);
+    private static final long SLOW_READER_BYTES_PER_SECOND =
+            Long.getLong("loadTest.slowReaderBytesPerSecond", 1024 * 1024);
+    private static final int CACHE_MAX_AGE_MILLIS = Integer.getInteger("loadTest.cacheMaxAgeMillis", 0);
+    private static final @NotNull Duration WARMUP = Duration.ofSeconds(Integer.getInteger("loadTest.warmupSeconds", 3));
+    private static final @NotNull Duration DURATION =
+            Duration.ofSeconds(Integer.getInteger("loadTest.durationSeconds", 10));
+
+    private final @NotNull MetricRegistry metricRegistry = syntheticRegistry(METRICS);
+
+    @Test
+    void blockingServer() throws Exception {
+        run("blocking server", PrometheusHttpServer.builder());
+    }
+
+    @Test
+    void blockingServer_withShedOverload() throws Exception {
+        run("blocking server with shed overload", PrometheusHttpServer.builder().shedOverload(true));
+    }
+
+    @Test
+    void blockingServer_withVirtualThreads() throws Exception {
+        run("blocking server with virtual threads", PrometheusHttpServer.builder().virtualThreads(true));
+    }
+
+    @Test
+    void nonBlockingServer() throws Exception {
+        run("non-blocking server", PrometheusHttpServer.builder().nonBlocking(true));
+    }
+
+    private void run(final @NotNull String title, final @NotNull PrometheusHttpServer.Builder builder)
+            throws IOException, InterruptedException {
+        final var server = builder.hostname("127.0.0.1")
+                .port(0)
+                .cacheMaxAge(Duration.ofMillis(CACHE_MAX_AGE_MILLIS))
+                .metricRegistry(metricRegistry)
+                .buildAndStart();
+        try {
+            final var load = new ScrapeLoad("127.0.0.1", server.getPort(), "/metrics", SLOW_READER_BYTES_PER_SECOND);
+            final var groups = List.of(new ScrapeLoad.Group(ScrapeLoad.Kind.KEEP_ALIVE, KEEP_ALIVE_SCRAPERS, false),
+                    new ScrapeLoad.Group(ScrapeLoad.Kind.KEEP_ALIVE, KEEP_ALIVE_SCRAPERS, true),
+                    new ScrapeLoad.Group(ScrapeLoad.Kind.CLOSE, CLOSE_SCRAPERS, false),
+                    new ScrapeLoad.Group(ScrapeLoad.Kind.CLOSE, CLOSE_SCRAPERS, true),
+                    new ScrapeLoad.Group(ScrapeLoad.Kind.SLOW_READER, SLOW_READERS, false));
+            final var result = load.run(groups, WARMUP, DURATION);
+            System.out.println(result.report(title + ", " + METRICS + " metrics, cache max-age " +
+                    CACHE_MAX_AGE_MILLIS + " ms"));
+            assertThat(result.errors()).isZero();
+            assertThat(result.scrapes()).isPositive();
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Creates a registry with one family per metric and an equal mix of counters, gauges, meters and timers.
+     */
+    private static @NotNull MetricRegistry syntheticRegistry(final int metrics) {
+        final var metricRegistry = new MetricRegistry();
+        for (int i = 0; i < metrics; i++) {
+            switch (i % 4) {
+                case 0:
+                    metricRegistry.counter("com.hivemq.load.counter." + i).inc(i);
+                    break;
+                case 1:
+                    final var value = i;
+                    metricRegistry.gauge("com.hivemq.load.gauge." + i, () -> () -> value);
+                    break;
+                case 2:
+                    metricRegistry.meter("com.hivemq.load.meter." + i).mark(i);
+                    break;
+                default:
+                    final var timer = metricRegistry.timer("com.hivemq.load.timer." + i);
+                    for (int j = 0; j < 100; j++) {
+                        timer.update(j, TimeUnit.MILLISECONDS);
+                    }
+                    break;
+            }
+        }
+        return metricRegistry;
+    }
+}
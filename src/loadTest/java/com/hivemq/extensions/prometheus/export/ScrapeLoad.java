@@ -0,0 +1,438 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives groups of concurrent scrapers against an HTTP metrics endpoint and measures their throughput and latency.
+ * <p>
+ * The scrapers speak HTTP/1.1 over plain sockets, so every aspect of a connection is under control:
+ * <ul>
+ *     <li>{@link Kind#KEEP_ALIVE} scrapers reuse their connection like Prometheus does</li>
+ *     <li>{@link Kind#CLOSE} scrapers open a new connection per scrape, so the latency includes the accept</li>
+ *     <li>{@link Kind#SLOW_READER} scrapers reuse their connection but read the response at a limited rate, like a
+ *     scraper behind a slow network</li>
+ * </ul>
+ * The latency of a scrape spans from connecting or sending the request until the last byte of the response has been
+ * read. Scrapes answered with {@code 503 Service Unavailable} are counted as shed, every other status or I/O error as
+ * error. Only scrapes that complete after the warmup are measured.
+ * <p>
+ * While the load runs, the number of live server threads, i.e. platform threads whose name starts with
+ * {@code prometheus-}, is sampled to report its peak.
+ */
+final class ScrapeLoad {
+
+    enum Kind {
+        KEEP_ALIVE,
+        CLOSE,
+        SLOW_READER
+    }
+
+    /**
+     * A number of scrapers of the same kind.
+     */
+    static final class Group {
+
+        private final @NotNull Kind kind;
+        private final int scrapers;
+        private final boolean gzip;
+
+        Group(final @NotNull Kind kind, final int scrapers, final boolean gzip) {
+            this.kind = kind;
+            this.scrapers = scrapers;
+            this.gzip = gzip;
+        }
+
+        @NotNull String name() {
+            return kind.name().toLowerCase(Locale.ROOT) + (gzip ? "/gzip" : "/identity");
+        }
+    }
+
+    private static final int SOCKET_TIMEOUT_MILLIS = 60_000;
+    private static final int SLOW_READ_CHUNK = 4096;
+    private static final long THREAD_SAMPLE_INTERVAL_MILLIS = 50;
+
+    private final @NotNull String host;
+    private final int port;
+    private final @NotNull String path;
+    private final long slowReaderBytesPerSecond;
+
+    ScrapeLoad(
+            final @NotNull String host,
+            final int port,
+            final @NotNull String path,
+            final long slowReaderBytesPerSecond) {
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        this.slowReaderBytesPerSecond = slowReaderBytesPerSecond;
+    }
+
+    /**
+     * Runs the given groups of scrapers concurrently for the warmup and the duration.
+     */
+    @NotNull Result run(
+            final @NotNull List<Group> groups,
+            final @NotNull Duration warmup,
+            final @NotNull Duration duration) throws InterruptedException {
+        final var running = new AtomicBoolean(true);
+        final var start = System.nanoTime();
+        final var measureFrom = start + warmup.toNanos();
+        final var measureUntil = measureFrom + duration.toNanos();
+        final var scrapers = new ArrayList<Scraper>();
+        final var threads = new ArrayList<Thread>();
+        for (final var group : groups) {
+            for (int i = 0; i < group.scrapers; i++) {
+                final var scraper = new Scraper(group, measureFrom, running);
+                final var thread = new Thread(scraper, "scraper-" + group.name() + "-" + i);
+                thread.setDaemon(true);
+                scrapers.add(scraper);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        var peakServerThreads = 0;
+        while (System.nanoTime() < measureUntil) {
+            peakServerThreads = Math.max(peakServerThreads, serverThreads());
+            TimeUnit.MILLISECONDS.sleep(THREAD_SAMPLE_INTERVAL_MILLIS);
+        }
+        running.set(false);
+        final var serverThreadsAtEnd = serverThreads();
+        for (final var thread : threads) {
+            thread.join(SOCKET_TIMEOUT_MILLIS);
+        }
+        final var results = new TreeMap<String, GroupResult>();
+        for (final var scraper : scrapers) {
+            results.computeIfAbsent(scraper.group.name(), name -> new GroupResult()).add(scraper);
+        }
+        return new Result(results, duration, peakServerThreads, serverThreadsAtEnd);
+    }
+
+    private static int serverThreads() {
+        var count = 0;
+        for (final var thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("prometheus-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private final class Scraper implements Runnable {
+
+        private final @NotNull Group group;
+        private final long measureFrom;
+        private final @NotNull AtomicBoolean running;
+        private final byte @NotNull [] request;
+        private final byte @NotNull [] readBuffer = new byte[1 << 16];
+
+        private long @NotNull [] latencies = new long[1024];
+        private int scrapes;
+        private int shed;
+        private int errors;
+        private long bytes;
+        private long contentLength;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        private Scraper(final @NotNull Group group, final long measureFrom, final @NotNull AtomicBoolean running) {
+            this.group = group;
+            this.measureFrom = measureFrom;
+            this.running = running;
+            request = ("GET " + path + " HTTP/1.1\r\n" +
+                    "Host: " + host + ":" + port + "\r\n" +
+                    "Accept-Encoding: " + (group.gzip ? "gzip" : "identity") + "\r\n" +
+                    (group.kind == Kind.CLOSE ? "Connection: close\r\n" : "") +
+                    "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void run() {
+            while (running.get()) {
+                final var start = System.nanoTime();
+                int status;
+                try {
+                    if (socket == null) {
+                        connect();
+                    }
+                    out.write(request);
+                    out.flush();
+                    status = readResponse();
+                } catch (final IOException e) {
+                    status = -1;
+                    close();
+                }
+                final var end = System.nanoTime();
+                if (group.kind == Kind.CLOSE) {
+                    close();
+                }
+                if (start < measureFrom || !running.get()) {
+                    continue;
+                }
+                if (status == 200) {
+                    if (scrapes == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, scrapes << 1);
+                    }
+                    latencies[scrapes++] = end - start;
+                    bytes += contentLength;
+                } else if (status == 503) {
+                    shed++;
+                } else {
+                    errors++;
+                }
+            }
+            close();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            if (group.kind == Kind.SLOW_READER) {
+                // a small receive window, so the server actually has to wait for the reader
+                socket.setReceiveBufferSize(SLOW_READ_CHUNK * 4);
+            }
+            socket.connect(new InetSocketAddress(host, port), SOCKET_TIMEOUT_MILLIS);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * Reads a response and returns its status.
+         */
+        private int readResponse() throws IOException {
+            final var statusLine = readLine();
+            final var status = Integer.parseInt(statusLine.split(" ", 3)[1]);
+            contentLength = 0;
+            var close = false;
+            for (var line = readLine(); !line.isEmpty(); line = readLine()) {
+                final var colon = line.indexOf(':');
+                final var name = line.substring(0, colon).trim();
+                final var value = line.substring(colon + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    contentLength = Long.parseLong(value);
+                } else if ("Connection".equalsIgnoreCase(name) && "close".equalsIgnoreCase(value)) {
+                    close = true;
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                    throw new IOException("unexpected Transfer-Encoding " + value);
+                }
+            }
+            readBody();
+            if (close) {
+                close();
+            }
+            return status;
+        }
+
+        private void readBody() throws IOException {
+            final var chunk = group.kind == Kind.SLOW_READER ? SLOW_READ_CHUNK : readBuffer.length;
+            final var nanosPerChunk = TimeUnit.SECONDS.toNanos(1) * SLOW_READ_CHUNK / slowReaderBytesPerSecond;
+            var remaining = contentLength;
+            while (remaining > 0) {
+                final var read = in.read(readBuffer, 0, (int) Math.min(chunk, remaining));
+                if (read < 0) {
+                    throw new IOException("connection closed with " + remaining + " bytes of the body remaining");
+                }
+                remaining -= read;
+                if (group.kind == Kind.SLOW_READER) {
+                    if (!running.get()) {
+                        // the response of a slow reader may take longer than the whole load run
+                        throw new IOException("load stopped");
+                    }
+                    sleep(nanosPerChunk * read / SLOW_READ_CHUNK);
+                }
+            }
+        }
+
+        private @NotNull String readLine() throws IOException {
+            final var line = new StringBuilder();
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    throw new IOException("connection closed");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (final IOException ignored) {
+                }
+                socket = null;
+            }
+        }
+    }
+
+    private static void sleep(final long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The measured scrapes of all scrapers of a group.
+     */
+    static final class GroupResult {
+
+        private long @NotNull [] latencies = new long[0];
+        private int scrapes;
+        private int shed;
+        private int errors;
+        private long bytes;
+
+        private void add(final @NotNull Scraper scraper) {
+            latencies = Arrays.copyOf(latencies, scrapes + scraper.scrapes);
+            System.arraycopy(scraper.latencies, 0, latencies, scrapes, scraper.scrapes);
+            scrapes += scraper.scrapes;
+            shed += scraper.shed;
+            errors += scraper.errors;
+            bytes += scraper.bytes;
+        }
+
+        int scrapes() {
+            return scrapes;
+        }
+
+        int shed() {
+            return shed;
+        }
+
+        int errors() {
+            return errors;
+        }
+
+        /**
+         * Returns the latency of the given percentile in milliseconds, or 0 if there were no scrapes.
+         */
+        double latencyMillis(final double percentile) {
+            if (scrapes == 0) {
+                return 0;
+            }
+            Arrays.sort(latencies);
+            final var index = (int) Math.ceil(percentile / 100 * scrapes) - 1;
+            return latencies[Math.max(0, Math.min(index, scrapes - 1))] / 1_000_000.0;
+        }
+    }
+
+    /**
+     * The results of a load run, per group of scrapers.
+     */
+    static final class Result {
+
+        private final @NotNull Map<String, GroupResult> groups;
+        private final @NotNull Duration duration;
+        private final int peakServerThreads;
+        private final int serverThreadsAtEnd;
+
+        private Result(
+                final @NotNull Map<String, GroupResult> groups,
+                final @NotNull Duration duration,
+                final int peakServerThreads,
+                final int serverThreadsAtEnd) {
+            this.groups = groups;
+            this.duration = duration;
+            this.peakServerThreads = peakServerThreads;
+            this.serverThreadsAtEnd = serverThreadsAtEnd;
+        }
+
+        @NotNull Map<String, GroupResult> groups() {
+            return groups;
+        }
+
+        int errors() {
+            return groups.values().stream().mapToInt(GroupResult::errors).sum();
+        }
+
+        int scrapes() {
+            return groups.values().stream().mapToInt(GroupResult::scrapes).sum();
+        }
+
+        int peakServerThreads() {
+            return peakServerThreads;
+        }
+
+        /**
+         * Formats the results as a table with a row per group.
+         */
+        @NotNull String report(final @NotNull String title) {
+            final var seconds = duration.toMillis() / 1000.0;
+            final var report = new StringBuilder();
+            report.append(title).append('\n');
+            report.append(String.format(Locale.ROOT,
+                    "%-22s %9s %9s %6s %6s %9s %9s %9s %9s %11s%n",
+                    "group",
+                    "scrapes",
+                    "scrapes/s",
+                    "shed",
+                    "errors",
+                    "p50 ms",
+                    "p99 ms",
+                    "p999 ms",
+                    "max ms",
+                    "MiB/s"));
+            for (final var entry : groups.entrySet()) {
+                final var group = entry.getValue();
+                report.append(String.format(Locale.ROOT,
+                        "%-22s %9d %9.1f %6d %6d %9.2f %9.2f %9.2f %9.2f %11.1f%n",
+                        entry.getKey(),
+                        group.scrapes,
+                        group.scrapes / seconds,
+                        group.shed,
+                        group.errors,
+                        group.latencyMillis(50),
+                        group.latencyMillis(99),
+                        group.latencyMillis(99.9),
+                        group.latencyMillis(100),
+                        group.bytes / seconds / (1 << 20)));
+            }
+            report.append(String.format(Locale.ROOT,
+                    "total %d scrapes (%.1f/s), server threads: peak %d, at end %d%n",
+                    scrapes(),
+                    scrapes() / seconds,
+                    peakServerThreads,
+                    serverThreadsAtEnd));
+            return report.toString();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.hivemq.extension.sdk.api.parameter.ExtensionStopInput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStopOutput;
 import com.hivemq.extension.sdk.api.services.Services;
 import com.hivemq.extensions.prometheus.configuration.ConfigurationReader;
+import com.hivemq.extensions.prometheus.configuration.ConfigurationReloader;
 import com.hivemq.extensions.prometheus.configuration.InvalidConfigurationException;
 import com.hivemq.extensions.prometheus.export.PrometheusServer;
 import org.jetbrains.annotations.NotNull;
@@ -30,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -42,18 +44,22 @@ public class PrometheusExtensionMain implements ExtensionMain {
     private static final @NotNull Logger LOG = LoggerFactory.getLogger(PrometheusExtensionMain.class);
 
     private final @NotNull AtomicReference<PrometheusServer> prometheusServerRef = new AtomicReference<>();
+    private final @NotNull AtomicReference<ConfigurationReloader> configurationReloaderRef = new AtomicReference<>();
 
     @Override
     public void extensionStart(
             final @NotNull ExtensionStartInput extensionStartInput,
             final @NotNull ExtensionStartOutput extensionStartOutput) {
         try {
-            final var configuration =
-                    new ConfigurationReader(extensionStartInput.getExtensionInformation()).readConfiguration();
+            final var configurationReader = new ConfigurationReader(extensionStartInput.getExtensionInformation());
+            final var configuration = configurationReader.readConfiguration();
+            final var labelMappings = configurationReader.readLabelMappings();
             try {
-                final var prometheusServer = new PrometheusServer(configuration, Services.metricRegistry());
+                final var prometheusServer =
+                        new PrometheusServer(configuration, labelMappings, Services.metricRegistry());
                 prometheusServerRef.set(prometheusServer);
                 prometheusServer.start();
+                startConfigurationReloader(configurationReader, prometheusServer);
             } catch (final Exception e) {
                 LOG.error("Error starting the HTTP Server for Prometheus Extension", e);
                 extensionStartOutput.preventExtensionStartup(
@@ -72,10 +78,28 @@ public class PrometheusExtensionMain implements ExtensionMain {
         }
     }
 
+    private void startConfigurationReloader(
+            final @NotNull ConfigurationReader configurationReader,
+            final @NotNull PrometheusServer prometheusServer) {
+        try {
+            final var configurationReloader =
+                    new ConfigurationReloader(configurationReader, prometheusServer::reconfigure);
+            configurationReloader.start();
+            configurationReloaderRef.set(configurationReloader);
+        } catch (final IOException e) {
+            LOG.warn("Could not watch the configuration files, changes require a restart of the extension: {}",
+                    e.getMessage());
+        }
+    }
+
     @Override
     public void extensionStop(
             final @NotNull ExtensionStopInput extensionStopInput,
             final @NotNull ExtensionStopOutput extensionStopOutput) {
+        final var configurationReloader = configurationReloaderRef.getAndSet(null);
+        if (configurationReloader != null) {
+            configurationReloader.stop();
+        }
         final var prometheusServer = prometheusServerRef.getAndSet(null);
         if (prometheusServer != null) {
             prometheusServer.stop();
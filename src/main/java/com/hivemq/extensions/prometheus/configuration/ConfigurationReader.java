@@ -23,7 +23,20 @@ import org.jetbrains.annotations.NotNull;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Provides the possibility to obtain the configuration of the prometheus-extension via readConfiguration()
@@ -34,6 +47,7 @@ public class ConfigurationReader {
 
     public static final @NotNull String CONFIG_PATH = "conf/config.properties";
     public static final @NotNull String LEGACY_CONFIG_PATH = "prometheusConfiguration.properties";
+    public static final @NotNull String LABEL_MAPPINGS_PATH = "conf/label-mappings.conf";
     /**
      * The minimal possible port
      */
@@ -42,14 +56,38 @@ public class ConfigurationReader {
      * The maximum possible port
      */
     private static final int MAX_PORT = 65535;
+    /**
+     * The minimal gzip compression level
+     */
+    private static final int MIN_GZIP_COMPRESSION_LEVEL = 1;
+    /**
+     * The maximum gzip compression level
+     */
+    private static final int MAX_GZIP_COMPRESSION_LEVEL = 9;
+    private static final @NotNull Pattern LABEL_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
 
     private final @NotNull ConfigResolver configResolver;
+    private final @NotNull Path labelMappingsPath;
+    private final @NotNull List<Path> files;
 
     public ConfigurationReader(final @NotNull ExtensionInformation extensionInformation) {
-        this.configResolver = new ConfigResolver(extensionInformation.getExtensionHomeFolder().toPath(),
+        final var extensionHome = extensionInformation.getExtensionHomeFolder().toPath();
+        this.labelMappingsPath = extensionHome.resolve(LABEL_MAPPINGS_PATH);
+        this.configResolver = new ConfigResolver(extensionHome,
                 "Prometheus Monitoring Extension",
                 CONFIG_PATH,
                 LEGACY_CONFIG_PATH);
+        this.files = List.of(extensionHome.resolve(CONFIG_PATH),
+                extensionHome.resolve(LEGACY_CONFIG_PATH),
+                labelMappingsPath);
+    }
+
+    /**
+     * Returns the files the configuration is read from, including the legacy location of the configuration file and
+     * the optional label mappings file, whether they exist or not.
+     */
+    public @NotNull List<Path> files() {
+        return files;
     }
 
     public @NotNull PrometheusExtensionConfiguration readConfiguration()
@@ -71,6 +109,64 @@ public class ConfigurationReader {
         }
     }
 
+    /**
+     * Reads the optional label mapping rules, one rule per line in the order in which they are applied.
+     * <p>
+     * A rule has the form {@code <pattern> = <name> [<label>=<value> ...]}, see {@link LabelMappingRule}. Empty lines
+     * and lines starting with {@code #} are ignored.
+     *
+     * @return the rules or an empty list if the file doesn't exist
+     * @throws InvalidConfigurationException thrown when the file can't be read or a rule is invalid
+     */
+    public @NotNull List<LabelMappingRule> readLabelMappings() throws InvalidConfigurationException {
+        if (!Files.exists(labelMappingsPath)) {
+            return List.of();
+        }
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(labelMappingsPath, StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new InvalidConfigurationException("Error while reading label mappings file.");
+        }
+        final var rules = new ArrayList<LabelMappingRule>();
+        for (int i = 0; i < lines.size(); i++) {
+            final var line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(parseLabelMapping(line));
+            } catch (final IllegalArgumentException e) {
+                throw new InvalidConfigurationException(String.format("Invalid label mapping in line %d of %s: %s",
+                        i + 1,
+                        LABEL_MAPPINGS_PATH,
+                        e.getMessage()));
+            }
+        }
+        return rules;
+    }
+
+    private static @NotNull LabelMappingRule parseLabelMapping(final @NotNull String line) {
+        final var separator = line.indexOf('=');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected \"<pattern> = <name> [<label>=<value> ...]\"");
+        }
+        final var pattern = line.substring(0, separator).trim();
+        final var tokens = line.substring(separator + 1).trim().split("\\s+");
+        final var labels = new LinkedHashMap<String, String>();
+        for (int i = 1; i < tokens.length; i++) {
+            final var label = tokens[i];
+            final var index = label.indexOf('=');
+            if (index < 0) {
+                throw new IllegalArgumentException("Expected \"<label>=<value>\", but was \"" + label + "\"");
+            }
+            if (labels.put(label.substring(0, index), label.substring(index + 1)) != null) {
+                throw new IllegalArgumentException("The label \"" + label.substring(0, index) + "\" is duplicated");
+            }
+        }
+        return LabelMappingRule.of(pattern, tokens[0], labels);
+    }
+
     /**
      * In the ConfigFactory.create() it is not tested whether the entries make sense (here e.g. port holds an int)
      *
@@ -102,6 +198,97 @@ public class ConfigurationReader {
             error = true;
             sb.append(e.getMessage());
         }
+        // test cache max-age
+        try {
+            testCacheMaxAgeSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test compression
+        try {
+            testCompressionSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test HTTP server
+        try {
+            testHttpServerSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test HTTP thread pool
+        try {
+            testThreadPoolSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test metric filter
+        try {
+            testMetricFilterSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test histogram export
+        try {
+            testHistogramExportSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test render parallelism
+        try {
+            testRenderParallelismSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test pre-rendering
+        try {
+            testPrerenderSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test render deadline
+        try {
+            testRenderDeadlineSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test family series limit
+        try {
+            testFamilySeriesLimitSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test remote write
+        try {
+            testRemoteWriteSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test OTLP export
+        try {
+            testOtlpSense(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
+        // test additional endpoints
+        try {
+            endpoints(config);
+        } catch (final InvalidConfigurationException e) {
+            error = true;
+            sb.append(e.getMessage());
+        }
         if (error) {
             throw new InvalidConfigurationException("Error while parsing and testing the configuration: " + sb);
         }
@@ -151,6 +338,478 @@ public class ConfigurationReader {
         }
     }
 
+    private void testCacheMaxAgeSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.cacheMaxAgeMillis();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid cache_max_age_ms configuration");
+        }
+        final var cacheMaxAge = config.cacheMaxAgeMillis();
+        if (cacheMaxAge < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The cache_max_age_ms must not be negative, but was %d", cacheMaxAge));
+        }
+    }
+
+    private void testCompressionSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.gzipCompressionLevel();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid gzip_compression_level configuration");
+        }
+        try {
+            config.zstdCompressionEnabled();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid zstd_compression_enabled configuration");
+        }
+        final var level = config.gzipCompressionLevel();
+        if (level < MIN_GZIP_COMPRESSION_LEVEL || level > MAX_GZIP_COMPRESSION_LEVEL) {
+            throw new InvalidConfigurationException(String.format(
+                    "The gzip_compression_level must be between %d and %d, but was %d",
+                    MIN_GZIP_COMPRESSION_LEVEL,
+                    MAX_GZIP_COMPRESSION_LEVEL,
+                    level));
+        }
+    }
+
+    private void testHttpServerSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.httpServer();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid http_server configuration");
+        }
+        try {
+            config.virtualThreadsEnabled();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid virtual_threads_enabled configuration");
+        }
+        final var httpServer = config.httpServer();
+        if (!PrometheusExtensionConfiguration.HTTP_SERVER_JDK.equals(httpServer) &&
+                !PrometheusExtensionConfiguration.HTTP_SERVER_NIO.equals(httpServer)) {
+            throw new InvalidConfigurationException(String.format(
+                    "The http_server must be \"%s\" or \"%s\", but was \"%s\"",
+                    PrometheusExtensionConfiguration.HTTP_SERVER_JDK,
+                    PrometheusExtensionConfiguration.HTTP_SERVER_NIO,
+                    httpServer));
+        }
+    }
+
+    private void testThreadPoolSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.httpThreadsMin();
+            config.httpThreadsMax();
+            config.httpThreadKeepAliveMillis();
+            config.httpBacklog();
+            config.httpQueueCapacity();
+            config.httpOverloadPolicy();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid HTTP thread pool configuration");
+        }
+        final var minThreads = config.httpThreadsMin();
+        final var maxThreads = config.httpThreadsMax();
+        if (minThreads < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The http_threads_min must not be negative, but was %d", minThreads));
+        }
+        if (maxThreads < 1) {
+            throw new InvalidConfigurationException(
+                    String.format("The http_threads_max must be positive, but was %d", maxThreads));
+        }
+        if (minThreads > maxThreads) {
+            throw new InvalidConfigurationException(String.format(
+                    "The http_threads_min must not be greater than http_threads_max (%d), but was %d",
+                    maxThreads,
+                    minThreads));
+        }
+        final var keepAlive = config.httpThreadKeepAliveMillis();
+        if (keepAlive < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The http_thread_keep_alive_ms must not be negative, but was %d", keepAlive));
+        }
+        final var backlog = config.httpBacklog();
+        if (backlog < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The http_backlog must not be negative, but was %d", backlog));
+        }
+        final var queueCapacity = config.httpQueueCapacity();
+        if (queueCapacity < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The http_queue_capacity must not be negative, but was %d", queueCapacity));
+        }
+        final var overloadPolicy = config.httpOverloadPolicy();
+        if (!PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_BLOCK.equals(overloadPolicy) &&
+                !PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_SHED.equals(overloadPolicy)) {
+            throw new InvalidConfigurationException(String.format(
+                    "The http_overload_policy must be \"%s\" or \"%s\", but was \"%s\"",
+                    PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_BLOCK,
+                    PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_SHED,
+                    overloadPolicy));
+        }
+    }
+
+    private void testMetricFilterSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.metricInclude();
+            config.metricExclude();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid metric filter configuration");
+        }
+        testMetricPatterns(PrometheusExtensionConfiguration.METRIC_INCLUDE_KEY, config.metricInclude());
+        testMetricPatterns(PrometheusExtensionConfiguration.METRIC_EXCLUDE_KEY, config.metricExclude());
+    }
+
+    private static void testMetricPatterns(final @NotNull String key, final @NotNull String value)
+            throws InvalidConfigurationException {
+        final var prefix = PrometheusExtensionConfiguration.METRIC_PATTERN_REGEX_PREFIX;
+        for (final var pattern : metricPatterns(value)) {
+            if (pattern.startsWith(prefix)) {
+                try {
+                    Pattern.compile(pattern.substring(prefix.length()));
+                } catch (final PatternSyntaxException e) {
+                    throw new InvalidConfigurationException(String.format(
+                            "The %s contains the invalid regex \"%s\": %s",
+                            key,
+                            pattern,
+                            e.getDescription()));
+                }
+            }
+        }
+    }
+
+    private void testHistogramExportSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.histogramExport();
+            config.histogramBuckets();
+            config.timerBuckets();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid histogram export configuration");
+        }
+        final var histogramExport = config.histogramExport();
+        if (!PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_SUMMARY.equals(histogramExport) &&
+                !PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_HISTOGRAM.equals(histogramExport)) {
+            throw new InvalidConfigurationException(String.format(
+                    "The histogram_export must be \"%s\" or \"%s\", but was \"%s\"",
+                    PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_SUMMARY,
+                    PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_HISTOGRAM,
+                    histogramExport));
+        }
+        testBuckets(PrometheusExtensionConfiguration.HISTOGRAM_BUCKETS_KEY, config.histogramBuckets());
+        testBuckets(PrometheusExtensionConfiguration.TIMER_BUCKETS_KEY, config.timerBuckets());
+    }
+
+    private void testRenderParallelismSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.renderParallelism();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid render_parallelism configuration");
+        }
+        final var renderParallelism = config.renderParallelism();
+        if (renderParallelism < 1) {
+            throw new InvalidConfigurationException(
+                    String.format("The render_parallelism must be positive, but was %d", renderParallelism));
+        }
+    }
+
+    private void testPrerenderSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        try {
+            config.prerenderIntervalMillis();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid prerender_interval_ms configuration");
+        }
+        try {
+            config.prerenderJitterMillis();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid prerender_jitter_ms configuration");
+        }
+        final var interval = config.prerenderIntervalMillis();
+        if (interval < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The prerender_interval_ms must not be negative, but was %d", interval));
+        }
+        final var jitter = config.prerenderJitterMillis();
+        if (jitter < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The prerender_jitter_ms must not be negative, but was %d", jitter));
+        }
+        if (interval > 0 && jitter >= interval) {
+            throw new InvalidConfigurationException(String.format(
+                    "The prerender_jitter_ms (%d) must be less than the prerender_interval_ms (%d)",
+                    jitter,
+                    interval));
+        }
+    }
+
+    private void testRenderDeadlineSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        final long renderDeadline;
+        try {
+            renderDeadline = config.renderDeadlineMillis();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid render_deadline_ms configuration");
+        }
+        if (renderDeadline < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The render_deadline_ms must not be negative, but was %d", renderDeadline));
+        }
+    }
+
+    private void testFamilySeriesLimitSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        final int familySeriesLimit;
+        try {
+            familySeriesLimit = config.familySeriesLimit();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid family_series_limit configuration");
+        }
+        if (familySeriesLimit < 0) {
+            throw new InvalidConfigurationException(
+                    String.format("The family_series_limit must not be negative, but was %d", familySeriesLimit));
+        }
+    }
+
+    private void testRemoteWriteSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        final var url = config.remoteWriteUrl().trim();
+        if (url.isEmpty()) {
+            return;
+        }
+        testHttpUrl(PrometheusExtensionConfiguration.REMOTE_WRITE_URL_KEY, url);
+        testPositive(PrometheusExtensionConfiguration.REMOTE_WRITE_INTERVAL_KEY, config::remoteWriteIntervalMillis);
+        testPositive(PrometheusExtensionConfiguration.REMOTE_WRITE_TIMEOUT_KEY, config::remoteWriteTimeoutMillis);
+        testPositive(PrometheusExtensionConfiguration.REMOTE_WRITE_MAX_SAMPLES_PER_SEND_KEY,
+                config::remoteWriteMaxSamplesPerSend);
+        testPositive(PrometheusExtensionConfiguration.REMOTE_WRITE_BUFFER_BYTES_KEY, config::remoteWriteBufferBytes);
+        testPositive(PrometheusExtensionConfiguration.REMOTE_WRITE_MIN_BACKOFF_KEY,
+                config::remoteWriteMinBackoffMillis);
+        testPositive(PrometheusExtensionConfiguration.REMOTE_WRITE_MAX_BACKOFF_KEY,
+                config::remoteWriteMaxBackoffMillis);
+        if (config.remoteWriteMaxBackoffMillis() < config.remoteWriteMinBackoffMillis()) {
+            throw new InvalidConfigurationException(String.format(
+                    "The remote_write_max_backoff_ms (%d) must not be less than the remote_write_min_backoff_ms (%d)",
+                    config.remoteWriteMaxBackoffMillis(),
+                    config.remoteWriteMinBackoffMillis()));
+        }
+        try {
+            config.remoteWriteBufferOffHeap();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid remote_write_buffer_off_heap configuration");
+        }
+        try {
+            remoteWriteLabels(config.remoteWriteLabels());
+        } catch (final IllegalArgumentException e) {
+            throw new InvalidConfigurationException("Invalid remote_write_labels configuration: " + e.getMessage());
+        }
+    }
+
+    private void testOtlpSense(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        final var url = config.otlpUrl().trim();
+        if (url.isEmpty()) {
+            return;
+        }
+        testHttpUrl(PrometheusExtensionConfiguration.OTLP_URL_KEY, url);
+        testPositive(PrometheusExtensionConfiguration.OTLP_INTERVAL_KEY, config::otlpIntervalMillis);
+        testPositive(PrometheusExtensionConfiguration.OTLP_TIMEOUT_KEY, config::otlpTimeoutMillis);
+        testPositive(PrometheusExtensionConfiguration.OTLP_MAX_DATA_POINTS_PER_SEND_KEY,
+                config::otlpMaxDataPointsPerSend);
+        testPositive(PrometheusExtensionConfiguration.OTLP_BUFFER_BYTES_KEY, config::otlpBufferBytes);
+        final var temporality = config.otlpTemporality();
+        if (!PrometheusExtensionConfiguration.OTLP_TEMPORALITY_CUMULATIVE.equals(temporality) &&
+                !PrometheusExtensionConfiguration.OTLP_TEMPORALITY_DELTA.equals(temporality)) {
+            throw new InvalidConfigurationException(String.format(
+                    "The otlp_temporality must be \"%s\" or \"%s\", but was \"%s\"",
+                    PrometheusExtensionConfiguration.OTLP_TEMPORALITY_CUMULATIVE,
+                    PrometheusExtensionConfiguration.OTLP_TEMPORALITY_DELTA,
+                    temporality));
+        }
+        try {
+            otlpResourceAttributes(config.otlpResourceAttributes());
+        } catch (final IllegalArgumentException e) {
+            throw new InvalidConfigurationException(
+                    "Invalid otlp_resource_attributes configuration: " + e.getMessage());
+        }
+    }
+
+    private static void testHttpUrl(final @NotNull String key, final @NotNull String url)
+            throws InvalidConfigurationException {
+        try {
+            final var uri = new URI(url);
+            if ((!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) || uri.getHost() == null) {
+                throw new URISyntaxException(url, "not an http or https URL");
+            }
+        } catch (final URISyntaxException e) {
+            throw new InvalidConfigurationException(
+                    String.format("The %s must be an http or https URL, but was \"%s\"", key, url));
+        }
+    }
+
+    private static void testPositive(final @NotNull String key, final @NotNull Supplier<Number> value)
+            throws InvalidConfigurationException {
+        final long number;
+        try {
+            number = value.get().longValue();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException(String.format("Invalid %s configuration", key));
+        }
+        if (number < 1) {
+            throw new InvalidConfigurationException(String.format("The %s must be positive, but was %d", key, number));
+        }
+    }
+
+    private static void testBuckets(final @NotNull String key, final @NotNull String value)
+            throws InvalidConfigurationException {
+        final List<Double> buckets;
+        try {
+            buckets = buckets(value);
+        } catch (final NumberFormatException e) {
+            throw new InvalidConfigurationException(
+                    String.format("The %s must only contain numbers, but was \"%s\"", key, value.trim()));
+        }
+        if (buckets.isEmpty()) {
+            throw new InvalidConfigurationException(String.format("The %s must not be empty", key));
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            if (!Double.isFinite(buckets.get(i)) || (i > 0 && buckets.get(i) <= buckets.get(i - 1))) {
+                throw new InvalidConfigurationException(String.format(
+                        "The %s must be finite and strictly ascending, but was \"%s\"",
+                        key,
+                        value.trim()));
+            }
+        }
+    }
+
+    /**
+     * Splits the value of {@code histogram_buckets} or {@code timer_buckets_seconds} into its whitespace separated
+     * upper bounds.
+     *
+     * @throws NumberFormatException thrown when an upper bound is not a number
+     */
+    public static @NotNull List<Double> buckets(final @NotNull String value) {
+        final var bounds = new ArrayList<Double>();
+        for (final var bound : metricPatterns(value)) {
+            bounds.add(Double.parseDouble(bound));
+        }
+        return bounds;
+    }
+
+    /**
+     * Splits the value of {@code remote_write_labels} into its whitespace separated {@code name=value} labels.
+     *
+     * @throws IllegalArgumentException thrown when a label is not of the form {@code name=value} or its name is not a
+     *                                  valid Prometheus label name
+     */
+    public static @NotNull Map<String, String> remoteWriteLabels(final @NotNull String value) {
+        final var labels = keyValues(value);
+        for (final var name : labels.keySet()) {
+            if (!LABEL_NAME.matcher(name).matches() || name.startsWith("__")) {
+                throw new IllegalArgumentException("invalid label name: " + name);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Splits the value of {@code otlp_resource_attributes} into its whitespace separated {@code key=value}
+     * attributes.
+     *
+     * @throws IllegalArgumentException thrown when an attribute is not of the form {@code key=value}
+     */
+    public static @NotNull Map<String, String> otlpResourceAttributes(final @NotNull String value) {
+        return keyValues(value);
+    }
+
+    private static @NotNull Map<String, String> keyValues(final @NotNull String value) {
+        final var keyValues = new LinkedHashMap<String, String>();
+        for (final var keyValue : metricPatterns(value)) {
+            final var index = keyValue.indexOf('=');
+            if (index < 1) {
+                throw new IllegalArgumentException("must be of the form name=value: " + keyValue);
+            }
+            keyValues.put(keyValue.substring(0, index), keyValue.substring(index + 1));
+        }
+        return keyValues;
+    }
+
+    /**
+     * Reads the additional endpoints that are listed in {@code endpoints}.
+     * <p>
+     * An endpoint must have a unique path that begins with a slash and differs from the {@code metric_path}. Its
+     * {@code cache_max_age_ms} defaults to the global one, its {@code metric_include} and {@code metric_exclude}
+     * default to empty, independent of the global metric filter.
+     *
+     * @throws InvalidConfigurationException thrown when an endpoint is incomplete or makes no sense
+     */
+    public static @NotNull List<EndpointConfiguration> endpoints(final @NotNull PrometheusExtensionConfiguration config)
+            throws InvalidConfigurationException {
+        final String names;
+        try {
+            names = config.endpoints();
+        } catch (final Exception e) {
+            throw new InvalidConfigurationException("Invalid endpoints configuration");
+        }
+        final var endpoints = new ArrayList<EndpointConfiguration>();
+        final var paths = new HashSet<String>();
+        paths.add(config.metricPath());
+        for (final var name : metricPatterns(names)) {
+            final var prefix = PrometheusExtensionConfiguration.ENDPOINT_KEY_PREFIX + name;
+            final var pathKey = prefix + PrometheusExtensionConfiguration.ENDPOINT_PATH_SUFFIX;
+            final var path = config.getProperty(pathKey);
+            if (path == null || !path.trim().startsWith("/")) {
+                throw new InvalidConfigurationException(
+                        String.format("The %s must begin with a slash, e.g. \"/metrics/%s\"", pathKey, name));
+            }
+            if (!paths.add(path.trim())) {
+                throw new InvalidConfigurationException(
+                        String.format("The %s \"%s\" is already served by another endpoint", pathKey, path.trim()));
+            }
+            final var cacheMaxAgeKey = prefix + PrometheusExtensionConfiguration.ENDPOINT_CACHE_MAX_AGE_SUFFIX;
+            final var cacheMaxAgeValue = config.getProperty(cacheMaxAgeKey);
+            final long cacheMaxAge;
+            try {
+                cacheMaxAge = cacheMaxAgeValue == null ?
+                        config.cacheMaxAgeMillis() :
+                        Long.parseLong(cacheMaxAgeValue.trim());
+            } catch (final NumberFormatException e) {
+                throw new InvalidConfigurationException(String.format("Invalid %s configuration", cacheMaxAgeKey));
+            }
+            if (cacheMaxAge < 0) {
+                throw new InvalidConfigurationException(
+                        String.format("The %s must not be negative, but was %d", cacheMaxAgeKey, cacheMaxAge));
+            }
+            final var includeKey = prefix + PrometheusExtensionConfiguration.ENDPOINT_METRIC_INCLUDE_SUFFIX;
+            final var include = config.getProperty(includeKey, "");
+            testMetricPatterns(includeKey, include);
+            final var excludeKey = prefix + PrometheusExtensionConfiguration.ENDPOINT_METRIC_EXCLUDE_SUFFIX;
+            final var exclude = config.getProperty(excludeKey, "");
+            testMetricPatterns(excludeKey, exclude);
+            endpoints.add(new EndpointConfiguration(name,
+                    path.trim(),
+                    cacheMaxAge,
+                    metricPatterns(include),
+                    metricPatterns(exclude)));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Splits the value of {@code metric_include} or {@code metric_exclude} into its whitespace separated patterns.
+     */
+    public static @NotNull List<String> metricPatterns(final @NotNull String value) {
+        final var trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return List.of();
+        }
+        return List.of(trimmed.split("\\s+"));
+    }
+
     private void testAllPropertiesDeclared(final @NotNull Properties properties) throws InvalidConfigurationException {
         boolean error = false;
         final var sb = new StringBuilder();
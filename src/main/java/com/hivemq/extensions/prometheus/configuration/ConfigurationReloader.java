@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.configuration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration files of a {@link ConfigurationReader} and reloads the configuration when they change.
+ * <p>
+ * The directories of the files are watched with a {@link WatchService} on a single daemon thread. Editors and
+ * deployment tools often write a file in several steps, so the configuration is only reloaded once the files haven't
+ * changed for a quiet period, and only if their content differs from the last applied configuration. If the files
+ * change while they are read, the configuration is not applied, but reloaded after the next quiet period. A reloaded
+ * configuration is validated like the initial one, an invalid configuration is logged and ignored, so the previous
+ * configuration stays applied until the files are fixed.
+ */
+public class ConfigurationReloader {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(ConfigurationReloader.class);
+
+    private static final long QUIET_PERIOD_MILLIS = 500;
+
+    private final @NotNull ConfigurationReader configurationReader;
+    private final @NotNull Listener listener;
+    private final @NotNull WatchService watchService;
+    private final @NotNull Thread thread;
+    /**
+     * The content of the files of the last applied configuration, only accessed by the thread of the reloader.
+     */
+    private byte @NotNull [] @Nullable [] appliedContent;
+
+    /**
+     * @param listener applies a reloaded configuration, which has already been validated
+     */
+    public ConfigurationReloader(
+            final @NotNull ConfigurationReader configurationReader,
+            final @NotNull Listener listener) throws IOException {
+        this.configurationReader = configurationReader;
+        this.listener = listener;
+        // the files are read before the watch service is opened, so it isn't leaked if they can't be read
+        appliedContent = readContent();
+        watchService = FileSystems.getDefault().newWatchService();
+        thread = new Thread(this::run, "prometheus-config-reloader");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts watching the configuration files.
+     *
+     * @throws IOException if a directory of the configuration files can't be watched
+     */
+    public void start() throws IOException {
+        final var directories = new LinkedHashSet<Path>();
+        for (final var file : configurationReader.files()) {
+            directories.add(file.toAbsolutePath().getParent());
+        }
+        try {
+            for (final var directory : directories) {
+                if (Files.isDirectory(directory)) {
+                    directory.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        thread.start();
+    }
+
+    public void stop() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            LOG.debug("Could not close the watch service of the configuration files", e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                var key = watchService.take();
+                // wait for the quiet period, so that a file that is written in several steps is reloaded once
+                while (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                reload();
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            // the reloader is stopped
+        }
+    }
+
+    private void reload() {
+        final byte[][] content;
+        try {
+            content = readContent();
+        } catch (final IOException e) {
+            LOG.warn("Could not read the changed configuration files: {}", e.getMessage());
+            return;
+        }
+        if (Arrays.deepEquals(content, appliedContent)) {
+            return;
+        }
+        try {
+            final var configuration = configurationReader.readConfiguration();
+            final var labelMappings = configurationReader.readLabelMappings();
+            // the files are read once more, so the applied content is exactly the one the configuration is read from
+            if (!isUnchanged(content)) {
+                // the write produced another watch event, the files are reloaded once they are quiet again
+                LOG.debug("The configuration files changed while they were read, reloading them again");
+                return;
+            }
+            listener.reload(configuration, labelMappings);
+            appliedContent = content;
+            LOG.info("Applied the changed configuration of the Prometheus Monitoring Extension");
+        } catch (final FileNotFoundException e) {
+            LOG.warn("The configuration file: {} could not be read, keeping the current configuration",
+                    e.getMessage());
+        } catch (final InvalidConfigurationException e) {
+            LOG.warn("The changed configuration is invalid, keeping the current configuration: {}", e.getMessage());
+        } catch (final Exception e) {
+            LOG.error("Could not apply the changed configuration, keeping the current configuration", e);
+        }
+    }
+
+    private boolean isUnchanged(final byte @NotNull [] @Nullable [] content) {
+        try {
+            return Arrays.deepEquals(readContent(), content);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the content of all configuration files, {@code null} for files that don't exist.
+     */
+    private byte @NotNull [] @Nullable [] readContent() throws IOException {
+        final List<Path> files = configurationReader.files();
+        final var content = new byte[files.size()][];
+        for (int i = 0; i < content.length; i++) {
+            try {
+                content[i] = Files.readAllBytes(files.get(i));
+            } catch (final NoSuchFileException e) {
+                content[i] = null;
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Applies a reloaded configuration.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * @throws Exception if the configuration can't be applied, the reloader then retries with the next change of
+         *                   the files
+         */
+        void reload(
+                @NotNull PrometheusExtensionConfiguration configuration,
+                @NotNull List<LabelMappingRule> labelMappings) throws Exception;
+    }
+}
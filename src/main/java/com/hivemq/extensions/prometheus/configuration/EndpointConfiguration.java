@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.configuration;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * An additional metrics endpoint that is served by the same HTTP server as the {@code metric_path}, with its own
+ * metric filter and cache max-age.
+ */
+public final class EndpointConfiguration {
+
+    private final @NotNull String name;
+    private final @NotNull String path;
+    private final long cacheMaxAgeMillis;
+    private final @NotNull List<String> includedMetrics;
+    private final @NotNull List<String> excludedMetrics;
+
+    EndpointConfiguration(
+            final @NotNull String name,
+            final @NotNull String path,
+            final long cacheMaxAgeMillis,
+            final @NotNull List<String> includedMetrics,
+            final @NotNull List<String> excludedMetrics) {
+        this.name = name;
+        this.path = path;
+        this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+        this.includedMetrics = includedMetrics;
+        this.excludedMetrics = excludedMetrics;
+    }
+
+    /**
+     * The name of the endpoint as listed in {@code endpoints}.
+     */
+    public @NotNull String name() {
+        return name;
+    }
+
+    public @NotNull String path() {
+        return path;
+    }
+
+    public long cacheMaxAgeMillis() {
+        return cacheMaxAgeMillis;
+    }
+
+    public @NotNull List<String> includedMetrics() {
+        return includedMetrics;
+    }
+
+    public @NotNull List<String> excludedMetrics() {
+        return excludedMetrics;
+    }
+}
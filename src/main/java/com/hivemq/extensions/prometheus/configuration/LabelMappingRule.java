@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.configuration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A rule that maps the Dropwizard names that match a pattern to a Prometheus family with labels.
+ * <p>
+ * The pattern consists of dot separated segments, a segment {@code *} matches exactly one segment of a name and
+ * captures it. The family name and the label values are templates, in which {@code $1}, {@code $2}, ... are replaced
+ * with the captured segments. For example, the rule
+ * {@code com.hivemq.messages.incoming.*.count = com.hivemq.messages.incoming.count type=$1} maps
+ * {@code com.hivemq.messages.incoming.publish.count} to {@code com_hivemq_messages_incoming_count{type="publish"}}.
+ */
+public final class LabelMappingRule {
+
+    private static final @NotNull Pattern LABEL_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    private final @NotNull String pattern;
+    private final @NotNull String name;
+    private final @NotNull Map<String, String> labels;
+    private final int captures;
+
+    private LabelMappingRule(
+            final @NotNull String pattern,
+            final @NotNull String name,
+            final @NotNull Map<String, String> labels,
+            final int captures) {
+        this.pattern = pattern;
+        this.name = name;
+        this.labels = labels;
+        this.captures = captures;
+    }
+
+    /**
+     * @param pattern the pattern of the Dropwizard names
+     * @param name    the template of the family name, which is sanitized like a Dropwizard name
+     * @param labels  the templates of the label values by label name, in the order in which they are exported
+     * @throws IllegalArgumentException if the pattern, a template or a label name is invalid
+     */
+    public static @NotNull LabelMappingRule of(
+            final @NotNull String pattern,
+            final @NotNull String name,
+            final @NotNull Map<String, String> labels) {
+        var captures = 0;
+        for (final var segment : pattern.split("\\.", -1)) {
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("The pattern \"" + pattern + "\" contains an empty segment");
+            }
+            if ("*".equals(segment)) {
+                captures++;
+            } else if (segment.indexOf('*') >= 0) {
+                throw new IllegalArgumentException(
+                        "The pattern \"" + pattern + "\" contains a '*' that is not a whole segment");
+            }
+        }
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("The name of the pattern \"" + pattern + "\" is empty");
+        }
+        testTemplate(pattern, name, captures);
+        for (final var label : labels.entrySet()) {
+            final var labelName = label.getKey();
+            if (!LABEL_NAME.matcher(labelName).matches() ||
+                    labelName.startsWith("__") ||
+                    "quantile".equals(labelName) ||
+                    "le".equals(labelName)) {
+                throw new IllegalArgumentException(
+                        "The label name \"" + labelName + "\" of the pattern \"" + pattern + "\" is invalid");
+            }
+            testTemplate(pattern, label.getValue(), captures);
+        }
+        return new LabelMappingRule(pattern,
+                name,
+                Collections.unmodifiableMap(new LinkedHashMap<>(labels)),
+                captures);
+    }
+
+    private static void testTemplate(
+            final @NotNull String pattern,
+            final @NotNull String template,
+            final int captures) {
+        for (int i = 0; i < template.length(); i++) {
+            if (template.charAt(i) != '$') {
+                continue;
+            }
+            var end = i + 1;
+            while (end < template.length() && Character.isDigit(template.charAt(end))) {
+                end++;
+            }
+            if (end == i + 1) {
+                throw new IllegalArgumentException(
+                        "The template \"" + template + "\" of the pattern \"" + pattern + "\" contains a '$' " +
+                                "that is not followed by the number of a captured segment");
+            }
+            final var capture = Integer.parseInt(template.substring(i + 1, end));
+            if (capture < 1 || capture > captures) {
+                throw new IllegalArgumentException(String.format(
+                        "The template \"%s\" refers to segment $%d, but the pattern \"%s\" captures %d segments",
+                        template,
+                        capture,
+                        pattern,
+                        captures));
+            }
+            i = end - 1;
+        }
+    }
+
+    public @NotNull String pattern() {
+        return pattern;
+    }
+
+    public @NotNull String name() {
+        return name;
+    }
+
+    public @NotNull Map<String, String> labels() {
+        return labels;
+    }
+
+    /**
+     * The number of segments that the pattern captures.
+     */
+    public int captures() {
+        return captures;
+    }
+
+    /**
+     * Rules are equal if they have the same pattern, name and labels in the same order, so they map all metrics to the
+     * same families and labels.
+     */
+    @Override
+    public boolean equals(final @Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LabelMappingRule)) {
+            return false;
+        }
+        final var that = (LabelMappingRule) o;
+        return pattern.equals(that.pattern) &&
+                name.equals(that.name) &&
+                List.copyOf(labels.entrySet()).equals(List.copyOf(that.labels.entrySet()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, name, labels);
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.hivemq.extensions.prometheus.configuration;
 
+import org.aeonbits.owner.Accessible;
 import org.aeonbits.owner.Config;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,11 +25,67 @@ import static org.aeonbits.owner.Config.DisableableFeature.PARAMETER_FORMATTING;
 import static org.aeonbits.owner.Config.DisableableFeature.VARIABLE_EXPANSION;
 
 @Config.DisableFeature({VARIABLE_EXPANSION, PARAMETER_FORMATTING})
-public interface PrometheusExtensionConfiguration extends Config {
+public interface PrometheusExtensionConfiguration extends Config, Accessible {
 
     @NotNull String METRIC_PATH_KEY = "metric_path";
     @NotNull String IP_KEY = "ip";
     @NotNull String PORT_KEY = "port";
+    @NotNull String CACHE_MAX_AGE_KEY = "cache_max_age_ms";
+    @NotNull String GZIP_COMPRESSION_LEVEL_KEY = "gzip_compression_level";
+    @NotNull String ZSTD_COMPRESSION_ENABLED_KEY = "zstd_compression_enabled";
+    @NotNull String HTTP_SERVER_KEY = "http_server";
+    @NotNull String HTTP_SERVER_JDK = "jdk";
+    @NotNull String HTTP_SERVER_NIO = "nio";
+    @NotNull String VIRTUAL_THREADS_ENABLED_KEY = "virtual_threads_enabled";
+    @NotNull String HTTP_THREADS_MIN_KEY = "http_threads_min";
+    @NotNull String HTTP_THREADS_MAX_KEY = "http_threads_max";
+    @NotNull String HTTP_THREAD_KEEP_ALIVE_KEY = "http_thread_keep_alive_ms";
+    @NotNull String HTTP_BACKLOG_KEY = "http_backlog";
+    @NotNull String HTTP_QUEUE_CAPACITY_KEY = "http_queue_capacity";
+    @NotNull String HTTP_OVERLOAD_POLICY_KEY = "http_overload_policy";
+    @NotNull String HTTP_OVERLOAD_POLICY_BLOCK = "block";
+    @NotNull String HTTP_OVERLOAD_POLICY_SHED = "shed";
+    @NotNull String METRIC_INCLUDE_KEY = "metric_include";
+    @NotNull String METRIC_EXCLUDE_KEY = "metric_exclude";
+    @NotNull String METRIC_PATTERN_REGEX_PREFIX = "regex:";
+    @NotNull String HISTOGRAM_EXPORT_KEY = "histogram_export";
+    @NotNull String HISTOGRAM_EXPORT_SUMMARY = "summary";
+    @NotNull String HISTOGRAM_EXPORT_HISTOGRAM = "histogram";
+    @NotNull String HISTOGRAM_BUCKETS_KEY = "histogram_buckets";
+    @NotNull String TIMER_BUCKETS_KEY = "timer_buckets_seconds";
+    @NotNull String RENDER_PARALLELISM_KEY = "render_parallelism";
+    @NotNull String PRERENDER_INTERVAL_KEY = "prerender_interval_ms";
+    @NotNull String PRERENDER_JITTER_KEY = "prerender_jitter_ms";
+    @NotNull String RENDER_DEADLINE_KEY = "render_deadline_ms";
+    @NotNull String FAMILY_SERIES_LIMIT_KEY = "family_series_limit";
+    @NotNull String REMOTE_WRITE_URL_KEY = "remote_write_url";
+    @NotNull String REMOTE_WRITE_INTERVAL_KEY = "remote_write_interval_ms";
+    @NotNull String REMOTE_WRITE_TIMEOUT_KEY = "remote_write_timeout_ms";
+    @NotNull String REMOTE_WRITE_LABELS_KEY = "remote_write_labels";
+    @NotNull String REMOTE_WRITE_MAX_SAMPLES_PER_SEND_KEY = "remote_write_max_samples_per_send";
+    @NotNull String REMOTE_WRITE_BUFFER_BYTES_KEY = "remote_write_buffer_bytes";
+    @NotNull String REMOTE_WRITE_BUFFER_OFF_HEAP_KEY = "remote_write_buffer_off_heap";
+    @NotNull String REMOTE_WRITE_MIN_BACKOFF_KEY = "remote_write_min_backoff_ms";
+    @NotNull String REMOTE_WRITE_MAX_BACKOFF_KEY = "remote_write_max_backoff_ms";
+    @NotNull String OTLP_URL_KEY = "otlp_url";
+    @NotNull String OTLP_INTERVAL_KEY = "otlp_interval_ms";
+    @NotNull String OTLP_TIMEOUT_KEY = "otlp_timeout_ms";
+    @NotNull String OTLP_TEMPORALITY_KEY = "otlp_temporality";
+    @NotNull String OTLP_TEMPORALITY_CUMULATIVE = "cumulative";
+    @NotNull String OTLP_TEMPORALITY_DELTA = "delta";
+    @NotNull String OTLP_RESOURCE_ATTRIBUTES_KEY = "otlp_resource_attributes";
+    @NotNull String OTLP_MAX_DATA_POINTS_PER_SEND_KEY = "otlp_max_data_points_per_send";
+    @NotNull String OTLP_BUFFER_BYTES_KEY = "otlp_buffer_bytes";
+    @NotNull String ENDPOINTS_KEY = "endpoints";
+    /**
+     * The prefix of the keys of an additional endpoint, followed by its name and one of the endpoint key suffixes,
+     * e.g. {@code endpoint.clients.path}.
+     */
+    @NotNull String ENDPOINT_KEY_PREFIX = "endpoint.";
+    @NotNull String ENDPOINT_PATH_SUFFIX = ".path";
+    @NotNull String ENDPOINT_CACHE_MAX_AGE_SUFFIX = "." + CACHE_MAX_AGE_KEY;
+    @NotNull String ENDPOINT_METRIC_INCLUDE_SUFFIX = "." + METRIC_INCLUDE_KEY;
+    @NotNull String ENDPOINT_METRIC_EXCLUDE_SUFFIX = "." + METRIC_EXCLUDE_KEY;
 
     @Key(PORT_KEY)
     int port();
@@ -38,4 +95,190 @@ public interface PrometheusExtensionConfiguration extends Config {
 
     @Key(METRIC_PATH_KEY)
     @Nullable String metricPath();
+
+    @Key(CACHE_MAX_AGE_KEY)
+    @DefaultValue("1000")
+    long cacheMaxAgeMillis();
+
+    @Key(GZIP_COMPRESSION_LEVEL_KEY)
+    @DefaultValue("6")
+    int gzipCompressionLevel();
+
+    @Key(ZSTD_COMPRESSION_ENABLED_KEY)
+    @DefaultValue("false")
+    boolean zstdCompressionEnabled();
+
+    @Key(HTTP_SERVER_KEY)
+    @DefaultValue(HTTP_SERVER_JDK)
+    @NotNull String httpServer();
+
+    @Key(VIRTUAL_THREADS_ENABLED_KEY)
+    @DefaultValue("false")
+    boolean virtualThreadsEnabled();
+
+    @Key(HTTP_THREADS_MIN_KEY)
+    @DefaultValue("1")
+    int httpThreadsMin();
+
+    @Key(HTTP_THREADS_MAX_KEY)
+    @DefaultValue("10")
+    int httpThreadsMax();
+
+    @Key(HTTP_THREAD_KEEP_ALIVE_KEY)
+    @DefaultValue("120000")
+    long httpThreadKeepAliveMillis();
+
+    @Key(HTTP_BACKLOG_KEY)
+    @DefaultValue("3")
+    int httpBacklog();
+
+    @Key(HTTP_QUEUE_CAPACITY_KEY)
+    @DefaultValue("0")
+    int httpQueueCapacity();
+
+    @Key(HTTP_OVERLOAD_POLICY_KEY)
+    @DefaultValue(HTTP_OVERLOAD_POLICY_BLOCK)
+    @NotNull String httpOverloadPolicy();
+
+    @Key(METRIC_INCLUDE_KEY)
+    @DefaultValue("")
+    @NotNull String metricInclude();
+
+    @Key(METRIC_EXCLUDE_KEY)
+    @DefaultValue("")
+    @NotNull String metricExclude();
+
+    @Key(HISTOGRAM_EXPORT_KEY)
+    @DefaultValue(HISTOGRAM_EXPORT_SUMMARY)
+    @NotNull String histogramExport();
+
+    /**
+     * The whitespace separated, strictly ascending upper bounds of the buckets of Histograms, if they are exported as
+     * Prometheus histograms.
+     */
+    @Key(HISTOGRAM_BUCKETS_KEY)
+    @DefaultValue("1 4 16 64 256 1024 4096 16384 65536 262144 1048576")
+    @NotNull String histogramBuckets();
+
+    /**
+     * The whitespace separated, strictly ascending upper bounds in seconds of the buckets of Timers, if they are
+     * exported as Prometheus histograms.
+     */
+    @Key(TIMER_BUCKETS_KEY)
+    @DefaultValue("0.0005 0.001 0.0025 0.005 0.01 0.025 0.05 0.1 0.25 0.5 1 2.5 5 10")
+    @NotNull String timerBuckets();
+
+    @Key(RENDER_PARALLELISM_KEY)
+    @DefaultValue("1")
+    int renderParallelism();
+
+    @Key(PRERENDER_INTERVAL_KEY)
+    @DefaultValue("0")
+    long prerenderIntervalMillis();
+
+    @Key(PRERENDER_JITTER_KEY)
+    @DefaultValue("0")
+    long prerenderJitterMillis();
+
+    /**
+     * The maximum time in milliseconds a scrape waits for a render before it is served with the last complete
+     * snapshot, 0 to always wait.
+     */
+    @Key(RENDER_DEADLINE_KEY)
+    @DefaultValue("0")
+    long renderDeadlineMillis();
+
+    /**
+     * The maximum number of exported series per metric family, 0 for no limit.
+     */
+    @Key(FAMILY_SERIES_LIMIT_KEY)
+    @DefaultValue("0")
+    int familySeriesLimit();
+
+    /**
+     * The URL of the Prometheus remote write receiver the metrics are pushed to, empty to disable pushing.
+     */
+    @Key(REMOTE_WRITE_URL_KEY)
+    @DefaultValue("")
+    @NotNull String remoteWriteUrl();
+
+    @Key(REMOTE_WRITE_INTERVAL_KEY)
+    @DefaultValue("15000")
+    long remoteWriteIntervalMillis();
+
+    @Key(REMOTE_WRITE_TIMEOUT_KEY)
+    @DefaultValue("30000")
+    long remoteWriteTimeoutMillis();
+
+    /**
+     * The whitespace separated {@code name=value} labels that are added to all pushed series.
+     */
+    @Key(REMOTE_WRITE_LABELS_KEY)
+    @DefaultValue("")
+    @NotNull String remoteWriteLabels();
+
+    @Key(REMOTE_WRITE_MAX_SAMPLES_PER_SEND_KEY)
+    @DefaultValue("2000")
+    int remoteWriteMaxSamplesPerSend();
+
+    @Key(REMOTE_WRITE_BUFFER_BYTES_KEY)
+    @DefaultValue("16777216")
+    long remoteWriteBufferBytes();
+
+    @Key(REMOTE_WRITE_BUFFER_OFF_HEAP_KEY)
+    @DefaultValue("false")
+    boolean remoteWriteBufferOffHeap();
+
+    @Key(REMOTE_WRITE_MIN_BACKOFF_KEY)
+    @DefaultValue("500")
+    long remoteWriteMinBackoffMillis();
+
+    @Key(REMOTE_WRITE_MAX_BACKOFF_KEY)
+    @DefaultValue("30000")
+    long remoteWriteMaxBackoffMillis();
+
+    /**
+     * The URL of the OTLP/HTTP receiver the metrics are exported to, empty to disable the export.
+     */
+    @Key(OTLP_URL_KEY)
+    @DefaultValue("")
+    @NotNull String otlpUrl();
+
+    @Key(OTLP_INTERVAL_KEY)
+    @DefaultValue("60000")
+    long otlpIntervalMillis();
+
+    @Key(OTLP_TIMEOUT_KEY)
+    @DefaultValue("10000")
+    long otlpTimeoutMillis();
+
+    /**
+     * The aggregation temporality of the exported sums and histograms, {@link #OTLP_TEMPORALITY_CUMULATIVE} or
+     * {@link #OTLP_TEMPORALITY_DELTA}.
+     */
+    @Key(OTLP_TEMPORALITY_KEY)
+    @DefaultValue(OTLP_TEMPORALITY_CUMULATIVE)
+    @NotNull String otlpTemporality();
+
+    /**
+     * The whitespace separated {@code key=value} attributes of the resource that all exported metrics belong to.
+     */
+    @Key(OTLP_RESOURCE_ATTRIBUTES_KEY)
+    @DefaultValue("service.name=hivemq")
+    @NotNull String otlpResourceAttributes();
+
+    @Key(OTLP_MAX_DATA_POINTS_PER_SEND_KEY)
+    @DefaultValue("2000")
+    int otlpMaxDataPointsPerSend();
+
+    @Key(OTLP_BUFFER_BYTES_KEY)
+    @DefaultValue("16777216")
+    long otlpBufferBytes();
+
+    /**
+     * The whitespace separated names of the additional endpoints, see {@link #ENDPOINT_KEY_PREFIX}.
+     */
+    @Key(ENDPOINTS_KEY)
+    @DefaultValue("")
+    @NotNull String endpoints();
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the number of series and the size of the metric families of an endpoint, to find the families that bloat
+ * the scrapes, e.g. because a misbehaving client adds a metric per client.
+ * <p>
+ * The report is rendered as plain text that lists the heaviest families once by their number of series and once by
+ * their size, see {@link ExpositionRenderer#report(CardinalityReport)}.
+ */
+final class CardinalityReport {
+
+    static final @NotNull String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    private static final @NotNull Comparator<Entry> BY_SERIES =
+            Comparator.comparingInt((Entry entry) -> entry.series).reversed().thenComparing(entry -> entry.familyName);
+    private static final @NotNull Comparator<Entry> BY_BYTES =
+            Comparator.comparingLong((Entry entry) -> entry.bytes).reversed().thenComparing(entry -> entry.familyName);
+
+    private final @NotNull List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @param familyName      the name of the family
+     * @param series          the number of series of the family, including the truncated ones
+     * @param truncatedSeries the number of series that are not exported due to the series limit
+     * @param bytes           the size of the exported series of the family in the text format
+     */
+    void add(final @NotNull String familyName, final int series, final int truncatedSeries, final long bytes) {
+        entries.add(new Entry(familyName, series, truncatedSeries, bytes));
+    }
+
+    /**
+     * @param top the maximum number of families per list
+     */
+    byte @NotNull [] render(final int top) {
+        var series = 0L;
+        var truncatedSeries = 0L;
+        var truncatedFamilies = 0;
+        var bytes = 0L;
+        for (final var entry : entries) {
+            series += entry.series;
+            truncatedSeries += entry.truncatedSeries;
+            truncatedFamilies += entry.truncatedSeries > 0 ? 1 : 0;
+            bytes += entry.bytes;
+        }
+        final var text = new StringBuilder();
+        text.append("# families: ").append(entries.size()).append(", series: ").append(series).append(", bytes: ")
+                .append(bytes).append('\n');
+        text.append("# truncated families: ").append(truncatedFamilies).append(", truncated series: ")
+                .append(truncatedSeries).append('\n');
+        render(text, "# top " + top + " families by series", BY_SERIES, top);
+        render(text, "# top " + top + " families by bytes", BY_BYTES, top);
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void render(
+            final @NotNull StringBuilder text,
+            final @NotNull String title,
+            final @NotNull Comparator<Entry> order,
+            final int top) {
+        text.append('\n').append(title).append('\n').append("# series truncated bytes family\n");
+        entries.stream().sorted(order).limit(top).forEach(entry -> text.append(entry.series)
+                .append(' ')
+                .append(entry.truncatedSeries)
+                .append(' ')
+                .append(entry.bytes)
+                .append(' ')
+                .append(entry.familyName)
+                .append('\n'));
+    }
+
+    private static final class Entry {
+
+        private final @NotNull String familyName;
+        private final int series;
+        private final int truncatedSeries;
+        private final long bytes;
+
+        private Entry(final @NotNull String familyName, final int series, final int truncatedSeries, final long bytes) {
+            this.familyName = familyName;
+            this.series = series;
+            this.truncatedSeries = truncatedSeries;
+            this.bytes = bytes;
+        }
+    }
+}
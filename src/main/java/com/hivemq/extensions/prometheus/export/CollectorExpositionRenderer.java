@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Renders an arbitrary {@link Collector} with the {@link TextFormat} of the Prometheus simpleclient.
+ * <p>
+ * The simpleclient does not support the protobuf format, so the {@code MetricFamilySamples} are converted into
+ * {@code MetricFamily} messages here.
+ */
+class CollectorExpositionRenderer implements ExpositionRenderer {
+
+    private final @NotNull CollectorRegistry registry = new CollectorRegistry(true);
+
+    CollectorExpositionRenderer(final @NotNull Collector collector) {
+        registry.register(collector);
+    }
+
+    @Override
+    public void render(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) throws IOException {
+        final var families = Collections.list(sampleNameFilter == null ?
+                registry.metricFamilySamples() :
+                registry.filteredMetricFamilySamples(sampleNameFilter));
+        for (final var family : families) {
+            buffer.countFamily();
+            buffer.countSeries(family.samples.size());
+        }
+        if (format == ExpositionFormat.PROTOBUF) {
+            for (final var family : families) {
+                renderProtobuf(family, buffer);
+            }
+            return;
+        }
+        final var samples = Collections.enumeration(families);
+        final var writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        if (format == ExpositionFormat.OPENMETRICS_100) {
+            TextFormat.writeOpenMetrics100(writer, samples);
+            writer.flush();
+            // the terminator is written by the caller
+            if (buffer.endsWith(ExpositionFormat.EOF)) {
+                buffer.truncate(buffer.size() - ExpositionFormat.EOF.length);
+            }
+        } else {
+            TextFormat.write004(writer, samples);
+            writer.flush();
+        }
+    }
+
+    private static void renderProtobuf(
+            final @NotNull Collector.MetricFamilySamples family,
+            final @NotNull ExpositionBuffer buffer) {
+        switch (family.type) {
+            case SUMMARY:
+            case HISTOGRAM:
+            case GAUGE_HISTOGRAM:
+                renderProtobufDistribution(family, buffer);
+                break;
+            case COUNTER:
+            case GAUGE:
+                renderProtobufValues(family, family.name, family.type, buffer);
+                break;
+            case INFO:
+                // info and state set families have no protobuf counterpart, so their samples are exposed as untyped
+                renderProtobufValues(family, family.name + "_info", Collector.Type.UNKNOWN, buffer);
+                break;
+            default:
+                renderProtobufValues(family, family.name, Collector.Type.UNKNOWN, buffer);
+                break;
+        }
+    }
+
+    private static void renderProtobufValues(
+            final @NotNull Collector.MetricFamilySamples family,
+            final @NotNull String name,
+            final @NotNull Collector.Type type,
+            final @NotNull ExpositionBuffer buffer) {
+        final var format = ExpositionFormat.PROTOBUF;
+        final var position = format.beginFamily(buffer, format.familyHeader(name, type, family.help));
+        for (final var sample : family.samples) {
+            // the created timestamps of counters are only part of OpenMetrics
+            if (type == Collector.Type.COUNTER && sample.name.endsWith("_created")) {
+                continue;
+            }
+            format.writeSample(buffer,
+                    format.samplePrefix(type, sample.name, sample.labelNames, sample.labelValues),
+                    sample.value);
+        }
+        format.endFamily(buffer, position);
+    }
+
+    /**
+     * Renders a summary or histogram family, whose samples are combined into one {@code Metric} per label set.
+     */
+    private static void renderProtobufDistribution(
+            final @NotNull Collector.MetricFamilySamples family,
+            final @NotNull ExpositionBuffer buffer) {
+        final var summary = family.type == Collector.Type.SUMMARY;
+        final var pointLabel = summary ? "quantile" : "le";
+        final var distributions = new LinkedHashMap<List<List<String>>, Distribution>();
+        for (final var sample : family.samples) {
+            final var pointIndex = sample.labelNames.indexOf(pointLabel);
+            final var labelNames = new ArrayList<>(sample.labelNames);
+            final var labelValues = new ArrayList<>(sample.labelValues);
+            if (pointIndex >= 0) {
+                labelNames.remove(pointIndex);
+                labelValues.remove(pointIndex);
+            }
+            final var distribution = distributions.computeIfAbsent(List.of(labelNames, labelValues),
+                    key -> new Distribution(ProtobufEncoding.labels(labelNames, labelValues)));
+            final var suffix = sample.name.substring(Math.min(family.name.length(), sample.name.length()));
+            if ("_count".equals(suffix) || "_gcount".equals(suffix)) {
+                distribution.count = (long) sample.value;
+            } else if ("_sum".equals(suffix) || "_gsum".equals(suffix)) {
+                distribution.sum = sample.value;
+            } else if (pointIndex >= 0) {
+                final var point = sample.labelValues.get(pointIndex);
+                // the +Inf bucket is implied by the count
+                if (!"+Inf".equals(point)) {
+                    distribution.points.add(new double[]{Double.parseDouble(point), sample.value});
+                }
+            }
+        }
+        final var format = ExpositionFormat.PROTOBUF;
+        final var position = format.beginFamily(buffer, format.familyHeader(family.name, family.type, family.help));
+        for (final var distribution : distributions.values()) {
+            final var metric = buffer.beginMessage(ProtobufEncoding.FAMILY_METRIC);
+            buffer.write(distribution.labels);
+            if (summary) {
+                final var message = buffer.beginMessage(ProtobufEncoding.METRIC_SUMMARY);
+                buffer.writeVarintField(ProtobufEncoding.SUMMARY_SAMPLE_COUNT, distribution.count);
+                buffer.writeDoubleField(ProtobufEncoding.SUMMARY_SAMPLE_SUM, distribution.sum);
+                for (final var point : distribution.points) {
+                    final var quantile = buffer.beginMessage(ProtobufEncoding.SUMMARY_QUANTILE);
+                    buffer.writeDoubleField(ProtobufEncoding.QUANTILE_QUANTILE, point[0]);
+                    buffer.writeDoubleField(ProtobufEncoding.QUANTILE_VALUE, point[1]);
+                    buffer.endDelimited(quantile);
+                }
+                buffer.endDelimited(message);
+            } else {
+                final var message = buffer.beginMessage(ProtobufEncoding.METRIC_HISTOGRAM);
+                buffer.writeVarintField(ProtobufEncoding.HISTOGRAM_SAMPLE_COUNT, distribution.count);
+                buffer.writeDoubleField(ProtobufEncoding.HISTOGRAM_SAMPLE_SUM, distribution.sum);
+                for (final var point : distribution.points) {
+                    final var bucket = buffer.beginMessage(ProtobufEncoding.HISTOGRAM_BUCKET);
+                    buffer.writeVarintField(ProtobufEncoding.BUCKET_CUMULATIVE_COUNT, (long) point[1]);
+                    buffer.writeDoubleField(ProtobufEncoding.BUCKET_UPPER_BOUND, point[0]);
+                    buffer.endDelimited(bucket);
+                }
+                buffer.endDelimited(message);
+            }
+            buffer.endDelimited(metric);
+        }
+        format.endFamily(buffer, position);
+    }
+
+    /**
+     * The samples of a summary or histogram with the same labels.
+     */
+    private static final class Distribution {
+
+        private final byte @NotNull [] labels;
+        /**
+         * Pairs of quantile and value, or of upper bound and cumulative count.
+         */
+        private final @NotNull List<double[]> points = new ArrayList<>();
+        private long count;
+        private double sum;
+
+        Distribution(final byte @NotNull [] labels) {
+            this.labels = labels;
+        }
+    }
+}
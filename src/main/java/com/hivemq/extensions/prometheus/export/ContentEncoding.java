@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The content encodings in which a {@link ScrapeSnapshot} can be served.
+ */
+enum ContentEncoding {
+
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    ZSTD("zstd");
+
+    private final @NotNull String token;
+
+    ContentEncoding(final @NotNull String token) {
+        this.token = token;
+    }
+
+    @NotNull String token() {
+        return token;
+    }
+
+    /**
+     * Chooses the content encoding for the given {@code Accept-Encoding} request headers.
+     * <p>
+     * zstd is preferred over gzip if it is enabled and accepted, encodings with a quality value of zero are ignored.
+     *
+     * @param acceptEncodingHeaders the values of the {@code Accept-Encoding} headers, may be {@code null}
+     * @param zstdEnabled           whether zstd may be chosen at all
+     */
+    static @NotNull ContentEncoding negotiate(
+            final @Nullable List<String> acceptEncodingHeaders,
+            final boolean zstdEnabled) {
+        if (acceptEncodingHeaders == null) {
+            return IDENTITY;
+        }
+        var gzip = false;
+        for (final var header : acceptEncodingHeaders) {
+            for (final var element : header.split(",")) {
+                final var parameterIndex = element.indexOf(';');
+                final var coding = (parameterIndex < 0 ? element : element.substring(0, parameterIndex)).trim()
+                        .toLowerCase(Locale.ROOT);
+                if (parameterIndex >= 0 && isRejected(element.substring(parameterIndex + 1))) {
+                    continue;
+                }
+                if (zstdEnabled && ZSTD.token.equals(coding)) {
+                    return ZSTD;
+                }
+                if (GZIP.token.equals(coding)) {
+                    gzip = true;
+                }
+            }
+        }
+        return gzip ? GZIP : IDENTITY;
+    }
+
+    private static boolean isRejected(final @NotNull String parameters) {
+        for (final var parameter : parameters.split(";")) {
+            final var trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2)) <= 0;
+                } catch (final NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
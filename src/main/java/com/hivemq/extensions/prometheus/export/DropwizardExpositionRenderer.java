@@ -0,0 +1,499 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Renders a Dropwizard {@link MetricRegistry} directly into an {@link ExpositionBuffer}.
+ * <p>
+ * This replaces the {@code DropwizardExports} collector together with the {@code TextFormat} of the Prometheus
+ * simpleclient, which materialize a {@code MetricFamilySamples} with boxed label lists and {@code Sample} objects per
+ * metric on every scrape. Here the static parts of each metric are encoded once into a {@link MetricExposition}, so a
+ * render only reads the current values and copies bytes. The metrics that a {@link LabelMapper} maps to the same
+ * family are rendered as the series of a single family.
+ * <p>
+ * With a series limit, only the first metrics of a family whose samples fit into the limit are rendered, so a family
+ * to which a misbehaving client adds a metric per client doesn't bloat every scrape. The truncated families and series
+ * are counted in the buffer, and {@link #report(CardinalityReport)} lists the series and size of every family.
+ * <p>
+ * Histograms and Timers are rendered as summaries with the quantiles of their reservoir snapshot, or as Prometheus
+ * histograms if {@link HistogramBuckets} are given. The bucket counts of a histogram are updated incrementally by an
+ * {@link IncrementalHistogram} when the metric is rendered, so the reservoir isn't even read while the count doesn't
+ * change. Reservoir snapshots are taken through a {@link ReservoirSnapshotCache}, so they can be shared with the
+ * renders of other formats and endpoints.
+ * <p>
+ * With a render pool, the families of large registries are partitioned into contiguous shards that are rendered into
+ * their own buffers in parallel, while the rendering thread renders the first shard. The shards are concatenated in
+ * their order, so the exposition is the same as when rendered sequentially.
+ * <p>
+ * The expositions are maintained by a {@link MetricExpositionCache} that listens to the registry until the renderer is
+ * {@link #close() closed}.
+ */
+class DropwizardExpositionRenderer implements ExpositionRenderer {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(DropwizardExpositionRenderer.class);
+
+    private static final double NANOS_TO_SECONDS = 1.0D / TimeUnit.SECONDS.toNanos(1L);
+    private static final double @NotNull [] QUANTILE_VALUES =
+            MetricExposition.QUANTILES.stream().mapToDouble(Double::parseDouble).toArray();
+
+    /**
+     * The minimal number of families per shard, smaller registries are rendered sequentially, as the coordination of
+     * the shards would outweigh the gain.
+     */
+    static final int MIN_FAMILIES_PER_SHARD = 256;
+    /**
+     * The number of shards per thread of the render pool, so shards with larger families are balanced by work
+     * stealing.
+     */
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final @NotNull FamilyExposition @NotNull [] NO_FAMILIES = new FamilyExposition[0];
+
+    private final @NotNull MetricRegistry metricRegistry;
+    private final @NotNull MetricExpositionCache cache;
+    private final @Nullable ForkJoinPool renderPool;
+    /**
+     * The buffers of rendered shards, which are reused by the next parallel renders.
+     */
+    private final @NotNull Queue<ExpositionBuffer> spareBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param metricFilter     decides by the Dropwizard name whether a metric is exported, evaluated once per metric
+     *                         when it is registered
+     * @param labelMapper      maps the Dropwizard name of a metric to its family name and labels, evaluated once per
+     *                         metric when it is registered
+     * @param histogramBuckets the buckets to export Histograms as Prometheus histograms, or {@code null} to export them
+     *                         as summaries
+     * @param timerBuckets     the buckets in seconds to export Timers as Prometheus histograms, or {@code null} to
+     *                         export them as summaries
+     * @param snapshotCache    the cache through which the reservoir snapshots of Histograms and Timers are taken, to
+     *                         share them with the renders of other formats and endpoints
+     * @param histograms       the store of the bucket counts of Histograms and Timers exported as Prometheus
+     *                         histograms, to share them with other endpoints and exporters
+     * @param renderPool       the pool that renders the shards of large registries in parallel, or {@code null} to
+     *                         render sequentially
+     * @param seriesLimit      the maximum number of rendered series per family, or {@code 0} for no limit
+     */
+    DropwizardExpositionRenderer(
+            final @NotNull MetricRegistry metricRegistry,
+            final @NotNull Predicate<String> metricFilter,
+            final @NotNull LabelMapper labelMapper,
+            final @Nullable HistogramBuckets histogramBuckets,
+            final @Nullable HistogramBuckets timerBuckets,
+            final @NotNull ReservoirSnapshotCache snapshotCache,
+            final @NotNull IncrementalHistograms histograms,
+            final @Nullable ForkJoinPool renderPool,
+            final int seriesLimit) {
+        this.metricRegistry = metricRegistry;
+        this.renderPool = renderPool;
+        cache = new MetricExpositionCache(metricFilter,
+                labelMapper,
+                histogramBuckets,
+                timerBuckets,
+                snapshotCache,
+                histograms,
+                seriesLimit);
+        // the listener is notified about all metrics that are already registered
+        metricRegistry.addListener(cache);
+    }
+
+    @Override
+    public void render(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        if (renderPool != null) {
+            renderParallel(renderPool, format, sampleNameFilter, buffer);
+            return;
+        }
+        for (final var family : cache.families()) {
+            render(family, format, sampleNameFilter, buffer);
+        }
+    }
+
+    private void renderParallel(
+            final @NotNull ForkJoinPool renderPool,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        final var families = cache.families().toArray(NO_FAMILIES);
+        final var shards =
+                Math.min(renderPool.getParallelism() * SHARDS_PER_THREAD, families.length / MIN_FAMILIES_PER_SHARD);
+        if (shards < 2) {
+            render(families, 0, families.length, format, sampleNameFilter, buffer);
+            return;
+        }
+        final var tasks = new ArrayList<ForkJoinTask<ExpositionBuffer>>(shards - 1);
+        // the families from this index on are rendered on the calling thread after the submitted shards
+        var unsubmitted = families.length;
+        for (int shard = 1; shard < shards; shard++) {
+            final var from = families.length * shard / shards;
+            final var to = families.length * (shard + 1) / shards;
+            try {
+                tasks.add(renderPool.submit(() -> {
+                    var shardBuffer = spareBuffers.poll();
+                    if (shardBuffer == null) {
+                        shardBuffer = new ExpositionBuffer(MetricsEndpoint.INITIAL_BUFFER_CAPACITY);
+                    }
+                    render(families, from, to, format, sampleNameFilter, shardBuffer);
+                    return shardBuffer;
+                }));
+            } catch (final RejectedExecutionException e) {
+                // the pool has been shut down, because the server has been reconfigured or stopped meanwhile
+                unsubmitted = from;
+                break;
+            }
+        }
+        render(families, 0, families.length / shards, format, sampleNameFilter, buffer);
+        for (final var task : tasks) {
+            final var shardBuffer = task.join();
+            buffer.append(shardBuffer);
+            shardBuffer.reset();
+            spareBuffers.offer(shardBuffer);
+        }
+        render(families, unsubmitted, families.length, format, sampleNameFilter, buffer);
+    }
+
+    private static void render(
+            final @NotNull FamilyExposition @NotNull [] families,
+            final int from,
+            final int to,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        for (int i = from; i < to; i++) {
+            render(families[i], format, sampleNameFilter, buffer);
+        }
+    }
+
+    private static void render(
+            final @NotNull FamilyExposition family,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        final var members = family.exported();
+        if (members.length > 0) {
+            render(members, format, sampleNameFilter, buffer);
+        }
+        final var truncated = family.truncated();
+        if (truncated > 0) {
+            buffer.countTruncated(truncated);
+        }
+    }
+
+    /**
+     * Adds every family with its number of series and the size of its exported series in the text format, which
+     * renders all families once more.
+     */
+    @Override
+    public void report(final @NotNull CardinalityReport report) {
+        final var buffer = new ExpositionBuffer(MetricsEndpoint.INITIAL_BUFFER_CAPACITY);
+        for (final var family : cache.families()) {
+            final var members = family.exported();
+            if (members.length > 0) {
+                render(members, ExpositionFormat.TEXT_004, null, buffer);
+            }
+            report.add(family.familyName(), family.series(), family.truncated(), buffer.size());
+            buffer.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        metricRegistry.removeListener(cache);
+    }
+
+    /**
+     * Renders the members of a family, which all have the same kind and sample names.
+     */
+    private static void render(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        final var first = members[0];
+        if (sampleNameFilter != null && !acceptsAny(first, sampleNameFilter)) {
+            return;
+        }
+        switch (first.kind()) {
+            case GAUGE:
+                renderGauges(members, format, buffer);
+                break;
+            case COUNTER:
+            case METER:
+                renderCounts(members, format, buffer);
+                break;
+            case HISTOGRAM:
+            case TIMER:
+                if (first.histogram() != null) {
+                    if (format == ExpositionFormat.PROTOBUF) {
+                        renderProtobufHistograms(members, buffer);
+                    } else {
+                        renderHistograms(members, format, sampleNameFilter, buffer);
+                    }
+                } else if (format == ExpositionFormat.PROTOBUF) {
+                    renderProtobufSummaries(members, buffer);
+                } else {
+                    renderSummaries(members, format, sampleNameFilter, buffer);
+                }
+                break;
+        }
+    }
+
+    private static void renderCounts(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionFormat format,
+            final @NotNull ExpositionBuffer buffer) {
+        final var family = format.beginFamily(buffer, members[0].header(format));
+        for (final var exposition : members) {
+            final var metric = exposition.metric();
+            final var count = exposition.kind() == MetricExposition.Kind.METER ?
+                    ((Meter) metric).getCount() :
+                    ((Counter) metric).getCount();
+            format.writeSample(buffer, exposition.samplePrefix(format, 0), count);
+        }
+        format.endFamily(buffer, family);
+        buffer.countFamily();
+        buffer.countSeries(members.length);
+    }
+
+    private static void renderGauges(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionFormat format,
+            final @NotNull ExpositionBuffer buffer) {
+        // the family is only started by the first gauge with a valid value
+        var family = -1;
+        var series = 0;
+        for (final var exposition : members) {
+            final var value = ((Gauge<?>) exposition.metric()).getValue();
+            if (!(value instanceof Number) && !(value instanceof Boolean)) {
+                LOG.trace("Invalid type for Gauge {}: {}",
+                        exposition.dropwizardName(),
+                        value == null ? "null" : value.getClass().getName());
+                continue;
+            }
+            if (family < 0) {
+                family = format.beginFamily(buffer, members[0].header(format));
+            }
+            // most gauges rarely change, so their formatted values are reused
+            final var prefix = exposition.samplePrefix(format, 0);
+            final var values = exposition.formattedValues();
+            if (value instanceof Long || value instanceof Integer) {
+                format.writeSample(buffer, prefix, (double) ((Number) value).longValue(), values, 0);
+            } else if (value instanceof Number) {
+                format.writeSample(buffer, prefix, ((Number) value).doubleValue(), values, 0);
+            } else {
+                format.writeSample(buffer, prefix, (Boolean) value ? 1.0 : 0.0, values, 0);
+            }
+            series++;
+        }
+        if (family >= 0) {
+            format.endFamily(buffer, family);
+            buffer.countFamily();
+            buffer.countSeries(series);
+        }
+    }
+
+    private static void renderSummaries(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        buffer.write(members[0].header(format));
+        buffer.countFamily();
+        final var countIndex = MetricExposition.QUANTILES.size();
+        final var quantiles = sampleNameFilter == null || sampleNameFilter.test(members[0].sampleName(0));
+        final var count = sampleNameFilter == null || sampleNameFilter.test(members[0].sampleName(countIndex));
+        for (final var exposition : members) {
+            final var factor = factor(exposition);
+            if (quantiles) {
+                final var snapshot = exposition.snapshot();
+                writeQuantileSample(exposition, 0, snapshot.getMedian() * factor, format, buffer);
+                writeQuantileSample(exposition, 1, snapshot.get75thPercentile() * factor, format, buffer);
+                writeQuantileSample(exposition, 2, snapshot.get95thPercentile() * factor, format, buffer);
+                writeQuantileSample(exposition, 3, snapshot.get98thPercentile() * factor, format, buffer);
+                writeQuantileSample(exposition, 4, snapshot.get99thPercentile() * factor, format, buffer);
+                writeQuantileSample(exposition, 5, snapshot.get999thPercentile() * factor, format, buffer);
+                buffer.countSeries(MetricExposition.QUANTILES.size());
+            }
+            if (count) {
+                format.writeSample(buffer, exposition.samplePrefix(format, countIndex), count(exposition));
+                buffer.countSeries(1);
+            }
+        }
+    }
+
+    /**
+     * Renders the summaries of a family as one protobuf {@code Metric} each, which always contains the quantiles and
+     * the count.
+     */
+    private static void renderProtobufSummaries(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionBuffer buffer) {
+        final var format = ExpositionFormat.PROTOBUF;
+        final var family = format.beginFamily(buffer, members[0].header(format));
+        for (final var exposition : members) {
+            final var snapshot = exposition.snapshot();
+            final var factor = factor(exposition);
+            final var metric = buffer.beginMessage(ProtobufEncoding.FAMILY_METRIC);
+            // the labels of the metric, the quantiles are part of the summary
+            buffer.write(exposition.samplePrefix(format, MetricExposition.QUANTILES.size()));
+            final var summary = buffer.beginMessage(ProtobufEncoding.METRIC_SUMMARY);
+            buffer.writeVarintField(ProtobufEncoding.SUMMARY_SAMPLE_COUNT, count(exposition));
+            writeQuantile(0, snapshot.getMedian() * factor, buffer);
+            writeQuantile(1, snapshot.get75thPercentile() * factor, buffer);
+            writeQuantile(2, snapshot.get95thPercentile() * factor, buffer);
+            writeQuantile(3, snapshot.get98thPercentile() * factor, buffer);
+            writeQuantile(4, snapshot.get99thPercentile() * factor, buffer);
+            writeQuantile(5, snapshot.get999thPercentile() * factor, buffer);
+            buffer.endDelimited(summary);
+            buffer.endDelimited(metric);
+        }
+        format.endFamily(buffer, family);
+        buffer.countFamily();
+        buffer.countSeries(members.length * (MetricExposition.QUANTILES.size() + 1));
+    }
+
+    private static void renderHistograms(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        buffer.write(members[0].header(format));
+        buffer.countFamily();
+        final var bucketCount = Objects.requireNonNull(members[0].histogram()).buckets().size();
+        final var buckets = sampleNameFilter == null || sampleNameFilter.test(members[0].sampleName(0));
+        final var count = sampleNameFilter == null || sampleNameFilter.test(members[0].sampleName(bucketCount));
+        final var sum = sampleNameFilter == null || sampleNameFilter.test(members[0].sampleName(bucketCount + 1));
+        for (final var exposition : members) {
+            final var histogram = Objects.requireNonNull(exposition.histogram());
+            synchronized (histogram) {
+                histogram.update(count(exposition), exposition.sampling());
+                if (buckets) {
+                    for (int i = 0; i < bucketCount; i++) {
+                        format.writeSample(buffer, exposition.samplePrefix(format, i), histogram.cumulativeCount(i));
+                    }
+                    buffer.countSeries(bucketCount);
+                }
+                if (count) {
+                    format.writeSample(buffer, exposition.samplePrefix(format, bucketCount), histogram.count());
+                    buffer.countSeries(1);
+                }
+                if (sum) {
+                    format.writeSample(buffer,
+                            exposition.samplePrefix(format, bucketCount + 1),
+                            histogram.sum(),
+                            exposition.formattedValues(),
+                            bucketCount + 1);
+                    buffer.countSeries(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the histograms of a family as one protobuf {@code Metric} each, which always contains the buckets, count
+     * and sum. The {@code +Inf} bucket is omitted, as it is implied by the count.
+     */
+    private static void renderProtobufHistograms(
+            final @NotNull MetricExposition @NotNull [] members,
+            final @NotNull ExpositionBuffer buffer) {
+        final var format = ExpositionFormat.PROTOBUF;
+        final var family = format.beginFamily(buffer, members[0].header(format));
+        final var buckets = Objects.requireNonNull(members[0].histogram()).buckets();
+        for (final var exposition : members) {
+            final var histogram = Objects.requireNonNull(exposition.histogram());
+            final var metric = buffer.beginMessage(ProtobufEncoding.FAMILY_METRIC);
+            // the labels of the metric, the buckets are part of the histogram
+            buffer.write(exposition.samplePrefix(format, buckets.size()));
+            final var message = buffer.beginMessage(ProtobufEncoding.METRIC_HISTOGRAM);
+            synchronized (histogram) {
+                histogram.update(count(exposition), exposition.sampling());
+                for (int i = 0; i < buckets.size() - 1; i++) {
+                    final var bucket = buffer.beginMessage(ProtobufEncoding.HISTOGRAM_BUCKET);
+                    buffer.writeVarintField(ProtobufEncoding.BUCKET_CUMULATIVE_COUNT, histogram.cumulativeCount(i));
+                    buffer.writeDoubleField(ProtobufEncoding.BUCKET_UPPER_BOUND, buckets.upperBound(i));
+                    buffer.endDelimited(bucket);
+                }
+                buffer.writeVarintField(ProtobufEncoding.HISTOGRAM_SAMPLE_COUNT, histogram.count());
+                buffer.writeDoubleField(ProtobufEncoding.HISTOGRAM_SAMPLE_SUM, histogram.sum());
+            }
+            buffer.endDelimited(message);
+            buffer.endDelimited(metric);
+        }
+        format.endFamily(buffer, family);
+        buffer.countFamily();
+        buffer.countSeries(members.length * (buckets.size() + 2));
+    }
+
+    private static long count(final @NotNull MetricExposition exposition) {
+        return exposition.kind() == MetricExposition.Kind.TIMER ?
+                ((Timer) exposition.metric()).getCount() :
+                ((Histogram) exposition.metric()).getCount();
+    }
+
+    private static double factor(final @NotNull MetricExposition exposition) {
+        return exposition.kind() == MetricExposition.Kind.TIMER ? NANOS_TO_SECONDS : 1.0D;
+    }
+
+    private static void writeQuantileSample(
+            final @NotNull MetricExposition exposition,
+            final int index,
+            final double value,
+            final @NotNull ExpositionFormat format,
+            final @NotNull ExpositionBuffer buffer) {
+        format.writeSample(buffer, exposition.samplePrefix(format, index), value, exposition.formattedValues(), index);
+    }
+
+    private static void writeQuantile(final int index, final double value, final @NotNull ExpositionBuffer buffer) {
+        final var quantile = buffer.beginMessage(ProtobufEncoding.SUMMARY_QUANTILE);
+        buffer.writeDoubleField(ProtobufEncoding.QUANTILE_QUANTILE, QUANTILE_VALUES[index]);
+        buffer.writeDoubleField(ProtobufEncoding.QUANTILE_VALUE, value);
+        buffer.endDelimited(quantile);
+    }
+
+    private static boolean acceptsAny(
+            final @NotNull MetricExposition exposition,
+            final @NotNull Predicate<String> sampleNameFilter) {
+        for (int i = 0; i < exposition.sampleCount(); i++) {
+            if (sampleNameFilter.test(exposition.sampleName(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
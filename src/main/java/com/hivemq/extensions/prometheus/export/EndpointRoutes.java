@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link MetricsEndpoint}s of a {@link PrometheusHttpServer} by their context path.
+ * <p>
+ * A request is served by the endpoint with the longest context path that prefixes the request path, like the contexts
+ * of the JDK {@code HttpServer}. The endpoints can be replaced while the server is running. The replacement is atomic,
+ * i.e. each request is routed either to the previous or to the new endpoints, never to a mix of both.
+ */
+final class EndpointRoutes {
+
+    private final @NotNull ExporterMetrics metrics;
+    private volatile @NotNull Routes routes;
+
+    /**
+     * @param endpoints the endpoints by their context path, the first one is the default endpoint
+     */
+    EndpointRoutes(final @NotNull Map<String, MetricsEndpoint> endpoints) {
+        routes = new Routes(endpoints);
+        metrics = endpoints.values().iterator().next().metrics();
+    }
+
+    /**
+     * Returns the endpoint that serves the given request path.
+     *
+     * @return the endpoint or {@code null} if no context path prefixes the request path
+     */
+    @Nullable MetricsEndpoint route(final @NotNull String path) {
+        for (final var route : routes.sorted) {
+            if (path.startsWith(route.getKey())) {
+                return route.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the endpoints by their context path, the first one is the default endpoint.
+     */
+    @NotNull Map<String, MetricsEndpoint> endpoints() {
+        return routes.byPath;
+    }
+
+    /**
+     * Returns the exporter metrics of the default endpoint, which are shared by all endpoints of the server, see
+     * {@link ExporterMetrics#newEndpointMetrics()}. The default endpoint of replacing endpoints must use them as well.
+     */
+    @NotNull ExporterMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Replaces all endpoints. Requests that have already been routed are completed by the previous endpoints.
+     *
+     * @param endpoints the endpoints by their context path, the first one is the default endpoint
+     * @return the previous endpoints
+     */
+    @NotNull Collection<MetricsEndpoint> replace(final @NotNull Map<String, MetricsEndpoint> endpoints) {
+        if (endpoints.values().iterator().next().metrics() != metrics) {
+            throw new IllegalArgumentException("the default endpoint must use the exporter metrics of the server");
+        }
+        final var previous = routes;
+        routes = new Routes(endpoints);
+        return previous.byPath.values();
+    }
+
+    private static final class Routes {
+
+        private final @NotNull Map<String, MetricsEndpoint> byPath;
+        /**
+         * The endpoints ordered by descending path length, so that the first match is the longest.
+         */
+        private final @NotNull List<Map.Entry<String, MetricsEndpoint>> sorted;
+
+        private Routes(final @NotNull Map<String, MetricsEndpoint> endpoints) {
+            byPath = Collections.unmodifiableMap(new LinkedHashMap<>(endpoints));
+            sorted = new ArrayList<>(byPath.entrySet());
+            sorted.sort(Comparator.comparingInt((Map.Entry<String, MetricsEndpoint> route) -> route.getKey().length())
+                    .reversed());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A fixed-bucket histogram of the exporter metrics, rendered in the Prometheus histogram format.
+ * <p>
+ * Values are recorded as longs in a base unit (e.g. nanoseconds) into one {@link LongAdder} per bucket, so recording is
+ * a short scan over the bucket bounds and an uncontended add that never allocates. The bucket bounds and the sum are
+ * converted into the exposed unit (e.g. seconds) only when rendering.
+ */
+final class ExporterHistogram {
+
+    /**
+     * Bucket bounds for durations in nanoseconds, from 100 microseconds to 10 seconds.
+     */
+    static final long @NotNull [] DURATION_NANOS_BUCKETS = {
+            100_000L,
+            250_000L,
+            500_000L,
+            1_000_000L,
+            2_500_000L,
+            5_000_000L,
+            10_000_000L,
+            25_000_000L,
+            50_000_000L,
+            100_000_000L,
+            250_000_000L,
+            500_000_000L,
+            1_000_000_000L,
+            2_500_000_000L,
+            5_000_000_000L,
+            10_000_000_000L};
+    /**
+     * Bucket bounds for snapshot ages in nanoseconds, from 1 millisecond to 5 minutes, covering common scrape
+     * intervals.
+     */
+    static final long @NotNull [] AGE_NANOS_BUCKETS = {
+            1_000_000L,
+            10_000_000L,
+            100_000_000L,
+            250_000_000L,
+            500_000_000L,
+            1_000_000_000L,
+            2_500_000_000L,
+            5_000_000_000L,
+            10_000_000_000L,
+            15_000_000_000L,
+            30_000_000_000L,
+            60_000_000_000L,
+            120_000_000_000L,
+            300_000_000_000L};
+    /**
+     * Bucket bounds for sizes in bytes, from 1KiB to 64MiB.
+     */
+    static final long @NotNull [] SIZE_BYTES_BUCKETS = {
+            1L << 10,
+            1L << 12,
+            1L << 14,
+            1L << 16,
+            1L << 18,
+            1L << 20,
+            1L << 22,
+            1L << 24,
+            1L << 26};
+    static final double NANOS_PER_SECOND = 1e9;
+
+    private static final @NotNull List<String> LE_LABEL = List.of("le");
+
+    private final long @NotNull [] upperBounds;
+    private final double unitsPerExposedUnit;
+    /**
+     * One adder per bucket, the last one counts the values above all bounds ({@code +Inf}).
+     */
+    private final @NotNull LongAdder @NotNull [] buckets;
+    private final @NotNull LongAdder sum = new LongAdder();
+
+    private final @NotNull String bucketName;
+    private final @NotNull String countName;
+    private final @NotNull String sumName;
+    private final byte @NotNull [] @NotNull [] headers;
+    private final byte @NotNull [] @NotNull [] @NotNull [] bucketPrefixes;
+    private final byte @NotNull [] @NotNull [] countPrefixes;
+    private final byte @NotNull [] @NotNull [] sumPrefixes;
+
+    /**
+     * @param upperBounds         the ascending upper bounds of the buckets in the recorded unit
+     * @param unitsPerExposedUnit the number of recorded units per exposed unit, e.g. {@code 1e9} to expose nanoseconds
+     *                            as seconds
+     */
+    ExporterHistogram(
+            final @NotNull String name,
+            final @NotNull String help,
+            final long @NotNull [] upperBounds,
+            final double unitsPerExposedUnit) {
+        this.upperBounds = upperBounds;
+        this.unitsPerExposedUnit = unitsPerExposedUnit;
+        buckets = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        final var familyName = ExporterMetrics.PREFIX + name;
+        bucketName = familyName + "_bucket";
+        countName = familyName + "_count";
+        sumName = familyName + "_sum";
+        final var formats = ExpositionFormat.values();
+        headers = new byte[formats.length][];
+        bucketPrefixes = new byte[formats.length][][];
+        countPrefixes = new byte[formats.length][];
+        sumPrefixes = new byte[formats.length][];
+        for (final var format : formats) {
+            final var index = format.ordinal();
+            headers[index] = format.familyHeader(familyName, Collector.Type.HISTOGRAM, help);
+            bucketPrefixes[index] = new byte[buckets.length][];
+            for (int i = 0; i < buckets.length; i++) {
+                final var le = i < upperBounds.length ?
+                        Collector.doubleToGoString(upperBounds[i] / unitsPerExposedUnit) :
+                        "+Inf";
+                bucketPrefixes[index][i] =
+                        format.samplePrefix(Collector.Type.HISTOGRAM, bucketName, LE_LABEL, List.of(le));
+            }
+            countPrefixes[index] = format.samplePrefix(Collector.Type.HISTOGRAM, countName, List.of(), List.of());
+            sumPrefixes[index] = format.samplePrefix(Collector.Type.HISTOGRAM, sumName, List.of(), List.of());
+        }
+    }
+
+    void record(final long value) {
+        var index = 0;
+        while (index < upperBounds.length && value > upperBounds[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        sum.add(value);
+    }
+
+    void render(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        final var renderBuckets = sampleNameFilter == null || sampleNameFilter.test(bucketName);
+        final var renderCount = sampleNameFilter == null || sampleNameFilter.test(countName);
+        final var renderSum = sampleNameFilter == null || sampleNameFilter.test(sumName);
+        if (!renderBuckets && !renderCount && !renderSum) {
+            return;
+        }
+        if (format == ExpositionFormat.PROTOBUF) {
+            renderProtobuf(buffer);
+            return;
+        }
+        final var index = format.ordinal();
+        buffer.write(headers[index]);
+        buffer.countFamily();
+        // the count is derived from the buckets, so it is consistent with them
+        var cumulative = 0L;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            if (renderBuckets) {
+                buffer.write(bucketPrefixes[index][i]);
+                buffer.writeLongAsDouble(cumulative);
+                buffer.write('\n');
+            }
+        }
+        if (renderBuckets) {
+            buffer.countSeries(buckets.length);
+        }
+        if (renderCount) {
+            buffer.write(countPrefixes[index]);
+            buffer.writeLongAsDouble(cumulative);
+            buffer.write('\n');
+            buffer.countSeries(1);
+        }
+        if (renderSum) {
+            buffer.write(sumPrefixes[index]);
+            if (unitsPerExposedUnit == 1) {
+                buffer.writeLongAsDouble(sum.sum());
+            } else {
+                buffer.writeDouble(sum.sum() / unitsPerExposedUnit);
+            }
+            buffer.write('\n');
+            buffer.countSeries(1);
+        }
+    }
+
+    /**
+     * Renders the histogram as a single protobuf {@code Metric}, which always contains the buckets, count and sum. The
+     * {@code +Inf} bucket is omitted, as it is implied by the count.
+     */
+    private void renderProtobuf(final @NotNull ExpositionBuffer buffer) {
+        final var format = ExpositionFormat.PROTOBUF;
+        final var family = format.beginFamily(buffer, headers[format.ordinal()]);
+        final var metric = buffer.beginMessage(ProtobufEncoding.FAMILY_METRIC);
+        final var histogram = buffer.beginMessage(ProtobufEncoding.METRIC_HISTOGRAM);
+        var cumulative = 0L;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulative += buckets[i].sum();
+            final var bucket = buffer.beginMessage(ProtobufEncoding.HISTOGRAM_BUCKET);
+            buffer.writeVarintField(ProtobufEncoding.BUCKET_CUMULATIVE_COUNT, cumulative);
+            buffer.writeDoubleField(ProtobufEncoding.BUCKET_UPPER_BOUND, upperBounds[i] / unitsPerExposedUnit);
+            buffer.endDelimited(bucket);
+        }
+        cumulative += buckets[upperBounds.length].sum();
+        buffer.writeVarintField(ProtobufEncoding.HISTOGRAM_SAMPLE_COUNT, cumulative);
+        buffer.writeDoubleField(ProtobufEncoding.HISTOGRAM_SAMPLE_SUM, sum.sum() / unitsPerExposedUnit);
+        buffer.endDelimited(histogram);
+        buffer.endDelimited(metric);
+        format.endFamily(buffer, family);
+        buffer.countFamily();
+        buffer.countSeries(buckets.length + 2);
+    }
+}
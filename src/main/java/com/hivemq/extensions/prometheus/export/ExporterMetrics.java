@@ -0,0 +1,366 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Self-metrics of the exporter, exposed in the same response as the exported metrics.
+ * <p>
+ * All values are recorded into {@link LongAdder}s or {@link ExporterHistogram}s, so recording is cheap, does not
+ * allocate and does not contend between scrapes. The values are rendered into each snapshot, so they reflect the state
+ * of the exporter when the snapshot was rendered.
+ */
+class ExporterMetrics implements ExpositionRenderer {
+
+    static final @NotNull String PREFIX = "hivemq_prometheus_exporter_";
+
+    private static final @NotNull List<String> ENCODING_LABEL = List.of("encoding");
+    private static final @NotNull List<ContentEncoding> COMPRESSED_ENCODINGS =
+            List.of(ContentEncoding.GZIP, ContentEncoding.ZSTD);
+    private static final @NotNull List<List<String>> COMPRESSED_ENCODING_LABEL_VALUES =
+            List.of(List.of(ContentEncoding.GZIP.token()), List.of(ContentEncoding.ZSTD.token()));
+    private static final @NotNull List<String> CACHE_LABEL = List.of("cache");
+    private static final @NotNull List<List<String>> CACHE_LABEL_VALUES = cacheLabelValues();
+
+    private final @NotNull LongAdder[] compressions = newAdders(ContentEncoding.values().length);
+    private final @NotNull LongAdder[] compressionInputBytes = newAdders(ContentEncoding.values().length);
+    private final @NotNull LongAdder[] compressionOutputBytes = newAdders(ContentEncoding.values().length);
+    private final @NotNull LongAdder[] compressionNanos = newAdders(ContentEncoding.values().length);
+    private final @NotNull LongAdder scrapesRejected = new LongAdder();
+    private final @NotNull LongAdder scrapesQueued;
+    private final @NotNull LongAdder scrapesInFlight = new LongAdder();
+    private final @NotNull LongAdder[] scrapes = newAdders(CacheResult.values().length);
+    private volatile long snapshotBytes;
+    private volatile long snapshotFamilies;
+    private volatile long snapshotSeries;
+    private final @NotNull ExporterHistogram renderSeconds = new ExporterHistogram("render_seconds",
+            "Time spent rendering scrape snapshots, including reading the metric values",
+            ExporterHistogram.DURATION_NANOS_BUCKETS,
+            ExporterHistogram.NANOS_PER_SECOND);
+    private final @NotNull ExporterHistogram snapshotAgeSeconds = new ExporterHistogram("snapshot_age_seconds",
+            "Age of the scrape snapshots when they are served, measured from the end of their render",
+            ExporterHistogram.AGE_NANOS_BUCKETS,
+            ExporterHistogram.NANOS_PER_SECOND);
+    private final @NotNull ExporterHistogram responseWriteSeconds = new ExporterHistogram("response_write_seconds",
+            "Time spent writing scrape responses to scrapers",
+            ExporterHistogram.DURATION_NANOS_BUCKETS,
+            ExporterHistogram.NANOS_PER_SECOND);
+    private final @NotNull ExporterHistogram responseBytes = new ExporterHistogram("response_bytes",
+            "Size of the scrape response bodies as sent, i.e. after compression",
+            ExporterHistogram.SIZE_BYTES_BUCKETS,
+            1);
+
+    private final @NotNull Family compressionsFamily = new Family("compressions",
+            Collector.Type.COUNTER,
+            "Number of compressed scrape snapshots",
+            ENCODING_LABEL,
+            COMPRESSED_ENCODING_LABEL_VALUES);
+    private final @NotNull Family compressionInputFamily = new Family("compression_input_bytes",
+            Collector.Type.COUNTER,
+            "Uncompressed bytes of compressed scrape snapshots",
+            ENCODING_LABEL,
+            COMPRESSED_ENCODING_LABEL_VALUES);
+    private final @NotNull Family compressionOutputFamily = new Family("compression_output_bytes",
+            Collector.Type.COUNTER,
+            "Compressed bytes of compressed scrape snapshots",
+            ENCODING_LABEL,
+            COMPRESSED_ENCODING_LABEL_VALUES);
+    private final @NotNull Family compressionSecondsFamily = new Family("compression_seconds",
+            Collector.Type.COUNTER,
+            "Time spent compressing scrape snapshots",
+            ENCODING_LABEL,
+            COMPRESSED_ENCODING_LABEL_VALUES);
+    private final @NotNull Family scrapesRejectedFamily = new Family("scrapes_rejected",
+            Collector.Type.COUNTER,
+            "Number of scrapes that were rejected with 503 Service Unavailable because the server was overloaded");
+    private final @NotNull Family scrapesQueuedFamily =
+            new Family("scrapes_queued", Collector.Type.GAUGE, "Number of scrapes waiting for a thread");
+    private final @NotNull Family scrapesInFlightFamily =
+            new Family("scrapes_in_flight", Collector.Type.GAUGE, "Number of scrapes that are currently served");
+    private final @NotNull Family scrapesFamily = new Family("scrapes",
+            Collector.Type.COUNTER,
+            "Number of served scrapes by the way the snapshot was obtained from the cache",
+            CACHE_LABEL,
+            CACHE_LABEL_VALUES);
+    private final @NotNull Family snapshotBytesFamily = new Family("snapshot_bytes",
+            Collector.Type.GAUGE,
+            "Uncompressed size of the last rendered scrape snapshot in bytes");
+    private final @NotNull Family snapshotFamiliesFamily = new Family("snapshot_families",
+            Collector.Type.GAUGE,
+            "Number of metric families in the last rendered scrape snapshot");
+    private final @NotNull Family snapshotSeriesFamily = new Family("snapshot_series",
+            Collector.Type.GAUGE,
+            "Number of series in the last rendered scrape snapshot");
+    private final @NotNull Family snapshotTruncatedFamiliesFamily = new Family("snapshot_truncated_families",
+            Collector.Type.GAUGE,
+            "Number of metric families in this scrape snapshot that exceed the series limit");
+    private final @NotNull Family snapshotTruncatedSeriesFamily = new Family("snapshot_truncated_series",
+            Collector.Type.GAUGE,
+            "Number of series that were omitted from this scrape snapshot due to the series limit");
+
+    ExporterMetrics() {
+        this(new LongAdder());
+    }
+
+    private ExporterMetrics(final @NotNull LongAdder scrapesQueued) {
+        this.scrapesQueued = scrapesQueued;
+    }
+
+    /**
+     * Creates the self-metrics of another endpoint of the same server. All endpoints of a server share its threads,
+     * so they also share the number of queued scrapes.
+     */
+    @NotNull ExporterMetrics newEndpointMetrics() {
+        return new ExporterMetrics(scrapesQueued);
+    }
+
+    void recordCompression(
+            final @NotNull ContentEncoding encoding,
+            final long inputBytes,
+            final long outputBytes,
+            final long nanos) {
+        final var index = encoding.ordinal();
+        compressions[index].increment();
+        compressionInputBytes[index].add(inputBytes);
+        compressionOutputBytes[index].add(outputBytes);
+        compressionNanos[index].add(nanos);
+    }
+
+    void recordScrapeRejected() {
+        scrapesRejected.increment();
+    }
+
+    void recordScrapeQueued() {
+        scrapesQueued.increment();
+    }
+
+    void recordScrapeDequeued() {
+        scrapesQueued.decrement();
+    }
+
+    void recordScrapeStarted() {
+        scrapesInFlight.increment();
+    }
+
+    void recordScrapeFinished() {
+        scrapesInFlight.decrement();
+    }
+
+    void recordScrape(final @NotNull CacheResult cacheResult) {
+        scrapes[cacheResult.ordinal()].increment();
+    }
+
+    void recordRender(final long nanos, final long bytes, final long families, final long series) {
+        renderSeconds.record(nanos);
+        snapshotBytes = bytes;
+        snapshotFamilies = families;
+        snapshotSeries = series;
+    }
+
+    void recordSnapshotAge(final long nanos) {
+        snapshotAgeSeconds.record(nanos);
+    }
+
+    void recordResponse(final long bytes, final long writeNanos) {
+        responseBytes.record(bytes);
+        responseWriteSeconds.record(writeNanos);
+    }
+
+    @Override
+    public void render(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        renderPerEncoding(compressionsFamily, compressions, 1, format, sampleNameFilter, buffer);
+        renderPerEncoding(compressionInputFamily, compressionInputBytes, 1, format, sampleNameFilter, buffer);
+        renderPerEncoding(compressionOutputFamily, compressionOutputBytes, 1, format, sampleNameFilter, buffer);
+        renderPerEncoding(compressionSecondsFamily, compressionNanos, 1e-9, format, sampleNameFilter, buffer);
+        render(scrapesRejectedFamily, scrapesRejected.sum(), format, sampleNameFilter, buffer);
+        render(scrapesQueuedFamily, scrapesQueued.sum(), format, sampleNameFilter, buffer);
+        render(scrapesInFlightFamily, scrapesInFlight.sum(), format, sampleNameFilter, buffer);
+        renderPerCacheResult(format, sampleNameFilter, buffer);
+        render(snapshotBytesFamily, snapshotBytes, format, sampleNameFilter, buffer);
+        render(snapshotFamiliesFamily, snapshotFamilies, format, sampleNameFilter, buffer);
+        render(snapshotSeriesFamily, snapshotSeries, format, sampleNameFilter, buffer);
+        // the truncated families and series of the metrics that have just been rendered into the buffer
+        render(snapshotTruncatedFamiliesFamily, buffer.truncatedFamilies(), format, sampleNameFilter, buffer);
+        render(snapshotTruncatedSeriesFamily, buffer.truncatedSeries(), format, sampleNameFilter, buffer);
+        renderSeconds.render(format, sampleNameFilter, buffer);
+        snapshotAgeSeconds.render(format, sampleNameFilter, buffer);
+        responseWriteSeconds.render(format, sampleNameFilter, buffer);
+        responseBytes.render(format, sampleNameFilter, buffer);
+    }
+
+    private void renderPerCacheResult(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        if (sampleNameFilter != null && !sampleNameFilter.test(scrapesFamily.sampleName)) {
+            return;
+        }
+        final var family = format.beginFamily(buffer, scrapesFamily.header(format));
+        for (final var cacheResult : CacheResult.values()) {
+            format.writeSample(buffer,
+                    scrapesFamily.samplePrefix(format, cacheResult.ordinal()),
+                    scrapes[cacheResult.ordinal()].sum());
+        }
+        format.endFamily(buffer, family);
+        buffer.countFamily();
+        buffer.countSeries(CacheResult.values().length);
+    }
+
+    static void render(
+            final @NotNull Family family,
+            final long value,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        if (sampleNameFilter != null && !sampleNameFilter.test(family.sampleName)) {
+            return;
+        }
+        final var position = format.beginFamily(buffer, family.header(format));
+        format.writeSample(buffer, family.samplePrefix(format, 0), value);
+        format.endFamily(buffer, position);
+        buffer.countFamily();
+        buffer.countSeries(1);
+    }
+
+    private static void renderPerEncoding(
+            final @NotNull Family family,
+            final @NotNull LongAdder @NotNull [] adders,
+            final double factor,
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        if (sampleNameFilter != null && !sampleNameFilter.test(family.sampleName)) {
+            return;
+        }
+        final var position = format.beginFamily(buffer, family.header(format));
+        for (int i = 0; i < COMPRESSED_ENCODINGS.size(); i++) {
+            final var sum = adders[COMPRESSED_ENCODINGS.get(i).ordinal()].sum();
+            if (factor == 1) {
+                format.writeSample(buffer, family.samplePrefix(format, i), sum);
+            } else {
+                format.writeSample(buffer, family.samplePrefix(format, i), sum * factor);
+            }
+        }
+        format.endFamily(buffer, position);
+        buffer.countFamily();
+        buffer.countSeries(COMPRESSED_ENCODINGS.size());
+    }
+
+    private static @NotNull List<List<String>> cacheLabelValues() {
+        final var labelValues = new ArrayList<List<String>>();
+        for (final var cacheResult : CacheResult.values()) {
+            labelValues.add(List.of(cacheResult.label));
+        }
+        return labelValues;
+    }
+
+    private static @NotNull LongAdder[] newAdders(final int length) {
+        final var adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * How the snapshot of a scrape was obtained from the {@link ScrapeSnapshotCache}.
+     */
+    enum CacheResult {
+
+        /**
+         * A fresh snapshot was served from the cache.
+         */
+        HIT("hit"),
+        /**
+         * The scrape rendered a new snapshot.
+         */
+        MISS("miss"),
+        /**
+         * The scrape waited for a snapshot that was rendered by a concurrent scrape.
+         */
+        SHARED("shared"),
+        /**
+         * The scrape bypassed the cache, because it requested a subset of the metrics.
+         */
+        BYPASS("bypass"),
+        /**
+         * The render exceeded the render deadline, so the scrape was served with the last complete snapshot.
+         */
+        STALE("stale");
+
+        private final @NotNull String label;
+
+        CacheResult(final @NotNull String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * The pre-encoded header and sample prefixes of a self-metric family, one sample prefix per label value
+     * combination.
+     */
+    static final class Family {
+
+        private final @NotNull String sampleName;
+        private final byte @NotNull [] @NotNull [] headers;
+        private final byte @NotNull [] @NotNull [] @NotNull [] samplePrefixes;
+
+        Family(final @NotNull String name, final @NotNull Collector.Type type, final @NotNull String help) {
+            this(name, type, help, List.of(), List.of(List.of()));
+        }
+
+        Family(
+                final @NotNull String name,
+                final @NotNull Collector.Type type,
+                final @NotNull String help,
+                final @NotNull List<String> labelNames,
+                final @NotNull List<List<String>> labelValues) {
+            final var familyName = PREFIX + name;
+            sampleName = type == Collector.Type.COUNTER ? familyName + "_total" : familyName;
+            final var formats = ExpositionFormat.values();
+            headers = new byte[formats.length][];
+            samplePrefixes = new byte[formats.length][][];
+            for (final var format : formats) {
+                headers[format.ordinal()] = format.familyHeader(familyName, type, help);
+                final var prefixes = new byte[labelValues.size()][];
+                for (int i = 0; i < prefixes.length; i++) {
+                    prefixes[i] = format.samplePrefix(type, sampleName, labelNames, labelValues.get(i));
+                }
+                samplePrefixes[format.ordinal()] = prefixes;
+            }
+        }
+
+        byte @NotNull [] header(final @NotNull ExpositionFormat format) {
+            return headers[format.ordinal()];
+        }
+
+        byte @NotNull [] samplePrefix(final @NotNull ExpositionFormat format, final int index) {
+            return samplePrefixes[format.ordinal()][index];
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer the exposition is rendered into.
+ * <p>
+ * In contrast to {@link java.io.ByteArrayOutputStream} it is not synchronized and offers methods to write the parts of
+ * an exposition without intermediate {@link String} allocations. A buffer is reused across renders, so its capacity
+ * quickly settles at the size of the exposition.
+ */
+final class ExpositionBuffer extends OutputStream {
+
+    private byte @NotNull [] bytes;
+    private int size;
+    private int families;
+    private int series;
+    private int truncatedFamilies;
+    private int truncatedSeries;
+
+    ExpositionBuffer(final int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(final int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte @NotNull [] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(final byte @NotNull [] b, final int off, final int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    /**
+     * Writes a string that only contains ASCII characters, e.g. a sanitized metric name.
+     */
+    void writeAscii(final @NotNull String s) {
+        final var length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            bytes[size++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Writes a sample value like {@code Collector.doubleToGoString(double)}, see {@link NumberWriter}.
+     */
+    void writeDouble(final double value) {
+        ensureCapacity(NumberWriter.MAX_LENGTH);
+        size = NumberWriter.writeDouble(bytes, size, value);
+    }
+
+    /**
+     * Writes a long sample value, formatted like the same value converted to a double, e.g. {@code 2.0}.
+     */
+    void writeLongAsDouble(final long value) {
+        ensureCapacity(NumberWriter.MAX_LENGTH);
+        size = NumberWriter.writeLongAsDouble(bytes, size, value);
+    }
+
+    /**
+     * Writes an unsigned protobuf varint.
+     */
+    void writeVarint(final long value) {
+        ensureCapacity(10);
+        var remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        bytes[size++] = (byte) remaining;
+    }
+
+    /**
+     * Writes a protobuf varint field, i.e. the tag followed by the value.
+     */
+    void writeVarintField(final int fieldNumber, final long value) {
+        writeVarint(ProtobufEncoding.tag(fieldNumber, ProtobufEncoding.WIRE_TYPE_VARINT));
+        writeVarint(value);
+    }
+
+    /**
+     * Writes a protobuf double field, i.e. the tag followed by the little-endian IEEE 754 bits of the value.
+     */
+    void writeDoubleField(final int fieldNumber, final double value) {
+        writeVarint(ProtobufEncoding.tag(fieldNumber, ProtobufEncoding.WIRE_TYPE_I64));
+        writeFixed64(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Writes a protobuf fixed64 field, i.e. the tag followed by the little-endian bits of the value.
+     */
+    void writeFixed64Field(final int fieldNumber, final long value) {
+        writeVarint(ProtobufEncoding.tag(fieldNumber, ProtobufEncoding.WIRE_TYPE_I64));
+        writeFixed64(value);
+    }
+
+    /**
+     * Writes the little-endian bits of a protobuf fixed64 or double value without a tag.
+     */
+    void writeFixed64(final long bits) {
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[size++] = (byte) (bits >>> (i << 3));
+        }
+    }
+
+    /**
+     * Starts a length-delimited protobuf message field that is completed by {@link #endDelimited(int)}.
+     *
+     * @return the position of the message, to be passed to {@link #endDelimited(int)}
+     */
+    int beginMessage(final int fieldNumber) {
+        writeVarint(ProtobufEncoding.tag(fieldNumber, ProtobufEncoding.WIRE_TYPE_LEN));
+        return beginDelimited();
+    }
+
+    /**
+     * Starts a length-delimited protobuf message without a tag, e.g. a {@code MetricFamily} of a delimited stream.
+     * <p>
+     * A single byte is reserved for the length, which suffices for messages of less than 128 bytes. The content of
+     * larger messages is moved when the message is completed, which is cheaper than computing all nested lengths in
+     * advance.
+     *
+     * @return the position of the message, to be passed to {@link #endDelimited(int)}
+     */
+    int beginDelimited() {
+        ensureCapacity(1);
+        size++;
+        return size;
+    }
+
+    /**
+     * Completes a message that was started by {@link #beginDelimited()} or {@link #beginMessage(int)} by writing its
+     * length in front of it. Nested messages must be completed first.
+     */
+    void endDelimited(final int position) {
+        final var length = size - position;
+        final var lengthSize = ProtobufEncoding.varintSize(length);
+        if (lengthSize > 1) {
+            ensureCapacity(lengthSize - 1);
+            System.arraycopy(bytes, position, bytes, position + lengthSize - 1, length);
+            size += lengthSize - 1;
+        }
+        var index = position - 1;
+        var remaining = length;
+        while ((remaining & ~0x7F) != 0) {
+            bytes[index++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        bytes[index] = (byte) remaining;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Counts a metric family that has been written to the buffer, for the exporter metrics.
+     */
+    void countFamily() {
+        families++;
+    }
+
+    /**
+     * Counts samples that have been written to the buffer, for the exporter metrics.
+     */
+    void countSeries(final int count) {
+        series += count;
+    }
+
+    /**
+     * Counts a metric family whose series exceed the series limit and the series that have not been written to the
+     * buffer, for the exporter metrics.
+     */
+    void countTruncated(final int truncated) {
+        truncatedFamilies++;
+        truncatedSeries += truncated;
+    }
+
+    int families() {
+        return families;
+    }
+
+    int series() {
+        return series;
+    }
+
+    int truncatedFamilies() {
+        return truncatedFamilies;
+    }
+
+    int truncatedSeries() {
+        return truncatedSeries;
+    }
+
+    /**
+     * Appends the content of the given buffer together with its counted families and series.
+     */
+    void append(final @NotNull ExpositionBuffer other) {
+        write(other.bytes, 0, other.size);
+        families += other.families;
+        series += other.series;
+        truncatedFamilies += other.truncatedFamilies;
+        truncatedSeries += other.truncatedSeries;
+    }
+
+    /**
+     * Discards everything after the given size.
+     */
+    void truncate(final int size) {
+        if (size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException("size " + size + " out of range [0, " + this.size + "]");
+        }
+        this.size = size;
+    }
+
+    /**
+     * Returns whether the buffer ends with the given bytes.
+     */
+    boolean endsWith(final byte @NotNull [] suffix) {
+        if (suffix.length > size) {
+            return false;
+        }
+        return Arrays.equals(bytes, size - suffix.length, size, suffix, 0, suffix.length);
+    }
+
+    void reset() {
+        size = 0;
+        families = 0;
+        series = 0;
+        truncatedFamilies = 0;
+        truncatedSeries = 0;
+    }
+
+    /**
+     * Returns the internal array of the buffer without copying it, only its first {@link #size()} bytes are valid. The
+     * array must not be used after the buffer has been written to again.
+     */
+    byte @NotNull [] array() {
+        return bytes;
+    }
+
+    byte @NotNull [] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(final int additional) {
+        final var required = size + additional;
+        if (required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length << 1));
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The exposition formats that can be served, together with the encoding of their static parts.
+ * <p>
+ * The static parts (family headers and sample prefixes including labels) are encoded once per metric and then copied
+ * into the {@link ExpositionBuffer} on every render. The text formats are escaped exactly like {@link TextFormat}
+ * does.
+ */
+enum ExpositionFormat {
+
+    /**
+     * The Prometheus text format 0.0.4.
+     */
+    TEXT_004(TextFormat.CONTENT_TYPE_004) {
+        @Override
+        byte @NotNull [] familyHeader(
+                final @NotNull String familyName,
+                final @NotNull Collector.Type type,
+                final @NotNull String help) {
+            final var name = type == Collector.Type.COUNTER ? familyName + "_total" : familyName;
+            return ("# HELP " + name + ' ' + escapeHelp(help) + "\n# TYPE " + name + ' ' + typeString(type, "untyped") +
+                    '\n').getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        byte @NotNull [] samplePrefix(
+                final @NotNull Collector.Type type,
+                final @NotNull String sampleName,
+                final @NotNull List<String> labelNames,
+                final @NotNull List<String> labelValues) {
+            final var sb = new StringBuilder(sampleName);
+            if (!labelNames.isEmpty()) {
+                sb.append('{');
+                for (int i = 0; i < labelNames.size(); i++) {
+                    sb.append(labelNames.get(i))
+                            .append("=\"")
+                            .append(escapeLabelValue(labelValues.get(i)))
+                            .append("\",");
+                }
+                sb.append('}');
+            }
+            return sb.append(' ').toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void writeTerminator(final @NotNull ExpositionBuffer buffer) {
+        }
+    },
+
+    /**
+     * The OpenMetrics text format 1.0.0.
+     */
+    OPENMETRICS_100(TextFormat.CONTENT_TYPE_OPENMETRICS_100) {
+        @Override
+        byte @NotNull [] familyHeader(
+                final @NotNull String familyName,
+                final @NotNull Collector.Type type,
+                final @NotNull String help) {
+            return ("# TYPE " + familyName + ' ' + typeString(type, "unknown") + "\n# HELP " + familyName + ' ' +
+                    escapeLabelValue(help) + '\n').getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        byte @NotNull [] samplePrefix(
+                final @NotNull Collector.Type type,
+                final @NotNull String sampleName,
+                final @NotNull List<String> labelNames,
+                final @NotNull List<String> labelValues) {
+            final var sb = new StringBuilder(sampleName);
+            if (!labelNames.isEmpty()) {
+                sb.append('{');
+                for (int i = 0; i < labelNames.size(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(labelNames.get(i))
+                            .append("=\"")
+                            .append(escapeLabelValue(labelValues.get(i)))
+                            .append('"');
+                }
+                sb.append('}');
+            }
+            return sb.append(' ').toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void writeTerminator(final @NotNull ExpositionBuffer buffer) {
+            buffer.write(EOF);
+        }
+    },
+
+    /**
+     * The Prometheus protobuf format, a stream of length-delimited {@code io.prometheus.client.MetricFamily} messages.
+     * <p>
+     * The family header contains the name, help and type fields of the family, which is started by
+     * {@link #beginFamily(ExpositionBuffer, byte[])} and completed by {@link #endFamily(ExpositionBuffer, int)}. The
+     * sample prefix of a counter, gauge or untyped family is a complete {@code Metric} up to the value, so a sample is
+     * written like in the text formats. For summaries and histograms, whose samples are combined into a single
+     * {@code Metric}, the sample prefix only contains the labels of that metric.
+     */
+    PROTOBUF("application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited") {
+        @Override
+        byte @NotNull [] familyHeader(
+                final @NotNull String familyName,
+                final @NotNull Collector.Type type,
+                final @NotNull String help) {
+            final var name = type == Collector.Type.COUNTER ? familyName + "_total" : familyName;
+            return ProtobufEncoding.familyHeader(name, type, help);
+        }
+
+        @Override
+        byte @NotNull [] samplePrefix(
+                final @NotNull Collector.Type type,
+                final @NotNull String sampleName,
+                final @NotNull List<String> labelNames,
+                final @NotNull List<String> labelValues) {
+            if (type == Collector.Type.SUMMARY ||
+                    type == Collector.Type.HISTOGRAM ||
+                    type == Collector.Type.GAUGE_HISTOGRAM) {
+                return ProtobufEncoding.labels(labelNames, labelValues);
+            }
+            return ProtobufEncoding.valuePrefix(type, labelNames, labelValues);
+        }
+
+        @Override
+        int beginFamily(final @NotNull ExpositionBuffer buffer, final byte @NotNull [] header) {
+            final var position = buffer.beginDelimited();
+            buffer.write(header);
+            return position;
+        }
+
+        @Override
+        void endFamily(final @NotNull ExpositionBuffer buffer, final int position) {
+            buffer.endDelimited(position);
+        }
+
+        @Override
+        void writeSample(final @NotNull ExpositionBuffer buffer, final byte @NotNull [] prefix, final long value) {
+            buffer.write(prefix);
+            buffer.writeFixed64(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        void writeSample(final @NotNull ExpositionBuffer buffer, final byte @NotNull [] prefix, final double value) {
+            buffer.write(prefix);
+            buffer.writeFixed64(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        void writeSample(
+                final @NotNull ExpositionBuffer buffer,
+                final byte @NotNull [] prefix,
+                final double value,
+                final @NotNull FormattedValues values,
+                final int index) {
+            writeSample(buffer, prefix, value);
+        }
+
+        @Override
+        void writeTerminator(final @NotNull ExpositionBuffer buffer) {
+        }
+    };
+
+    static final byte @NotNull [] EOF = "# EOF\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final @NotNull String contentType;
+
+    ExpositionFormat(final @NotNull String contentType) {
+        this.contentType = contentType;
+    }
+
+    @NotNull String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Encodes the {@code # HELP} and {@code # TYPE} lines of a metric family.
+     *
+     * @param familyName the name of the family, without the {@code _total} suffix for counters
+     */
+    abstract byte @NotNull [] familyHeader(
+            @NotNull String familyName,
+            @NotNull Collector.Type type,
+            @NotNull String help);
+
+    /**
+     * Encodes everything of a sample line that precedes the value, including the separating space.
+     *
+     * @param type the type of the family the sample belongs to
+     */
+    abstract byte @NotNull [] samplePrefix(
+            @NotNull Collector.Type type,
+            @NotNull String sampleName,
+            @NotNull List<String> labelNames,
+            @NotNull List<String> labelValues);
+
+    /**
+     * Writes the encoded header of a family, which must be followed by its samples and completed by
+     * {@link #endFamily(ExpositionBuffer, int)}.
+     *
+     * @return the position of the family, to be passed to {@link #endFamily(ExpositionBuffer, int)}
+     */
+    int beginFamily(final @NotNull ExpositionBuffer buffer, final byte @NotNull [] header) {
+        buffer.write(header);
+        return buffer.size();
+    }
+
+    /**
+     * Completes a family that was started by {@link #beginFamily(ExpositionBuffer, byte[])}.
+     */
+    void endFamily(final @NotNull ExpositionBuffer buffer, final int position) {
+    }
+
+    /**
+     * Writes a sample with the given encoded prefix and a long value.
+     */
+    void writeSample(final @NotNull ExpositionBuffer buffer, final byte @NotNull [] prefix, final long value) {
+        buffer.write(prefix);
+        buffer.writeLongAsDouble(value);
+        buffer.write('\n');
+    }
+
+    /**
+     * Writes a sample with the given encoded prefix and a double value.
+     */
+    void writeSample(final @NotNull ExpositionBuffer buffer, final byte @NotNull [] prefix, final double value) {
+        buffer.write(prefix);
+        buffer.writeDouble(value);
+        buffer.write('\n');
+    }
+
+    /**
+     * Writes a sample with the given encoded prefix and a double value, whose text is reused from the last render of
+     * the sample with the given index if the value is unchanged.
+     */
+    void writeSample(
+            final @NotNull ExpositionBuffer buffer,
+            final byte @NotNull [] prefix,
+            final double value,
+            final @NotNull FormattedValues values,
+            final int index) {
+        buffer.write(prefix);
+        values.writeDouble(buffer, index, value);
+        buffer.write('\n');
+    }
+
+    /**
+     * Writes whatever terminates a complete exposition in this format.
+     */
+    abstract void writeTerminator(@NotNull ExpositionBuffer buffer);
+
+    /**
+     * Chooses the exposition format for the given {@code Accept} request header.
+     * <p>
+     * The accepted format with the highest quality value wins, the first one if several have the same quality. The
+     * protobuf format is only chosen if the {@code proto} and {@code encoding} parameters match. Without an accepted
+     * format, the Prometheus text format 0.0.4 is served.
+     */
+    static @NotNull ExpositionFormat negotiate(final @Nullable String acceptHeader) {
+        if (acceptHeader == null) {
+            return TEXT_004;
+        }
+        var chosen = TEXT_004;
+        var chosenQuality = 0.0D;
+        for (final var element : acceptHeader.split(",")) {
+            final var parameters = element.split(";");
+            var quality = 1.0D;
+            String proto = null;
+            String encoding = null;
+            for (int i = 1; i < parameters.length; i++) {
+                final var parameter = parameters[i];
+                final var index = parameter.indexOf('=');
+                if (index < 0) {
+                    continue;
+                }
+                final var name = parameter.substring(0, index).trim().toLowerCase(Locale.ROOT);
+                final var value = parameter.substring(index + 1).trim();
+                if ("q".equals(name)) {
+                    quality = parseQuality(value);
+                } else if ("proto".equals(name)) {
+                    proto = value;
+                } else if ("encoding".equals(name)) {
+                    encoding = value;
+                }
+            }
+            final var format = formatOf(parameters[0].trim().toLowerCase(Locale.ROOT), proto, encoding);
+            if (format != null && quality > chosenQuality) {
+                chosen = format;
+                chosenQuality = quality;
+            }
+        }
+        return chosen;
+    }
+
+    private static @Nullable ExpositionFormat formatOf(
+            final @NotNull String mediaType,
+            final @Nullable String proto,
+            final @Nullable String encoding) {
+        switch (mediaType) {
+            case "application/vnd.google.protobuf":
+                if ("io.prometheus.client.MetricFamily".equals(proto) && "delimited".equals(encoding)) {
+                    return PROTOBUF;
+                }
+                return null;
+            case "application/openmetrics-text":
+                return OPENMETRICS_100;
+            case "text/plain":
+            case "text/*":
+            case "*/*":
+                return TEXT_004;
+            default:
+                return null;
+        }
+    }
+
+    private static double parseQuality(final @NotNull String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static @NotNull String typeString(final @NotNull Collector.Type type, final @NotNull String unknown) {
+        switch (type) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return unknown;
+        }
+    }
+
+    private static @NotNull String escapeHelp(final @NotNull String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static @NotNull String escapeLabelValue(final @NotNull String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Renders metric families into an {@link ExpositionBuffer}.
+ * <p>
+ * Renderers only write complete metric families, the terminator of the exposition (e.g. {@code # EOF} for
+ * OpenMetrics) is written by the caller, so that several renderers can contribute to the same exposition.
+ */
+interface ExpositionRenderer {
+
+    /**
+     * @param format           the exposition format to render
+     * @param sampleNameFilter only samples whose name is accepted are rendered, {@code null} to render all samples
+     * @param buffer           the buffer to render into
+     */
+    void render(
+            @NotNull ExpositionFormat format,
+            @Nullable Predicate<String> sampleNameFilter,
+            @NotNull ExpositionBuffer buffer) throws IOException;
+
+    /**
+     * Adds the families of this renderer to a cardinality report, renderers of few fixed families like the exporter
+     * metrics don't need to.
+     */
+    default void report(final @NotNull CardinalityReport report) {
+    }
+
+    /**
+     * Releases the resources of this renderer, called when the server is stopped.
+     */
+    default void close() {
+    }
+}
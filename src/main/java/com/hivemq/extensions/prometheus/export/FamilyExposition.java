@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link MetricExposition}s of all metrics that are exported in the same Prometheus family.
+ * <p>
+ * Without a label mapping, a family consists of a single metric. With a label mapping, all members have the same
+ * {@link MetricExposition.Kind kind} and label names, but distinct label values, so the family is rendered as one
+ * header followed by the samples of all members.
+ * <p>
+ * A family exports at most a limited number of series, so a family to which a misbehaving client adds a member per
+ * client doesn't bloat every scrape. The series of a member are the samples it renders, e.g. one for a counter, the
+ * quantiles and the count for a summary, and the buckets, count and sum for a histogram. Only whole members are
+ * exported, in the order they were added, so the same series are exported by every scrape, and the members beyond the
+ * limit are exported once earlier members are removed.
+ * <p>
+ * The members are indexed by their label values, so adding and removing a member and checking it for conflicts takes
+ * constant time. The members are only modified by the {@link MetricExpositionCache} while holding its lock, while
+ * scrapes read an array of the members without locking, which is rebuilt on the first read after a modification. So
+ * a family from which many metrics are removed at once, e.g. when clients disconnect, is copied once.
+ */
+final class FamilyExposition {
+
+    private static final @NotNull MetricExposition @NotNull [] NO_MEMBERS = new MetricExposition[0];
+
+    private final @NotNull String familyName;
+    private final int seriesLimit;
+    /**
+     * The members by their label values, in the order they were added, guarded by this family.
+     */
+    private final @NotNull Map<List<String>, MetricExposition> byLabelValues = new LinkedHashMap<>();
+    /**
+     * The members of the last read, {@code null} if the members have been modified since.
+     */
+    private volatile @Nullable Members snapshot;
+
+    FamilyExposition(final @NotNull MetricExposition first) {
+        this(first, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param seriesLimit the maximum number of exported series
+     */
+    FamilyExposition(final @NotNull MetricExposition first, final int seriesLimit) {
+        familyName = first.familyName();
+        this.seriesLimit = seriesLimit;
+        byLabelValues.put(first.labelValues(), first);
+    }
+
+    @NotNull String familyName() {
+        return familyName;
+    }
+
+    /**
+     * Returns the current members, an empty array if the family has just become empty.
+     */
+    @NotNull MetricExposition @NotNull [] members() {
+        return snapshot().all;
+    }
+
+    /**
+     * Returns the members that are exported, i.e. the first members whose series are within the series limit.
+     */
+    @NotNull MetricExposition @NotNull [] exported() {
+        return snapshot().exported;
+    }
+
+    /**
+     * Returns the number of series of all members, including the ones beyond the series limit.
+     */
+    int series() {
+        return snapshot().series;
+    }
+
+    /**
+     * Returns the number of series of the members beyond the series limit, which are not exported.
+     */
+    int truncated() {
+        return snapshot().truncatedSeries;
+    }
+
+    /**
+     * Returns the current number of members.
+     */
+    synchronized int size() {
+        return byLabelValues.size();
+    }
+
+    /**
+     * Returns the member that the given exposition conflicts with, because it has a different kind or label names or
+     * the same label values.
+     *
+     * @return the conflicting member or {@code null} if the exposition can be added
+     */
+    synchronized @Nullable MetricExposition conflict(final @NotNull MetricExposition exposition) {
+        final var iterator = byLabelValues.values().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        final var first = iterator.next();
+        if (first.kind() != exposition.kind() || !first.labelNames().equals(exposition.labelNames())) {
+            return first;
+        }
+        return byLabelValues.get(exposition.labelValues());
+    }
+
+    /**
+     * Adds an exposition that doesn't {@link #conflict(MetricExposition) conflict} with a member.
+     */
+    synchronized void add(final @NotNull MetricExposition exposition) {
+        byLabelValues.put(exposition.labelValues(), exposition);
+        snapshot = null;
+    }
+
+    /**
+     * @return whether the family is empty after removing the exposition
+     */
+    synchronized boolean remove(final @NotNull MetricExposition exposition) {
+        if (byLabelValues.get(exposition.labelValues()) == exposition) {
+            byLabelValues.remove(exposition.labelValues());
+            snapshot = null;
+        }
+        return byLabelValues.isEmpty();
+    }
+
+    private @NotNull Members snapshot() {
+        final var current = snapshot;
+        return current != null ? current : newSnapshot();
+    }
+
+    private synchronized @NotNull Members newSnapshot() {
+        var current = snapshot;
+        if (current == null) {
+            final var all = byLabelValues.values().toArray(NO_MEMBERS);
+            // the series only grow, so the exported members are a prefix of all members
+            var series = 0;
+            var exported = 0;
+            var exportedSeries = 0;
+            for (final var member : all) {
+                series += member.sampleCount();
+                if (series <= seriesLimit) {
+                    exported++;
+                    exportedSeries = series;
+                }
+            }
+            current = new Members(all,
+                    exported < all.length ? Arrays.copyOf(all, exported) : all,
+                    series,
+                    series - exportedSeries);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    private static final class Members {
+
+        private final @NotNull MetricExposition @NotNull [] all;
+        private final @NotNull MetricExposition @NotNull [] exported;
+        private final int series;
+        private final int truncatedSeries;
+
+        private Members(
+                final @NotNull MetricExposition @NotNull [] all,
+                final @NotNull MetricExposition @NotNull [] exported,
+                final int series,
+                final int truncatedSeries) {
+            this.all = all;
+            this.exported = exported;
+            this.series = series;
+            this.truncatedSeries = truncatedSeries;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The last formatted text value of each sample of a {@link MetricExposition} with a double value.
+ * <p>
+ * Many samples, e.g. gauges of configured limits or the quantiles of an idle timer, keep their value across scrapes.
+ * Their text is reused as long as the value is unchanged, so only changed values are formatted again. Both text
+ * formats format values alike, so they share the cached text.
+ * <p>
+ * Only the consecutive samples with double values have a slot: the value of a gauge, the quantiles of a summary and
+ * the sum of a histogram. Counts are written as integers, so counters, meters and the buckets and counts of histograms
+ * don't have a slot. Each slot has {@link NumberWriter#MAX_LENGTH} bytes for the text, and its bits and text length
+ * are kept in parallel primitive arrays, so a changed value is copied into its slot without any allocation. A slot
+ * takes 33 bytes, so including the headers of the object and its arrays, a gauge or histogram keeps about 120 bytes,
+ * regardless of the number of buckets, and a summary about 280 bytes. The slots are read and written while holding
+ * the lock of this instance, as the same metric may be rendered in several formats at the same time.
+ */
+final class FormattedValues {
+
+    /**
+     * The values of a metric without samples with double values.
+     */
+    static final @NotNull FormattedValues NONE = new FormattedValues(0, 0);
+
+    /**
+     * The index of the sample of the first slot.
+     */
+    private final int firstIndex;
+    private final long @NotNull [] bits;
+    /**
+     * The length of the text of each sample, {@code 0} if the sample has not been formatted yet.
+     */
+    private final byte @NotNull [] lengths;
+    private final byte @NotNull [] texts;
+
+    /**
+     * @param firstIndex the index of the first sample with a double value
+     * @param slotCount  the number of consecutive samples with double values
+     */
+    FormattedValues(final int firstIndex, final int slotCount) {
+        this.firstIndex = firstIndex;
+        bits = new long[slotCount];
+        lengths = new byte[slotCount];
+        texts = new byte[slotCount * NumberWriter.MAX_LENGTH];
+    }
+
+    /**
+     * Writes the given value of the sample with the given index like {@link ExpositionBuffer#writeDouble(double)}.
+     */
+    synchronized void writeDouble(final @NotNull ExpositionBuffer buffer, final int index, final double value) {
+        final var slot = index - firstIndex;
+        final var valueBits = Double.doubleToRawLongBits(value);
+        final var offset = slot * NumberWriter.MAX_LENGTH;
+        final var length = lengths[slot];
+        if (length > 0 && bits[slot] == valueBits) {
+            buffer.write(texts, offset, length);
+            return;
+        }
+        final var start = buffer.size();
+        buffer.writeDouble(value);
+        final var written = buffer.size() - start;
+        System.arraycopy(buffer.array(), start, texts, offset, written);
+        bits[slot] = valueBits;
+        lengths[slot] = (byte) written;
+    }
+}
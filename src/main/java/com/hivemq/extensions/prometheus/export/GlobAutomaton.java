@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches names against a set of glob patterns in a single pass over the name, where {@code *} matches any sequence
+ * of characters and {@code ?} matches any single character.
+ * <p>
+ * All globs are compiled into one prefix trie, in which {@code ?} is an edge for any character and {@code *} leads to
+ * a node that loops on any character. The trie is run as a nondeterministic automaton whose reachable node sets are
+ * cached as the states of a deterministic automaton. Once the states of a name prefix have been built, a name is
+ * matched with one transition lookup per character, independent of the number of patterns.
+ */
+final class GlobAutomaton {
+
+    /**
+     * Bounds the memory of pathological pattern sets, transitions to further states are computed on every match.
+     */
+    private static final int MAX_CACHED_STATES = 4096;
+
+    private final @NotNull List<Node> nodes = new ArrayList<>();
+    // guarded by this
+    private final @NotNull Map<BitSet, State> states = new HashMap<>();
+    private final @NotNull State initial;
+
+    GlobAutomaton(final @NotNull Collection<String> globs) {
+        final var root = newNode(false);
+        for (final var glob : globs) {
+            add(root, glob);
+        }
+        final var rootSet = new BitSet();
+        rootSet.set(root.id);
+        initial = state(closure(rootSet));
+    }
+
+    synchronized boolean matches(final @NotNull String name) {
+        var state = initial;
+        for (int i = 0; i < name.length() && !state.isDead(); i++) {
+            state = next(state, name.charAt(i));
+        }
+        return state.accepting;
+    }
+
+    private void add(final @NotNull Node root, final @NotNull String glob) {
+        var node = root;
+        for (int i = 0; i < glob.length(); i++) {
+            final var c = glob.charAt(i);
+            if (c == '*') {
+                // consecutive stars are equivalent to a single one
+                if (!node.loops) {
+                    if (node.star == null) {
+                        node.star = newNode(true);
+                    }
+                    node = node.star;
+                }
+            } else if (c == '?') {
+                if (node.any == null) {
+                    node.any = newNode(false);
+                }
+                node = node.any;
+            } else {
+                var child = node.literals.get(c);
+                if (child == null) {
+                    child = newNode(false);
+                    node.literals.put(c, child);
+                }
+                node = child;
+            }
+        }
+        node.terminal = true;
+    }
+
+    private @NotNull Node newNode(final boolean loops) {
+        final var node = new Node(nodes.size(), loops);
+        nodes.add(node);
+        return node;
+    }
+
+    private @NotNull State next(final @NotNull State state, final char c) {
+        final var cached = state.transitions.get(c);
+        if (cached != null) {
+            return cached;
+        }
+        final var target = new BitSet(nodes.size());
+        for (int id = state.nodes.nextSetBit(0); id >= 0; id = state.nodes.nextSetBit(id + 1)) {
+            final var node = nodes.get(id);
+            if (node.loops) {
+                target.set(id);
+            }
+            final var literal = node.literals.get(c);
+            if (literal != null) {
+                target.set(literal.id);
+            }
+            if (node.any != null) {
+                target.set(node.any.id);
+            }
+        }
+        final var next = state(closure(target));
+        if (states.get(next.nodes) == next) {
+            state.transitions.put(c, next);
+        }
+        return next;
+    }
+
+    /**
+     * Adds the nodes that are reachable without consuming a character, i.e. via {@code *} edges.
+     */
+    private @NotNull BitSet closure(final @NotNull BitSet set) {
+        final var pending = new ArrayDeque<Node>();
+        for (int id = set.nextSetBit(0); id >= 0; id = set.nextSetBit(id + 1)) {
+            pending.add(nodes.get(id));
+        }
+        while (!pending.isEmpty()) {
+            final var star = pending.poll().star;
+            if (star != null && !set.get(star.id)) {
+                set.set(star.id);
+                pending.add(star);
+            }
+        }
+        return set;
+    }
+
+    private @NotNull State state(final @NotNull BitSet set) {
+        final var existing = states.get(set);
+        if (existing != null) {
+            return existing;
+        }
+        var accepting = false;
+        for (int id = set.nextSetBit(0); id >= 0 && !accepting; id = set.nextSetBit(id + 1)) {
+            accepting = nodes.get(id).terminal;
+        }
+        final var state = new State(set, accepting);
+        if (states.size() < MAX_CACHED_STATES) {
+            states.put(set, state);
+        }
+        return state;
+    }
+
+    private static final class Node {
+
+        private final int id;
+        /**
+         * Whether this node is the target of a {@code *} edge and therefore consumes any character.
+         */
+        private final boolean loops;
+        private final @NotNull Map<Character, Node> literals = new HashMap<>();
+        private @Nullable Node any;
+        private @Nullable Node star;
+        private boolean terminal;
+
+        Node(final int id, final boolean loops) {
+            this.id = id;
+            this.loops = loops;
+        }
+    }
+
+    private static final class State {
+
+        private final @NotNull BitSet nodes;
+        private final boolean accepting;
+        private final @NotNull Map<Character, State> transitions = new HashMap<>();
+
+        State(final @NotNull BitSet nodes, final boolean accepting) {
+            this.nodes = nodes;
+            this.accepting = accepting;
+        }
+
+        boolean isDead() {
+            return nodes.isEmpty();
+        }
+    }
+}
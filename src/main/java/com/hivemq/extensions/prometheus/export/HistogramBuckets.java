@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The upper bounds of the buckets into which Dropwizard {@link com.codahale.metrics.Histogram Histograms} or
+ * {@link com.codahale.metrics.Timer Timers} are exported as Prometheus histograms, see {@link IncrementalHistogram}.
+ * <p>
+ * The bounds are given in the exposed unit (e.g. seconds) and converted once into the unit in which the Dropwizard
+ * metric records its values (e.g. nanoseconds), so they can be compared with the values of a reservoir snapshot.
+ */
+final class HistogramBuckets {
+
+    private final double @NotNull [] upperBounds;
+    private final double @NotNull [] recordedUpperBounds;
+    private final @NotNull String @NotNull [] leValues;
+    private final double unitsPerExposedUnit;
+
+    private HistogramBuckets(final double @NotNull [] upperBounds, final double unitsPerExposedUnit) {
+        this.upperBounds = upperBounds;
+        this.unitsPerExposedUnit = unitsPerExposedUnit;
+        recordedUpperBounds = new double[upperBounds.length];
+        leValues = new String[upperBounds.length + 1];
+        for (int i = 0; i < upperBounds.length; i++) {
+            recordedUpperBounds[i] = upperBounds[i] * unitsPerExposedUnit;
+            leValues[i] = Collector.doubleToGoString(upperBounds[i]);
+        }
+        leValues[upperBounds.length] = "+Inf";
+    }
+
+    /**
+     * @param upperBounds         the strictly ascending, finite upper bounds in the exposed unit, the {@code +Inf}
+     *                            bucket is always added
+     * @param unitsPerExposedUnit the number of recorded units per exposed unit, e.g. {@code 1e9} to expose the
+     *                            nanoseconds of a Timer as seconds
+     * @throws IllegalArgumentException if there are no upper bounds or they are not finite and strictly ascending
+     */
+    static @NotNull HistogramBuckets of(
+            final @NotNull Collection<Double> upperBounds,
+            final double unitsPerExposedUnit) {
+        if (upperBounds.isEmpty()) {
+            throw new IllegalArgumentException("bucket upper bounds must not be empty");
+        }
+        final var bounds = new double[upperBounds.size()];
+        var i = 0;
+        for (final var upperBound : upperBounds) {
+            if (!Double.isFinite(upperBound)) {
+                throw new IllegalArgumentException("bucket upper bound must be finite: " + upperBound);
+            }
+            if (i > 0 && upperBound <= bounds[i - 1]) {
+                throw new IllegalArgumentException("bucket upper bounds must be strictly ascending: " + upperBounds);
+            }
+            bounds[i++] = upperBound;
+        }
+        return new HistogramBuckets(bounds, unitsPerExposedUnit);
+    }
+
+    /**
+     * Returns the number of buckets including the {@code +Inf} bucket.
+     */
+    int size() {
+        return leValues.length;
+    }
+
+    /**
+     * Returns the upper bound of the bucket with the given index in the exposed unit, which must not be the index of
+     * the {@code +Inf} bucket.
+     */
+    double upperBound(final int index) {
+        return upperBounds[index];
+    }
+
+    /**
+     * Returns the upper bound of the bucket with the given index in the recorded unit, which must not be the index of
+     * the {@code +Inf} bucket.
+     */
+    double recordedUpperBound(final int index) {
+        return recordedUpperBounds[index];
+    }
+
+    /**
+     * Returns the value of the {@code le} label of the bucket with the given index.
+     */
+    @NotNull String leValue(final int index) {
+        return leValues[index];
+    }
+
+    double unitsPerExposedUnit() {
+        return unitsPerExposedUnit;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HistogramBuckets)) {
+            return false;
+        }
+        final var that = (HistogramBuckets) o;
+        return unitsPerExposedUnit == that.unitsPerExposedUnit && Arrays.equals(upperBounds, that.upperBounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(upperBounds) + Double.hashCode(unitsPerExposedUnit);
+    }
+}
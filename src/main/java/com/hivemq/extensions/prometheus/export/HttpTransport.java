@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+/**
+ * The HTTP server implementation that serves the {@link MetricsEndpoint} of a {@link PrometheusHttpServer}.
+ */
+interface HttpTransport {
+
+    /**
+     * Gets the port number the transport is bound to.
+     */
+    int getPort();
+
+    /**
+     * Stops the transport and releases its threads and sockets.
+     */
+    void stop();
+}
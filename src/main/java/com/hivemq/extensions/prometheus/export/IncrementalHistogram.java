@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The cumulative bucket counts of a Dropwizard {@link com.codahale.metrics.Histogram Histogram} or
+ * {@link com.codahale.metrics.Timer Timer} that is exported as Prometheus histogram.
+ * <p>
+ * Dropwizard doesn't expose the individual values that are recorded, only their count and a reservoir sample. So the
+ * bucket counts are maintained incrementally: on every {@link #update(long, Sampling) update}, only the values that
+ * were recorded since the previous update are distributed over the buckets, proportionally to the distribution of the
+ * current reservoir snapshot. The bucket counts therefore never decrease and always add up to the count of the
+ * metric, so they can be aggregated across brokers and used with {@code rate()} and {@code histogram_quantile()}.
+ * The sum is estimated from the mean of the snapshot in the same way.
+ * <p>
+ * As long as the count doesn't change, no snapshot is taken at all. When it does change, the snapshot is only queried
+ * for a few quantiles per bucket instead of copying its values.
+ * <p>
+ * The counts are updated and read while holding the lock of this instance, as the same metric may be rendered in
+ * several formats at the same time.
+ */
+final class IncrementalHistogram {
+
+    /**
+     * The number of bisection steps to find the fraction of the snapshot at or below an upper bound, which gives a
+     * precision of about one millionth.
+     */
+    private static final int BISECTION_STEPS = 20;
+
+    private final @NotNull HistogramBuckets buckets;
+    /**
+     * The cumulative counts of the buckets without the {@code +Inf} bucket, whose count is {@link #count}.
+     */
+    private final long @NotNull [] cumulativeCounts;
+    private long count;
+    private double sum;
+
+    IncrementalHistogram(final @NotNull HistogramBuckets buckets) {
+        this.buckets = buckets;
+        cumulativeCounts = new long[buckets.size() - 1];
+    }
+
+    @NotNull HistogramBuckets buckets() {
+        return buckets;
+    }
+
+    /**
+     * Distributes the values that were recorded since the previous update over the buckets.
+     *
+     * @param count    the current count of the metric
+     * @param sampling the metric, to take a snapshot of its reservoir if the count changed
+     */
+    void update(final long count, final @NotNull Sampling sampling) {
+        final var delta = count - this.count;
+        if (delta <= 0) {
+            return;
+        }
+        this.count = count;
+        final var snapshot = sampling.getSnapshot();
+        if (snapshot == null || snapshot.size() == 0) {
+            // without a sample, the values are only counted in the +Inf bucket
+            return;
+        }
+        sum += delta * snapshot.getMean();
+        var fraction = 0.0D;
+        for (int i = 0; i < cumulativeCounts.length; i++) {
+            fraction = fractionAtOrBelow(snapshot, buckets.recordedUpperBound(i), fraction);
+            cumulativeCounts[i] += Math.round(delta * fraction);
+        }
+    }
+
+    /**
+     * Returns the cumulative count of the bucket with the given index, including the {@code +Inf} bucket.
+     */
+    long cumulativeCount(final int index) {
+        return index < cumulativeCounts.length ? cumulativeCounts[index] : count;
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * Returns the estimated sum of all values in the exposed unit.
+     */
+    double sum() {
+        return sum / buckets.unitsPerExposedUnit();
+    }
+
+    /**
+     * Finds the largest quantile of the snapshot whose value is at or below the given upper bound by bisection.
+     *
+     * @param lowerFraction a quantile that is known to be at or below the upper bound
+     */
+    private static double fractionAtOrBelow(
+            final @NotNull Snapshot snapshot,
+            final double upperBound,
+            final double lowerFraction) {
+        if (snapshot.getValue(1.0D) <= upperBound) {
+            return 1.0D;
+        }
+        if (snapshot.getValue(0.0D) > upperBound) {
+            return 0.0D;
+        }
+        var low = lowerFraction;
+        var high = 1.0D;
+        for (int i = 0; i < BISECTION_STEPS; i++) {
+            final var middle = (low + high) / 2;
+            if (snapshot.getValue(middle) <= upperBound) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Sampling;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares the {@link IncrementalHistogram} of each Dropwizard {@link com.codahale.metrics.Histogram Histogram} and
+ * {@link com.codahale.metrics.Timer Timer} between the expositions of the same metric.
+ * <p>
+ * The bucket counts of an incremental histogram are estimated from the reservoir when they are updated, so two
+ * histograms of the same metric that are updated at different times export different bucket counts. And a new
+ * histogram estimates all buckets again from the current reservoir, so its bucket counts and sum may be less than the
+ * ones exported before, which Prometheus treats as a counter reset. With this store, all endpoints, the expositions
+ * of a metric that is promoted from a duplicate, and the expositions that are created again with the same buckets,
+ * e.g. after a configuration reload, continue the same bucket counts.
+ * <p>
+ * The histograms are kept per metric in a {@link WeakHashMap}, so they are released together with metrics that are
+ * removed from the registry.
+ */
+final class IncrementalHistograms {
+
+    private final @NotNull Map<Sampling, IncrementalHistogram> histograms = new WeakHashMap<>();
+
+    /**
+     * Returns the histogram of the given metric, a new one if the metric has no histogram with the given buckets yet.
+     */
+    synchronized @NotNull IncrementalHistogram get(
+            final @NotNull Sampling metric,
+            final @NotNull HistogramBuckets buckets) {
+        final var histogram = histograms.get(metric);
+        if (histogram != null && histogram.buckets().equals(buckets)) {
+            return histogram;
+        }
+        final var created = new IncrementalHistogram(buckets);
+        histograms.put(metric, created);
+        return created;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves the {@link MetricsEndpoint}s with the JDK {@link HttpServer}, which dispatches every request to a thread of
+ * the given executor. All requests are handled by the root context, which routes them to the endpoint with the longest
+ * matching context path, so that the endpoints can be replaced atomically, see {@link EndpointRoutes}.
+ */
+class JdkHttpTransport implements HttpTransport {
+
+    static {
+        if (!System.getProperties().containsKey("sun.net.httpserver.maxReqTime")) {
+            System.setProperty("sun.net.httpserver.maxReqTime", "60");
+        }
+        if (!System.getProperties().containsKey("sun.net.httpserver.maxRspTime")) {
+            System.setProperty("sun.net.httpserver.maxRspTime", "600");
+        }
+    }
+
+    private final @NotNull HttpServer server;
+    private final @NotNull ExecutorService executorService;
+
+    JdkHttpTransport(
+            final @NotNull InetSocketAddress address,
+            final int backlog,
+            final @NotNull EndpointRoutes routes,
+            final @NotNull ExecutorService executorService) throws IOException {
+        this.executorService = executorService;
+        server = HttpServer.create(address, backlog);
+        // all endpoints share the queued scrapes, see ExporterMetrics#newEndpointMetrics()
+        server.setExecutor(new QueuedScrapeExecutor(executorService, routes.metrics()));
+        server.createContext("/", new MetricsHttpHandler(routes));
+        try {
+            // HttpServer.start() starts the HttpServer in a new background thread.
+            // If we call HttpServer.start() from a thread of the executorService,
+            // the background thread will inherit the "daemon" property,
+            // i.e. the server will run as a Daemon thread.
+            // See https://github.com/prometheus/client_java/pull/955
+            executorService.submit(server::start).get();
+            // calling .get() on the Future here to avoid silently discarding errors
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void stop() {
+        server.stop(0);
+        // free any (parked/idle) threads in pool
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps Dropwizard names to Prometheus family names and labels by the first matching {@link LabelMappingRule}.
+ * <p>
+ * A Dropwizard name that matches no rule is exported like by {@code DropwizardExports}, as a family without labels.
+ * The mapping is evaluated once when a metric is registered and the result is kept in its {@link MetricExposition}.
+ * Family names, label names and label values are interned, so the many metrics that are mapped to the same family
+ * share a single instance of them instead of holding a copy each.
+ */
+final class LabelMapper {
+
+    static final @NotNull LabelMapper NONE = new LabelMapper(List.of());
+
+    private final @NotNull Map<String, String> strings = new ConcurrentHashMap<>();
+    private final @NotNull Map<List<String>, List<String>> labelNames = new ConcurrentHashMap<>();
+    private final @NotNull List<CompiledRule> rules;
+
+    private LabelMapper(final @NotNull Collection<LabelMappingRule> rules) {
+        final var compiled = new ArrayList<CompiledRule>(rules.size());
+        for (final var rule : rules) {
+            compiled.add(new CompiledRule(rule));
+        }
+        this.rules = List.copyOf(compiled);
+    }
+
+    static @NotNull LabelMapper of(final @NotNull Collection<LabelMappingRule> rules) {
+        return rules.isEmpty() ? NONE : new LabelMapper(rules);
+    }
+
+    @NotNull Mapping map(final @NotNull String dropwizardName) {
+        if (!rules.isEmpty()) {
+            final var segments = dropwizardName.split("\\.", -1);
+            for (final var rule : rules) {
+                final var captures = rule.match(segments);
+                if (captures != null) {
+                    return map(rule, captures);
+                }
+            }
+        }
+        return new Mapping(MetricExposition.familyName(dropwizardName), dropwizardName, List.of(), List.of());
+    }
+
+    private @NotNull Mapping map(final @NotNull CompiledRule rule, final @NotNull String @NotNull [] captures) {
+        final var labelValues = new String[rule.labelValues.size()];
+        for (int i = 0; i < labelValues.length; i++) {
+            labelValues[i] = intern(rule.labelValues.get(i).expand(captures));
+        }
+        return new Mapping(intern(MetricExposition.familyName(rule.name.expand(captures))),
+                rule.pattern,
+                rule.labelNames,
+                List.of(labelValues));
+    }
+
+    private @NotNull String intern(final @NotNull String string) {
+        final var interned = strings.putIfAbsent(string, string);
+        return interned == null ? string : interned;
+    }
+
+    private @NotNull List<String> internLabelNames(final @NotNull List<String> names) {
+        final var interned = labelNames.putIfAbsent(names, names);
+        return interned == null ? names : interned;
+    }
+
+    /**
+     * The Prometheus family name and labels of a Dropwizard metric.
+     */
+    static final class Mapping {
+
+        private final @NotNull String familyName;
+        private final @NotNull String source;
+        private final @NotNull List<String> labelNames;
+        private final @NotNull List<String> labelValues;
+
+        Mapping(
+                final @NotNull String familyName,
+                final @NotNull String source,
+                final @NotNull List<String> labelNames,
+                final @NotNull List<String> labelValues) {
+            this.familyName = familyName;
+            this.source = source;
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+        }
+
+        @NotNull String familyName() {
+            return familyName;
+        }
+
+        /**
+         * The Dropwizard name of an unmapped metric or the pattern of the rule that mapped it, which is the same for
+         * all metrics of a family.
+         */
+        @NotNull String source() {
+            return source;
+        }
+
+        @NotNull List<String> labelNames() {
+            return labelNames;
+        }
+
+        @NotNull List<String> labelValues() {
+            return labelValues;
+        }
+    }
+
+    private final class CompiledRule {
+
+        private final @NotNull String pattern;
+        /**
+         * The literal segments of the pattern, {@code null} for a captured segment.
+         */
+        private final @Nullable String @NotNull [] segments;
+        private final @NotNull Template name;
+        private final @NotNull List<String> labelNames;
+        private final @NotNull List<Template> labelValues;
+
+        private CompiledRule(final @NotNull LabelMappingRule rule) {
+            pattern = rule.pattern();
+            segments = pattern.split("\\.", -1);
+            for (int i = 0; i < segments.length; i++) {
+                if ("*".equals(segments[i])) {
+                    segments[i] = null;
+                }
+            }
+            name = new Template(rule.name());
+            final var names = new ArrayList<String>(rule.labels().size());
+            final var values = new ArrayList<Template>(rule.labels().size());
+            for (final var label : rule.labels().entrySet()) {
+                names.add(intern(label.getKey()));
+                values.add(new Template(label.getValue()));
+            }
+            labelNames = internLabelNames(List.copyOf(names));
+            labelValues = List.copyOf(values);
+        }
+
+        /**
+         * @return the captured segments or {@code null} if the name doesn't match
+         */
+        private @NotNull String @Nullable [] match(final @NotNull String @NotNull [] nameSegments) {
+            if (nameSegments.length != segments.length) {
+                return null;
+            }
+            final var captures = new ArrayList<String>(segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                final var segment = segments[i];
+                if (segment == null) {
+                    captures.add(nameSegments[i]);
+                } else if (!segment.equals(nameSegments[i])) {
+                    return null;
+                }
+            }
+            return captures.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * A template in which {@code $n} is replaced with the n-th captured segment.
+     */
+    private static final class Template {
+
+        /**
+         * Literal parts as strings, alternating with captured segments as their zero-based {@link Integer} index.
+         */
+        private final @NotNull Object @NotNull [] parts;
+
+        private Template(final @NotNull String template) {
+            final var parts = new ArrayList<>();
+            var start = 0;
+            for (int i = 0; i < template.length(); i++) {
+                if (template.charAt(i) != '$') {
+                    continue;
+                }
+                var end = i + 1;
+                while (end < template.length() && Character.isDigit(template.charAt(end))) {
+                    end++;
+                }
+                if (i > start) {
+                    parts.add(template.substring(start, i));
+                }
+                parts.add(Integer.parseInt(template.substring(i + 1, end)) - 1);
+                start = end;
+                i = end - 1;
+            }
+            if (start < template.length()) {
+                parts.add(template.substring(start));
+            }
+            this.parts = parts.toArray();
+        }
+
+        private @NotNull String expand(final @NotNull String @NotNull [] captures) {
+            if (parts.length == 1 && parts[0] instanceof String) {
+                return (String) parts[0];
+            }
+            final var sb = new StringBuilder();
+            for (final var part : parts) {
+                if (part instanceof Integer) {
+                    sb.append(captures[(Integer) part]);
+                } else {
+                    sb.append((String) part);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The pre-encoded static parts of the exposition of a single Dropwizard {@link Metric}.
+ * <p>
+ * The metric name is mapped to a family name and labels by a {@link LabelMapper}, and the family header and all sample
+ * prefixes (sample name and labels) are encoded for every {@link ExpositionFormat} once, when the exposition is
+ * created. Rendering the metric then only consists of copying these bytes and formatting the current values, whose
+ * text is reused by {@link FormattedValues} while a value is unchanged. Without a label mapping, the names, types and
+ * help texts match the ones of the {@code DropwizardExports} collector of the Prometheus simpleclient.
+ * <p>
+ * Histograms and Timers are exported as summary, unless {@link HistogramBuckets} are given, in which case they are
+ * exported as Prometheus histogram whose bucket counts are maintained by an {@link IncrementalHistogram}, which is
+ * shared by all expositions of the metric through {@link IncrementalHistograms}. Their reservoir snapshots are taken
+ * through a {@link ReservoirSnapshotCache}.
+ */
+final class MetricExposition {
+
+    /**
+     * The quantiles of a Dropwizard {@link com.codahale.metrics.Snapshot}, exported as summary.
+     */
+    static final @NotNull List<String> QUANTILES = List.of("0.5", "0.75", "0.95", "0.98", "0.99", "0.999");
+
+    private static final @NotNull List<String> QUANTILE_LABEL = List.of("quantile");
+    private static final @NotNull List<String> LE_LABEL = List.of("le");
+
+    enum Kind {
+        GAUGE,
+        COUNTER,
+        HISTOGRAM,
+        METER,
+        TIMER
+    }
+
+    private final @NotNull String dropwizardName;
+    private final @NotNull Metric metric;
+    private final @NotNull Kind kind;
+    private final @NotNull LabelMapper.Mapping mapping;
+    private final @Nullable HistogramBuckets buckets;
+    private final @Nullable IncrementalHistogram histogram;
+    private final @Nullable Sampling sampling;
+    private final boolean duplicate;
+    private final @NotNull String @NotNull [] sampleNames;
+    private final byte @NotNull [] @NotNull [] headers;
+    private final byte @NotNull [] @NotNull [] @NotNull [] samplePrefixes;
+    private final @NotNull FormattedValues formattedValues;
+
+    private MetricExposition(
+            final @NotNull String dropwizardName,
+            final @NotNull Metric metric,
+            final @NotNull Kind kind,
+            final @NotNull LabelMapper.Mapping mapping,
+            final @Nullable HistogramBuckets buckets,
+            final @Nullable IncrementalHistogram histogram,
+            final @Nullable Sampling sampling,
+            final boolean duplicate) {
+        this.dropwizardName = dropwizardName;
+        this.metric = metric;
+        this.kind = kind;
+        this.mapping = mapping;
+        this.buckets = buckets;
+        this.sampling = sampling;
+        this.duplicate = duplicate;
+        final var familyName = mapping.familyName();
+        final var labelNames = mapping.labelNames();
+        final var labelValues = mapping.labelValues();
+        final var help = String.format("Generated from Dropwizard metric import (metric=%s, type=%s)",
+                mapping.source(),
+                metric.getClass().getName());
+        final Collector.Type type;
+        final List<String> names;
+        switch (kind) {
+            case HISTOGRAM:
+            case TIMER:
+                if (buckets != null) {
+                    type = Collector.Type.HISTOGRAM;
+                    names = List.of(familyName + "_bucket", familyName + "_count", familyName + "_sum");
+                } else {
+                    type = Collector.Type.SUMMARY;
+                    names = List.of(familyName, familyName + "_count");
+                }
+                break;
+            case METER:
+                type = Collector.Type.COUNTER;
+                names = List.of(familyName + "_total");
+                break;
+            default:
+                type = Collector.Type.GAUGE;
+                names = List.of(familyName);
+                break;
+        }
+        final var formats = ExpositionFormat.values();
+        headers = new byte[formats.length][];
+        samplePrefixes = new byte[formats.length][][];
+        if (type == Collector.Type.SUMMARY) {
+            sampleNames = new String[QUANTILES.size() + 1];
+            for (int i = 0; i < QUANTILES.size(); i++) {
+                sampleNames[i] = names.get(0);
+            }
+            sampleNames[QUANTILES.size()] = names.get(1);
+        } else if (type == Collector.Type.HISTOGRAM) {
+            // the buckets including +Inf, followed by the count and the sum
+            sampleNames = new String[buckets.size() + 2];
+            for (int i = 0; i < buckets.size(); i++) {
+                sampleNames[i] = names.get(0);
+            }
+            sampleNames[buckets.size()] = names.get(1);
+            sampleNames[buckets.size() + 1] = names.get(2);
+        } else {
+            sampleNames = names.toArray(new String[0]);
+        }
+        for (final var format : formats) {
+            final var index = format.ordinal();
+            headers[index] = format.familyHeader(familyName, type, help);
+            final var prefixes = new byte[sampleNames.length][];
+            if (type == Collector.Type.SUMMARY) {
+                final var quantileLabelNames = concat(labelNames, QUANTILE_LABEL);
+                for (int i = 0; i < QUANTILES.size(); i++) {
+                    prefixes[i] = format.samplePrefix(type,
+                            sampleNames[i],
+                            quantileLabelNames,
+                            concat(labelValues, List.of(QUANTILES.get(i))));
+                }
+                prefixes[QUANTILES.size()] =
+                        format.samplePrefix(type, sampleNames[QUANTILES.size()], labelNames, labelValues);
+            } else if (type == Collector.Type.HISTOGRAM) {
+                final var leLabelNames = concat(labelNames, LE_LABEL);
+                for (int i = 0; i < buckets.size(); i++) {
+                    prefixes[i] = format.samplePrefix(type,
+                            sampleNames[i],
+                            leLabelNames,
+                            concat(labelValues, List.of(buckets.leValue(i))));
+                }
+                for (int i = buckets.size(); i < sampleNames.length; i++) {
+                    prefixes[i] = format.samplePrefix(type, sampleNames[i], labelNames, labelValues);
+                }
+            } else {
+                prefixes[0] = format.samplePrefix(type, sampleNames[0], labelNames, labelValues);
+            }
+            samplePrefixes[index] = prefixes;
+        }
+        this.histogram = type == Collector.Type.HISTOGRAM ? Objects.requireNonNull(histogram) : null;
+        // only the gauges, quantiles and sums have double values, the counts are written as integers
+        if (type == Collector.Type.SUMMARY) {
+            formattedValues = new FormattedValues(0, QUANTILES.size());
+        } else if (type == Collector.Type.HISTOGRAM) {
+            formattedValues = new FormattedValues(buckets.size() + 1, 1);
+        } else if (kind == Kind.GAUGE) {
+            formattedValues = new FormattedValues(0, 1);
+        } else {
+            formattedValues = FormattedValues.NONE;
+        }
+    }
+
+    /**
+     * Creates the exposition of the given metric.
+     *
+     * @param mapping       the family name and labels of the metric
+     * @param buckets       the buckets to export a Histogram or Timer as Prometheus histogram, or {@code null} to
+     *                      export it as summary, ignored for other metrics
+     * @param snapshotCache the cache through which the reservoir snapshots of a Histogram or Timer are taken
+     * @param histograms    the store of the bucket counts of a Histogram or Timer that is exported as Prometheus
+     *                      histogram
+     * @param duplicate     whether another metric is already exported with the same family name and labels, or a
+     *                      different type or label names
+     * @return the exposition or {@code null} if the type of the metric is not supported
+     */
+    static @Nullable MetricExposition of(
+            final @NotNull String dropwizardName,
+            final @NotNull Metric metric,
+            final @NotNull LabelMapper.Mapping mapping,
+            final @Nullable HistogramBuckets buckets,
+            final @NotNull ReservoirSnapshotCache snapshotCache,
+            final @NotNull IncrementalHistograms histograms,
+            final boolean duplicate) {
+        final var kind = kindOf(metric);
+        if (kind == null) {
+            return null;
+        }
+        if (kind == Kind.HISTOGRAM || kind == Kind.TIMER) {
+            return new MetricExposition(dropwizardName,
+                    metric,
+                    kind,
+                    mapping,
+                    buckets,
+                    buckets != null ? histograms.get((Sampling) metric, buckets) : null,
+                    snapshotCache.sampling((Sampling) metric),
+                    duplicate);
+        }
+        return new MetricExposition(dropwizardName, metric, kind, mapping, null, null, null, duplicate);
+    }
+
+    /**
+     * Creates a copy of this exposition that is either a duplicate or not. The copy continues the bucket counts of
+     * this exposition.
+     */
+    @NotNull MetricExposition withDuplicate(final boolean duplicate) {
+        return new MetricExposition(dropwizardName, metric, kind, mapping, buckets, histogram, sampling, duplicate);
+    }
+
+    /**
+     * Returns the Prometheus family name for the given Dropwizard metric name.
+     */
+    static @NotNull String familyName(final @NotNull String dropwizardName) {
+        return Collector.sanitizeMetricName(dropwizardName);
+    }
+
+    private static @NotNull List<String> concat(final @NotNull List<String> first, final @NotNull List<String> second) {
+        if (first.isEmpty()) {
+            return second;
+        }
+        final var result = new ArrayList<String>(first.size() + second.size());
+        result.addAll(first);
+        result.addAll(second);
+        return result;
+    }
+
+    private static @Nullable Kind kindOf(final @NotNull Metric metric) {
+        if (metric instanceof Gauge) {
+            return Kind.GAUGE;
+        } else if (metric instanceof Counter) {
+            return Kind.COUNTER;
+        } else if (metric instanceof Histogram) {
+            return Kind.HISTOGRAM;
+        } else if (metric instanceof Meter) {
+            return Kind.METER;
+        } else if (metric instanceof Timer) {
+            return Kind.TIMER;
+        }
+        return null;
+    }
+
+    @NotNull String dropwizardName() {
+        return dropwizardName;
+    }
+
+    @NotNull Metric metric() {
+        return metric;
+    }
+
+    @NotNull Kind kind() {
+        return kind;
+    }
+
+    @NotNull String familyName() {
+        return mapping.familyName();
+    }
+
+    @NotNull List<String> labelNames() {
+        return mapping.labelNames();
+    }
+
+    @NotNull List<String> labelValues() {
+        return mapping.labelValues();
+    }
+
+    /**
+     * Returns the reservoir snapshot of this Histogram or Timer, which may be shared with other renders.
+     */
+    @NotNull Snapshot snapshot() {
+        return Objects.requireNonNull(sampling).getSnapshot();
+    }
+
+    /**
+     * Returns the {@link Sampling} from which the reservoir snapshots of this Histogram or Timer are taken.
+     */
+    @NotNull Sampling sampling() {
+        return Objects.requireNonNull(sampling);
+    }
+
+    /**
+     * Returns the bucket counts if this Histogram or Timer is exported as Prometheus histogram, otherwise
+     * {@code null}.
+     */
+    @Nullable IncrementalHistogram histogram() {
+        return histogram;
+    }
+
+    /**
+     * Whether this metric conflicts with a metric that is already exported in the same family, because it has the same
+     * labels or a different type or label names. Duplicates are not rendered, as a series must not appear twice and a
+     * family must have a single type in an exposition.
+     */
+    boolean isDuplicate() {
+        return duplicate;
+    }
+
+    int sampleCount() {
+        return sampleNames.length;
+    }
+
+    @NotNull String sampleName(final int index) {
+        return sampleNames[index];
+    }
+
+    byte @NotNull [] header(final @NotNull ExpositionFormat format) {
+        return headers[format.ordinal()];
+    }
+
+    byte @NotNull [] samplePrefix(final @NotNull ExpositionFormat format, final int index) {
+        return samplePrefixes[format.ordinal()][index];
+    }
+
+    /**
+     * Returns the last formatted text values of the samples, indexed like the sample prefixes.
+     */
+    @NotNull FormattedValues formattedValues() {
+        return formattedValues;
+    }
+}
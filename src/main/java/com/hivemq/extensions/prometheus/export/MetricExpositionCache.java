@@ -0,0 +1,272 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Maintains the {@link MetricExposition} of every metric of a Dropwizard
+ * {@link com.codahale.metrics.MetricRegistry MetricRegistry}.
+ * <p>
+ * The cache is registered as {@link MetricRegistryListener}, so the family name and labels, HELP and TYPE lines and
+ * sample prefixes of a metric are computed once when the metric is added, and evicted when it is removed. Metrics that
+ * are rejected by the metric filter are not cached at all. The expositions are grouped into a {@link FamilyExposition}
+ * per family name, so a scrape just iterates the cached families and reads the current values, without any name
+ * translation, label mapping, filtering or lookup.
+ * <p>
+ * The number of exported series of a family is limited by the series limit, see {@link FamilyExposition}. A warning is
+ * logged whenever a family starts to exceed the limit.
+ * <p>
+ * Metrics are added and removed rarely, so these modifications are synchronized to keep the families consistent, while
+ * scrapes read the families without locking.
+ */
+class MetricExpositionCache implements MetricRegistryListener {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(MetricExpositionCache.class);
+
+    private final @NotNull Predicate<String> metricFilter;
+    private final @NotNull LabelMapper labelMapper;
+    private final @Nullable HistogramBuckets histogramBuckets;
+    private final @Nullable HistogramBuckets timerBuckets;
+    private final @NotNull ReservoirSnapshotCache snapshotCache;
+    private final @NotNull IncrementalHistograms histograms;
+    private final int seriesLimit;
+    private final @NotNull Map<String, MetricExposition> expositions = new ConcurrentHashMap<>();
+    /**
+     * The exported families by their name, duplicates are not a member of any family.
+     */
+    private final @NotNull Map<String, FamilyExposition> families = new ConcurrentHashMap<>();
+    /**
+     * The duplicates by their family name and Dropwizard name, in the order they were added, which are promoted when
+     * the metric they conflict with is removed.
+     */
+    private final @NotNull Map<String, Map<String, MetricExposition>> duplicates = new HashMap<>();
+
+    /**
+     * @param metricFilter     decides by the Dropwizard name whether a metric is cached and therefore exported
+     * @param labelMapper      maps the Dropwizard name of a metric to its family name and labels
+     * @param histogramBuckets the buckets to export Histograms as Prometheus histograms, or {@code null} to export them
+     *                         as summaries
+     * @param timerBuckets     the buckets in seconds to export Timers as Prometheus histograms, or {@code null} to
+     *                         export them as summaries
+     * @param snapshotCache    the cache through which the reservoir snapshots of Histograms and Timers are taken
+     * @param histograms       the store of the bucket counts of Histograms and Timers exported as Prometheus histograms
+     * @param seriesLimit      the maximum number of exported series per family, or {@code 0} for no limit
+     */
+    MetricExpositionCache(
+            final @NotNull Predicate<String> metricFilter,
+            final @NotNull LabelMapper labelMapper,
+            final @Nullable HistogramBuckets histogramBuckets,
+            final @Nullable HistogramBuckets timerBuckets,
+            final @NotNull ReservoirSnapshotCache snapshotCache,
+            final @NotNull IncrementalHistograms histograms,
+            final int seriesLimit) {
+        if (seriesLimit < 0) {
+            throw new IllegalArgumentException("series limit must not be negative: " + seriesLimit);
+        }
+        this.metricFilter = metricFilter;
+        this.labelMapper = labelMapper;
+        this.histogramBuckets = histogramBuckets;
+        this.timerBuckets = timerBuckets;
+        this.snapshotCache = snapshotCache;
+        this.histograms = histograms;
+        this.seriesLimit = seriesLimit == 0 ? Integer.MAX_VALUE : seriesLimit;
+    }
+
+    /**
+     * Returns a weakly consistent view of all cached expositions, including the ones of duplicates.
+     */
+    @NotNull Collection<MetricExposition> expositions() {
+        return expositions.values();
+    }
+
+    /**
+     * Returns a weakly consistent view of all exported families.
+     */
+    @NotNull Collection<FamilyExposition> families() {
+        return families.values();
+    }
+
+    private synchronized void add(final @NotNull String name, final @NotNull Metric metric) {
+        if (!metricFilter.test(name)) {
+            LOG.trace("Metric '{}' is not exported, because it is excluded by the metric filter", name);
+            return;
+        }
+        final var buckets = metric instanceof Timer ? timerBuckets : histogramBuckets;
+        final var exposition = MetricExposition.of(name,
+                metric,
+                labelMapper.map(name),
+                buckets,
+                snapshotCache,
+                histograms,
+                false);
+        if (exposition == null) {
+            return;
+        }
+        final var family = families.get(exposition.familyName());
+        if (family == null) {
+            final var created = new FamilyExposition(exposition, seriesLimit);
+            families.put(exposition.familyName(), created);
+            expositions.put(name, exposition);
+            warnIfTruncated(created, exposition);
+            return;
+        }
+        final var conflict = family.conflict(exposition);
+        if (conflict != null) {
+            LOG.warn("Metric '{}' is not exported, because its Prometheus name '{}' is already used by metric '{}'",
+                    name,
+                    exposition.familyName(),
+                    conflict.dropwizardName());
+            final var duplicate = exposition.withDuplicate(true);
+            duplicates.computeIfAbsent(exposition.familyName(), familyName -> new LinkedHashMap<>())
+                    .put(name, duplicate);
+            expositions.put(name, duplicate);
+            return;
+        }
+        family.add(exposition);
+        expositions.put(name, exposition);
+        warnIfTruncated(family, exposition);
+    }
+
+    /**
+     * Logs a warning if the given exposition that has just been added is the first member of the family beyond the
+     * series limit. All members of a family have the same number of series.
+     */
+    private void warnIfTruncated(final @NotNull FamilyExposition family, final @NotNull MetricExposition exposition) {
+        final var series = (long) family.size() * exposition.sampleCount();
+        if (series > seriesLimit && series - exposition.sampleCount() <= seriesLimit) {
+            LOG.warn("Metric '{}' and further metrics of family '{}' are not exported, because the family exceeds " +
+                            "the limit of {} series with {} series per metric",
+                    exposition.dropwizardName(),
+                    exposition.familyName(),
+                    seriesLimit,
+                    exposition.sampleCount());
+        }
+    }
+
+    private synchronized void remove(final @NotNull String name) {
+        final var removed = expositions.remove(name);
+        if (removed == null) {
+            return;
+        }
+        final var familyName = removed.familyName();
+        final var familyDuplicates = duplicates.get(familyName);
+        if (removed.isDuplicate()) {
+            if (familyDuplicates != null) {
+                familyDuplicates.remove(name);
+                if (familyDuplicates.isEmpty()) {
+                    duplicates.remove(familyName);
+                }
+            }
+            return;
+        }
+        final var family = families.get(familyName);
+        if (family != null && family.remove(removed)) {
+            families.remove(familyName);
+        }
+        if (familyDuplicates == null) {
+            return;
+        }
+        // duplicates of the removed metric may now be exported
+        final var iterator = familyDuplicates.values().iterator();
+        while (iterator.hasNext()) {
+            final var exposition = iterator.next();
+            final var current = families.get(familyName);
+            if (current == null) {
+                final var promoted = exposition.withDuplicate(false);
+                families.put(familyName, new FamilyExposition(promoted, seriesLimit));
+                expositions.put(promoted.dropwizardName(), promoted);
+                iterator.remove();
+            } else if (current.conflict(exposition) == null) {
+                final var promoted = exposition.withDuplicate(false);
+                current.add(promoted);
+                expositions.put(promoted.dropwizardName(), promoted);
+                iterator.remove();
+            }
+        }
+        if (familyDuplicates.isEmpty()) {
+            duplicates.remove(familyName);
+        }
+    }
+
+    @Override
+    public void onGaugeAdded(final @NotNull String name, final @NotNull Gauge<?> gauge) {
+        add(name, gauge);
+    }
+
+    @Override
+    public void onGaugeRemoved(final @NotNull String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(final @NotNull String name, final @NotNull Counter counter) {
+        add(name, counter);
+    }
+
+    @Override
+    public void onCounterRemoved(final @NotNull String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(final @NotNull String name, final @NotNull Histogram histogram) {
+        add(name, histogram);
+    }
+
+    @Override
+    public void onHistogramRemoved(final @NotNull String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(final @NotNull String name, final @NotNull Meter meter) {
+        add(name, meter);
+    }
+
+    @Override
+    public void onMeterRemoved(final @NotNull String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(final @NotNull String name, final @NotNull Timer timer) {
+        add(name, timer);
+    }
+
+    @Override
+    public void onTimerRemoved(final @NotNull String name) {
+        remove(name);
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the Prometheus protobuf exposition, a stream of length-delimited {@code io.prometheus.client.MetricFamily}
+ * messages as encoded by {@link ExpositionFormat#PROTOBUF}, into calls of a {@link Visitor}.
+ * <p>
+ * This lets the push exporters reuse the rendering of the scrape path, including the metric filter, the label mapping
+ * and the histogram buckets, and only translate the rendered exposition into their own protocol. Only the fields that
+ * are written by the renderers are decoded, unknown fields are skipped.
+ */
+final class MetricFamilyReader {
+
+    private static final @NotNull Collector.Type @NotNull [] FAMILY_TYPES = {
+            Collector.Type.COUNTER,
+            Collector.Type.GAUGE,
+            Collector.Type.SUMMARY,
+            Collector.Type.UNKNOWN,
+            Collector.Type.HISTOGRAM,
+            Collector.Type.GAUGE_HISTOGRAM};
+
+    private final byte @NotNull [] bytes;
+    private int position;
+
+    private MetricFamilyReader(final byte @NotNull [] bytes, final int position) {
+        this.bytes = bytes;
+        this.position = position;
+    }
+
+    /**
+     * Decodes the given protobuf exposition.
+     *
+     * @param exposition the bytes of the exposition
+     * @param length     the number of bytes of the exposition
+     * @throws IllegalArgumentException if the exposition is malformed
+     */
+    static void read(final byte @NotNull [] exposition, final int length, final @NotNull Visitor visitor) {
+        final var reader = new MetricFamilyReader(exposition, 0);
+        try {
+            while (reader.position < length) {
+                final var end = reader.readLength();
+                reader.readFamily(end, visitor);
+            }
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated protobuf exposition", e);
+        }
+    }
+
+    private void readFamily(final int end, final @NotNull Visitor visitor) {
+        var name = "";
+        var type = Collector.Type.UNKNOWN;
+        final var metrics = new ArrayList<int[]>();
+        while (position < end) {
+            final var tag = (int) readVarint();
+            switch (tag) {
+                case (ProtobufEncoding.FAMILY_NAME << 3) | ProtobufEncoding.WIRE_TYPE_LEN:
+                    name = readString();
+                    break;
+                case (ProtobufEncoding.FAMILY_TYPE << 3) | ProtobufEncoding.WIRE_TYPE_VARINT:
+                    final var familyType = (int) readVarint();
+                    type = familyType < FAMILY_TYPES.length ? FAMILY_TYPES[familyType] : Collector.Type.UNKNOWN;
+                    break;
+                case (ProtobufEncoding.FAMILY_METRIC << 3) | ProtobufEncoding.WIRE_TYPE_LEN:
+                    // the metrics may precede the type, so they are decoded after the family
+                    final var metricEnd = readLength();
+                    metrics.add(new int[]{position, metricEnd});
+                    position = metricEnd;
+                    break;
+                default:
+                    skip(tag);
+                    break;
+            }
+        }
+        visitor.family(name, type);
+        for (final var metric : metrics) {
+            position = metric[0];
+            readMetric(metric[1], type, visitor);
+        }
+        position = end;
+    }
+
+    private void readMetric(final int end, final @NotNull Collector.Type type, final @NotNull Visitor visitor) {
+        final var labelNames = new ArrayList<String>(4);
+        final var labelValues = new ArrayList<String>(4);
+        var valueStart = -1;
+        var valueEnd = -1;
+        while (position < end) {
+            final var tag = (int) readVarint();
+            if (tag == ((ProtobufEncoding.METRIC_LABEL << 3) | ProtobufEncoding.WIRE_TYPE_LEN)) {
+                readLabel(readLength(), labelNames, labelValues);
+            } else if ((tag & 7) == ProtobufEncoding.WIRE_TYPE_LEN) {
+                // the gauge, counter, summary, untyped or histogram message, whose kind is determined by the family
+                valueEnd = readLength();
+                valueStart = position;
+                position = valueEnd;
+            } else {
+                skip(tag);
+            }
+        }
+        if (valueStart < 0) {
+            return;
+        }
+        position = valueStart;
+        switch (type) {
+            case SUMMARY:
+                readSummary(valueEnd, labelNames, labelValues, visitor);
+                break;
+            case HISTOGRAM:
+            case GAUGE_HISTOGRAM:
+                readHistogram(valueEnd, labelNames, labelValues, visitor);
+                break;
+            default:
+                visitor.value(labelNames, labelValues, readValue(valueEnd));
+                break;
+        }
+        position = end;
+    }
+
+    private void readLabel(
+            final int end,
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues) {
+        var name = "";
+        var value = "";
+        while (position < end) {
+            final var tag = (int) readVarint();
+            if (tag == ((ProtobufEncoding.LABEL_NAME << 3) | ProtobufEncoding.WIRE_TYPE_LEN)) {
+                name = readString();
+            } else if (tag == ((ProtobufEncoding.LABEL_VALUE << 3) | ProtobufEncoding.WIRE_TYPE_LEN)) {
+                value = readString();
+            } else {
+                skip(tag);
+            }
+        }
+        labelNames.add(name);
+        labelValues.add(value);
+    }
+
+    private double readValue(final int end) {
+        var value = Double.NaN;
+        while (position < end) {
+            final var tag = (int) readVarint();
+            if (tag == ((ProtobufEncoding.VALUE << 3) | ProtobufEncoding.WIRE_TYPE_I64)) {
+                value = readDouble();
+            } else {
+                skip(tag);
+            }
+        }
+        return value;
+    }
+
+    private void readSummary(
+            final int end,
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final @NotNull Visitor visitor) {
+        var count = 0L;
+        var sum = Double.NaN;
+        var quantiles = new double[8];
+        var values = new double[8];
+        var size = 0;
+        while (position < end) {
+            final var tag = (int) readVarint();
+            if (tag == ((ProtobufEncoding.SUMMARY_SAMPLE_COUNT << 3) | ProtobufEncoding.WIRE_TYPE_VARINT)) {
+                count = readVarint();
+            } else if (tag == ((ProtobufEncoding.SUMMARY_SAMPLE_SUM << 3) | ProtobufEncoding.WIRE_TYPE_I64)) {
+                sum = readDouble();
+            } else if (tag == ((ProtobufEncoding.SUMMARY_QUANTILE << 3) | ProtobufEncoding.WIRE_TYPE_LEN)) {
+                if (size == quantiles.length) {
+                    quantiles = Arrays.copyOf(quantiles, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                final var quantileEnd = readLength();
+                while (position < quantileEnd) {
+                    final var quantileTag = (int) readVarint();
+                    if (quantileTag ==
+                            ((ProtobufEncoding.QUANTILE_QUANTILE << 3) | ProtobufEncoding.WIRE_TYPE_I64)) {
+                        quantiles[size] = readDouble();
+                    } else if (quantileTag ==
+                            ((ProtobufEncoding.QUANTILE_VALUE << 3) | ProtobufEncoding.WIRE_TYPE_I64)) {
+                        values[size] = readDouble();
+                    } else {
+                        skip(quantileTag);
+                    }
+                }
+                size++;
+            } else {
+                skip(tag);
+            }
+        }
+        visitor.summary(labelNames,
+                labelValues,
+                count,
+                sum,
+                Arrays.copyOf(quantiles, size),
+                Arrays.copyOf(values, size));
+    }
+
+    private void readHistogram(
+            final int end,
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final @NotNull Visitor visitor) {
+        var count = 0L;
+        var sum = Double.NaN;
+        var upperBounds = new double[16];
+        var cumulativeCounts = new long[16];
+        var size = 0;
+        while (position < end) {
+            final var tag = (int) readVarint();
+            if (tag == ((ProtobufEncoding.HISTOGRAM_SAMPLE_COUNT << 3) | ProtobufEncoding.WIRE_TYPE_VARINT)) {
+                count = readVarint();
+            } else if (tag == ((ProtobufEncoding.HISTOGRAM_SAMPLE_SUM << 3) | ProtobufEncoding.WIRE_TYPE_I64)) {
+                sum = readDouble();
+            } else if (tag == ((ProtobufEncoding.HISTOGRAM_BUCKET << 3) | ProtobufEncoding.WIRE_TYPE_LEN)) {
+                if (size == upperBounds.length) {
+                    upperBounds = Arrays.copyOf(upperBounds, size * 2);
+                    cumulativeCounts = Arrays.copyOf(cumulativeCounts, size * 2);
+                }
+                final var bucketEnd = readLength();
+                while (position < bucketEnd) {
+                    final var bucketTag = (int) readVarint();
+                    if (bucketTag ==
+                            ((ProtobufEncoding.BUCKET_CUMULATIVE_COUNT << 3) | ProtobufEncoding.WIRE_TYPE_VARINT)) {
+                        cumulativeCounts[size] = readVarint();
+                    } else if (bucketTag ==
+                            ((ProtobufEncoding.BUCKET_UPPER_BOUND << 3) | ProtobufEncoding.WIRE_TYPE_I64)) {
+                        upperBounds[size] = readDouble();
+                    } else {
+                        skip(bucketTag);
+                    }
+                }
+                size++;
+            } else {
+                skip(tag);
+            }
+        }
+        // the +Inf bucket is implicit in the protobuf format, its cumulative count is the count of the histogram
+        if (size == 0 || upperBounds[size - 1] != Double.POSITIVE_INFINITY) {
+            if (size == upperBounds.length) {
+                upperBounds = Arrays.copyOf(upperBounds, size + 1);
+                cumulativeCounts = Arrays.copyOf(cumulativeCounts, size + 1);
+            }
+            upperBounds[size] = Double.POSITIVE_INFINITY;
+            cumulativeCounts[size] = count;
+            size++;
+        }
+        visitor.histogram(labelNames,
+                labelValues,
+                count,
+                sum,
+                Arrays.copyOf(upperBounds, size),
+                Arrays.copyOf(cumulativeCounts, size));
+    }
+
+    private long readVarint() {
+        var value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final var b = bytes[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint in protobuf exposition");
+    }
+
+    /**
+     * Reads the length of a length-delimited field.
+     *
+     * @return the end position of the field
+     */
+    private int readLength() {
+        final var length = readVarint();
+        if (length < 0 || length > bytes.length - position) {
+            throw new IllegalArgumentException("invalid length in protobuf exposition: " + length);
+        }
+        return position + (int) length;
+    }
+
+    private double readDouble() {
+        var bits = 0L;
+        for (int i = 0; i < 8; i++) {
+            bits |= (bytes[position++] & 0xFFL) << (i << 3);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private @NotNull String readString() {
+        final var end = readLength();
+        final var value = new String(bytes, position, end - position, StandardCharsets.UTF_8);
+        position = end;
+        return value;
+    }
+
+    private void skip(final int tag) {
+        switch (tag & 7) {
+            case ProtobufEncoding.WIRE_TYPE_VARINT:
+                readVarint();
+                break;
+            case ProtobufEncoding.WIRE_TYPE_I64:
+                position += 8;
+                break;
+            case ProtobufEncoding.WIRE_TYPE_LEN:
+                position = readLength();
+                break;
+            case 5:
+                // I32
+                position += 4;
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported wire type in protobuf exposition: " + tag);
+        }
+    }
+
+    /**
+     * Receives the decoded metric families. Each family is announced by {@link #family(String, Collector.Type)},
+     * followed by one call per metric of the family.
+     */
+    interface Visitor {
+
+        /**
+         * @param name the name of the family, including the {@code _total} suffix for counters
+         */
+        void family(@NotNull String name, @NotNull Collector.Type type);
+
+        /**
+         * A metric of a counter, gauge or untyped family.
+         */
+        void value(@NotNull List<String> labelNames, @NotNull List<String> labelValues, double value);
+
+        /**
+         * A metric of a summary family.
+         *
+         * @param sum       the sum of the observations, {@link Double#NaN} if it is not exported
+         * @param quantiles the quantiles, in the same order as their values
+         */
+        void summary(
+                @NotNull List<String> labelNames,
+                @NotNull List<String> labelValues,
+                long count,
+                double sum,
+                double @NotNull [] quantiles,
+                double @NotNull [] values);
+
+        /**
+         * A metric of a histogram family.
+         *
+         * @param sum              the sum of the observations, {@link Double#NaN} if it is not exported
+         * @param upperBounds      the ascending upper bounds of the buckets, always ending with {@code +Inf}
+         * @param cumulativeCounts the cumulative counts of the buckets, in the same order as their upper bounds
+         */
+        void histogram(
+                @NotNull List<String> labelNames,
+                @NotNull List<String> labelValues,
+                long count,
+                double sum,
+                double @NotNull [] upperBounds,
+                long @NotNull [] cumulativeCounts);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.hivemq.extensions.prometheus.configuration.PrometheusExtensionConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Decides by the Dropwizard name whether a metric is exported at all.
+ * <p>
+ * A metric is exported if it matches any of the include patterns (or no include patterns are given) and none of the
+ * exclude patterns. Patterns are globs, unless they start with
+ * {@value PrometheusExtensionConfiguration#METRIC_PATTERN_REGEX_PREFIX}, in which case the rest is a regular expression
+ * that must match the whole name. The globs of each list are compiled into a single {@link GlobAutomaton}.
+ * <p>
+ * The filter is applied once when a metric is registered, so excluded metrics cost nothing on a scrape.
+ */
+final class MetricNameFilter implements Predicate<String> {
+
+    static final @NotNull MetricNameFilter ALL = new MetricNameFilter(null, Patterns.NONE);
+
+    private final @Nullable Patterns includes;
+    private final @NotNull Patterns excludes;
+
+    private MetricNameFilter(final @Nullable Patterns includes, final @NotNull Patterns excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includes the include patterns, an empty collection includes all metrics
+     * @param excludes the exclude patterns
+     * @throws java.util.regex.PatternSyntaxException if a regular expression is invalid
+     */
+    static @NotNull MetricNameFilter of(
+            final @NotNull Collection<String> includes,
+            final @NotNull Collection<String> excludes) {
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return ALL;
+        }
+        return new MetricNameFilter(includes.isEmpty() ? null : Patterns.compile(includes),
+                Patterns.compile(excludes));
+    }
+
+    @Override
+    public boolean test(final @NotNull String dropwizardName) {
+        return (includes == null || includes.matches(dropwizardName)) && !excludes.matches(dropwizardName);
+    }
+
+    private static final class Patterns {
+
+        private static final @NotNull Patterns NONE = new Patterns(null, List.of());
+
+        private final @Nullable GlobAutomaton globs;
+        private final @NotNull List<Pattern> regexes;
+
+        private Patterns(final @Nullable GlobAutomaton globs, final @NotNull List<Pattern> regexes) {
+            this.globs = globs;
+            this.regexes = regexes;
+        }
+
+        static @NotNull Patterns compile(final @NotNull Collection<String> patterns) {
+            final var globs = new ArrayList<String>();
+            final var regexes = new ArrayList<Pattern>();
+            for (final var pattern : patterns) {
+                if (pattern.startsWith(PrometheusExtensionConfiguration.METRIC_PATTERN_REGEX_PREFIX)) {
+                    regexes.add(Pattern.compile(pattern.substring(
+                            PrometheusExtensionConfiguration.METRIC_PATTERN_REGEX_PREFIX.length())));
+                } else {
+                    globs.add(pattern);
+                }
+            }
+            return new Patterns(globs.isEmpty() ? null : new GlobAutomaton(globs), regexes);
+        }
+
+        boolean matches(final @NotNull String name) {
+            if (globs != null && globs.matches(name)) {
+                return true;
+            }
+            for (final var regex : regexes) {
+                if (regex.matcher(name).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
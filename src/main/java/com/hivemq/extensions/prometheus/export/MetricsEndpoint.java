@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.SampleNameFilter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Serves scrapes of the exposition of a list of {@link ExpositionRenderer}s from a {@link ScrapeSnapshotCache},
+ * independent of the HTTP server implementation.
+ * <p>
+ * The exposition format (Prometheus text, OpenMetrics or Prometheus protobuf) is negotiated via the {@code Accept}
+ * header, and the content encoding via the {@code Accept-Encoding} header. The exposition is rendered once per cache
+ * window and format, and the same encoded bytes are served to every scrape. Compressed bodies are stored alongside the
+ * snapshot, so each snapshot is compressed at most once per {@link ContentEncoding}. Requests with {@code name[]} query
+ * parameters are rare and always rendered on demand.
+ * <p>
+ * Requests with the {@code debug=cardinality} query parameter are served with a {@link CardinalityReport} of the
+ * {@code top} (default {@value #DEFAULT_REPORT_TOP}) heaviest families instead of the exposition, which is rendered on
+ * demand as well.
+ * <p>
+ * The snapshots of the formats that have been scraped can be rendered ahead of the scrapes with {@link #prerender()},
+ * so that scrapes only write the latest bytes.
+ */
+class MetricsEndpoint {
+
+    static final int INITIAL_BUFFER_CAPACITY = 1 << 16;
+    static final int DEFAULT_REPORT_TOP = 10;
+
+    private final @NotNull List<ExpositionRenderer> renderers;
+    private final @NotNull ExporterMetrics metrics;
+    private final @NotNull SnapshotCompressor compressor;
+    private final long retryAfterSeconds;
+    private final @NotNull Map<ExpositionFormat, ScrapeSnapshotCache> caches = new EnumMap<>(ExpositionFormat.class);
+    /**
+     * A spare buffer that is reused by the next render, renders that run concurrently allocate their own buffer.
+     */
+    private final @NotNull AtomicReference<ExpositionBuffer> spareBuffer = new AtomicReference<>();
+
+    /**
+     * @param renderer the renderer of the exported metrics, the exporter metrics are rendered after them
+     */
+    MetricsEndpoint(
+            final @NotNull ExpositionRenderer renderer,
+            final @NotNull ExporterMetrics metrics,
+            final @NotNull Duration cacheMaxAge,
+            final @NotNull SnapshotCompressor compressor) {
+        this(renderer, metrics, cacheMaxAge, Duration.ZERO, null, compressor);
+    }
+
+    /**
+     * @param renderer       the renderer of the exported metrics, the exporter metrics are rendered after them
+     * @param renderDeadline the maximum time a scrape waits for a render before it is served with the last complete
+     *                       snapshot, zero to always wait, see {@link ScrapeSnapshotCache}
+     * @param renderExecutor the executor of the renders of scrapes, required if a render deadline is given
+     */
+    MetricsEndpoint(
+            final @NotNull ExpositionRenderer renderer,
+            final @NotNull ExporterMetrics metrics,
+            final @NotNull Duration cacheMaxAge,
+            final @NotNull Duration renderDeadline,
+            final @Nullable Executor renderExecutor,
+            final @NotNull SnapshotCompressor compressor) {
+        this.renderers = List.of(renderer, metrics);
+        this.metrics = metrics;
+        this.compressor = compressor;
+        // a rejected scraper can expect a new snapshot after one cache window
+        this.retryAfterSeconds = Math.max(1, (cacheMaxAge.toMillis() + 999) / 1000);
+        for (final var format : ExpositionFormat.values()) {
+            caches.put(format,
+                    new ScrapeSnapshotCache(cacheMaxAge,
+                            renderDeadline,
+                            renderExecutor,
+                            () -> render(format, null),
+                            metrics));
+        }
+    }
+
+    /**
+     * @param acceptHeader          the value of the {@code Accept} request header
+     * @param acceptEncodingHeaders the values of the {@code Accept-Encoding} request headers
+     * @param rawQuery              the raw query of the request URI
+     */
+    @NotNull ScrapeResponse scrape(
+            final @Nullable String acceptHeader,
+            final @Nullable List<String> acceptEncodingHeaders,
+            final @Nullable String rawQuery) throws IOException {
+        metrics.recordScrapeStarted();
+        try {
+            final var format = ExpositionFormat.negotiate(acceptHeader);
+            final var names = parameters(rawQuery, "name[]");
+            final ScrapeSnapshot snapshot;
+            if (parameters(rawQuery, "debug").contains("cardinality")) {
+                metrics.recordScrape(ExporterMetrics.CacheResult.BYPASS);
+                snapshot = report(parseTop(parameters(rawQuery, "top")));
+            } else if (names.isEmpty()) {
+                snapshot = caches.get(format).get();
+                metrics.recordSnapshotAge(System.nanoTime() - snapshot.createdAtNanos());
+            } else {
+                metrics.recordScrape(ExporterMetrics.CacheResult.BYPASS);
+                snapshot = render(format, SampleNameFilter.restrictToNamesEqualTo(null, names));
+            }
+            final var encoding = ContentEncoding.negotiate(acceptEncodingHeaders, compressor.isZstdEnabled());
+            return new ScrapeResponse(snapshot.contentType(), encoding, snapshot.body(encoding, compressor));
+        } finally {
+            metrics.recordScrapeFinished();
+        }
+    }
+
+    /**
+     * Renders new snapshots of all formats that have been scraped before, regardless of the age of their cached
+     * snapshots. Formats that have never been scraped are rendered on demand by their first scrape.
+     */
+    void prerender() throws IOException {
+        for (final var cache : caches.values()) {
+            if (cache.hasSnapshot()) {
+                cache.refresh();
+            }
+        }
+    }
+
+    /**
+     * Records a scrape that is rejected because the server is overloaded.
+     *
+     * @return the number of seconds after which the scraper should retry
+     */
+    long reject() {
+        metrics.recordScrapeRejected();
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Records a scrape response that has been written completely.
+     *
+     * @param bytes      the number of body bytes as sent
+     * @param writeNanos the time it took to write the response
+     */
+    void recordResponse(final long bytes, final long writeNanos) {
+        metrics.recordResponse(bytes, writeNanos);
+    }
+
+    @NotNull ExporterMetrics metrics() {
+        return metrics;
+    }
+
+    void close() {
+        for (final var renderer : renderers) {
+            renderer.close();
+        }
+    }
+
+    private @NotNull ScrapeSnapshot render(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter) throws IOException {
+        var buffer = spareBuffer.getAndSet(null);
+        if (buffer == null) {
+            buffer = new ExpositionBuffer(INITIAL_BUFFER_CAPACITY);
+        }
+        try {
+            final var start = System.nanoTime();
+            for (final var renderer : renderers) {
+                renderer.render(format, sampleNameFilter, buffer);
+            }
+            format.writeTerminator(buffer);
+            final var body = buffer.toByteArray();
+            final var end = System.nanoTime();
+            metrics.recordRender(end - start, body.length, buffer.families(), buffer.series());
+            return new ScrapeSnapshot(format.contentType(), body, end);
+        } finally {
+            buffer.reset();
+            spareBuffer.set(buffer);
+        }
+    }
+
+    private @NotNull ScrapeSnapshot report(final int top) {
+        final var report = new CardinalityReport();
+        for (final var renderer : renderers) {
+            renderer.report(report);
+        }
+        return new ScrapeSnapshot(CardinalityReport.CONTENT_TYPE, report.render(top), System.nanoTime());
+    }
+
+    private static int parseTop(final @NotNull List<String> values) {
+        if (values.isEmpty()) {
+            return DEFAULT_REPORT_TOP;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(values.get(0)));
+        } catch (final NumberFormatException e) {
+            return DEFAULT_REPORT_TOP;
+        }
+    }
+
+    private static @NotNull List<String> parameters(final @Nullable String rawQuery, final @NotNull String name) {
+        final var values = new ArrayList<String>();
+        if (rawQuery == null) {
+            return values;
+        }
+        for (final var pair : rawQuery.split("&")) {
+            final var index = pair.indexOf('=');
+            if (index > 0 && name.equals(URLDecoder.decode(pair.substring(0, index), StandardCharsets.UTF_8))) {
+                values.add(URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * An {@link HttpHandler} that serves scrapes of the {@link MetricsEndpoint}s of {@link EndpointRoutes} with the JDK
+ * {@link HttpExchange}.
+ * <p>
+ * This is a drop-in replacement for {@code HTTPServer.HTTPMetricHandler}, but serves cached and pre-compressed
+ * snapshots.
+ */
+class MetricsHttpHandler implements HttpHandler {
+
+    private final @NotNull EndpointRoutes routes;
+
+    MetricsHttpHandler(final @NotNull EndpointRoutes routes) {
+        this.routes = routes;
+    }
+
+    @Override
+    public void handle(final @NotNull HttpExchange exchange) throws IOException {
+        try {
+            final var endpoint = routes.route(exchange.getRequestURI().getPath());
+            if (endpoint == null) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                return;
+            }
+            if (SheddingRejectedExecutionHandler.isShedding()) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(endpoint.reject()));
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+                return;
+            }
+            final var response = endpoint.scrape(exchange.getRequestHeaders().getFirst("Accept"),
+                    exchange.getRequestHeaders().get("Accept-Encoding"),
+                    exchange.getRequestURI().getRawQuery());
+            final var body = response.body();
+            exchange.getResponseHeaders().set("Content-Type", response.contentType());
+            if (response.contentEncoding() != ContentEncoding.IDENTITY) {
+                exchange.getResponseHeaders().set("Content-Encoding", response.contentEncoding().token());
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+            } else {
+                final var start = System.nanoTime();
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length == 0 ? -1 : body.length);
+                exchange.getResponseBody().write(body);
+                endpoint.recordResponse(body.length, System.nanoTime() - start);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Periodically renders metrics, encodes them into requests of a push protocol and sends the requests, shared by the
+ * {@link PrometheusRemoteWriter} and the {@link OtlpMetricsExporter}.
+ * <p>
+ * Once per interval, the renderers are rendered in the Prometheus protobuf format, like for a scrape, and the
+ * {@link Encoder} translates the exposition into compressed requests, which it adds to a bounded {@link PushBuffer}.
+ * The buffered requests are sent in order on a single daemon thread. When a request fails with a network error or a
+ * retryable status, the sending is retried with an exponential backoff, while new requests are buffered and the
+ * oldest ones dropped if the buffer is full. Requests that are rejected with any other status are dropped, as a retry
+ * can't succeed. Buffered requests are discarded when the pusher is stopped.
+ */
+final class MetricsPusher {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(MetricsPusher.class);
+
+    private final @NotNull String receiver;
+    private final @NotNull List<ExpositionRenderer> renderers;
+    private final @NotNull Encoder encoder;
+    private final @NotNull PushBuffer buffer;
+    private final @NotNull PushMetrics metrics;
+    private final @NotNull HttpClient httpClient;
+    private final @NotNull HttpRequest.Builder request;
+    private final @NotNull IntPredicate retryable;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final @NotNull ScheduledThreadPoolExecutor executor;
+    private final @NotNull ExpositionBuffer exposition = new ExpositionBuffer(MetricsEndpoint.INITIAL_BUFFER_CAPACITY);
+    // the following fields are only accessed by the thread of the executor
+    private long backoffMillis;
+    private boolean retryScheduled;
+
+    /**
+     * @param threadName the name of the thread that renders and sends the requests
+     * @param receiver   the receiver of the requests in log messages, e.g. {@code Prometheus remote write receiver}
+     * @param renderers  the renderers of the pushed metrics, closed when the pusher is stopped
+     * @param request    the template of the requests with the URL, the timeout and the headers, the body is set for
+     *                   each request
+     * @param retryable  whether a request that failed with a non-2xx status is retried
+     */
+    MetricsPusher(
+            final @NotNull String threadName,
+            final @NotNull String receiver,
+            final @NotNull List<ExpositionRenderer> renderers,
+            final @NotNull Encoder encoder,
+            final @NotNull PushBuffer buffer,
+            final @NotNull PushMetrics metrics,
+            final @NotNull HttpClient httpClient,
+            final @NotNull HttpRequest.Builder request,
+            final @NotNull IntPredicate retryable,
+            final @NotNull Duration minBackoff,
+            final @NotNull Duration maxBackoff) {
+        this.receiver = receiver;
+        this.renderers = renderers;
+        this.encoder = encoder;
+        this.buffer = buffer;
+        this.metrics = metrics;
+        this.httpClient = httpClient;
+        this.request = request;
+        this.retryable = retryable;
+        this.minBackoffMillis = minBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final var thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts pushing after the first interval.
+     */
+    void start(final @NotNull Duration interval) {
+        executor.scheduleAtFixedRate(this::collect, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops pushing. Requests that have not been sent yet are discarded.
+     */
+    void stop() {
+        executor.shutdownNow();
+        renderers.forEach(ExpositionRenderer::close);
+    }
+
+    /**
+     * Renders the metrics, buffers them as requests and sends the buffered requests, unless a retry is pending.
+     */
+    private void collect() {
+        try {
+            exposition.reset();
+            for (final var renderer : renderers) {
+                renderer.render(ExpositionFormat.PROTOBUF, null, exposition);
+            }
+            encoder.encode(exposition.array(), exposition.size(), System.currentTimeMillis());
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Could not render the metrics for the {}: {}", receiver, e.getMessage());
+            LOG.debug("Original exception was", e);
+        }
+        if (!retryScheduled) {
+            send();
+        }
+    }
+
+    private void retry() {
+        retryScheduled = false;
+        send();
+    }
+
+    private void send() {
+        PushBuffer.Request next;
+        while ((next = buffer.peek()) != null) {
+            final var start = System.nanoTime();
+            int status;
+            try {
+                status = post(next.body());
+            } catch (final IOException e) {
+                LOG.debug("Could not send request to the {}", receiver, e);
+                status = -1;
+            } catch (final InterruptedException e) {
+                // stopped
+                Thread.currentThread().interrupt();
+                return;
+            }
+            metrics.recordRequest(System.nanoTime() - start);
+            if (status >= 200 && status < 300) {
+                buffer.remove();
+                metrics.recordSent(next.samples());
+                backoffMillis = 0;
+            } else if (status >= 0 && !retryable.test(status)) {
+                buffer.remove();
+                metrics.recordDropped(next.samples());
+                LOG.warn("The {} rejected {} samples with status {}", receiver, next.samples(), status);
+            } else {
+                metrics.recordFailed();
+                if (backoffMillis == 0) {
+                    LOG.warn("Could not send metrics to the {} ({}), retrying",
+                            receiver,
+                            status < 0 ? "network error" : "status " + status);
+                }
+                backoffMillis = backoffMillis == 0 ? minBackoffMillis : Math.min(maxBackoffMillis, backoffMillis * 2);
+                try {
+                    executor.schedule(this::retry, backoffMillis, TimeUnit.MILLISECONDS);
+                    retryScheduled = true;
+                } catch (final RejectedExecutionException e) {
+                    // stopped
+                }
+                return;
+            }
+        }
+    }
+
+    private int post(final byte @NotNull [] body) throws IOException, InterruptedException {
+        final var post = request.copy().POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        return httpClient.send(post, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * Translates a rendered protobuf exposition into the compressed requests of a push protocol.
+     */
+    interface Encoder {
+
+        /**
+         * Encodes the exposition and adds the requests to the {@link PushBuffer} of the pusher.
+         *
+         * @param length          the number of bytes of the exposition
+         * @param timestampMillis the time of the rendering
+         */
+        void encode(byte @NotNull [] exposition, int length, long timestampMillis);
+    }
+}
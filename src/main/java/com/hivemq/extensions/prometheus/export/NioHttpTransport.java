@@ -0,0 +1,540 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the {@link MetricsEndpoint}s with a non-blocking HTTP/1.1 server that runs a single {@link Selector} event
+ * loop.
+ * <p>
+ * In contrast to the JDK {@code HttpServer}, idle keep-alive connections and slow scrapers don't occupy a thread: the
+ * event loop reads requests and writes responses without blocking, and responses are written from the bytes of the
+ * shared {@link ScrapeSnapshot} without copying them into per-connection buffers. As the bytes are on the heap, the
+ * channel copies them into a temporary direct buffer of the event loop for each write, so they are written in slices
+ * of at most 64 KiB: a write copies no more than a slice, even if the socket only accepts a part of the response, and
+ * the temporary direct buffer stays as small as a slice instead of the largest snapshot. Scrapes are served by a
+ * bounded executor, scrapes that it rejects are answered with {@code 503 Service Unavailable} instead of piling up.
+ * <p>
+ * A request is served by the endpoint with the longest context path that prefixes the request path, see
+ * {@link EndpointRoutes}. Only {@code GET} and {@code HEAD} requests are served, which is all a scraper needs.
+ * Request bodies are not read, so a connection is closed after a request that announced a body.
+ */
+class NioHttpTransport implements HttpTransport {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(NioHttpTransport.class);
+
+    private static final int MAX_REQUEST_HEAD_BYTES = 8192;
+    private static final int MAX_WRITE_BYTES = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private static final byte @NotNull [] HEAD_TERMINATOR = {'\r', '\n', '\r', '\n'};
+
+    private final @NotNull EndpointRoutes routes;
+    private final @NotNull Selector selector;
+    private final @NotNull ServerSocketChannel serverChannel;
+    private final @NotNull ExecutorService renderExecutor;
+    private final @NotNull Executor queuedRenderExecutor;
+    /**
+     * Connections whose response has been prepared by a render thread and must be written by the event loop.
+     */
+    private final @NotNull Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+    private final @NotNull Thread eventLoop;
+    private volatile boolean running = true;
+
+    NioHttpTransport(
+            final @NotNull InetSocketAddress address,
+            final int backlog,
+            final @NotNull EndpointRoutes routes,
+            final @NotNull ExecutorService renderExecutor) throws IOException {
+        this.routes = routes;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address, backlog);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (final IOException | RuntimeException e) {
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+            throw e;
+        }
+        this.renderExecutor = renderExecutor;
+        // all endpoints share the queued scrapes, see ExporterMetrics#newEndpointMetrics()
+        queuedRenderExecutor = new QueuedScrapeExecutor(renderExecutor, routes.metrics());
+        eventLoop = NamedDaemonThreadFactory.defaultThreadFactory().newThread(this::run);
+        eventLoop.start();
+    }
+
+    @Override
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            eventLoop.join(STOP_TIMEOUT_MILLIS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        renderExecutor.shutdown();
+    }
+
+    private void run() {
+        try {
+            var lastIdleCheckNanos = System.nanoTime();
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                final var keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final var key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else {
+                        handle(key);
+                    }
+                }
+                respondCompleted();
+                final var now = System.nanoTime();
+                if (now - lastIdleCheckNanos >= TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT_MILLIS)) {
+                    closeIdleConnections(now);
+                    lastIdleCheckNanos = now;
+                }
+            }
+        } catch (final Throwable t) {
+            LOG.error("The Prometheus HTTP server stopped unexpectedly: {}", t.getMessage());
+            LOG.debug("Original exception was", t);
+        } finally {
+            for (final var key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    final var connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (final IOException e) {
+                    closeQuietly(channel);
+                    throw e;
+                }
+            }
+        } catch (final IOException e) {
+            LOG.debug("Could not accept connection to the Prometheus HTTP server", e);
+        }
+    }
+
+    private void handle(final @NotNull SelectionKey key) {
+        final var connection = (Connection) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(connection);
+            }
+        } catch (final IOException | CancelledKeyException e) {
+            close(connection);
+        }
+    }
+
+    private void read(final @NotNull Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            close(connection);
+            return;
+        }
+        connection.lastActivityNanos = System.nanoTime();
+        dispatch(connection);
+    }
+
+    /**
+     * Dispatches the next complete request that has been read from the connection, if any.
+     */
+    private void dispatch(final @NotNull Connection connection) throws IOException {
+        final var in = connection.in;
+        final var end = indexOf(in.array(), in.position(), HEAD_TERMINATOR);
+        if (end < 0) {
+            if (!in.hasRemaining()) {
+                respond(connection, 431, "Request Header Fields Too Large", false);
+            }
+            return;
+        }
+        final var request = Request.parse(new String(in.array(), 0, end, StandardCharsets.ISO_8859_1));
+        in.flip().position(end + HEAD_TERMINATOR.length);
+        in.compact();
+        if (request == null) {
+            respond(connection, 400, "Bad Request", false);
+            return;
+        }
+        final var endpoint = routes.route(request.path());
+        if (endpoint == null) {
+            respond(connection, 404, "Not Found", request.keepAlive);
+        } else if (!"GET".equals(request.method) && !"HEAD".equals(request.method)) {
+            respond(connection, 405, "Method Not Allowed", false);
+        } else {
+            render(connection, endpoint, request);
+        }
+    }
+
+    private void render(
+            final @NotNull Connection connection,
+            final @NotNull MetricsEndpoint endpoint,
+            final @NotNull Request request) throws IOException {
+        // stop reading from the connection until the response has been written
+        connection.key.interestOps(0);
+        connection.rendering = true;
+        try {
+            queuedRenderExecutor.execute(() -> {
+                connection.pending = scrape(endpoint, request);
+                completed.add(connection);
+                selector.wakeup();
+            });
+        } catch (final RejectedExecutionException e) {
+            connection.rendering = false;
+            final var head = head(503,
+                    "Service Unavailable",
+                    null,
+                    ContentEncoding.IDENTITY,
+                    0,
+                    endpoint.reject(),
+                    request.keepAlive);
+            respond(connection, new Response(new ByteBuffer[]{ByteBuffer.wrap(head)}, request.keepAlive));
+        }
+    }
+
+    private static @NotNull Response scrape(final @NotNull MetricsEndpoint endpoint, final @NotNull Request request) {
+        try {
+            final var scrape = endpoint.scrape(request.accept, request.acceptEncodings, request.rawQuery());
+            final var body = scrape.body();
+            final var head = head(200,
+                    "OK",
+                    scrape.contentType(),
+                    scrape.contentEncoding(),
+                    body.length,
+                    0,
+                    request.keepAlive);
+            if ("HEAD".equals(request.method)) {
+                return new Response(new ByteBuffer[]{ByteBuffer.wrap(head)}, request.keepAlive);
+            }
+            return new Response(new ByteBuffer[]{ByteBuffer.wrap(head), ByteBuffer.wrap(body)},
+                    request.keepAlive,
+                    endpoint,
+                    body.length);
+        } catch (final Throwable t) {
+            LOG.debug("Exception while serving a Prometheus scrape", t);
+            return new Response(new ByteBuffer[]{
+                    ByteBuffer.wrap(head(500, "Internal Server Error", null, ContentEncoding.IDENTITY, 0, 0, false))},
+                    false);
+        }
+    }
+
+    private void respondCompleted() {
+        Connection connection;
+        while ((connection = completed.poll()) != null) {
+            final var response = connection.pending;
+            connection.pending = null;
+            connection.rendering = false;
+            if (response == null || !connection.channel.isOpen()) {
+                continue;
+            }
+            try {
+                respond(connection, response);
+            } catch (final IOException | CancelledKeyException e) {
+                close(connection);
+            }
+        }
+    }
+
+    private void respond(
+            final @NotNull Connection connection,
+            final int status,
+            final @NotNull String reason,
+            final boolean keepAlive) throws IOException {
+        final var head = head(status, reason, null, ContentEncoding.IDENTITY, 0, 0, keepAlive);
+        respond(connection, new Response(new ByteBuffer[]{ByteBuffer.wrap(head)}, keepAlive));
+    }
+
+    private void respond(final @NotNull Connection connection, final @NotNull Response response)
+            throws IOException {
+        connection.out = response;
+        connection.writeStartNanos = System.nanoTime();
+        write(connection);
+    }
+
+    private void write(final @NotNull Connection connection) throws IOException {
+        final var response = connection.out;
+        if (response == null) {
+            return;
+        }
+        final var written = write(connection.channel, response.buffers);
+        connection.lastActivityNanos = System.nanoTime();
+        if (!written) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        connection.out = null;
+        if (response.endpoint != null) {
+            response.endpoint.recordResponse(response.bodyBytes, System.nanoTime() - connection.writeStartNanos);
+        }
+        if (!response.keepAlive) {
+            close(connection);
+            return;
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+        // a pipelined request may already have been read
+        dispatch(connection);
+    }
+
+    /**
+     * Writes the buffers in slices of at most {@link #MAX_WRITE_BYTES} until the socket doesn't accept more.
+     *
+     * @return whether all buffers have been written
+     */
+    private static boolean write(final @NotNull SocketChannel channel, final @NotNull ByteBuffer @NotNull [] buffers)
+            throws IOException {
+        for (final var buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                final var limit = buffer.limit();
+                final var slice = Math.min(buffer.remaining(), MAX_WRITE_BYTES);
+                buffer.limit(buffer.position() + slice);
+                final int written;
+                try {
+                    written = channel.write(buffer);
+                } finally {
+                    buffer.limit(limit);
+                }
+                if (written < slice) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void closeIdleConnections(final long now) {
+        for (final var key : selector.keys()) {
+            final var connection = (Connection) key.attachment();
+            if (connection != null &&
+                    !connection.rendering &&
+                    now - connection.lastActivityNanos > IDLE_TIMEOUT_NANOS) {
+                close(connection);
+            }
+        }
+    }
+
+    private static void close(final @NotNull Connection connection) {
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        closeQuietly(connection.channel);
+    }
+
+    private static byte @NotNull [] head(
+            final int status,
+            final @NotNull String reason,
+            final @Nullable String contentType,
+            final @NotNull ContentEncoding contentEncoding,
+            final int contentLength,
+            final long retryAfterSeconds,
+            final boolean keepAlive) {
+        final var sb = new StringBuilder(128).append("HTTP/1.1 ").append(status).append(' ').append(reason);
+        if (contentType != null) {
+            sb.append("\r\nContent-Type: ").append(contentType);
+        }
+        if (contentEncoding != ContentEncoding.IDENTITY) {
+            sb.append("\r\nContent-Encoding: ").append(contentEncoding.token());
+        }
+        if (retryAfterSeconds > 0) {
+            sb.append("\r\nRetry-After: ").append(retryAfterSeconds);
+        }
+        sb.append("\r\nContent-Length: ").append(contentLength);
+        sb.append("\r\nConnection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static int indexOf(final byte @NotNull [] array, final int length, final byte @NotNull [] target) {
+        outer:
+        for (int i = 0; i <= length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void closeQuietly(final @NotNull Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException ignored) {
+        }
+    }
+
+    private static final class Connection {
+
+        private final @NotNull SocketChannel channel;
+        private final @NotNull ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_HEAD_BYTES);
+        private @Nullable SelectionKey key;
+        private @Nullable Response out;
+        /**
+         * Set by a render thread, published to the event loop via {@link #completed}.
+         */
+        private @Nullable Response pending;
+        private boolean rendering;
+        private long lastActivityNanos = System.nanoTime();
+        private long writeStartNanos;
+
+        private Connection(final @NotNull SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private static final class Response {
+
+        private final @NotNull ByteBuffer @NotNull [] buffers;
+        private final boolean keepAlive;
+        /**
+         * The endpoint that records a scrape response, or {@code null} if the response is not recorded.
+         */
+        private final @Nullable MetricsEndpoint endpoint;
+        private final int bodyBytes;
+
+        private Response(final @NotNull ByteBuffer @NotNull [] buffers, final boolean keepAlive) {
+            this(buffers, keepAlive, null, 0);
+        }
+
+        private Response(
+                final @NotNull ByteBuffer @NotNull [] buffers,
+                final boolean keepAlive,
+                final @Nullable MetricsEndpoint endpoint,
+                final int bodyBytes) {
+            this.buffers = buffers;
+            this.keepAlive = keepAlive;
+            this.endpoint = endpoint;
+            this.bodyBytes = bodyBytes;
+        }
+    }
+
+    private static final class Request {
+
+        private final @NotNull String method;
+        private final @NotNull String target;
+        private final boolean keepAlive;
+        private final @Nullable String accept;
+        private final @NotNull List<String> acceptEncodings;
+
+        private Request(
+                final @NotNull String method,
+                final @NotNull String target,
+                final boolean keepAlive,
+                final @Nullable String accept,
+                final @NotNull List<String> acceptEncodings) {
+            this.method = method;
+            this.target = target;
+            this.keepAlive = keepAlive;
+            this.accept = accept;
+            this.acceptEncodings = acceptEncodings;
+        }
+
+        private @NotNull String path() {
+            final var index = target.indexOf('?');
+            return index < 0 ? target : target.substring(0, index);
+        }
+
+        private @Nullable String rawQuery() {
+            final var index = target.indexOf('?');
+            return index < 0 ? null : target.substring(index + 1);
+        }
+
+        /**
+         * Parses the request line and headers, returns {@code null} if the request is malformed.
+         */
+        private static @Nullable Request parse(final @NotNull String head) {
+            final var lines = head.split("\r\n");
+            final var requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                return null;
+            }
+            String accept = null;
+            String connection = null;
+            final var acceptEncodings = new ArrayList<String>(1);
+            var hasBody = false;
+            for (int i = 1; i < lines.length; i++) {
+                final var colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    return null;
+                }
+                final var name = lines[i].substring(0, colon).trim();
+                final var value = lines[i].substring(colon + 1).trim();
+                if ("Accept".equalsIgnoreCase(name)) {
+                    accept = accept == null ? value : accept;
+                } else if ("Accept-Encoding".equalsIgnoreCase(name)) {
+                    acceptEncodings.add(value);
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    connection = value;
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name) ||
+                        ("Content-Length".equalsIgnoreCase(name) && !"0".equals(value))) {
+                    hasBody = true;
+                }
+            }
+            final boolean keepAlive;
+            if ("HTTP/1.0".equals(requestLine[2])) {
+                keepAlive = "keep-alive".equalsIgnoreCase(connection);
+            } else {
+                keepAlive = !"close".equalsIgnoreCase(connection);
+            }
+            return new Request(requestLine[0], requestLine[1], keepAlive && !hasBody, accept, acceptEncodings);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigInteger;
+
+/**
+ * Writes sample values as ASCII text straight into a byte array, without intermediate {@link String} allocations.
+ * <p>
+ * Values are written like {@code Collector.doubleToGoString(double)}: {@code +Inf}, {@code -Inf} and {@code NaN} for
+ * the special values, and otherwise in the layout of {@link Double#toString(double)}, i.e. as plain decimal with at
+ * least one fractional digit for magnitudes in {@code [1e-3, 1e7)} and in computerized scientific notation like
+ * {@code 1.5E-5} for all others. The digits are the shortest ones that parse back to the same double, computed by the
+ * Ryu algorithm of Ulf Adams ("Ryu: Fast Float-to-String Conversion", PLDI 2018). Before Java 19,
+ * {@link Double#toString(double)} sometimes prints an unnecessary extra digit. Since Java 19 it prints the shortest
+ * digits as well, except that it prefers two digits over a single one that is further from the exact value, e.g.
+ * {@code 4.9E-324} instead of {@code 5.0E-324}.
+ * <p>
+ * Integral values in the plain range, which includes most counts, skip the Ryu algorithm.
+ */
+final class NumberWriter {
+
+    /**
+     * The maximum number of bytes written for a single value, e.g. {@code -2.2250738585072014E-308}.
+     */
+    static final int MAX_LENGTH = 24;
+
+    /**
+     * Integral values below this magnitude are written without an exponent.
+     */
+    private static final long PLAIN_LIMIT = 10_000_000L;
+
+    private static final int MANTISSA_BITS = 52;
+    private static final int EXPONENT_BITS = 11;
+    private static final int EXPONENT_BIAS = 1023;
+    private static final int POW5_BITCOUNT = 125;
+    private static final int POW5_INV_BITCOUNT = 125;
+    private static final int POW5_TABLE_SIZE = 326;
+    private static final int POW5_INV_TABLE_SIZE = 342;
+
+    private static final byte @NotNull [] POSITIVE_INFINITY = {'+', 'I', 'n', 'f'};
+    private static final byte @NotNull [] NEGATIVE_INFINITY = {'-', 'I', 'n', 'f'};
+    private static final byte @NotNull [] NAN = {'N', 'a', 'N'};
+
+    /**
+     * The 125 most significant bits of {@code 5^i}, as low and high 64 bits.
+     */
+    private static final long @NotNull [] @NotNull [] POW5_SPLIT = new long[POW5_TABLE_SIZE][];
+    /**
+     * The 125 most significant bits of {@code 1 / 5^i}, rounded up, as low and high 64 bits.
+     */
+    private static final long @NotNull [] @NotNull [] POW5_INV_SPLIT = new long[POW5_INV_TABLE_SIZE][];
+
+    static {
+        final var five = BigInteger.valueOf(5);
+        final var mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int i = 0; i < POW5_INV_TABLE_SIZE; i++) {
+            final var pow = five.pow(i);
+            final var bits = pow.bitLength();
+            if (i < POW5_TABLE_SIZE) {
+                final var split = pow.shiftRight(bits - POW5_BITCOUNT);
+                POW5_SPLIT[i] = new long[]{split.and(mask).longValue(), split.shiftRight(64).longValue()};
+            }
+            final var inverse = BigInteger.ONE.shiftLeft(bits - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE);
+            POW5_INV_SPLIT[i] = new long[]{inverse.and(mask).longValue(), inverse.shiftRight(64).longValue()};
+        }
+    }
+
+    private NumberWriter() {
+    }
+
+    /**
+     * Writes a double value at the given position, which must be followed by at least {@link #MAX_LENGTH} bytes.
+     *
+     * @return the position after the written value
+     */
+    static int writeDouble(final byte @NotNull [] bytes, final int position, final double value) {
+        if (value > -PLAIN_LIMIT && value < PLAIN_LIMIT && value == (long) value) {
+            if (value == 0 && Double.doubleToRawLongBits(value) != 0) {
+                // -0.0, which is not distinguished by the long
+                bytes[position] = '-';
+                return writeLongAsDouble(bytes, position + 1, 0);
+            }
+            return writeLongAsDouble(bytes, position, (long) value);
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            return write(bytes, position, POSITIVE_INFINITY);
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return write(bytes, position, NEGATIVE_INFINITY);
+        } else if (Double.isNaN(value)) {
+            return write(bytes, position, NAN);
+        }
+        return writeShortest(bytes, position, value);
+    }
+
+    /**
+     * Writes a long value formatted like the same value converted to a double, e.g. {@code 2.0}, at the given position,
+     * which must be followed by at least {@link #MAX_LENGTH} bytes.
+     *
+     * @return the position after the written value
+     */
+    static int writeLongAsDouble(final byte @NotNull [] bytes, final int position, final long value) {
+        if (value <= -PLAIN_LIMIT || value >= PLAIN_LIMIT) {
+            return writeShortest(bytes, position, value);
+        }
+        var index = position;
+        var remaining = value;
+        if (remaining < 0) {
+            bytes[index++] = '-';
+            remaining = -remaining;
+        }
+        index = writeDigits(bytes, index, remaining, digits(remaining));
+        bytes[index++] = '.';
+        bytes[index++] = '0';
+        return index;
+    }
+
+    /**
+     * Writes a finite, non-zero double value with the shortest decimal digits that parse back to the same value.
+     */
+    private static int writeShortest(final byte @NotNull [] bytes, final int position, final double value) {
+        final var bits = Double.doubleToRawLongBits(value);
+        final var ieeeMantissa = bits & ((1L << MANTISSA_BITS) - 1);
+        final var ieeeExponent = (int) ((bits >>> MANTISSA_BITS) & ((1 << EXPONENT_BITS) - 1));
+        final int e2;
+        final long m2;
+        if (ieeeExponent == 0) {
+            e2 = 1 - EXPONENT_BIAS - MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+            m2 = ieeeMantissa | (1L << MANTISSA_BITS);
+        }
+        final var even = (m2 & 1) == 0;
+        final var mv = 4 * m2;
+        final var mmShift = ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0;
+
+        // the decimal representations of the value and its rounding interval bounds, scaled by 10^e10
+        long vr;
+        long vp;
+        long vm;
+        final int e10;
+        var vmIsTrailingZeros = false;
+        var vrIsTrailingZeros = false;
+        if (e2 >= 0) {
+            final var q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            e10 = q;
+            final var k = POW5_INV_BITCOUNT + pow5Bits(q) - 1;
+            final var i = -e2 + q + k;
+            vr = mulShift64(mv, POW5_INV_SPLIT[q], i);
+            vp = mulShift64(mv + 2, POW5_INV_SPLIT[q], i);
+            vm = mulShift64(mv - 1 - mmShift, POW5_INV_SPLIT[q], i);
+            if (q <= 21) {
+                if (mv % 5 == 0) {
+                    vrIsTrailingZeros = pow5Factor(mv) >= q;
+                } else if (even) {
+                    vmIsTrailingZeros = pow5Factor(mv - 1 - mmShift) >= q;
+                } else if (pow5Factor(mv + 2) >= q) {
+                    vp--;
+                }
+            }
+        } else {
+            final var q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            e10 = q + e2;
+            final var i = -e2 - q;
+            final var k = pow5Bits(i) - POW5_BITCOUNT;
+            final var j = q - k;
+            vr = mulShift64(mv, POW5_SPLIT[i], j);
+            vp = mulShift64(mv + 2, POW5_SPLIT[i], j);
+            vm = mulShift64(mv - 1 - mmShift, POW5_SPLIT[i], j);
+            if (q <= 1) {
+                vrIsTrailingZeros = true;
+                if (even) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if (q < 63) {
+                vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
+
+        // removes the digits that are not needed to identify the value within its rounding interval
+        var removed = 0;
+        final long output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            var lastRemovedDigit = 0;
+            while (vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int) (vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                // exactly in the middle, round to even
+                lastRemovedDigit = 4;
+            }
+            output = vr + ((vr == vm && (!even || !vmIsTrailingZeros)) || lastRemovedDigit >= 5 ? 1 : 0);
+        } else {
+            var roundUp = false;
+            while (vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + (vr == vm || roundUp ? 1 : 0);
+        }
+        return writeDecimal(bytes, position, value < 0, output, e10 + removed);
+    }
+
+    /**
+     * Writes the value {@code digits * 10^exponent} in the layout of {@link Double#toString(double)}.
+     */
+    private static int writeDecimal(
+            final byte @NotNull [] bytes,
+            final int position,
+            final boolean negative,
+            final long digits,
+            final int exponent) {
+        var index = position;
+        if (negative) {
+            bytes[index++] = '-';
+        }
+        final var length = digits(digits);
+        // the exponent of the first digit
+        final var scientificExponent = exponent + length - 1;
+        if (scientificExponent >= 7 || scientificExponent < -3) {
+            writeDigits(bytes, index + 1, digits, length);
+            bytes[index] = bytes[index + 1];
+            bytes[index + 1] = '.';
+            index += length + 1;
+            if (length == 1) {
+                bytes[index++] = '0';
+            }
+            bytes[index++] = 'E';
+            var remaining = scientificExponent;
+            if (remaining < 0) {
+                bytes[index++] = '-';
+                remaining = -remaining;
+            }
+            return writeDigits(bytes, index, remaining, digits(remaining));
+        }
+        if (scientificExponent < 0) {
+            bytes[index++] = '0';
+            bytes[index++] = '.';
+            for (int i = -1; i > scientificExponent; i--) {
+                bytes[index++] = '0';
+            }
+            return writeDigits(bytes, index, digits, length);
+        }
+        if (length <= scientificExponent + 1) {
+            index = writeDigits(bytes, index, digits, length);
+            for (int i = length; i <= scientificExponent; i++) {
+                bytes[index++] = '0';
+            }
+            bytes[index++] = '.';
+            bytes[index++] = '0';
+            return index;
+        }
+        // the digits with a decimal point after the integral ones
+        writeDigits(bytes, index, digits, length);
+        final var integralDigits = scientificExponent + 1;
+        System.arraycopy(bytes, index + integralDigits, bytes, index + integralDigits + 1, length - integralDigits);
+        bytes[index + integralDigits] = '.';
+        return index + length + 1;
+    }
+
+    private static int writeDigits(
+            final byte @NotNull [] bytes,
+            final int position,
+            final long value,
+            final int length) {
+        final var end = position + length;
+        var index = end;
+        var remaining = value;
+        do {
+            bytes[--index] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        return end;
+    }
+
+    private static int write(final byte @NotNull [] bytes, final int position, final byte @NotNull [] text) {
+        System.arraycopy(text, 0, bytes, position, text.length);
+        return position + text.length;
+    }
+
+    /**
+     * Returns the number of decimal digits of a non-negative value.
+     */
+    private static int digits(final long value) {
+        var digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Returns {@code (m * mul) >> j} for a value {@code m} of at most 55 bits, a 125 bit factor and
+     * {@code 64 < j < 128}.
+     */
+    private static long mulShift64(final long m, final long @NotNull [] mul, final int j) {
+        final var low = Math.multiplyHigh(m, mul[0]) + (mul[0] < 0 ? m : 0);
+        var high = Math.multiplyHigh(m, mul[1]);
+        final var middle = m * mul[1] + low;
+        if (Long.compareUnsigned(middle, low) < 0) {
+            high++;
+        }
+        final var shift = j - 64;
+        return (high << (64 - shift)) | (middle >>> shift);
+    }
+
+    /**
+     * Returns {@code ceil(log2(5^e))} for {@code 0 < e <= 3528}, or 1 for {@code e == 0}.
+     */
+    private static int pow5Bits(final int e) {
+        return ((e * 1217359) >>> 19) + 1;
+    }
+
+    /**
+     * Returns {@code floor(log10(2^e))} for {@code 0 <= e <= 1650}.
+     */
+    private static int log10Pow2(final int e) {
+        return (e * 78913) >>> 18;
+    }
+
+    /**
+     * Returns {@code floor(log10(5^e))} for {@code 0 <= e <= 2620}.
+     */
+    private static int log10Pow5(final int e) {
+        return (e * 732923) >>> 20;
+    }
+
+    private static int pow5Factor(final long value) {
+        var remaining = value;
+        var count = 0;
+        while (remaining % 5 == 0) {
+            remaining /= 5;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes decoded metric families into gzip compressed OTLP {@code ExportMetricsServiceRequest}s, which are added to a
+ * {@link PushBuffer}.
+ * <p>
+ * Counters become monotonic sums without the {@code _total} suffix, gauges and untyped metrics become gauges,
+ * summaries become summaries and histograms become explicit bucket histograms. The labels become string attributes.
+ * Each request contains the resource attributes and a single scope, and is completed after the configured maximum
+ * number of data points.
+ * <p>
+ * With cumulative temporality, the start time of all sums and histograms is the creation of the encoder. With delta
+ * temporality, the encoder keeps the last cumulative value of each sum and histogram and sends the difference since
+ * the previous encoding. The first value of a series is only remembered, as its difference is unknown, and a value
+ * below the previous one is treated as a reset. Series that are no longer exported are forgotten, so the state is
+ * bounded by the number of exported series. Summaries are always cumulative, as quantiles can't be subtracted. The
+ * messages of {@code metrics_service.proto}, {@code metrics.proto}, {@code resource.proto} and {@code common.proto}
+ * are encoded by hand, like the {@link ProtobufEncoding}.
+ */
+final class OtlpEncoder implements MetricFamilyReader.Visitor, MetricsPusher.Encoder {
+
+    static final @NotNull String CONTENT_TYPE = "application/x-protobuf";
+    static final @NotNull String CONTENT_ENCODING = "gzip";
+    static final @NotNull String SCOPE_NAME = "com.hivemq.extensions.prometheus";
+
+    static final int REQUEST_RESOURCE_METRICS = 1;
+    static final int RESOURCE_METRICS_RESOURCE = 1;
+    static final int RESOURCE_METRICS_SCOPE_METRICS = 2;
+    static final int RESOURCE_ATTRIBUTES = 1;
+    static final int SCOPE_METRICS_SCOPE = 1;
+    static final int SCOPE_METRICS_METRICS = 2;
+    static final int SCOPE_NAME_FIELD = 1;
+    static final int KEY_VALUE_KEY = 1;
+    static final int KEY_VALUE_VALUE = 2;
+    static final int ANY_VALUE_STRING = 1;
+
+    static final int METRIC_NAME = 1;
+    static final int METRIC_GAUGE = 5;
+    static final int METRIC_SUM = 7;
+    static final int METRIC_HISTOGRAM = 9;
+    static final int METRIC_SUMMARY = 11;
+    /**
+     * The data points of the {@code Gauge}, {@code Sum}, {@code Histogram} and {@code Summary} messages.
+     */
+    static final int DATA_POINTS = 1;
+    /**
+     * The aggregation temporality of the {@code Sum} and {@code Histogram} messages.
+     */
+    static final int AGGREGATION_TEMPORALITY = 2;
+    static final int SUM_IS_MONOTONIC = 3;
+
+    /**
+     * The start time of all data points.
+     */
+    static final int POINT_START_TIME = 2;
+    /**
+     * The time of all data points.
+     */
+    static final int POINT_TIME = 3;
+    static final int NUMBER_POINT_AS_DOUBLE = 4;
+    static final int NUMBER_POINT_ATTRIBUTES = 7;
+    static final int HISTOGRAM_POINT_COUNT = 4;
+    static final int HISTOGRAM_POINT_SUM = 5;
+    static final int HISTOGRAM_POINT_BUCKET_COUNTS = 6;
+    static final int HISTOGRAM_POINT_EXPLICIT_BOUNDS = 7;
+    static final int HISTOGRAM_POINT_ATTRIBUTES = 9;
+    static final int SUMMARY_POINT_COUNT = 4;
+    static final int SUMMARY_POINT_SUM = 5;
+    static final int SUMMARY_POINT_QUANTILE_VALUES = 6;
+    static final int SUMMARY_POINT_ATTRIBUTES = 7;
+    static final int QUANTILE_QUANTILE = 1;
+    static final int QUANTILE_VALUE = 2;
+
+    static final int TEMPORALITY_DELTA = 1;
+    static final int TEMPORALITY_CUMULATIVE = 2;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final byte @NotNull [] requestHeader;
+    private final boolean delta;
+    private final int maxDataPointsPerRequest;
+    private final @NotNull PushBuffer target;
+    private final long startTimeNanos;
+    private final @NotNull ExpositionBuffer request = new ExpositionBuffer(1 << 16);
+    private final @NotNull Map<String, Cumulative> cumulatives = new HashMap<>();
+    private long generation;
+    private long timeNanos;
+    private int dataPoints;
+    private @NotNull String familyName = "";
+    private @NotNull Collector.Type familyType = Collector.Type.UNKNOWN;
+    // the positions of the open messages of the current request, -1 if not open
+    private int resourceMetrics = -1;
+    private int scopeMetrics = -1;
+    private int metric = -1;
+    private int metricData = -1;
+
+    /**
+     * @param resourceAttributeNames  the names of the attributes of the resource, e.g. {@code service.name}
+     * @param resourceAttributeValues the values of the attributes of the resource
+     * @param delta                   whether sums and histograms are sent with delta instead of cumulative
+     *                                temporality
+     * @param startTimeMillis         the start time of the cumulative sums and histograms
+     */
+    OtlpEncoder(
+            final @NotNull List<String> resourceAttributeNames,
+            final @NotNull List<String> resourceAttributeValues,
+            final boolean delta,
+            final int maxDataPointsPerRequest,
+            final @NotNull PushBuffer target,
+            final long startTimeMillis) {
+        // the resource and the scope are the same for all requests, so they are only encoded once
+        final var header = new ExpositionBuffer(256);
+        final var resource = header.beginMessage(RESOURCE_METRICS_RESOURCE);
+        for (int i = 0; i < resourceAttributeNames.size(); i++) {
+            writeAttribute(header, RESOURCE_ATTRIBUTES, resourceAttributeNames.get(i), resourceAttributeValues.get(i));
+        }
+        header.endDelimited(resource);
+        this.requestHeader = header.toByteArray();
+        this.delta = delta;
+        this.maxDataPointsPerRequest = maxDataPointsPerRequest;
+        this.target = target;
+        this.startTimeNanos = startTimeMillis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Encodes a protobuf exposition with the given timestamp and adds the requests to the target buffer.
+     */
+    @Override
+    public void encode(final byte @NotNull [] exposition, final int length, final long timestampMillis) {
+        timeNanos = timestampMillis * NANOS_PER_MILLI;
+        generation++;
+        MetricFamilyReader.read(exposition, length, this);
+        flush();
+        // forget the series that were not exported this time
+        cumulatives.values().removeIf(cumulative -> cumulative.generation != generation);
+    }
+
+    @Override
+    public void family(final @NotNull String name, final @NotNull Collector.Type type) {
+        endMetric();
+        familyType = type;
+        familyName = type == Collector.Type.COUNTER && name.endsWith("_total") ?
+                name.substring(0, name.length() - "_total".length()) :
+                name;
+    }
+
+    @Override
+    public void value(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final double value) {
+        final var isSum = familyType == Collector.Type.COUNTER;
+        var startNanos = startTimeNanos;
+        var pointValue = value;
+        if (isSum && delta) {
+            final var cumulative = cumulative(labelNames, labelValues);
+            final var previous = cumulative.value;
+            final var known = cumulative.update(value, Double.NaN, null);
+            if (!known) {
+                return;
+            }
+            startNanos = cumulative.previousTimeNanos;
+            pointValue = value < previous ? value : value - previous;
+        }
+        beginMetric(isSum ? METRIC_SUM : METRIC_GAUGE);
+        final var point = request.beginMessage(DATA_POINTS);
+        if (isSum) {
+            request.writeFixed64Field(POINT_START_TIME, startNanos);
+        }
+        request.writeFixed64Field(POINT_TIME, timeNanos);
+        request.writeDoubleField(NUMBER_POINT_AS_DOUBLE, pointValue);
+        writeAttributes(NUMBER_POINT_ATTRIBUTES, labelNames, labelValues);
+        request.endDelimited(point);
+        endDataPoint();
+    }
+
+    @Override
+    public void summary(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final long count,
+            final double sum,
+            final double @NotNull [] quantiles,
+            final double @NotNull [] values) {
+        beginMetric(METRIC_SUMMARY);
+        final var point = request.beginMessage(DATA_POINTS);
+        request.writeFixed64Field(POINT_START_TIME, startTimeNanos);
+        request.writeFixed64Field(POINT_TIME, timeNanos);
+        request.writeFixed64Field(SUMMARY_POINT_COUNT, count);
+        if (!Double.isNaN(sum)) {
+            request.writeDoubleField(SUMMARY_POINT_SUM, sum);
+        }
+        for (int i = 0; i < quantiles.length; i++) {
+            final var quantile = request.beginMessage(SUMMARY_POINT_QUANTILE_VALUES);
+            request.writeDoubleField(QUANTILE_QUANTILE, quantiles[i]);
+            request.writeDoubleField(QUANTILE_VALUE, values[i]);
+            request.endDelimited(quantile);
+        }
+        writeAttributes(SUMMARY_POINT_ATTRIBUTES, labelNames, labelValues);
+        request.endDelimited(point);
+        endDataPoint();
+    }
+
+    @Override
+    public void histogram(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final long count,
+            final double sum,
+            final double @NotNull [] upperBounds,
+            final long @NotNull [] cumulativeCounts) {
+        var startNanos = startTimeNanos;
+        var pointCount = count;
+        var pointSum = sum;
+        var pointCounts = cumulativeCounts;
+        if (delta && familyType == Collector.Type.HISTOGRAM) {
+            final var cumulative = cumulative(labelNames, labelValues);
+            final var previousCount = (long) cumulative.value;
+            final var previousSum = cumulative.sum;
+            final var previousCounts = cumulative.counts;
+            final var known = cumulative.update(count, sum, cumulativeCounts);
+            if (!known) {
+                return;
+            }
+            startNanos = cumulative.previousTimeNanos;
+            if (!isReset(previousCount, previousCounts, count, cumulativeCounts)) {
+                pointCount = count - previousCount;
+                pointSum = sum - previousSum;
+                pointCounts = new long[cumulativeCounts.length];
+                for (int i = 0; i < pointCounts.length; i++) {
+                    pointCounts[i] = cumulativeCounts[i] - previousCounts[i];
+                }
+            }
+        }
+        beginMetric(METRIC_HISTOGRAM);
+        final var point = request.beginMessage(DATA_POINTS);
+        request.writeFixed64Field(POINT_START_TIME, startNanos);
+        request.writeFixed64Field(POINT_TIME, timeNanos);
+        request.writeFixed64Field(HISTOGRAM_POINT_COUNT, pointCount);
+        if (!Double.isNaN(pointSum)) {
+            request.writeDoubleField(HISTOGRAM_POINT_SUM, pointSum);
+        }
+        // OTLP counts each bucket separately and omits the +Inf bound
+        final var bucketCounts = request.beginMessage(HISTOGRAM_POINT_BUCKET_COUNTS);
+        for (int i = 0; i < pointCounts.length; i++) {
+            request.writeFixed64(i == 0 ? pointCounts[0] : pointCounts[i] - pointCounts[i - 1]);
+        }
+        request.endDelimited(bucketCounts);
+        if (upperBounds.length > 1) {
+            final var bounds = request.beginMessage(HISTOGRAM_POINT_EXPLICIT_BOUNDS);
+            for (int i = 0; i < upperBounds.length - 1; i++) {
+                request.writeFixed64(Double.doubleToRawLongBits(upperBounds[i]));
+            }
+            request.endDelimited(bounds);
+        }
+        writeAttributes(HISTOGRAM_POINT_ATTRIBUTES, labelNames, labelValues);
+        request.endDelimited(point);
+        endDataPoint();
+    }
+
+    private static boolean isReset(
+            final long previousCount,
+            final long @Nullable [] previousCounts,
+            final long count,
+            final long @NotNull [] counts) {
+        if (count < previousCount || previousCounts == null || previousCounts.length != counts.length) {
+            return true;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] < previousCounts[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private @NotNull Cumulative cumulative(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues) {
+        final var key = new StringBuilder(familyName);
+        for (int i = 0; i < labelNames.size(); i++) {
+            key.append('\u0000').append(labelNames.get(i)).append('=').append(labelValues.get(i));
+        }
+        return cumulatives.computeIfAbsent(key.toString(), k -> new Cumulative());
+    }
+
+    private void beginMetric(final int dataField) {
+        if (resourceMetrics < 0) {
+            resourceMetrics = request.beginMessage(REQUEST_RESOURCE_METRICS);
+            request.write(requestHeader);
+            scopeMetrics = request.beginMessage(RESOURCE_METRICS_SCOPE_METRICS);
+            final var scope = request.beginMessage(SCOPE_METRICS_SCOPE);
+            ProtobufEncoding.writeString(request, SCOPE_NAME_FIELD, SCOPE_NAME);
+            request.endDelimited(scope);
+        }
+        if (metric < 0) {
+            metric = request.beginMessage(SCOPE_METRICS_METRICS);
+            ProtobufEncoding.writeString(request, METRIC_NAME, familyName);
+            metricData = request.beginMessage(dataField);
+        }
+    }
+
+    private void endDataPoint() {
+        if (++dataPoints == maxDataPointsPerRequest) {
+            flush();
+        }
+    }
+
+    private void endMetric() {
+        if (metric < 0) {
+            return;
+        }
+        if (familyType == Collector.Type.COUNTER) {
+            request.writeVarintField(AGGREGATION_TEMPORALITY, delta ? TEMPORALITY_DELTA : TEMPORALITY_CUMULATIVE);
+            request.writeVarintField(SUM_IS_MONOTONIC, 1);
+        } else if (familyType == Collector.Type.HISTOGRAM) {
+            request.writeVarintField(AGGREGATION_TEMPORALITY, delta ? TEMPORALITY_DELTA : TEMPORALITY_CUMULATIVE);
+        } else if (familyType == Collector.Type.GAUGE_HISTOGRAM) {
+            request.writeVarintField(AGGREGATION_TEMPORALITY, TEMPORALITY_CUMULATIVE);
+        }
+        request.endDelimited(metricData);
+        request.endDelimited(metric);
+        metric = -1;
+        metricData = -1;
+    }
+
+    private void flush() {
+        endMetric();
+        if (dataPoints == 0) {
+            return;
+        }
+        request.endDelimited(scopeMetrics);
+        request.endDelimited(resourceMetrics);
+        // compressed metrics are typically a tenth of the uncompressed size
+        final var compressed = new ByteArrayOutputStream(Math.max(512, request.size() / 8));
+        try (final var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(request.array(), 0, request.size());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        target.add(compressed.toByteArray(), compressed.size(), dataPoints);
+        request.reset();
+        resourceMetrics = -1;
+        scopeMetrics = -1;
+        dataPoints = 0;
+    }
+
+    private void writeAttributes(
+            final int fieldNumber,
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues) {
+        for (int i = 0; i < labelNames.size(); i++) {
+            writeAttribute(request, fieldNumber, labelNames.get(i), labelValues.get(i));
+        }
+    }
+
+    private static void writeAttribute(
+            final @NotNull ExpositionBuffer buffer,
+            final int fieldNumber,
+            final @NotNull String key,
+            final @NotNull String value) {
+        final var attribute = buffer.beginMessage(fieldNumber);
+        ProtobufEncoding.writeString(buffer, KEY_VALUE_KEY, key);
+        final var anyValue = buffer.beginMessage(KEY_VALUE_VALUE);
+        ProtobufEncoding.writeString(buffer, ANY_VALUE_STRING, value);
+        buffer.endDelimited(anyValue);
+        buffer.endDelimited(attribute);
+    }
+
+    /**
+     * The last cumulative value of a sum or histogram, for delta temporality.
+     */
+    private final class Cumulative {
+
+        private double value = Double.NaN;
+        private double sum = Double.NaN;
+        private long @Nullable [] counts;
+        private long timeNanos;
+        private long previousTimeNanos;
+        private long generation;
+
+        /**
+         * Remembers the current value, the count of a histogram.
+         *
+         * @return whether a previous value is known, so the difference can be sent
+         */
+        boolean update(final double value, final double sum, final long @Nullable [] counts) {
+            final var known = generation != 0;
+            this.value = value;
+            this.sum = sum;
+            this.counts = counts;
+            this.previousTimeNanos = this.timeNanos;
+            this.timeNanos = OtlpEncoder.this.timeNanos;
+            this.generation = OtlpEncoder.this.generation;
+            return known;
+        }
+    }
+}
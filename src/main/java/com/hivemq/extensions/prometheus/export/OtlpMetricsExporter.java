@@ -0,0 +1,340 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Exports the metrics of a Dropwizard {@link MetricRegistry} to an OpenTelemetry collector or any other receiver of
+ * OTLP/HTTP metrics, so the metrics can be collected without a second agent on the host.
+ * <p>
+ * Once per interval, the metrics are rendered like for a scrape in the Prometheus protobuf format, translated into
+ * gzip compressed OTLP requests of a bounded number of data points by an {@link OtlpEncoder}, and queued in a bounded
+ * {@link PushBuffer}. The queued requests are sent in order by a {@link MetricsPusher}. When a request fails with a
+ * network error or one of the retryable statuses of the OTLP specification, the sending is retried with an
+ * exponential backoff, while new requests are queued and the oldest ones dropped if the buffer is full. Requests that
+ * are rejected with any other status are dropped. Queued requests are discarded when the exporter is stopped.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * final var exporter = OtlpMetricsExporter.builder()
+ *         .metricRegistry(myMetricRegistry)
+ *         .url(URI.create("http://otel-collector:4318/v1/metrics"))
+ *         .temporality(OtlpMetricsExporter.Temporality.DELTA)
+ *         .buildAndStart();
+ * // ...
+ * exporter.stop();
+ * </pre>
+ */
+public class OtlpMetricsExporter {
+
+    /**
+     * The resource attribute that identifies the service, required by the OpenTelemetry semantic conventions.
+     */
+    public static final @NotNull String SERVICE_NAME = "service.name";
+
+    private final @NotNull MetricsPusher pusher;
+
+    private OtlpMetricsExporter(final @NotNull Builder builder, final @NotNull ExpositionRenderer renderer) {
+        final var metrics = new PushMetrics("otlp", "OTLP receiver");
+        final var buffer = new PushBuffer(builder.bufferCapacityBytes, builder.offHeapBuffer, metrics);
+        final var resourceAttributes = new LinkedHashMap<String, String>();
+        resourceAttributes.put(SERVICE_NAME, "hivemq");
+        resourceAttributes.putAll(builder.resourceAttributes);
+        final var encoder = new OtlpEncoder(List.copyOf(resourceAttributes.keySet()),
+                List.copyOf(resourceAttributes.values()),
+                builder.temporality == Temporality.DELTA,
+                builder.maxDataPointsPerSend,
+                buffer,
+                System.currentTimeMillis());
+        final var url = Objects.requireNonNull(builder.url);
+        final var request = HttpRequest.newBuilder(url)
+                .timeout(builder.timeout)
+                .header("Content-Type", OtlpEncoder.CONTENT_TYPE)
+                .header("Content-Encoding", OtlpEncoder.CONTENT_ENCODING)
+                .header("User-Agent", "hivemq-prometheus-extension");
+        this.pusher = new MetricsPusher("prometheus-otlp-export",
+                "OTLP receiver " + url,
+                List.of(renderer, metrics),
+                encoder,
+                buffer,
+                metrics,
+                HttpClient.newBuilder().connectTimeout(builder.timeout).build(),
+                request,
+                // the retryable statuses of the OTLP/HTTP specification
+                status -> status == 429 || status == 502 || status == 503 || status == 504,
+                builder.minBackoff,
+                builder.maxBackoff);
+    }
+
+    /**
+     * Stop exporting the metrics. Requests that have not been sent yet are discarded.
+     */
+    public void stop() {
+        pusher.stop();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The aggregation temporality of the exported sums and histograms.
+     */
+    public enum Temporality {
+
+        /**
+         * The values since the start of the exporter, like the Prometheus counters and histograms.
+         */
+        CUMULATIVE,
+
+        /**
+         * The changes since the previous export.
+         */
+        DELTA
+    }
+
+    public static class Builder {
+
+        private @Nullable MetricRegistry metricRegistry;
+        private @Nullable URI url;
+        private @NotNull Duration interval = Duration.ofSeconds(60);
+        private @NotNull Duration timeout = Duration.ofSeconds(10);
+        private @NotNull Temporality temporality = Temporality.CUMULATIVE;
+        private @NotNull Map<String, String> resourceAttributes = Map.of();
+        private int maxDataPointsPerSend = 2000;
+        private long bufferCapacityBytes = 16 << 20;
+        private boolean offHeapBuffer = false;
+        private @NotNull Duration minBackoff = Duration.ofMillis(500);
+        private @NotNull Duration maxBackoff = Duration.ofSeconds(30);
+        private @NotNull Collection<String> includedMetrics = List.of();
+        private @NotNull Collection<String> excludedMetrics = List.of();
+        private @NotNull Collection<LabelMappingRule> labelMappings = List.of();
+        private @Nullable HistogramBuckets histogramBuckets = null;
+        private @Nullable HistogramBuckets timerBuckets = null;
+        private @Nullable IncrementalHistograms histograms = null;
+
+        private Builder() {
+        }
+
+        /**
+         * Export the metrics of this Dropwizard {@link MetricRegistry}, must be set.
+         */
+        public Builder metricRegistry(final @NotNull MetricRegistry metricRegistry) {
+            this.metricRegistry = metricRegistry;
+            return this;
+        }
+
+        /**
+         * The URL of the OTLP/HTTP metrics receiver, e.g. {@code http://otel-collector:4318/v1/metrics}, must be set.
+         */
+        public Builder url(final @NotNull URI url) {
+            if (!"http".equals(url.getScheme()) && !"https".equals(url.getScheme())) {
+                throw new IllegalArgumentException("OTLP URL must be an http or https URL: " + url);
+            }
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * Optional: Override the interval in which the metrics are exported. Default is {@code 60} seconds.
+         */
+        public Builder interval(final @NotNull Duration interval) {
+            if (interval.toMillis() < 1) {
+                throw new IllegalArgumentException("interval must be at least one millisecond: " + interval);
+            }
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Optional: Override the timeout of connecting to the receiver and of each request. Default is {@code 10}
+         * seconds.
+         */
+        public Builder timeout(final @NotNull Duration timeout) {
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("timeout must be positive: " + timeout);
+            }
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Optional: Override the aggregation temporality of the exported sums and histograms. Default is
+         * {@link Temporality#CUMULATIVE}.
+         */
+        public Builder temporality(final @NotNull Temporality temporality) {
+            this.temporality = temporality;
+            return this;
+        }
+
+        /**
+         * Optional: Attributes of the resource that all metrics belong to, e.g. {@code host.name}. Default is
+         * {@code service.name=hivemq}, which is also added if the attributes don't contain a {@code service.name}.
+         */
+        public Builder resourceAttributes(final @NotNull Map<String, String> resourceAttributes) {
+            this.resourceAttributes = new LinkedHashMap<>(resourceAttributes);
+            return this;
+        }
+
+        /**
+         * Optional: Override the maximum number of data points per request. Default is {@code 2000}.
+         */
+        public Builder maxDataPointsPerSend(final int maxDataPointsPerSend) {
+            if (maxDataPointsPerSend < 1) {
+                throw new IllegalArgumentException("max data points per send must be positive: " +
+                        maxDataPointsPerSend);
+            }
+            this.maxDataPointsPerSend = maxDataPointsPerSend;
+            return this;
+        }
+
+        /**
+         * Optional: Override the maximum number of compressed bytes of the requests that wait to be sent, e.g. while
+         * the receiver is unavailable. The oldest requests are dropped when the capacity is exceeded. Default is
+         * {@code 16} MiB.
+         */
+        public Builder bufferCapacityBytes(final long bufferCapacityBytes) {
+            if (bufferCapacityBytes < 1) {
+                throw new IllegalArgumentException("buffer capacity must be positive: " + bufferCapacityBytes);
+            }
+            this.bufferCapacityBytes = bufferCapacityBytes;
+            return this;
+        }
+
+        /**
+         * Optional: Store the requests that wait to be sent in direct buffers off the heap. Default is {@code false}.
+         */
+        public Builder offHeapBuffer(final boolean offHeapBuffer) {
+            this.offHeapBuffer = offHeapBuffer;
+            return this;
+        }
+
+        /**
+         * Optional: Override the minimum and maximum backoff between retries of a failed request, see
+         * {@link PrometheusRemoteWriter.Builder#backoff(Duration, Duration)}. Default is {@code 500} milliseconds and
+         * {@code 30} seconds.
+         */
+        public Builder backoff(final @NotNull Duration minBackoff, final @NotNull Duration maxBackoff) {
+            if (minBackoff.toMillis() < 1 || maxBackoff.compareTo(minBackoff) < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "backoff must be at least one millisecond and the maximum (%s) not less than the minimum (%s)",
+                        maxBackoff,
+                        minBackoff));
+            }
+            this.minBackoff = minBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Optional: Only export the metrics whose Dropwizard names match any of these patterns, see
+         * {@link PrometheusHttpServer.Builder#includedMetrics(Collection)}. Default is empty, which exports all
+         * metrics.
+         */
+        public Builder includedMetrics(final @NotNull Collection<String> includedMetrics) {
+            this.includedMetrics = List.copyOf(includedMetrics);
+            return this;
+        }
+
+        /**
+         * Optional: Don't export the metrics whose Dropwizard names match any of these patterns, see
+         * {@link PrometheusHttpServer.Builder#excludedMetrics(Collection)}. Default is empty.
+         */
+        public Builder excludedMetrics(final @NotNull Collection<String> excludedMetrics) {
+            this.excludedMetrics = List.copyOf(excludedMetrics);
+            return this;
+        }
+
+        /**
+         * Optional: Map the Dropwizard names of the metrics to metrics with attributes, see
+         * {@link PrometheusHttpServer.Builder#labelMappings(Collection)}. Default is empty.
+         */
+        public Builder labelMappings(final @NotNull Collection<LabelMappingRule> labelMappings) {
+            this.labelMappings = List.copyOf(labelMappings);
+            return this;
+        }
+
+        /**
+         * Optional: Export Histograms as histograms with these bucket bounds, see
+         * {@link PrometheusHttpServer.Builder#histogramBuckets(Collection)}. Default is empty, which exports summaries.
+         */
+        public Builder histogramBuckets(final @NotNull Collection<Double> histogramBuckets) {
+            this.histogramBuckets = histogramBuckets.isEmpty() ? null : HistogramBuckets.of(histogramBuckets, 1.0D);
+            return this;
+        }
+
+        /**
+         * Optional: Export Timers as histograms with these bucket bounds in seconds, see
+         * {@link PrometheusHttpServer.Builder#timerBuckets(Collection)}. Default is empty, which exports summaries.
+         */
+        public Builder timerBuckets(final @NotNull Collection<Double> timerBuckets) {
+            this.timerBuckets = timerBuckets.isEmpty() ?
+                    null :
+                    HistogramBuckets.of(timerBuckets, ExporterHistogram.NANOS_PER_SECOND);
+            return this;
+        }
+
+        /**
+         * Optional: The bucket counts of the metrics that are exported as histograms, e.g. to share them with the
+         * {@link PrometheusHttpServer} so both export the same bucket counts, which are kept when the exporter is
+         * restarted. Default is new bucket counts per exporter.
+         */
+        @NotNull Builder histograms(final @NotNull IncrementalHistograms histograms) {
+            this.histograms = histograms;
+            return this;
+        }
+
+        /**
+         * Build the OtlpMetricsExporter and start exporting after the first interval.
+         */
+        public OtlpMetricsExporter buildAndStart() {
+            if (metricRegistry == null) {
+                throw new NullPointerException("A metricRegistry must be set");
+            }
+            if (url == null) {
+                throw new NullPointerException("An OTLP URL must be set");
+            }
+            final var renderer = new DropwizardExpositionRenderer(metricRegistry,
+                    MetricNameFilter.of(includedMetrics, excludedMetrics),
+                    LabelMapper.of(labelMappings),
+                    histogramBuckets,
+                    timerBuckets,
+                    ReservoirSnapshotCache.NONE,
+                    histograms != null ? histograms : new IncrementalHistograms(),
+                    null,
+                    0);
+            final var exporter = new OtlpMetricsExporter(this, renderer);
+            exporter.pusher.start(interval);
+            return exporter;
+        }
+    }
+}
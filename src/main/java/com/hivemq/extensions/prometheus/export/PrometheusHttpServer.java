@@ -16,37 +16,61 @@
 
 package com.hivemq.extensions.prometheus.export;
 
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
 import io.prometheus.client.Collector;
-import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.exporter.HTTPServer.HTTPMetricHandler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 /**
  * An HTTP server for exposing Prometheus metrics.
  * <p>
  * This class uses {@link com.sun.net.httpserver.HttpServer} to provide a lightweight HTTP endpoint for Prometheus to
- * scrape metrics. It registers a metrics handler at the root path ("/") and at a configurable endpoint.
+ * scrape metrics. It registers a metrics handler at the root path ("/") and at a configurable endpoint. Alternatively,
+ * the metrics can be served by a non-blocking NIO server, see {@link Builder#nonBlocking(boolean)}. Further endpoints
+ * with their own metric filter and cache max-age can be served by the same server, see
+ * {@link Builder#endpoint(String, Duration, Collection, Collection)}. The endpoints and their settings can be replaced
+ * while the server is running, see {@link #reconfigure(Builder)}.
+ * <p>
+ * The rendered exposition is cached for a configurable max-age, so that all scrapes within that window are served
+ * with the same encoded bytes, see {@link ScrapeSnapshotCache}. Each endpoint has its own snapshots. Compressed
+ * variants of the exposition are produced once per snapshot and served to all scrapers accepting that encoding.
+ * Optionally, the snapshots are rendered ahead of the scrapes by a background thread, see
+ * {@link Builder#prerenderInterval(Duration)}, and scrapes whose render exceeds a deadline are served with the last
+ * complete snapshot, see {@link Builder#renderDeadline(Duration)}.
  * <p>
  * Usage:
  *
  * <pre>
  * final var server = PrometheusHttpServer.builder()
- *         .collector(myCollector)
+ *         .metricRegistry(myMetricRegistry)
  *         .hostname("0.0.0.0")
  *         .port(8080)
  *         .metricsHandlerEndpoint("/metrics")
+ *         .cacheMaxAge(Duration.ofSeconds(1))
  *         .buildAndStart();
  * // ...
  * server.stop();
@@ -56,59 +80,99 @@ import java.util.concurrent.TimeUnit;
  */
 public class PrometheusHttpServer {
 
-    static {
-        if (!System.getProperties().containsKey("sun.net.httpserver.maxReqTime")) {
-            System.setProperty("sun.net.httpserver.maxReqTime", "60");
-        }
-        if (!System.getProperties().containsKey("sun.net.httpserver.maxRspTime")) {
-            System.setProperty("sun.net.httpserver.maxRspTime", "600");
-        }
-    }
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(PrometheusHttpServer.class);
 
-    protected final @NotNull HttpServer server;
-    protected final @NotNull ExecutorService executorService;
+    private final @NotNull HttpTransport transport;
+    private final @NotNull EndpointRoutes routes;
+    private final @NotNull IncrementalHistograms histograms;
+    /**
+     * The pool of the HTTP threads, or {@code null} if the JDK server starts a virtual thread per request.
+     */
+    private final @Nullable ThreadPoolExecutor threadPool;
+    private final boolean nonBlocking;
+    private @Nullable ForkJoinPool renderPool;
+    private final @NotNull ExecutorService scrapeRenderExecutor;
+    private @Nullable SnapshotPrerenderer prerenderer;
 
     private PrometheusHttpServer(
-            final @NotNull Collector collector,
-            final @NotNull ExecutorService executorService,
-            final @NotNull HttpServer httpServer,
-            final @NotNull String metricsHandlerEndpoint) {
-        if (httpServer.getAddress() == null) {
-            throw new IllegalArgumentException("HttpServer hasn't been bound to an address");
-        }
-        this.server = httpServer;
-        this.executorService = executorService;
-        final var collectorRegistry = new CollectorRegistry(true);
-        collectorRegistry.register(collector);
-        final var metricHandler = new HTTPMetricHandler(collectorRegistry, null);
-        registerHandler(metricsHandlerEndpoint, metricHandler);
-        try {
-            // HttpServer.start() starts the HttpServer in a new background thread.
-            // If we call HttpServer.start() from a thread of the executorService,
-            // the background thread will inherit the "daemon" property,
-            // i.e. the server will run as a Daemon thread.
-            // See https://github.com/prometheus/client_java/pull/955
-            executorService.submit(server::start).get();
-            // calling .get() on the Future here to avoid silently discarding errors
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        } catch (final ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+            final @NotNull HttpTransport transport,
+            final @NotNull EndpointRoutes routes,
+            final @NotNull IncrementalHistograms histograms,
+            final @Nullable ThreadPoolExecutor threadPool,
+            final boolean nonBlocking,
+            final @Nullable ForkJoinPool renderPool,
+            final @NotNull ExecutorService scrapeRenderExecutor,
+            final @Nullable SnapshotPrerenderer prerenderer) {
+        this.transport = transport;
+        this.routes = routes;
+        this.histograms = histograms;
+        this.threadPool = threadPool;
+        this.nonBlocking = nonBlocking;
+        this.renderPool = renderPool;
+        this.scrapeRenderExecutor = scrapeRenderExecutor;
+        this.prerenderer = prerenderer;
     }
 
-    private void registerHandler(final @NotNull String path, final @NotNull HttpHandler handler) {
-        server.createContext(path, handler);
+    /**
+     * Applies the settings of the given builder to the running server without rebinding its socket, e.g. after the
+     * configuration has been reloaded. The endpoints, metric filters, label mappings, histogram buckets, cache,
+     * compression, pre-render and render deadline settings are replaced atomically: scrapes that are in-flight are
+     * completed with the previous endpoints, all later scrapes are served by the new endpoints. The snapshot caches of
+     * the new endpoints start empty, while the bucket counts of the metrics that are exported as Prometheus histograms
+     * are kept, unless their buckets changed.
+     * <p>
+     * The minimum and maximum number of HTTP threads, their keep-alive and the shed overload setting are applied to
+     * the running thread pool. If the render parallelism changed, the new endpoints render with a new pool and the
+     * previous pool is shut down. The settings of the socket and the transport, i.e. the hostname, port,
+     * non-blocking, virtual threads, backlog and queue capacity settings of the builder, are ignored. Changing them
+     * requires a new server.
+     *
+     * @throws IllegalArgumentException if the settings are invalid, the server is unchanged then
+     */
+    public synchronized void reconfigure(final @NotNull Builder builder) {
+        builder.validate();
+        final var previousRenderPool = renderPool;
+        final var previousRenderParallelism = previousRenderPool == null ? 1 : previousRenderPool.getParallelism();
+        final var renderPool =
+                builder.renderParallelism == previousRenderParallelism ? previousRenderPool : builder.newRenderPool();
+        final Map<String, MetricsEndpoint> endpoints;
+        try {
+            endpoints = builder.newEndpoints(routes.metrics(),
+                    routes.endpoints(),
+                    histograms,
+                    renderPool,
+                    scrapeRenderExecutor);
+        } catch (final RuntimeException e) {
+            if (renderPool != null && renderPool != previousRenderPool) {
+                renderPool.shutdown();
+            }
+            throw e;
+        }
+        if (prerenderer != null) {
+            prerenderer.stop();
+            prerenderer = null;
+        }
+        routes.replace(endpoints).forEach(MetricsEndpoint::close);
+        this.renderPool = renderPool;
+        if (previousRenderPool != null && previousRenderPool != renderPool) {
+            // renders that are in-flight render the shards that the pool rejects on their own thread
+            previousRenderPool.shutdown();
+        }
+        if (threadPool != null) {
+            builder.reconfigure(threadPool, nonBlocking);
+        }
+        prerenderer = builder.newPrerenderer(endpoints.values());
     }
 
     /**
      * Stop the HTTP server.
      */
-    public void stop() {
-        server.stop(0);
-        // free any (parked/idle) threads in pool
-        executorService.shutdown();
+    public synchronized void stop() {
+        if (prerenderer != null) {
+            prerenderer.stop();
+        }
+        transport.stop();
+        Builder.shutdown(routes.endpoints().values(), renderPool, scrapeRenderExecutor);
     }
 
     /**
@@ -116,7 +180,7 @@ public class PrometheusHttpServer {
      * automatically.
      */
     public int getPort() {
-        return server.getAddress().getPort();
+        return transport.getPort();
     }
 
     public static Builder builder() {
@@ -126,19 +190,56 @@ public class PrometheusHttpServer {
     public static class Builder {
 
         private @Nullable Collector collector;
+        private @Nullable MetricRegistry metricRegistry;
         private @Nullable String hostname = null;
 
         private int port = 0;
         private @NotNull String metricsHandlerEndpoint = "/metrics";
+        private @NotNull Duration cacheMaxAge = Duration.ZERO;
+        private int gzipCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean zstdCompression = false;
+        private boolean nonBlocking = false;
+        private boolean virtualThreads = false;
+        private int minThreads = 1;
+        private int maxThreads = 10;
+        private @NotNull Duration threadKeepAlive = Duration.ofSeconds(120);
+        private int backlog = 3;
+        private int queueCapacity = 0;
+        private boolean shedOverload = false;
+        private @NotNull Collection<String> includedMetrics = List.of();
+        private @NotNull Collection<String> excludedMetrics = List.of();
+        private final @NotNull List<AdditionalEndpoint> additionalEndpoints = new ArrayList<>();
+        private @NotNull Collection<LabelMappingRule> labelMappings = List.of();
+        private @Nullable HistogramBuckets histogramBuckets = null;
+        private @Nullable HistogramBuckets timerBuckets = null;
+        private int renderParallelism = 1;
+        private @NotNull Duration prerenderInterval = Duration.ZERO;
+        private @NotNull Duration prerenderJitter = Duration.ZERO;
+        private @NotNull Duration renderDeadline = Duration.ZERO;
+        private int familySeriesLimit = 0;
+        private @Nullable IncrementalHistograms histograms = null;
 
         private Builder() {
         }
 
+        /**
+         * Expose the metrics of an arbitrary {@link Collector}. Either a collector or a
+         * {@link #metricRegistry(MetricRegistry) MetricRegistry} must be set.
+         */
         public Builder collector(final @NotNull Collector collector) {
             this.collector = collector;
             return this;
         }
 
+        /**
+         * Expose the metrics of a Dropwizard {@link MetricRegistry}. The registry is rendered directly into the
+         * exposition, which is much cheaper than exposing it via a {@code DropwizardExports} {@link Collector}.
+         */
+        public Builder metricRegistry(final @NotNull MetricRegistry metricRegistry) {
+            this.metricRegistry = metricRegistry;
+            return this;
+        }
+
         /**
          * Use this hostname to resolve the IP address to bind to. Default is empty, indicating that the
          * PrometheusHttpServer binds to the wildcard address.
@@ -167,21 +268,559 @@ public class PrometheusHttpServer {
             return this;
         }
 
+        /**
+         * Optional: Override the max-age of the cached metrics snapshot. Scrapes within this window are served from
+         * the same rendered snapshot. Default is {@link Duration#ZERO}, indicating that every scrape renders a new
+         * snapshot, unless it arrives while another render is in-flight.
+         */
+        public Builder cacheMaxAge(final @NotNull Duration cacheMaxAge) {
+            if (cacheMaxAge.isNegative()) {
+                throw new IllegalArgumentException("cache max-age must not be negative: " + cacheMaxAge);
+            }
+            this.cacheMaxAge = cacheMaxAge;
+            return this;
+        }
+
+        /**
+         * Optional: Override the gzip compression level (1-9). Default is {@link Deflater#DEFAULT_COMPRESSION}.
+         */
+        public Builder gzipCompressionLevel(final int gzipCompressionLevel) {
+            if ((gzipCompressionLevel < 1 || gzipCompressionLevel > 9) &&
+                    gzipCompressionLevel != Deflater.DEFAULT_COMPRESSION) {
+                throw new IllegalArgumentException("gzip compression level out of range:" + gzipCompressionLevel);
+            }
+            this.gzipCompressionLevel = gzipCompressionLevel;
+            return this;
+        }
+
+        /**
+         * Optional: Serve zstd compressed responses to scrapers that accept them. Default is {@code false}.
+         */
+        public Builder zstdCompression(final boolean zstdCompression) {
+            this.zstdCompression = zstdCompression;
+            return this;
+        }
+
+        /**
+         * Optional: Serve the metrics with a non-blocking NIO server instead of the JDK {@code HttpServer}. The
+         * non-blocking server keeps connections alive without occupying a thread and bounds the number of concurrent
+         * renders. Default is {@code false}.
+         */
+        public Builder nonBlocking(final boolean nonBlocking) {
+            this.nonBlocking = nonBlocking;
+            return this;
+        }
+
+        /**
+         * Optional: Serve requests on virtual threads, so that slow scrapers don't occupy platform threads. This
+         * requires Java 21+, on older Java versions the server falls back to a pool of platform threads. Default is
+         * {@code false}.
+         */
+        public Builder virtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Optional: Override the minimum number of HTTP threads that are kept alive when idle. Default is {@code 1}.
+         */
+        public Builder minThreads(final int minThreads) {
+            if (minThreads < 0) {
+                throw new IllegalArgumentException("min threads must not be negative: " + minThreads);
+            }
+            this.minThreads = minThreads;
+            return this;
+        }
+
+        /**
+         * Optional: Override the maximum number of HTTP threads, i.e. the maximum number of concurrently served
+         * scrapes. Not applicable to {@link #virtualThreads(boolean) virtual threads} with the JDK server, which
+         * start a new thread per request. Default is {@code 10}.
+         */
+        public Builder maxThreads(final int maxThreads) {
+            if (maxThreads < 1) {
+                throw new IllegalArgumentException("max threads must be positive: " + maxThreads);
+            }
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * Optional: Override the time after which idle HTTP threads above the minimum are terminated. Default is
+         * {@code 120} seconds.
+         */
+        public Builder threadKeepAlive(final @NotNull Duration threadKeepAlive) {
+            if (threadKeepAlive.isNegative()) {
+                throw new IllegalArgumentException("thread keep-alive must not be negative: " + threadKeepAlive);
+            }
+            this.threadKeepAlive = threadKeepAlive;
+            return this;
+        }
+
+        /**
+         * Optional: Override the maximum number of pending connections in the accept queue of the server socket.
+         * {@code 0} uses the system default. Default is {@code 3}.
+         */
+        public Builder backlog(final int backlog) {
+            if (backlog < 0) {
+                throw new IllegalArgumentException("backlog must not be negative: " + backlog);
+            }
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Optional: Override the number of scrapes that may wait for an HTTP thread when all threads are busy.
+         * Default is {@code 0}, indicating that scrapes are handed off directly to a thread.
+         */
+        public Builder queueCapacity(final int queueCapacity) {
+            if (queueCapacity < 0) {
+                throw new IllegalArgumentException("queue capacity must not be negative: " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Optional: Answer scrapes with {@code 503 Service Unavailable} and a {@code Retry-After} header when all
+         * HTTP threads are busy and the queue is full, instead of blocking the accept loop of the JDK server until a
+         * thread becomes available. The {@link #nonBlocking(boolean) non-blocking} server always sheds overload.
+         * Default is {@code false}.
+         */
+        public Builder shedOverload(final boolean shedOverload) {
+            this.shedOverload = shedOverload;
+            return this;
+        }
+
+        /**
+         * Optional: Only export the metrics of the {@link #metricRegistry(MetricRegistry) MetricRegistry} whose
+         * Dropwizard names match any of these patterns. Patterns are globs, in which {@code *} matches any sequence of
+         * characters and {@code ?} any single character, unless they start with {@code regex:}, in which case the
+         * rest is a regular expression that must match the whole name. Default is empty, which exports all metrics.
+         */
+        public Builder includedMetrics(final @NotNull Collection<String> includedMetrics) {
+            this.includedMetrics = List.copyOf(includedMetrics);
+            return this;
+        }
+
+        /**
+         * Optional: Don't export the metrics of the {@link #metricRegistry(MetricRegistry) MetricRegistry} whose
+         * Dropwizard names match any of these patterns, even if they are {@link #includedMetrics(Collection) included}.
+         * The patterns have the same syntax as the included ones. Default is empty.
+         */
+        public Builder excludedMetrics(final @NotNull Collection<String> excludedMetrics) {
+            this.excludedMetrics = List.copyOf(excludedMetrics);
+            return this;
+        }
+
+        /**
+         * Optional: Map the Dropwizard names of the metrics of the {@link #metricRegistry(MetricRegistry)
+         * MetricRegistry} to Prometheus families with labels. The first matching rule applies to a metric, metrics
+         * that match no rule are exported without labels. The rules apply to all endpoints. Default is empty.
+         */
+        public Builder labelMappings(final @NotNull Collection<LabelMappingRule> labelMappings) {
+            this.labelMappings = List.copyOf(labelMappings);
+            return this;
+        }
+
+        /**
+         * Optional: Export the Histograms of the {@link #metricRegistry(MetricRegistry) MetricRegistry} as Prometheus
+         * histograms with buckets of these strictly ascending upper bounds, instead of summaries with the quantiles of
+         * their reservoir. The {@code +Inf} bucket is always added. Default is empty, which exports summaries.
+         */
+        public Builder histogramBuckets(final @NotNull Collection<Double> histogramBuckets) {
+            this.histogramBuckets = histogramBuckets.isEmpty() ? null : HistogramBuckets.of(histogramBuckets, 1.0D);
+            return this;
+        }
+
+        /**
+         * Optional: Export the Timers of the {@link #metricRegistry(MetricRegistry) MetricRegistry} as Prometheus
+         * histograms with buckets of these strictly ascending upper bounds in seconds, instead of summaries with the
+         * quantiles of their reservoir. The {@code +Inf} bucket is always added. Default is empty, which exports
+         * summaries.
+         */
+        public Builder timerBuckets(final @NotNull Collection<Double> timerBuckets) {
+            this.timerBuckets = timerBuckets.isEmpty() ?
+                    null :
+                    HistogramBuckets.of(timerBuckets, ExporterHistogram.NANOS_PER_SECOND);
+            return this;
+        }
+
+        /**
+         * Optional: The number of threads that render the metrics of the {@link #metricRegistry(MetricRegistry)
+         * MetricRegistry} in parallel. Registries with many metric families are partitioned into shards that are
+         * rendered by a dedicated pool of this many threads, shared by all endpoints, and concatenated in a stable
+         * order. Default is 1, which renders on the thread that serves the scrape.
+         */
+        public Builder renderParallelism(final int renderParallelism) {
+            if (renderParallelism < 1) {
+                throw new IllegalArgumentException("render parallelism must be positive: " + renderParallelism);
+            }
+            this.renderParallelism = renderParallelism;
+            return this;
+        }
+
+        /**
+         * Optional: Render the snapshots of all endpoints ahead of the scrapes with this interval, on a background
+         * thread with the minimum priority. Scrapes are then served with the latest snapshot without rendering, unless
+         * it is older than twice the interval plus the {@link #prerenderJitter(Duration) jitter}. The renders are
+         * aligned to the multiples of the interval, which should be the scrape interval. Only the formats that have
+         * been scraped are rendered, so the first scrape of each format renders on demand. Default is
+         * {@link Duration#ZERO}, indicating that snapshots are only rendered by scrapes.
+         */
+        public Builder prerenderInterval(final @NotNull Duration prerenderInterval) {
+            if (prerenderInterval.isNegative() || (!prerenderInterval.isZero() && prerenderInterval.toMillis() == 0)) {
+                throw new IllegalArgumentException(
+                        "pre-render interval must be zero or at least one millisecond: " + prerenderInterval);
+            }
+            this.prerenderInterval = prerenderInterval;
+            return this;
+        }
+
+        /**
+         * Optional: Delay each {@link #prerenderInterval(Duration) pre-render} by a random duration of up to this
+         * jitter, so that several exporters with the same interval don't render at the same instant. Must be less
+         * than the pre-render interval. Default is {@link Duration#ZERO}.
+         */
+        public Builder prerenderJitter(final @NotNull Duration prerenderJitter) {
+            if (prerenderJitter.isNegative()) {
+                throw new IllegalArgumentException("pre-render jitter must not be negative: " + prerenderJitter);
+            }
+            this.prerenderJitter = prerenderJitter;
+            return this;
+        }
+
+        /**
+         * Optional: The maximum time a scrape waits for the render of a new snapshot. When it is exceeded, the scrape
+         * is served with the last complete snapshot, which is counted as {@code stale} scrape in the exporter metrics,
+         * while the render continues in the background and its snapshot is served to the next scrape. The renders of
+         * scrapes then run on a dedicated pool of threads. Should be less than the scrape timeout of the scrapers. The
+         * first scrape of each format always waits for its render. Default is {@link Duration#ZERO}, indicating that
+         * scrapes always wait for their render.
+         */
+        public Builder renderDeadline(final @NotNull Duration renderDeadline) {
+            if (renderDeadline.isNegative()) {
+                throw new IllegalArgumentException("render deadline must not be negative: " + renderDeadline);
+            }
+            this.renderDeadline = renderDeadline;
+            return this;
+        }
+
+        /**
+         * Optional: The maximum number of series, i.e. samples, per metric family of the
+         * {@link #metricRegistry(MetricRegistry) MetricRegistry} on all endpoints, e.g. to protect the scrapes from a
+         * misbehaving client that adds a metric per client. A counter, meter or gauge has one series, a summary seven
+         * and a histogram one per bucket including {@code +Inf} plus the count and sum. The first metrics of a family
+         * whose series fit into the limit are exported, the truncated families and series are counted in the exporter
+         * metrics, and the {@code debug=cardinality} query parameter lists the heaviest families instead of the
+         * metrics. Default is 0, indicating no limit.
+         */
+        public Builder familySeriesLimit(final int familySeriesLimit) {
+            if (familySeriesLimit < 0) {
+                throw new IllegalArgumentException("family series limit must not be negative: " + familySeriesLimit);
+            }
+            this.familySeriesLimit = familySeriesLimit;
+            return this;
+        }
+
+        /**
+         * Optional: Serve an additional endpoint at the given path with the same server. The endpoint has its own
+         * snapshots, which are cached for the given max-age and only contain the metrics of the
+         * {@link #metricRegistry(MetricRegistry) MetricRegistry} that pass the given patterns, see
+         * {@link #includedMetrics(Collection)} and {@link #excludedMetrics(Collection)}. The metric filter of the
+         * default endpoint doesn't apply to additional endpoints. Default is no additional endpoint.
+         */
+        public Builder endpoint(
+                final @NotNull String path,
+                final @NotNull Duration cacheMaxAge,
+                final @NotNull Collection<String> includedMetrics,
+                final @NotNull Collection<String> excludedMetrics) {
+            if (!path.startsWith("/")) {
+                throw new IllegalArgumentException("endpoint path must begin with a slash: " + path);
+            }
+            if (cacheMaxAge.isNegative()) {
+                throw new IllegalArgumentException("cache max-age must not be negative: " + cacheMaxAge);
+            }
+            additionalEndpoints.add(new AdditionalEndpoint(path,
+                    cacheMaxAge,
+                    List.copyOf(includedMetrics),
+                    List.copyOf(excludedMetrics)));
+            return this;
+        }
+
+        /**
+         * Optional: The bucket counts of the metrics that are exported as Prometheus histograms, e.g. to keep them when
+         * the server is replaced or to share them with the push exporters. Default is new bucket counts per server.
+         */
+        @NotNull Builder histograms(final @NotNull IncrementalHistograms histograms) {
+            this.histograms = histograms;
+            return this;
+        }
+
         /**
          * Build and start the PrometheusHttpServer.
          */
         public PrometheusHttpServer buildAndStart() throws IOException {
-            Objects.requireNonNull(collector);
-            final var executorService = new ThreadPoolExecutor(1,
-                    10,
-                    120,
-                    TimeUnit.SECONDS,
-                    new SynchronousQueue<>(true),
-                    NamedDaemonThreadFactory.defaultThreadFactory(),
-                    new BlockingRejectedExecutionHandler());
-            final var httpServer = HttpServer.create(makeInetSocketAddress(), 3);
-            httpServer.setExecutor(executorService);
-            return new PrometheusHttpServer(collector, executorService, httpServer, metricsHandlerEndpoint);
+            validate();
+            final var renderPool = newRenderPool();
+            final var scrapeRenderExecutor = newScrapeRenderExecutor();
+            // the bucket counts are kept by the server, so they survive a reconfiguration
+            final var histograms = this.histograms != null ? this.histograms : new IncrementalHistograms();
+            final Map<String, MetricsEndpoint> endpoints;
+            try {
+                endpoints = newEndpoints(new ExporterMetrics(), Map.of(), histograms, renderPool, scrapeRenderExecutor);
+            } catch (final RuntimeException e) {
+                shutdown(List.of(), renderPool, scrapeRenderExecutor);
+                throw e;
+            }
+            final var routes = new EndpointRoutes(endpoints);
+            final var useVirtualThreads = virtualThreads && VirtualThreads.isAvailable();
+            if (virtualThreads && !useVirtualThreads) {
+                LOG.info("Virtual threads are not available on Java {}, falling back to platform threads",
+                        System.getProperty("java.specification.version"));
+            }
+            final HttpTransport transport;
+            final ThreadPoolExecutor threadPool;
+            try {
+                if (nonBlocking) {
+                    threadPool = newThreadPool(useVirtualThreads ?
+                            VirtualThreads.threadFactory() :
+                            NamedDaemonThreadFactory.defaultThreadFactory());
+                    transport = new NioHttpTransport(makeInetSocketAddress(), backlog, routes, threadPool);
+                } else if (useVirtualThreads) {
+                    threadPool = null;
+                    transport = new JdkHttpTransport(makeInetSocketAddress(),
+                            backlog,
+                            routes,
+                            VirtualThreads.newThreadPerTaskExecutor());
+                } else {
+                    threadPool = newThreadPool(NamedDaemonThreadFactory.defaultThreadFactory());
+                    transport = new JdkHttpTransport(makeInetSocketAddress(), backlog, routes, threadPool);
+                }
+            } catch (final IOException | RuntimeException e) {
+                shutdown(endpoints.values(), renderPool, scrapeRenderExecutor);
+                throw e;
+            }
+            return new PrometheusHttpServer(transport,
+                    routes,
+                    histograms,
+                    threadPool,
+                    nonBlocking,
+                    renderPool,
+                    scrapeRenderExecutor,
+                    newPrerenderer(endpoints.values()));
+        }
+
+        /**
+         * Validates the settings that are applied by {@link #buildAndStart()} as well as by
+         * {@link PrometheusHttpServer#reconfigure(Builder)}.
+         */
+        private void validate() {
+            if (metricRegistry == null && collector == null) {
+                throw new NullPointerException("Either a collector or a metricRegistry must be set");
+            }
+            if (minThreads > maxThreads) {
+                throw new IllegalArgumentException(String.format(
+                        "min threads (%d) must not be greater than max threads (%d)",
+                        minThreads,
+                        maxThreads));
+            }
+            if (!prerenderInterval.isZero() && prerenderJitter.compareTo(prerenderInterval) >= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "pre-render jitter (%s) must be less than the pre-render interval (%s)",
+                        prerenderJitter,
+                        prerenderInterval));
+            }
+        }
+
+        /**
+         * Creates the endpoints of the server, the default endpoint first.
+         *
+         * @param exporterMetrics   the exporter metrics of the default endpoint
+         * @param previousEndpoints the endpoints that are replaced, additional endpoints whose path is still served
+         *                          keep their exporter metrics
+         * @param histograms        the bucket counts of the server, which are shared by all endpoints, so they export
+         *                          the same counts for the same metric
+         */
+        private @NotNull Map<String, MetricsEndpoint> newEndpoints(
+                final @NotNull ExporterMetrics exporterMetrics,
+                final @NotNull Map<String, MetricsEndpoint> previousEndpoints,
+                final @NotNull IncrementalHistograms histograms,
+                final @Nullable ForkJoinPool renderPool,
+                final @NotNull ExecutorService scrapeRenderExecutor) {
+            // a single mapper for all endpoints, so their expositions share the interned names and labels
+            final var labelMapper = LabelMapper.of(labelMappings);
+            // the reservoir snapshots are shared by all endpoints and formats, each reuses them for its cache max-age
+            final var snapshotCache = new ReservoirSnapshotCache();
+            final var endpoints = new LinkedHashMap<String, MetricsEndpoint>();
+            endpoints.put(metricsHandlerEndpoint,
+                    newEndpoint(includedMetrics,
+                            excludedMetrics,
+                            labelMapper,
+                            snapshotCache,
+                            histograms,
+                            renderPool,
+                            scrapeRenderExecutor,
+                            exporterMetrics,
+                            cacheMaxAge));
+            for (final var additionalEndpoint : additionalEndpoints) {
+                if (endpoints.containsKey(additionalEndpoint.path)) {
+                    endpoints.values().forEach(MetricsEndpoint::close);
+                    throw new IllegalArgumentException("endpoint path is already served: " + additionalEndpoint.path);
+                }
+                final var previousEndpoint = previousEndpoints.get(additionalEndpoint.path);
+                final var endpointMetrics = previousEndpoint != null && previousEndpoint.metrics() != exporterMetrics ?
+                        previousEndpoint.metrics() :
+                        exporterMetrics.newEndpointMetrics();
+                endpoints.put(additionalEndpoint.path,
+                        newEndpoint(additionalEndpoint.includedMetrics,
+                                additionalEndpoint.excludedMetrics,
+                                labelMapper,
+                                snapshotCache,
+                                histograms,
+                                renderPool,
+                                scrapeRenderExecutor,
+                                endpointMetrics,
+                                additionalEndpoint.cacheMaxAge));
+            }
+            return endpoints;
+        }
+
+        private @Nullable SnapshotPrerenderer newPrerenderer(final @NotNull Collection<MetricsEndpoint> endpoints) {
+            if (prerenderInterval.isZero()) {
+                return null;
+            }
+            final var prerenderer = new SnapshotPrerenderer(endpoints, prerenderInterval, prerenderJitter);
+            prerenderer.start();
+            return prerenderer;
+        }
+
+        private static void shutdown(
+                final @NotNull Collection<MetricsEndpoint> endpoints,
+                final @Nullable ForkJoinPool renderPool,
+                final @NotNull ExecutorService scrapeRenderExecutor) {
+            scrapeRenderExecutor.shutdown();
+            endpoints.forEach(MetricsEndpoint::close);
+            if (renderPool != null) {
+                renderPool.shutdown();
+            }
+        }
+
+        private @NotNull MetricsEndpoint newEndpoint(
+                final @NotNull Collection<String> includedMetrics,
+                final @NotNull Collection<String> excludedMetrics,
+                final @NotNull LabelMapper labelMapper,
+                final @NotNull ReservoirSnapshotCache snapshotCache,
+                final @NotNull IncrementalHistograms histograms,
+                final @Nullable ForkJoinPool renderPool,
+                final @NotNull ExecutorService scrapeRenderExecutor,
+                final @NotNull ExporterMetrics exporterMetrics,
+                final @NotNull Duration cacheMaxAge) {
+            final ExpositionRenderer renderer;
+            if (metricRegistry != null) {
+                renderer = new DropwizardExpositionRenderer(metricRegistry,
+                        MetricNameFilter.of(includedMetrics, excludedMetrics),
+                        labelMapper,
+                        histogramBuckets,
+                        timerBuckets,
+                        snapshotCache.withMaxAge(cacheMaxAge),
+                        histograms,
+                        renderPool,
+                        familySeriesLimit);
+            } else {
+                renderer = new CollectorExpositionRenderer(Objects.requireNonNull(collector));
+            }
+            final var compressor = new SnapshotCompressor(exporterMetrics, gzipCompressionLevel, zstdCompression);
+            return new MetricsEndpoint(renderer,
+                    exporterMetrics,
+                    snapshotMaxAge(cacheMaxAge),
+                    renderDeadline,
+                    scrapeRenderExecutor,
+                    compressor);
+        }
+
+        /**
+         * Returns the max-age of the scrape snapshots of an endpoint. When pre-rendering, scrapes are served with the
+         * latest snapshot, and only render on demand when the pre-renders fell behind by more than a whole interval.
+         */
+        private @NotNull Duration snapshotMaxAge(final @NotNull Duration cacheMaxAge) {
+            if (prerenderInterval.isZero()) {
+                return cacheMaxAge;
+            }
+            final var prerenderMaxAge = prerenderInterval.multipliedBy(2).plus(prerenderJitter);
+            return prerenderMaxAge.compareTo(cacheMaxAge) > 0 ? prerenderMaxAge : cacheMaxAge;
+        }
+
+        /**
+         * Returns the pool that renders the shards of the registry in parallel, or {@code null} if the metrics are
+         * rendered on the thread that serves the scrape.
+         */
+        private @Nullable ForkJoinPool newRenderPool() {
+            if (renderParallelism < 2 || metricRegistry == null) {
+                return null;
+            }
+            final var threadNumber = new AtomicInteger(1);
+            return new ForkJoinPool(renderParallelism, pool -> {
+                final var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("prometheus-render-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+
+        /**
+         * Returns the executor of the renders of scrapes with a render deadline. Each snapshot cache renders at most
+         * one snapshot at a time, so the number of threads is bounded by the number of endpoints and formats. Threads
+         * are only started once a render deadline is set, so the executor is also created without one, which allows to
+         * set a deadline by {@link PrometheusHttpServer#reconfigure(Builder)}.
+         */
+        private @NotNull ExecutorService newScrapeRenderExecutor() {
+            final var threadNumber = new AtomicInteger(1);
+            return Executors.newCachedThreadPool(runnable -> {
+                final var thread = new Thread(runnable, "prometheus-scrape-render-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private @NotNull ThreadPoolExecutor newThreadPool(final @NotNull ThreadFactory threadFactory) {
+            return new ThreadPoolExecutor(minThreads,
+                    maxThreads,
+                    threadKeepAlive.toMillis(),
+                    TimeUnit.MILLISECONDS,
+                    queueCapacity == 0 ? new SynchronousQueue<>(true) : new ArrayBlockingQueue<>(queueCapacity),
+                    threadFactory,
+                    newRejectedExecutionHandler(nonBlocking));
+        }
+
+        /**
+         * Applies the thread settings to the thread pool of a running server. The queue of the pool can't be replaced,
+         * so its capacity is kept.
+         *
+         * @param nonBlocking whether the pool serves the non-blocking server, which is kept as well
+         */
+        private void reconfigure(final @NotNull ThreadPoolExecutor threadPool, final boolean nonBlocking) {
+            // the core pool size must never exceed the maximum pool size, neither before nor after each step
+            if (maxThreads < threadPool.getCorePoolSize()) {
+                threadPool.setCorePoolSize(minThreads);
+                threadPool.setMaximumPoolSize(maxThreads);
+            } else {
+                threadPool.setMaximumPoolSize(maxThreads);
+                threadPool.setCorePoolSize(minThreads);
+            }
+            threadPool.setKeepAliveTime(threadKeepAlive.toMillis(), TimeUnit.MILLISECONDS);
+            threadPool.setRejectedExecutionHandler(newRejectedExecutionHandler(nonBlocking));
+        }
+
+        /**
+         * Returns the handler of the scrapes that the thread pool rejects. The non-blocking server answers them with
+         * {@code 503 Service Unavailable} itself.
+         */
+        private @NotNull RejectedExecutionHandler newRejectedExecutionHandler(final boolean nonBlocking) {
+            if (nonBlocking) {
+                return new ThreadPoolExecutor.AbortPolicy();
+            }
+            return shedOverload ? new SheddingRejectedExecutionHandler() : new BlockingRejectedExecutionHandler();
         }
 
         private @NotNull InetSocketAddress makeInetSocketAddress() {
@@ -191,5 +830,24 @@ public class PrometheusHttpServer {
                 return new InetSocketAddress(port);
             }
         }
+
+        private static final class AdditionalEndpoint {
+
+            private final @NotNull String path;
+            private final @NotNull Duration cacheMaxAge;
+            private final @NotNull Collection<String> includedMetrics;
+            private final @NotNull Collection<String> excludedMetrics;
+
+            private AdditionalEndpoint(
+                    final @NotNull String path,
+                    final @NotNull Duration cacheMaxAge,
+                    final @NotNull Collection<String> includedMetrics,
+                    final @NotNull Collection<String> excludedMetrics) {
+                this.path = path;
+                this.cacheMaxAge = cacheMaxAge;
+                this.includedMetrics = includedMetrics;
+                this.excludedMetrics = excludedMetrics;
+            }
+        }
     }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Pushes the metrics of a Dropwizard {@link MetricRegistry} to a Prometheus remote write receiver, for brokers that
+ * can't be scraped, e.g. because they are behind a NAT.
+ * <p>
+ * Once per interval, the metrics are rendered like for a scrape in the Prometheus protobuf format, translated into
+ * snappy compressed remote write 1.0 requests of a bounded number of samples by a {@link RemoteWriteEncoder}, and
+ * queued in a bounded {@link PushBuffer}. The queued requests are sent in order by a {@link MetricsPusher}. When
+ * a request fails with a network error, {@code 429 Too Many Requests} or a server error, the sending is retried with
+ * an exponential backoff, while new requests are queued and the oldest ones dropped if the buffer is full. Requests
+ * that are rejected with any other client error are dropped, as a retry can't succeed. Queued requests are discarded
+ * when the writer is stopped.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * final var writer = PrometheusRemoteWriter.builder()
+ *         .metricRegistry(myMetricRegistry)
+ *         .url(URI.create("http://prometheus:9090/api/v1/write"))
+ *         .interval(Duration.ofSeconds(15))
+ *         .buildAndStart();
+ * // ...
+ * writer.stop();
+ * </pre>
+ */
+public class PrometheusRemoteWriter {
+
+    private final @NotNull MetricsPusher pusher;
+
+    private PrometheusRemoteWriter(final @NotNull Builder builder, final @NotNull ExpositionRenderer renderer) {
+        final var metrics = new PushMetrics("remote_write", "remote write receiver");
+        final var buffer = new PushBuffer(builder.bufferCapacityBytes, builder.offHeapBuffer, metrics);
+        final var encoder = new RemoteWriteEncoder(List.copyOf(builder.externalLabels.keySet()),
+                List.copyOf(builder.externalLabels.values()),
+                builder.maxSamplesPerSend,
+                buffer);
+        final var url = Objects.requireNonNull(builder.url);
+        final var request = HttpRequest.newBuilder(url)
+                .timeout(builder.timeout)
+                .header("Content-Type", RemoteWriteEncoder.CONTENT_TYPE)
+                .header("Content-Encoding", RemoteWriteEncoder.CONTENT_ENCODING)
+                .header("X-Prometheus-Remote-Write-Version", RemoteWriteEncoder.VERSION)
+                .header("User-Agent", "hivemq-prometheus-extension");
+        this.pusher = new MetricsPusher("prometheus-remote-write",
+                "Prometheus remote write receiver " + url,
+                List.of(renderer, metrics),
+                encoder,
+                buffer,
+                metrics,
+                HttpClient.newBuilder().connectTimeout(builder.timeout).build(),
+                request,
+                // the receiver may be overloaded or unavailable, other client errors can't succeed on a retry
+                status -> status == 429 || status >= 500,
+                builder.minBackoff,
+                builder.maxBackoff);
+    }
+
+    /**
+     * Stop pushing the metrics. Requests that have not been sent yet are discarded.
+     */
+    public void stop() {
+        pusher.stop();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private @Nullable MetricRegistry metricRegistry;
+        private @Nullable URI url;
+        private @NotNull Duration interval = Duration.ofSeconds(15);
+        private @NotNull Duration timeout = Duration.ofSeconds(30);
+        private @NotNull Map<String, String> externalLabels = Map.of();
+        private int maxSamplesPerSend = 2000;
+        private long bufferCapacityBytes = 16 << 20;
+        private boolean offHeapBuffer = false;
+        private @NotNull Duration minBackoff = Duration.ofMillis(500);
+        private @NotNull Duration maxBackoff = Duration.ofSeconds(30);
+        private @NotNull Collection<String> includedMetrics = List.of();
+        private @NotNull Collection<String> excludedMetrics = List.of();
+        private @NotNull Collection<LabelMappingRule> labelMappings = List.of();
+        private @Nullable HistogramBuckets histogramBuckets = null;
+        private @Nullable HistogramBuckets timerBuckets = null;
+        private @Nullable IncrementalHistograms histograms = null;
+
+        private Builder() {
+        }
+
+        /**
+         * Push the metrics of this Dropwizard {@link MetricRegistry}, must be set.
+         */
+        public Builder metricRegistry(final @NotNull MetricRegistry metricRegistry) {
+            this.metricRegistry = metricRegistry;
+            return this;
+        }
+
+        /**
+         * The URL of the remote write receiver, e.g. {@code http://prometheus:9090/api/v1/write}, must be set.
+         */
+        public Builder url(final @NotNull URI url) {
+            if (!"http".equals(url.getScheme()) && !"https".equals(url.getScheme())) {
+                throw new IllegalArgumentException("remote write URL must be an http or https URL: " + url);
+            }
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * Optional: Override the interval in which the metrics are pushed. Default is {@code 15} seconds.
+         */
+        public Builder interval(final @NotNull Duration interval) {
+            if (interval.toMillis() < 1) {
+                throw new IllegalArgumentException("interval must be at least one millisecond: " + interval);
+            }
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Optional: Override the timeout of connecting to the receiver and of each request. Default is {@code 30}
+         * seconds.
+         */
+        public Builder timeout(final @NotNull Duration timeout) {
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("timeout must be positive: " + timeout);
+            }
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Optional: Labels that are added to all pushed series, e.g. {@code instance}, unless a series already has a
+         * label with the same name. Default is empty.
+         */
+        public Builder externalLabels(final @NotNull Map<String, String> externalLabels) {
+            this.externalLabels = new TreeMap<>(externalLabels);
+            return this;
+        }
+
+        /**
+         * Optional: Override the maximum number of samples per request. Default is {@code 2000}.
+         */
+        public Builder maxSamplesPerSend(final int maxSamplesPerSend) {
+            if (maxSamplesPerSend < 1) {
+                throw new IllegalArgumentException("max samples per send must be positive: " + maxSamplesPerSend);
+            }
+            this.maxSamplesPerSend = maxSamplesPerSend;
+            return this;
+        }
+
+        /**
+         * Optional: Override the maximum number of compressed bytes of the requests that wait to be sent, e.g. while
+         * the receiver is unavailable. The oldest requests are dropped when the capacity is exceeded. Default is
+         * {@code 16} MiB.
+         */
+        public Builder bufferCapacityBytes(final long bufferCapacityBytes) {
+            if (bufferCapacityBytes < 1) {
+                throw new IllegalArgumentException("buffer capacity must be positive: " + bufferCapacityBytes);
+            }
+            this.bufferCapacityBytes = bufferCapacityBytes;
+            return this;
+        }
+
+        /**
+         * Optional: Store the requests that wait to be sent in direct buffers off the heap. Default is {@code false}.
+         */
+        public Builder offHeapBuffer(final boolean offHeapBuffer) {
+            this.offHeapBuffer = offHeapBuffer;
+            return this;
+        }
+
+        /**
+         * Optional: Override the minimum and maximum backoff between retries of a failed request. The backoff starts
+         * with the minimum and is doubled after each failed retry, up to the maximum. Default is {@code 500}
+         * milliseconds and {@code 30} seconds.
+         */
+        public Builder backoff(final @NotNull Duration minBackoff, final @NotNull Duration maxBackoff) {
+            if (minBackoff.toMillis() < 1 || maxBackoff.compareTo(minBackoff) < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "backoff must be at least one millisecond and the maximum (%s) not less than the minimum (%s)",
+                        maxBackoff,
+                        minBackoff));
+            }
+            this.minBackoff = minBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Optional: Only push the metrics whose Dropwizard names match any of these patterns, see
+         * {@link PrometheusHttpServer.Builder#includedMetrics(Collection)}. Default is empty, which pushes all
+         * metrics.
+         */
+        public Builder includedMetrics(final @NotNull Collection<String> includedMetrics) {
+            this.includedMetrics = List.copyOf(includedMetrics);
+            return this;
+        }
+
+        /**
+         * Optional: Don't push the metrics whose Dropwizard names match any of these patterns, see
+         * {@link PrometheusHttpServer.Builder#excludedMetrics(Collection)}. Default is empty.
+         */
+        public Builder excludedMetrics(final @NotNull Collection<String> excludedMetrics) {
+            this.excludedMetrics = List.copyOf(excludedMetrics);
+            return this;
+        }
+
+        /**
+         * Optional: Map the Dropwizard names of the metrics to Prometheus families with labels, see
+         * {@link PrometheusHttpServer.Builder#labelMappings(Collection)}. Default is empty.
+         */
+        public Builder labelMappings(final @NotNull Collection<LabelMappingRule> labelMappings) {
+            this.labelMappings = List.copyOf(labelMappings);
+            return this;
+        }
+
+        /**
+         * Optional: Push Histograms as Prometheus histograms with these bucket bounds, see
+         * {@link PrometheusHttpServer.Builder#histogramBuckets(Collection)}. Default is empty, which pushes summaries.
+         */
+        public Builder histogramBuckets(final @NotNull Collection<Double> histogramBuckets) {
+            this.histogramBuckets = histogramBuckets.isEmpty() ? null : HistogramBuckets.of(histogramBuckets, 1.0D);
+            return this;
+        }
+
+        /**
+         * Optional: Push Timers as Prometheus histograms with these bucket bounds in seconds, see
+         * {@link PrometheusHttpServer.Builder#timerBuckets(Collection)}. Default is empty, which pushes summaries.
+         */
+        public Builder timerBuckets(final @NotNull Collection<Double> timerBuckets) {
+            this.timerBuckets = timerBuckets.isEmpty() ?
+                    null :
+                    HistogramBuckets.of(timerBuckets, ExporterHistogram.NANOS_PER_SECOND);
+            return this;
+        }
+
+        /**
+         * Optional: The bucket counts of the metrics that are pushed as histograms, e.g. to share them with the
+         * {@link PrometheusHttpServer} so both export the same bucket counts, which are kept when the writer is
+         * restarted. Default is new bucket counts per writer.
+         */
+        @NotNull Builder histograms(final @NotNull IncrementalHistograms histograms) {
+            this.histograms = histograms;
+            return this;
+        }
+
+        /**
+         * Build the PrometheusRemoteWriter and start pushing after the first interval.
+         */
+        public PrometheusRemoteWriter buildAndStart() {
+            if (metricRegistry == null) {
+                throw new NullPointerException("A metricRegistry must be set");
+            }
+            if (url == null) {
+                throw new NullPointerException("A remote write URL must be set");
+            }
+            for (final var labelName : externalLabels.keySet()) {
+                if (!labelName.matches("[a-zA-Z_][a-zA-Z0-9_]*") || labelName.startsWith("__")) {
+                    throw new IllegalArgumentException("invalid external label name: " + labelName);
+                }
+            }
+            final var renderer = new DropwizardExpositionRenderer(metricRegistry,
+                    MetricNameFilter.of(includedMetrics, excludedMetrics),
+                    LabelMapper.of(labelMappings),
+                    histogramBuckets,
+                    timerBuckets,
+                    ReservoirSnapshotCache.NONE,
+                    histograms != null ? histograms : new IncrementalHistograms(),
+                    null,
+                    0);
+            final var writer = new PrometheusRemoteWriter(this, renderer);
+            writer.pusher.start(interval);
+            return writer;
+        }
+    }
+}
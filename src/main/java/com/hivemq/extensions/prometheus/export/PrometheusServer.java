@@ -17,13 +17,21 @@
 package com.hivemq.extensions.prometheus.export;
 
 import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.prometheus.configuration.ConfigurationReader;
+import com.hivemq.extensions.prometheus.configuration.EndpointConfiguration;
+import com.hivemq.extensions.prometheus.configuration.InvalidConfigurationException;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
 import com.hivemq.extensions.prometheus.configuration.PrometheusExtensionConfiguration;
-import io.prometheus.client.dropwizard.DropwizardExports;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -36,35 +44,341 @@ public class PrometheusServer {
     private static final @NotNull Logger LOG = LoggerFactory.getLogger(PrometheusServer.class);
 
     private final @NotNull AtomicReference<PrometheusHttpServer> httpServerRef = new AtomicReference<>();
+    private final @NotNull AtomicReference<PrometheusRemoteWriter> remoteWriterRef = new AtomicReference<>();
+    private final @NotNull AtomicReference<OtlpMetricsExporter> otlpExporterRef = new AtomicReference<>();
 
-    private final @NotNull PrometheusExtensionConfiguration configuration;
     private final @NotNull MetricRegistry metricRegistry;
+    /**
+     * The bucket counts of the histograms, which are shared by the HTTP server and the push exporters, so they all
+     * export the same bucket counts, and kept when they are replaced.
+     */
+    private final @NotNull IncrementalHistograms histograms = new IncrementalHistograms();
+    private @NotNull PrometheusExtensionConfiguration configuration;
+    private @NotNull List<LabelMappingRule> labelMappings;
+    /**
+     * The configuration the running HTTP server has been started with, which determines its socket and transport.
+     */
+    private @NotNull PrometheusExtensionConfiguration serverConfiguration;
 
     public PrometheusServer(
             final @NotNull PrometheusExtensionConfiguration configuration,
             final @NotNull MetricRegistry metricRegistry) {
+        this(configuration, List.of(), metricRegistry);
+    }
+
+    public PrometheusServer(
+            final @NotNull PrometheusExtensionConfiguration configuration,
+            final @NotNull List<LabelMappingRule> labelMappings,
+            final @NotNull MetricRegistry metricRegistry) {
         this.configuration = configuration;
+        this.labelMappings = labelMappings;
         this.metricRegistry = metricRegistry;
+        serverConfiguration = configuration;
+    }
+
+    public synchronized void start() throws IOException {
+        final var builder = httpServerBuilder(configuration, labelMappings);
+        final var server = builder.buildAndStart();
+        httpServerRef.set(server);
+        serverConfiguration = configuration;
+        logEndpoints("Started HTTPServer exposing Prometheus metrics on http://{}:{}{}");
+        startPushExporters();
+    }
+
+    /**
+     * Applies a reloaded configuration to the running server.
+     * <p>
+     * The endpoints, metric filters, label mappings and cache settings are replaced atomically and the thread pool,
+     * overload policy and render parallelism settings are applied to the running HTTP server without rebinding its
+     * socket, so scrapes that are in-flight are completed. A new HTTP server is only started if the port or ip
+     * changed, before the previous one is stopped, and continues the bucket counts of the histograms. Changes of the
+     * server implementation, virtual threads, backlog and queue capacity are logged and take effect with the next new
+     * HTTP server. The remote write and OTLP exporters are only restarted if their settings, the metric filters, label
+     * mappings or histogram buckets changed, which discards the requests they have not sent yet.
+     *
+     * @throws IOException if the configuration is invalid or the new HTTP server can't be started, the previous
+     *                     configuration is still applied then
+     */
+    public synchronized void reconfigure(
+            final @NotNull PrometheusExtensionConfiguration configuration,
+            final @NotNull List<LabelMappingRule> labelMappings) throws IOException {
+        final var server = httpServerRef.get();
+        if (server == null) {
+            throw new IllegalStateException("The Prometheus server is not started");
+        }
+        final var builder = httpServerBuilder(configuration, labelMappings);
+        try {
+            if (isAddressChanged(serverConfiguration, configuration)) {
+                // the previous server keeps serving if the new one can't be started
+                final var started = builder.buildAndStart();
+                httpServerRef.set(started);
+                serverConfiguration = configuration;
+                server.stop();
+            } else {
+                server.reconfigure(builder);
+                logRestartRequired(serverConfiguration, configuration);
+            }
+        } catch (final RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        final var previous = this.configuration;
+        final var previousLabelMappings = this.labelMappings;
+        this.configuration = configuration;
+        this.labelMappings = labelMappings;
+        logEndpoints("Reconfigured HTTPServer exposing Prometheus metrics on http://{}:{}{}");
+        final var exportChanged = isExportChanged(previous, configuration) ||
+                !previousLabelMappings.equals(labelMappings);
+        if (exportChanged || isRemoteWriteChanged(previous, configuration)) {
+            stopRemoteWriter();
+            final var remoteWriteUrl = configuration.remoteWriteUrl().trim();
+            if (!remoteWriteUrl.isEmpty()) {
+                startRemoteWriter(remoteWriteUrl);
+            }
+        }
+        if (exportChanged || isOtlpChanged(previous, configuration)) {
+            stopOtlpExporter();
+            final var otlpUrl = configuration.otlpUrl().trim();
+            if (!otlpUrl.isEmpty()) {
+                startOtlpExporter(otlpUrl);
+            }
+        }
     }
 
-    public void start() throws IOException {
-        final var server = PrometheusHttpServer.builder()
+    private @NotNull PrometheusHttpServer.Builder httpServerBuilder(
+            final @NotNull PrometheusExtensionConfiguration configuration,
+            final @NotNull List<LabelMappingRule> labelMappings) throws IOException {
+        final List<EndpointConfiguration> endpoints;
+        try {
+            endpoints = ConfigurationReader.endpoints(configuration);
+        } catch (final InvalidConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        final var builder = PrometheusHttpServer.builder()
                 .port(configuration.port())
                 .hostname(configuration.hostIp())
                 .metricsHandlerPath(configuration.metricPath())
-                .collector(new DropwizardExports(metricRegistry))
-                .buildAndStart();
-        httpServerRef.set(server);
+                .cacheMaxAge(Duration.ofMillis(configuration.cacheMaxAgeMillis()))
+                .gzipCompressionLevel(configuration.gzipCompressionLevel())
+                .zstdCompression(configuration.zstdCompressionEnabled())
+                .nonBlocking(PrometheusExtensionConfiguration.HTTP_SERVER_NIO.equals(configuration.httpServer()))
+                .virtualThreads(configuration.virtualThreadsEnabled())
+                .minThreads(configuration.httpThreadsMin())
+                .maxThreads(configuration.httpThreadsMax())
+                .threadKeepAlive(Duration.ofMillis(configuration.httpThreadKeepAliveMillis()))
+                .backlog(configuration.httpBacklog())
+                .queueCapacity(configuration.httpQueueCapacity())
+                .shedOverload(PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_SHED.equals(
+                        configuration.httpOverloadPolicy()))
+                .includedMetrics(ConfigurationReader.metricPatterns(configuration.metricInclude()))
+                .excludedMetrics(ConfigurationReader.metricPatterns(configuration.metricExclude()))
+                .labelMappings(labelMappings)
+                .renderParallelism(configuration.renderParallelism())
+                .prerenderInterval(Duration.ofMillis(configuration.prerenderIntervalMillis()))
+                .prerenderJitter(Duration.ofMillis(configuration.prerenderJitterMillis()))
+                .renderDeadline(Duration.ofMillis(configuration.renderDeadlineMillis()))
+                .familySeriesLimit(configuration.familySeriesLimit())
+                .histograms(histograms)
+                .metricRegistry(metricRegistry);
+        if (PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_HISTOGRAM.equals(configuration.histogramExport())) {
+            builder.histogramBuckets(ConfigurationReader.buckets(configuration.histogramBuckets()))
+                    .timerBuckets(ConfigurationReader.buckets(configuration.timerBuckets()));
+        }
+        for (final var endpoint : endpoints) {
+            builder.endpoint(endpoint.path(),
+                    Duration.ofMillis(endpoint.cacheMaxAgeMillis()),
+                    endpoint.includedMetrics(),
+                    endpoint.excludedMetrics());
+        }
+        return builder;
+    }
 
+    private void logEndpoints(final @NotNull String message) throws IOException {
         // noinspection HttpUrlsUsage
-        LOG.info("Started HTTPServer exposing Prometheus metrics on http://{}:{}{}",
-                configuration.hostIp(),
-                configuration.port(),
-                configuration.metricPath());
+        LOG.info(message, configuration.hostIp(), configuration.port(), configuration.metricPath());
+        final List<EndpointConfiguration> endpoints;
+        try {
+            endpoints = ConfigurationReader.endpoints(configuration);
+        } catch (final InvalidConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        for (final var endpoint : endpoints) {
+            // noinspection HttpUrlsUsage
+            LOG.info("Exposing the Prometheus metrics of endpoint \"{}\" on http://{}:{}{}",
+                    endpoint.name(),
+                    configuration.hostIp(),
+                    configuration.port(),
+                    endpoint.path());
+        }
+    }
+
+    private void startPushExporters() {
+        final var remoteWriteUrl = configuration.remoteWriteUrl().trim();
+        if (!remoteWriteUrl.isEmpty()) {
+            startRemoteWriter(remoteWriteUrl);
+        }
+        final var otlpUrl = configuration.otlpUrl().trim();
+        if (!otlpUrl.isEmpty()) {
+            startOtlpExporter(otlpUrl);
+        }
+    }
+
+    private void stopPushExporters() {
+        stopOtlpExporter();
+        stopRemoteWriter();
+    }
+
+    private void stopRemoteWriter() {
+        final var remoteWriter = remoteWriterRef.getAndSet(null);
+        if (remoteWriter != null) {
+            remoteWriter.stop();
+        }
+    }
+
+    private void stopOtlpExporter() {
+        final var otlpExporter = otlpExporterRef.getAndSet(null);
+        if (otlpExporter != null) {
+            otlpExporter.stop();
+        }
+    }
+
+    /**
+     * Returns whether the server socket must be bound to another address.
+     */
+    private static boolean isAddressChanged(
+            final @NotNull PrometheusExtensionConfiguration previous,
+            final @NotNull PrometheusExtensionConfiguration configuration) {
+        return previous.port() != configuration.port() ||
+                !Objects.equals(previous.hostIp(), configuration.hostIp());
+    }
+
+    /**
+     * Returns whether the settings changed that select and map the metrics of both push exporters.
+     */
+    private static boolean isExportChanged(
+            final @NotNull PrometheusExtensionConfiguration previous,
+            final @NotNull PrometheusExtensionConfiguration configuration) {
+        return !Objects.equals(previous.metricInclude(), configuration.metricInclude()) ||
+                !Objects.equals(previous.metricExclude(), configuration.metricExclude()) ||
+                !Objects.equals(previous.histogramExport(), configuration.histogramExport()) ||
+                !Objects.equals(previous.histogramBuckets(), configuration.histogramBuckets()) ||
+                !Objects.equals(previous.timerBuckets(), configuration.timerBuckets());
+    }
+
+    /**
+     * Returns whether the settings of the remote write exporter changed.
+     */
+    private static boolean isRemoteWriteChanged(
+            final @NotNull PrometheusExtensionConfiguration previous,
+            final @NotNull PrometheusExtensionConfiguration configuration) {
+        return !Objects.equals(previous.remoteWriteUrl().trim(), configuration.remoteWriteUrl().trim()) ||
+                previous.remoteWriteIntervalMillis() != configuration.remoteWriteIntervalMillis() ||
+                previous.remoteWriteTimeoutMillis() != configuration.remoteWriteTimeoutMillis() ||
+                !Objects.equals(previous.remoteWriteLabels(), configuration.remoteWriteLabels()) ||
+                previous.remoteWriteMaxSamplesPerSend() != configuration.remoteWriteMaxSamplesPerSend() ||
+                previous.remoteWriteBufferBytes() != configuration.remoteWriteBufferBytes() ||
+                previous.remoteWriteBufferOffHeap() != configuration.remoteWriteBufferOffHeap() ||
+                previous.remoteWriteMinBackoffMillis() != configuration.remoteWriteMinBackoffMillis() ||
+                previous.remoteWriteMaxBackoffMillis() != configuration.remoteWriteMaxBackoffMillis();
+    }
+
+    /**
+     * Returns whether the settings of the OTLP exporter changed.
+     */
+    private static boolean isOtlpChanged(
+            final @NotNull PrometheusExtensionConfiguration previous,
+            final @NotNull PrometheusExtensionConfiguration configuration) {
+        return !Objects.equals(previous.otlpUrl().trim(), configuration.otlpUrl().trim()) ||
+                previous.otlpIntervalMillis() != configuration.otlpIntervalMillis() ||
+                previous.otlpTimeoutMillis() != configuration.otlpTimeoutMillis() ||
+                !Objects.equals(previous.otlpTemporality(), configuration.otlpTemporality()) ||
+                !Objects.equals(previous.otlpResourceAttributes(), configuration.otlpResourceAttributes()) ||
+                previous.otlpMaxDataPointsPerSend() != configuration.otlpMaxDataPointsPerSend() ||
+                previous.otlpBufferBytes() != configuration.otlpBufferBytes();
+    }
+
+    /**
+     * Logs the settings that differ from the ones the running HTTP server has been started with, but can't be applied
+     * to it, see {@link PrometheusHttpServer#reconfigure(PrometheusHttpServer.Builder)}.
+     */
+    private static void logRestartRequired(
+            final @NotNull PrometheusExtensionConfiguration serverConfiguration,
+            final @NotNull PrometheusExtensionConfiguration configuration) {
+        final var keys = new ArrayList<String>();
+        if (!Objects.equals(serverConfiguration.httpServer(), configuration.httpServer())) {
+            keys.add(PrometheusExtensionConfiguration.HTTP_SERVER_KEY);
+        }
+        if (serverConfiguration.virtualThreadsEnabled() != configuration.virtualThreadsEnabled()) {
+            keys.add(PrometheusExtensionConfiguration.VIRTUAL_THREADS_ENABLED_KEY);
+        }
+        if (serverConfiguration.httpBacklog() != configuration.httpBacklog()) {
+            keys.add(PrometheusExtensionConfiguration.HTTP_BACKLOG_KEY);
+        }
+        if (serverConfiguration.httpQueueCapacity() != configuration.httpQueueCapacity()) {
+            keys.add(PrometheusExtensionConfiguration.HTTP_QUEUE_CAPACITY_KEY);
+        }
+        if (!keys.isEmpty()) {
+            LOG.warn("The changed settings {} take effect after a restart of the HTTP server, e.g. when the port or " +
+                    "ip changes", String.join(", ", keys));
+        }
+    }
+
+    private void startRemoteWriter(final @NotNull String url) {
+        final var builder = PrometheusRemoteWriter.builder()
+                .metricRegistry(metricRegistry)
+                .url(URI.create(url))
+                .interval(Duration.ofMillis(configuration.remoteWriteIntervalMillis()))
+                .timeout(Duration.ofMillis(configuration.remoteWriteTimeoutMillis()))
+                .externalLabels(ConfigurationReader.remoteWriteLabels(configuration.remoteWriteLabels()))
+                .maxSamplesPerSend(configuration.remoteWriteMaxSamplesPerSend())
+                .bufferCapacityBytes(configuration.remoteWriteBufferBytes())
+                .offHeapBuffer(configuration.remoteWriteBufferOffHeap())
+                .backoff(Duration.ofMillis(configuration.remoteWriteMinBackoffMillis()),
+                        Duration.ofMillis(configuration.remoteWriteMaxBackoffMillis()))
+                .includedMetrics(ConfigurationReader.metricPatterns(configuration.metricInclude()))
+                .excludedMetrics(ConfigurationReader.metricPatterns(configuration.metricExclude()))
+                .labelMappings(labelMappings)
+                .histograms(histograms);
+        if (PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_HISTOGRAM.equals(configuration.histogramExport())) {
+            builder.histogramBuckets(ConfigurationReader.buckets(configuration.histogramBuckets()))
+                    .timerBuckets(ConfigurationReader.buckets(configuration.timerBuckets()));
+        }
+        remoteWriterRef.set(builder.buildAndStart());
+        LOG.info("Pushing Prometheus metrics to the remote write receiver {} every {} ms",
+                url,
+                configuration.remoteWriteIntervalMillis());
+    }
+
+    private void startOtlpExporter(final @NotNull String url) {
+        final var builder = OtlpMetricsExporter.builder()
+                .metricRegistry(metricRegistry)
+                .url(URI.create(url))
+                .interval(Duration.ofMillis(configuration.otlpIntervalMillis()))
+                .timeout(Duration.ofMillis(configuration.otlpTimeoutMillis()))
+                .temporality(PrometheusExtensionConfiguration.OTLP_TEMPORALITY_DELTA.equals(
+                        configuration.otlpTemporality()) ?
+                        OtlpMetricsExporter.Temporality.DELTA :
+                        OtlpMetricsExporter.Temporality.CUMULATIVE)
+                .resourceAttributes(ConfigurationReader.otlpResourceAttributes(configuration.otlpResourceAttributes()))
+                .maxDataPointsPerSend(configuration.otlpMaxDataPointsPerSend())
+                .bufferCapacityBytes(configuration.otlpBufferBytes())
+                .includedMetrics(ConfigurationReader.metricPatterns(configuration.metricInclude()))
+                .excludedMetrics(ConfigurationReader.metricPatterns(configuration.metricExclude()))
+                .labelMappings(labelMappings)
+                .histograms(histograms);
+        if (PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_HISTOGRAM.equals(configuration.histogramExport())) {
+            builder.histogramBuckets(ConfigurationReader.buckets(configuration.histogramBuckets()))
+                    .timerBuckets(ConfigurationReader.buckets(configuration.timerBuckets()));
+        }
+        otlpExporterRef.set(builder.buildAndStart());
+        LOG.info("Exporting metrics with {} temporality to the OTLP receiver {} every {} ms",
+                configuration.otlpTemporality(),
+                url,
+                configuration.otlpIntervalMillis());
     }
 
-    public void stop() {
+    public synchronized void stop() {
         try {
+            stopPushExporters();
             final var server = httpServerRef.getAndSet(null);
             if (server != null) {
                 server.stop();
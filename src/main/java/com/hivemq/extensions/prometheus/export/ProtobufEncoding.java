@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes the static parts of the Prometheus protobuf exposition format, a stream of length-delimited
+ * {@code io.prometheus.client.MetricFamily} messages as defined in the {@code metrics.proto} of the Prometheus client
+ * model.
+ * <p>
+ * The few messages of the format are encoded by hand, so no protobuf runtime or generated code is needed. The field
+ * numbers below are the ones of {@code metrics.proto}.
+ */
+final class ProtobufEncoding {
+
+    static final int WIRE_TYPE_VARINT = 0;
+    static final int WIRE_TYPE_I64 = 1;
+    static final int WIRE_TYPE_LEN = 2;
+
+    static final int FAMILY_NAME = 1;
+    static final int FAMILY_HELP = 2;
+    static final int FAMILY_TYPE = 3;
+    static final int FAMILY_METRIC = 4;
+
+    static final int METRIC_LABEL = 1;
+    static final int METRIC_GAUGE = 2;
+    static final int METRIC_COUNTER = 3;
+    static final int METRIC_SUMMARY = 4;
+    static final int METRIC_UNTYPED = 5;
+    static final int METRIC_HISTOGRAM = 7;
+
+    static final int LABEL_NAME = 1;
+    static final int LABEL_VALUE = 2;
+
+    /**
+     * The only field of the {@code Gauge}, {@code Counter} and {@code Untyped} messages that is used.
+     */
+    static final int VALUE = 1;
+
+    static final int SUMMARY_SAMPLE_COUNT = 1;
+    static final int SUMMARY_SAMPLE_SUM = 2;
+    static final int SUMMARY_QUANTILE = 3;
+    static final int QUANTILE_QUANTILE = 1;
+    static final int QUANTILE_VALUE = 2;
+
+    static final int HISTOGRAM_SAMPLE_COUNT = 1;
+    static final int HISTOGRAM_SAMPLE_SUM = 2;
+    static final int HISTOGRAM_BUCKET = 3;
+    static final int BUCKET_CUMULATIVE_COUNT = 1;
+    static final int BUCKET_UPPER_BOUND = 2;
+
+    private static final int TYPE_COUNTER = 0;
+    private static final int TYPE_GAUGE = 1;
+    private static final int TYPE_SUMMARY = 2;
+    private static final int TYPE_UNTYPED = 3;
+    private static final int TYPE_HISTOGRAM = 4;
+    private static final int TYPE_GAUGE_HISTOGRAM = 5;
+
+    private ProtobufEncoding() {
+    }
+
+    static int tag(final int fieldNumber, final int wireType) {
+        return (fieldNumber << 3) | wireType;
+    }
+
+    static int varintSize(final long value) {
+        var size = 1;
+        var remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            size++;
+            remaining >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes the name, help and type fields of a {@code MetricFamily}, everything but its metrics.
+     *
+     * @param name the name of the family, including the {@code _total} suffix for counters
+     */
+    static byte @NotNull [] familyHeader(
+            final @NotNull String name,
+            final @NotNull Collector.Type type,
+            final @NotNull String help) {
+        final var buffer = new ExpositionBuffer(name.length() + help.length() + 16);
+        writeString(buffer, FAMILY_NAME, name);
+        writeString(buffer, FAMILY_HELP, help);
+        buffer.writeVarintField(FAMILY_TYPE, familyType(type));
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes the {@code LabelPair} fields of a {@code Metric}.
+     */
+    static byte @NotNull [] labels(final @NotNull List<String> labelNames, final @NotNull List<String> labelValues) {
+        final var buffer = new ExpositionBuffer(64);
+        for (int i = 0; i < labelNames.size(); i++) {
+            final var label = buffer.beginMessage(METRIC_LABEL);
+            writeString(buffer, LABEL_NAME, labelNames.get(i));
+            writeString(buffer, LABEL_VALUE, labelValues.get(i));
+            buffer.endDelimited(label);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes a complete {@code Metric} field of a {@code MetricFamily} with a single value, up to the 8 bytes of the
+     * value. As the size of the value is fixed, the lengths of the messages are known in advance.
+     *
+     * @param type the type of the family, which determines the kind of the value
+     */
+    static byte @NotNull [] valuePrefix(
+            final @NotNull Collector.Type type,
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues) {
+        final var labels = labels(labelNames, labelValues);
+        final var buffer = new ExpositionBuffer(labels.length + 16);
+        buffer.writeVarint(tag(FAMILY_METRIC, WIRE_TYPE_LEN));
+        // labels + value tag + value length + value field tag + 8 value bytes
+        buffer.writeVarint(labels.length + 11);
+        buffer.write(labels);
+        buffer.writeVarint(tag(valueField(type), WIRE_TYPE_LEN));
+        buffer.writeVarint(9);
+        buffer.writeVarint(tag(VALUE, WIRE_TYPE_I64));
+        return buffer.toByteArray();
+    }
+
+    private static int valueField(final @NotNull Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return METRIC_COUNTER;
+            case GAUGE:
+                return METRIC_GAUGE;
+            default:
+                return METRIC_UNTYPED;
+        }
+    }
+
+    private static int familyType(final @NotNull Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return TYPE_COUNTER;
+            case GAUGE:
+                return TYPE_GAUGE;
+            case SUMMARY:
+                return TYPE_SUMMARY;
+            case HISTOGRAM:
+                return TYPE_HISTOGRAM;
+            case GAUGE_HISTOGRAM:
+                return TYPE_GAUGE_HISTOGRAM;
+            default:
+                return TYPE_UNTYPED;
+        }
+    }
+
+    static void writeString(
+            final @NotNull ExpositionBuffer buffer,
+            final int fieldNumber,
+            final @NotNull String value) {
+        final var bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.writeVarint(tag(fieldNumber, WIRE_TYPE_LEN));
+        buffer.writeVarint(bytes.length);
+        buffer.write(bytes);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue of compressed push requests, e.g. remote write requests, that have not been sent yet.
+ * <p>
+ * The requests are stored on the heap or, optionally, in direct buffers off the heap, so that an outage of the
+ * receiver doesn't grow the heap of the broker. When the capacity is exceeded, the oldest requests are dropped, as the
+ * latest samples are the most valuable ones. Not thread-safe, the buffer is only accessed by the thread of the
+ * {@link MetricsPusher}.
+ */
+final class PushBuffer {
+
+    private final long capacityBytes;
+    private final boolean offHeap;
+    private final @NotNull PushMetrics metrics;
+    private final @NotNull ArrayDeque<Request> requests = new ArrayDeque<>();
+    private long bytes;
+
+    /**
+     * @param capacityBytes the maximum number of compressed bytes of all buffered requests
+     * @param offHeap       whether the requests are stored in direct buffers
+     */
+    PushBuffer(final long capacityBytes, final boolean offHeap, final @NotNull PushMetrics metrics) {
+        this.capacityBytes = capacityBytes;
+        this.offHeap = offHeap;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a compressed request, dropping the oldest requests if the capacity would be exceeded. A request that is
+     * larger than the capacity is dropped right away.
+     *
+     * @param body    the array that contains the compressed request, it is copied
+     * @param length  the number of bytes of the compressed request
+     * @param samples the number of samples of the request
+     */
+    void add(final byte @NotNull [] body, final int length, final int samples) {
+        if (length > capacityBytes) {
+            metrics.recordDropped(samples);
+            return;
+        }
+        while (bytes + length > capacityBytes) {
+            final var oldest = requests.removeFirst();
+            bytes -= oldest.body.capacity();
+            metrics.recordDropped(oldest.samples);
+        }
+        final var copy = offHeap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        copy.put(body, 0, length);
+        requests.addLast(new Request(copy, samples));
+        bytes += length;
+        metrics.recordBufferBytes(bytes);
+    }
+
+    /**
+     * Returns the oldest request without removing it.
+     */
+    @Nullable Request peek() {
+        return requests.peekFirst();
+    }
+
+    /**
+     * Removes the oldest request, after it has been sent or rejected.
+     */
+    void remove() {
+        final var request = requests.removeFirst();
+        bytes -= request.body.capacity();
+        metrics.recordBufferBytes(bytes);
+    }
+
+    int size() {
+        return requests.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    static final class Request {
+
+        private final @NotNull ByteBuffer body;
+        private final int samples;
+
+        private Request(final @NotNull ByteBuffer body, final int samples) {
+            this.body = body;
+            this.samples = samples;
+        }
+
+        /**
+         * Returns the compressed request, copied from the direct buffer if it is stored off the heap.
+         */
+        byte @NotNull [] body() {
+            if (body.hasArray()) {
+                return body.array();
+            }
+            final var copy = new byte[body.capacity()];
+            body.duplicate().clear().get(copy);
+            return copy;
+        }
+
+        int samples() {
+            return samples;
+        }
+    }
+}
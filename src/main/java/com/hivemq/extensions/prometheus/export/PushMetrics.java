@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Self-metrics of a push exporter like the {@link PrometheusRemoteWriter}, pushed together with the exported metrics.
+ * <p>
+ * The names of the metrics are prefixed with the protocol of the exporter, e.g. {@code remote_write_samples_sent}, so
+ * the self-metrics of several exporters don't collide.
+ */
+class PushMetrics implements ExpositionRenderer {
+
+    private final @NotNull LongAdder samplesSent = new LongAdder();
+    private final @NotNull LongAdder samplesDropped = new LongAdder();
+    private final @NotNull LongAdder requestsFailed = new LongAdder();
+    private volatile long bufferBytes;
+    private final @NotNull ExporterHistogram requestSeconds;
+    private final @NotNull ExporterMetrics.Family samplesSentFamily;
+    private final @NotNull ExporterMetrics.Family samplesDroppedFamily;
+    private final @NotNull ExporterMetrics.Family requestsFailedFamily;
+    private final @NotNull ExporterMetrics.Family bufferBytesFamily;
+
+    /**
+     * @param prefix   the prefix of the metric names, e.g. {@code remote_write}
+     * @param receiver the receiver of the pushes in the help of the metrics, e.g. {@code remote write receiver}
+     */
+    PushMetrics(final @NotNull String prefix, final @NotNull String receiver) {
+        requestSeconds = new ExporterHistogram(prefix + "_request_seconds",
+                "Time spent sending requests to the " + receiver + ", including failed ones",
+                ExporterHistogram.DURATION_NANOS_BUCKETS,
+                ExporterHistogram.NANOS_PER_SECOND);
+        samplesSentFamily = new ExporterMetrics.Family(prefix + "_samples_sent",
+                Collector.Type.COUNTER,
+                "Number of samples that were accepted by the " + receiver);
+        samplesDroppedFamily = new ExporterMetrics.Family(prefix + "_samples_dropped",
+                Collector.Type.COUNTER,
+                "Number of samples that were dropped because the retry buffer was full or the " + receiver +
+                        " rejected them");
+        requestsFailedFamily = new ExporterMetrics.Family(prefix + "_requests_failed",
+                Collector.Type.COUNTER,
+                "Number of requests to the " + receiver + " that failed and are retried");
+        bufferBytesFamily = new ExporterMetrics.Family(prefix + "_buffer_bytes",
+                Collector.Type.GAUGE,
+                "Compressed bytes of the requests to the " + receiver + " that wait to be sent");
+    }
+
+    void recordSent(final int samples) {
+        samplesSent.add(samples);
+    }
+
+    void recordDropped(final int samples) {
+        samplesDropped.add(samples);
+    }
+
+    void recordFailed() {
+        requestsFailed.increment();
+    }
+
+    void recordRequest(final long nanos) {
+        requestSeconds.record(nanos);
+    }
+
+    void recordBufferBytes(final long bytes) {
+        bufferBytes = bytes;
+    }
+
+    @Override
+    public void render(
+            final @NotNull ExpositionFormat format,
+            final @Nullable Predicate<String> sampleNameFilter,
+            final @NotNull ExpositionBuffer buffer) {
+        ExporterMetrics.render(samplesSentFamily, samplesSent.sum(), format, sampleNameFilter, buffer);
+        ExporterMetrics.render(samplesDroppedFamily, samplesDropped.sum(), format, sampleNameFilter, buffer);
+        ExporterMetrics.render(requestsFailedFamily, requestsFailed.sum(), format, sampleNameFilter, buffer);
+        ExporterMetrics.render(bufferBytesFamily, bufferBytes, format, sampleNameFilter, buffer);
+        requestSeconds.render(format, sampleNameFilter, buffer);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link Executor} that records the scrapes that are waiting for a thread of the delegate executor in the
+ * {@link ExporterMetrics}.
+ */
+class QueuedScrapeExecutor implements Executor {
+
+    private final @NotNull Executor delegate;
+    private final @NotNull ExporterMetrics metrics;
+
+    QueuedScrapeExecutor(final @NotNull Executor delegate, final @NotNull ExporterMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void execute(final @NotNull Runnable command) {
+        metrics.recordScrapeQueued();
+        try {
+            delegate.execute(() -> {
+                metrics.recordScrapeDequeued();
+                command.run();
+            });
+        } catch (final RejectedExecutionException e) {
+            metrics.recordScrapeDequeued();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.airlift.compress.snappy.SnappyCompressor;
+import io.prometheus.client.Collector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes decoded metric families into snappy compressed Prometheus remote write 1.0 {@code WriteRequest}s, which are
+ * added to a {@link PushBuffer}.
+ * <p>
+ * Each sample becomes a {@code TimeSeries} with the same labels as in the text format, i.e. the {@code __name__} label
+ * followed by the labels of the metric, a {@code quantile} or {@code le} label and the external labels, sorted by
+ * name. All samples of one encoder get the same timestamp. A request is completed after the configured maximum
+ * number of samples. The messages of {@code remote.proto} and {@code types.proto} are encoded by hand, like the
+ * {@link ProtobufEncoding}.
+ */
+final class RemoteWriteEncoder implements MetricFamilyReader.Visitor, MetricsPusher.Encoder {
+
+    static final @NotNull String CONTENT_TYPE = "application/x-protobuf";
+    static final @NotNull String CONTENT_ENCODING = "snappy";
+    static final @NotNull String VERSION = "0.1.0";
+
+    static final int WRITE_REQUEST_TIMESERIES = 1;
+    static final int TIMESERIES_LABELS = 1;
+    static final int TIMESERIES_SAMPLES = 2;
+    static final int LABEL_NAME = 1;
+    static final int LABEL_VALUE = 2;
+    static final int SAMPLE_VALUE = 1;
+    static final int SAMPLE_TIMESTAMP = 2;
+
+    private static final @NotNull String NAME_LABEL = "__name__";
+
+    private final @NotNull List<String> externalLabelNames;
+    private final @NotNull List<String> externalLabelValues;
+    private final int maxSamplesPerRequest;
+    private final @NotNull PushBuffer target;
+    private final @NotNull ExpositionBuffer request = new ExpositionBuffer(1 << 16);
+    private final @NotNull SnappyCompressor compressor = new SnappyCompressor();
+    private byte @NotNull [] compressed = new byte[0];
+    private long timestampMillis;
+    private int samples;
+    private @NotNull String familyName = "";
+    // the labels of the current series, sorted when the series is written
+    private @NotNull String @NotNull [] names = new String[8];
+    private @NotNull String @NotNull [] values = new String[8];
+
+    /**
+     * @param externalLabelNames  the names of the labels that are added to all series, unless a series already has a
+     *                            label with the same name
+     * @param externalLabelValues the values of the external labels
+     */
+    RemoteWriteEncoder(
+            final @NotNull List<String> externalLabelNames,
+            final @NotNull List<String> externalLabelValues,
+            final int maxSamplesPerRequest,
+            final @NotNull PushBuffer target) {
+        this.externalLabelNames = externalLabelNames;
+        this.externalLabelValues = externalLabelValues;
+        this.maxSamplesPerRequest = maxSamplesPerRequest;
+        this.target = target;
+    }
+
+    /**
+     * Encodes a protobuf exposition with the given timestamp and adds the requests to the target buffer.
+     */
+    @Override
+    public void encode(final byte @NotNull [] exposition, final int length, final long timestampMillis) {
+        this.timestampMillis = timestampMillis;
+        MetricFamilyReader.read(exposition, length, this);
+        flush();
+    }
+
+    @Override
+    public void family(final @NotNull String name, final @NotNull Collector.Type type) {
+        familyName = name;
+    }
+
+    @Override
+    public void value(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final double value) {
+        writeSeries(familyName, labelNames, labelValues, null, null, value);
+    }
+
+    @Override
+    public void summary(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final long count,
+            final double sum,
+            final double @NotNull [] quantiles,
+            final double @NotNull [] values) {
+        for (int i = 0; i < quantiles.length; i++) {
+            writeSeries(familyName,
+                    labelNames,
+                    labelValues,
+                    "quantile",
+                    Collector.doubleToGoString(quantiles[i]),
+                    values[i]);
+        }
+        writeSeries(familyName + "_count", labelNames, labelValues, null, null, count);
+        if (!Double.isNaN(sum)) {
+            writeSeries(familyName + "_sum", labelNames, labelValues, null, null, sum);
+        }
+    }
+
+    @Override
+    public void histogram(
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final long count,
+            final double sum,
+            final double @NotNull [] upperBounds,
+            final long @NotNull [] cumulativeCounts) {
+        final var bucketName = familyName + "_bucket";
+        for (int i = 0; i < upperBounds.length; i++) {
+            writeSeries(bucketName,
+                    labelNames,
+                    labelValues,
+                    "le",
+                    Collector.doubleToGoString(upperBounds[i]),
+                    cumulativeCounts[i]);
+        }
+        writeSeries(familyName + "_count", labelNames, labelValues, null, null, count);
+        if (!Double.isNaN(sum)) {
+            writeSeries(familyName + "_sum", labelNames, labelValues, null, null, sum);
+        }
+    }
+
+    private void writeSeries(
+            final @NotNull String name,
+            final @NotNull List<String> labelNames,
+            final @NotNull List<String> labelValues,
+            final @Nullable String extraLabelName,
+            final @Nullable String extraLabelValue,
+            final double value) {
+        var size = 0;
+        size = addLabel(size, NAME_LABEL, name);
+        for (int i = 0; i < labelNames.size(); i++) {
+            size = addLabel(size, labelNames.get(i), labelValues.get(i));
+        }
+        if (extraLabelName != null && extraLabelValue != null) {
+            size = addLabel(size, extraLabelName, extraLabelValue);
+        }
+        final var seriesLabels = size;
+        for (int i = 0; i < externalLabelNames.size(); i++) {
+            final var externalName = externalLabelNames.get(i);
+            if (!contains(seriesLabels, externalName)) {
+                size = addLabel(size, externalName, externalLabelValues.get(i));
+            }
+        }
+        sortLabels(size);
+        final var series = request.beginMessage(WRITE_REQUEST_TIMESERIES);
+        for (int i = 0; i < size; i++) {
+            final var label = request.beginMessage(TIMESERIES_LABELS);
+            ProtobufEncoding.writeString(request, LABEL_NAME, names[i]);
+            ProtobufEncoding.writeString(request, LABEL_VALUE, values[i]);
+            request.endDelimited(label);
+        }
+        final var sample = request.beginMessage(TIMESERIES_SAMPLES);
+        request.writeDoubleField(SAMPLE_VALUE, value);
+        request.writeVarintField(SAMPLE_TIMESTAMP, timestampMillis);
+        request.endDelimited(sample);
+        request.endDelimited(series);
+        if (++samples == maxSamplesPerRequest) {
+            flush();
+        }
+    }
+
+    private int addLabel(final int size, final @NotNull String name, final @NotNull String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        return size + 1;
+    }
+
+    private boolean contains(final int size, final @NotNull String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorts the labels by name with an insertion sort, which is the fastest for the few labels of a series.
+     */
+    private void sortLabels(final int size) {
+        for (int i = 1; i < size; i++) {
+            final var name = names[i];
+            final var value = values[i];
+            var j = i - 1;
+            while (j >= 0 && names[j].compareTo(name) > 0) {
+                names[j + 1] = names[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            names[j + 1] = name;
+            values[j + 1] = value;
+        }
+    }
+
+    private void flush() {
+        if (samples == 0) {
+            return;
+        }
+        final var maxLength = compressor.maxCompressedLength(request.size());
+        if (compressed.length < maxLength) {
+            compressed = new byte[maxLength];
+        }
+        final var length =
+                compressor.compress(request.array(), 0, request.size(), compressed, 0, compressed.length);
+        target.add(compressed, length, samples);
+        request.reset();
+        samples = 0;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares the reservoir {@link Snapshot} of each Dropwizard {@link com.codahale.metrics.Histogram Histogram} and
+ * {@link com.codahale.metrics.Timer Timer} between renders.
+ * <p>
+ * Taking a snapshot copies and sorts the reservoir, which dominates the render time of registries with many Timers.
+ * Every endpoint renders its own snapshot per exposition format, so without sharing, the same reservoir is copied once
+ * per format and endpoint in every cache window. With this cache, time is divided into windows of the max-age, and a
+ * snapshot is taken at most once per window and reused by all formats and endpoints that render in the same window.
+ * A render in a later window always takes a new snapshot, so a scraper whose interval is at least the max-age always
+ * gets fresh values. Concurrent renders that find no snapshot of the current window wait for a single one to be
+ * taken.
+ * <p>
+ * The snapshots are kept per metric in a {@link WeakHashMap}, so they are released together with metrics that are
+ * removed from the registry.
+ */
+final class ReservoirSnapshotCache {
+
+    /**
+     * A cache that doesn't reuse snapshots, every render takes its own.
+     */
+    static final @NotNull ReservoirSnapshotCache NONE = new ReservoirSnapshotCache(Map.of(), 0);
+
+    private final @NotNull Map<Sampling, Entry> entries;
+    private final long maxAgeNanos;
+
+    ReservoirSnapshotCache() {
+        this(Collections.synchronizedMap(new WeakHashMap<>()), 0);
+    }
+
+    private ReservoirSnapshotCache(final @NotNull Map<Sampling, Entry> entries, final long maxAgeNanos) {
+        this.entries = entries;
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    /**
+     * Returns a cache that shares the snapshots of this cache, but reuses them only within windows of the given
+     * max-age. A max-age of zero doesn't reuse snapshots.
+     */
+    @NotNull ReservoirSnapshotCache withMaxAge(final @NotNull Duration maxAge) {
+        return new ReservoirSnapshotCache(entries, maxAge.toNanos());
+    }
+
+    /**
+     * Returns the {@link Sampling} from which the snapshots of the given metric are taken while rendering it, which is
+     * the metric itself if snapshots are not reused.
+     */
+    @NotNull Sampling sampling(final @NotNull Sampling metric) {
+        if (maxAgeNanos <= 0) {
+            return metric;
+        }
+        return new CachedSampling(metric, entries.computeIfAbsent(metric, key -> new Entry()), maxAgeNanos);
+    }
+
+    /**
+     * The last snapshot of a metric. It doesn't reference the metric, which is the weak key of the entry.
+     */
+    private static final class Entry {
+
+        private volatile @Nullable TakenSnapshot taken;
+
+        @NotNull Snapshot get(final @NotNull Sampling metric, final long maxAgeNanos) {
+            final var cached = taken;
+            if (cached != null && cached.isInWindow(System.nanoTime(), maxAgeNanos)) {
+                return cached.snapshot;
+            }
+            synchronized (this) {
+                final var current = taken;
+                if (current != null && current.isInWindow(System.nanoTime(), maxAgeNanos)) {
+                    return current.snapshot;
+                }
+                final var snapshot = metric.getSnapshot();
+                taken = new TakenSnapshot(snapshot, System.nanoTime());
+                return snapshot;
+            }
+        }
+    }
+
+    private static final class TakenSnapshot {
+
+        private final @NotNull Snapshot snapshot;
+        private final long takenAtNanos;
+
+        private TakenSnapshot(final @NotNull Snapshot snapshot, final long takenAtNanos) {
+            this.snapshot = snapshot;
+            this.takenAtNanos = takenAtNanos;
+        }
+
+        /**
+         * Whether this snapshot was taken in the same window of the given max-age as the given time.
+         */
+        private boolean isInWindow(final long nanos, final long maxAgeNanos) {
+            return Math.floorDiv(takenAtNanos, maxAgeNanos) == Math.floorDiv(nanos, maxAgeNanos);
+        }
+    }
+
+    private static final class CachedSampling implements Sampling {
+
+        private final @NotNull Sampling metric;
+        private final @NotNull Entry entry;
+        private final long maxAgeNanos;
+
+        private CachedSampling(final @NotNull Sampling metric, final @NotNull Entry entry, final long maxAgeNanos) {
+            this.metric = metric;
+            this.entry = entry;
+            this.maxAgeNanos = maxAgeNanos;
+        }
+
+        @Override
+        public @NotNull Snapshot getSnapshot() {
+            return entry.get(metric, maxAgeNanos);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The response to a scrape, independent of the HTTP server implementation.
+ * <p>
+ * The body is shared with the {@link ScrapeSnapshot} it was taken from and must not be modified.
+ */
+final class ScrapeResponse {
+
+    private final @NotNull String contentType;
+    private final @NotNull ContentEncoding contentEncoding;
+    private final byte @NotNull [] body;
+
+    ScrapeResponse(
+            final @NotNull String contentType,
+            final @NotNull ContentEncoding contentEncoding,
+            final byte @NotNull [] body) {
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.body = body;
+    }
+
+    @NotNull String contentType() {
+        return contentType;
+    }
+
+    @NotNull ContentEncoding contentEncoding() {
+        return contentEncoding;
+    }
+
+    byte @NotNull [] body() {
+        return body;
+    }
+}
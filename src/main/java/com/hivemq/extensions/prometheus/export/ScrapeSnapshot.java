@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An immutable, fully encoded exposition of all metrics, as it is served to a scraper.
+ * <p>
+ * The body is shared between all scrapes that are served from the same snapshot and must not be modified. Compressed
+ * variants of the body are produced at most once per snapshot, when they are requested for the first time.
+ */
+final class ScrapeSnapshot {
+
+    private final @NotNull String contentType;
+    private final byte @NotNull [] body;
+    private final long createdAtNanos;
+    private final @NotNull AtomicReferenceArray<byte[]> encodedBodies =
+            new AtomicReferenceArray<>(ContentEncoding.values().length);
+
+    ScrapeSnapshot(final @NotNull String contentType, final byte @NotNull [] body, final long createdAtNanos) {
+        this.contentType = contentType;
+        this.body = body;
+        this.createdAtNanos = createdAtNanos;
+    }
+
+    @NotNull String contentType() {
+        return contentType;
+    }
+
+    byte @NotNull [] body() {
+        return body;
+    }
+
+    /**
+     * Returns the body in the given encoding, compressing it with the given compressor if this hasn't been done for
+     * this snapshot yet. Concurrent scrapes for the same encoding wait for a single compression.
+     */
+    byte @NotNull [] body(final @NotNull ContentEncoding encoding, final @NotNull SnapshotCompressor compressor)
+            throws IOException {
+        if (encoding == ContentEncoding.IDENTITY) {
+            return body;
+        }
+        final var index = encoding.ordinal();
+        final var encoded = encodedBodies.get(index);
+        if (encoded != null) {
+            return encoded;
+        }
+        synchronized (encodedBodies) {
+            final var current = encodedBodies.get(index);
+            if (current != null) {
+                return current;
+            }
+            final var compressed = compressor.compress(encoding, body);
+            encodedBodies.set(index, compressed);
+            return compressed;
+        }
+    }
+
+    long createdAtNanos() {
+        return createdAtNanos;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Caches the last rendered {@link ScrapeSnapshot} for a configurable max-age.
+ * <p>
+ * All scrapes within the max-age window are served with the same encoded bytes. When the snapshot is stale, exactly
+ * one scrape renders a new snapshot (single-flight), while all concurrent scrapes wait for that render to complete
+ * instead of rendering their own. A max-age of zero disables the reuse of completed snapshots, but concurrent scrapes
+ * still share an in-flight render. How each snapshot was obtained is recorded in the {@link ExporterMetrics}.
+ * <p>
+ * Snapshots can also be rendered ahead of the scrapes with {@link #refresh()}, see {@link SnapshotPrerenderer}.
+ * <p>
+ * With a render deadline, the renders of scrapes run on a render executor, and a scrape waits for the render at most
+ * until the deadline. When the deadline is exceeded, the scrape is served with the last complete snapshot, while the
+ * render continues in the background and its snapshot is served to the next scrape, even if the max-age is zero. This
+ * keeps a slow render from exceeding the scrape timeout of the scraper, which would lose all samples of the scrape. The
+ * first scrape always waits, as there is no previous snapshot yet.
+ */
+class ScrapeSnapshotCache {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(ScrapeSnapshotCache.class);
+
+    private final @NotNull Renderer renderer;
+    private final @NotNull ExporterMetrics exporterMetrics;
+    private final long maxAgeNanos;
+    private final long renderDeadlineNanos;
+    private final @Nullable Executor renderExecutor;
+
+    private volatile @Nullable ScrapeSnapshot snapshot;
+    // guarded by this
+    private @Nullable CompletableFuture<ScrapeSnapshot> inFlight;
+    // guarded by this, whether a scrape stopped waiting for the in-flight render at the deadline
+    private boolean inFlightAbandoned;
+    // guarded by this, a snapshot whose scrapes stopped waiting for it, served to the next scrape regardless of its age
+    private @Nullable ScrapeSnapshot unserved;
+
+    ScrapeSnapshotCache(
+            final @NotNull Duration maxAge,
+            final @NotNull Renderer renderer,
+            final @NotNull ExporterMetrics exporterMetrics) {
+        this(maxAge, Duration.ZERO, null, renderer, exporterMetrics);
+    }
+
+    /**
+     * @param renderDeadline the maximum time a scrape waits for a render when a previous snapshot exists, zero to
+     *                       always wait
+     * @param renderExecutor the executor of the renders of scrapes, required if a render deadline is given
+     */
+    ScrapeSnapshotCache(
+            final @NotNull Duration maxAge,
+            final @NotNull Duration renderDeadline,
+            final @Nullable Executor renderExecutor,
+            final @NotNull Renderer renderer,
+            final @NotNull ExporterMetrics exporterMetrics) {
+        if (!renderDeadline.isZero() && renderExecutor == null) {
+            throw new IllegalArgumentException("a render deadline requires a render executor");
+        }
+        this.renderer = renderer;
+        this.exporterMetrics = exporterMetrics;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.renderDeadlineNanos = renderDeadline.toNanos();
+        this.renderExecutor = renderDeadline.isZero() ? null : renderExecutor;
+    }
+
+    /**
+     * Returns a snapshot that is not older than the configured max-age, rendering a new one if necessary.
+     */
+    @NotNull ScrapeSnapshot get() throws IOException {
+        final var cached = snapshot;
+        if (isFresh(cached)) {
+            exporterMetrics.recordScrape(ExporterMetrics.CacheResult.HIT);
+            return cached;
+        }
+        final CompletableFuture<ScrapeSnapshot> future;
+        final boolean owner;
+        final ScrapeSnapshot previous;
+        synchronized (this) {
+            final var current = snapshot;
+            if (isFresh(current)) {
+                exporterMetrics.recordScrape(ExporterMetrics.CacheResult.HIT);
+                return current;
+            }
+            if (unserved != null) {
+                final var rendered = unserved;
+                unserved = null;
+                exporterMetrics.recordScrape(ExporterMetrics.CacheResult.HIT);
+                return rendered;
+            }
+            if (inFlight == null) {
+                inFlight = new CompletableFuture<>();
+                inFlightAbandoned = false;
+                owner = true;
+            } else {
+                owner = false;
+            }
+            future = inFlight;
+            previous = current;
+        }
+        final var cacheResult = owner ? ExporterMetrics.CacheResult.MISS : ExporterMetrics.CacheResult.SHARED;
+        if (renderExecutor == null || previous == null) {
+            exporterMetrics.recordScrape(cacheResult);
+            return owner ? render(future) : await(future);
+        }
+        if (owner) {
+            try {
+                renderExecutor.execute(() -> renderInBackground(future));
+            } catch (final RejectedExecutionException e) {
+                // the server is stopping
+                exporterMetrics.recordScrape(cacheResult);
+                return render(future);
+            }
+        }
+        return awaitUntilDeadline(future, previous, cacheResult);
+    }
+
+    /**
+     * Renders a new snapshot regardless of the age of the cached one, unless a render is already in-flight. Scrapes
+     * that arrive during the render share it like any other in-flight render.
+     */
+    void refresh() throws IOException {
+        final CompletableFuture<ScrapeSnapshot> future;
+        synchronized (this) {
+            if (inFlight != null) {
+                return;
+            }
+            inFlight = new CompletableFuture<>();
+            future = inFlight;
+        }
+        render(future);
+    }
+
+    /**
+     * Returns {@code true} if a snapshot has been rendered, regardless of its age.
+     */
+    boolean hasSnapshot() {
+        return snapshot != null;
+    }
+
+    private @NotNull ScrapeSnapshot render(final @NotNull CompletableFuture<ScrapeSnapshot> future)
+            throws IOException {
+        final ScrapeSnapshot rendered;
+        try {
+            rendered = renderer.render();
+        } catch (final Throwable t) {
+            synchronized (this) {
+                inFlight = null;
+            }
+            future.completeExceptionally(t);
+            throw t;
+        }
+        synchronized (this) {
+            snapshot = rendered;
+            inFlight = null;
+            // a snapshot that no scrape has waited for is served to the next scrape, a newer one supersedes it
+            unserved = inFlightAbandoned ? rendered : null;
+            inFlightAbandoned = false;
+            // completed while holding the lock, so a scrape at its deadline either gets this snapshot or abandons it
+            future.complete(rendered);
+        }
+        return rendered;
+    }
+
+    private void renderInBackground(final @NotNull CompletableFuture<ScrapeSnapshot> future) {
+        try {
+            render(future);
+        } catch (final IOException | RuntimeException e) {
+            // the scrapes that still wait get the exception, the others have been served with the previous snapshot
+            LOG.debug("Could not render the Prometheus metrics snapshot in the background", e);
+        }
+    }
+
+    /**
+     * Waits for the given render until the render deadline, and returns the previous snapshot if it is exceeded.
+     */
+    private @NotNull ScrapeSnapshot awaitUntilDeadline(
+            final @NotNull CompletableFuture<ScrapeSnapshot> future,
+            final @NotNull ScrapeSnapshot previous,
+            final @NotNull ExporterMetrics.CacheResult cacheResult) throws IOException {
+        try {
+            future.get(renderDeadlineNanos, TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            synchronized (this) {
+                if (!future.isDone()) {
+                    inFlightAbandoned = true;
+                    exporterMetrics.recordScrape(ExporterMetrics.CacheResult.STALE);
+                    return previous;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the metrics snapshot");
+        } catch (final ExecutionException e) {
+            // rethrown by await
+        }
+        exporterMetrics.recordScrape(cacheResult);
+        return await(future);
+    }
+
+    private static @NotNull ScrapeSnapshot await(final @NotNull CompletableFuture<ScrapeSnapshot> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the metrics snapshot");
+        } catch (final ExecutionException e) {
+            final var cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private boolean isFresh(final @Nullable ScrapeSnapshot snapshot) {
+        return snapshot != null && System.nanoTime() - snapshot.createdAtNanos() < maxAgeNanos;
+    }
+
+    /**
+     * Renders a new {@link ScrapeSnapshot}, called by at most one thread at a time.
+     */
+    @FunctionalInterface
+    interface Renderer {
+
+        @NotNull ScrapeSnapshot render() throws IOException;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A {@link RejectedExecutionHandler} implementation that sheds requests when the executor is saturated, instead of
+ * blocking the calling thread.
+ * <p>
+ * The rejected request is run on the calling thread (the dispatcher thread of the HTTP server) in shedding mode, see
+ * {@link #isShedding()}. The handler then answers the request with {@code 503 Service Unavailable} right away instead
+ * of serving it, so the dispatcher is only occupied for as long as it takes to write the short error response.
+ */
+class SheddingRejectedExecutionHandler implements RejectedExecutionHandler {
+
+    private static final @NotNull ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    @Override
+    public void rejectedExecution(
+            final @NotNull Runnable runnable,
+            final @NotNull ThreadPoolExecutor threadPoolExecutor) {
+        if (!threadPoolExecutor.isShutdown()) {
+            SHEDDING.set(Boolean.TRUE);
+            try {
+                runnable.run();
+            } finally {
+                SHEDDING.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the current thread runs a request that has been rejected by the executor and must be
+     * answered with {@code 503 Service Unavailable}.
+     */
+    static boolean isShedding() {
+        return SHEDDING.get() != null;
+    }
+}
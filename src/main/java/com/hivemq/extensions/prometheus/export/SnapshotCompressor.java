@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the body of a {@link ScrapeSnapshot} into a {@link ContentEncoding}.
+ * <p>
+ * gzip uses the JDK {@link java.util.zip.Deflater} with a configurable level, zstd uses the pure-Java encoder of
+ * aircompressor, which always compresses with its default level.
+ */
+class SnapshotCompressor {
+
+    private final @NotNull ExporterMetrics exporterMetrics;
+    private final int gzipLevel;
+    private final boolean zstdEnabled;
+
+    SnapshotCompressor(final @NotNull ExporterMetrics exporterMetrics, final int gzipLevel, final boolean zstdEnabled) {
+        this.exporterMetrics = exporterMetrics;
+        this.gzipLevel = gzipLevel;
+        this.zstdEnabled = zstdEnabled;
+    }
+
+    boolean isZstdEnabled() {
+        return zstdEnabled;
+    }
+
+    byte @NotNull [] compress(final @NotNull ContentEncoding encoding, final byte @NotNull [] body) throws IOException {
+        final var start = System.nanoTime();
+        final byte[] compressed;
+        switch (encoding) {
+            case GZIP:
+                compressed = gzip(body);
+                break;
+            case ZSTD:
+                compressed = zstd(body);
+                break;
+            default:
+                return body;
+        }
+        exporterMetrics.recordCompression(encoding, body.length, compressed.length, System.nanoTime() - start);
+        return compressed;
+    }
+
+    private byte @NotNull [] gzip(final byte @NotNull [] body) throws IOException {
+        // compressed metrics are typically a tenth of the uncompressed size
+        final var out = new ByteArrayOutputStream(Math.max(512, body.length / 8));
+        try (final var gzip = new LeveledGZIPOutputStream(out, gzipLevel)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte @NotNull [] zstd(final byte @NotNull [] body) {
+        final var compressor = new ZstdCompressor();
+        final var out = new byte[compressor.maxCompressedLength(body.length)];
+        final var length = compressor.compress(body, 0, body.length, out, 0, out.length);
+        return Arrays.copyOf(out, length);
+    }
+
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(final @NotNull OutputStream out, final int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+}
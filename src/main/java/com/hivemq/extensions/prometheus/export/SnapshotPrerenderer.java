@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the snapshots of {@link MetricsEndpoint}s ahead of the scrapes, so that scrapes only write the latest bytes.
+ * <p>
+ * The snapshots are rendered once per interval on a single daemon thread with the minimum priority, so the rendering
+ * costs the same CPU regardless of the number of scrapers. The renders are aligned to the multiples of the interval
+ * since the epoch, and each render is delayed by a random jitter of up to the configured maximum. Aligning with the
+ * scrape interval keeps the age of the served snapshots stable, while the jitter keeps several exporters with the same
+ * interval from rendering at the same instant.
+ */
+class SnapshotPrerenderer {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(SnapshotPrerenderer.class);
+
+    private final @NotNull List<MetricsEndpoint> endpoints;
+    private final long intervalMillis;
+    private final long jitterMillis;
+    private final @NotNull ScheduledThreadPoolExecutor executor;
+    /**
+     * The interval boundary of the next render, only accessed by the thread of the executor.
+     */
+    private long boundaryMillis;
+
+    /**
+     * @param interval the interval of the renders, must be at least one millisecond
+     * @param jitter   the maximum random delay of each render, must be less than the interval
+     */
+    SnapshotPrerenderer(
+            final @NotNull Collection<MetricsEndpoint> endpoints,
+            final @NotNull Duration interval,
+            final @NotNull Duration jitter) {
+        this.endpoints = List.copyOf(endpoints);
+        this.intervalMillis = interval.toMillis();
+        this.jitterMillis = jitter.toMillis();
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final var thread = new Thread(runnable, "prometheus-prerender");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    void start() {
+        executor.execute(this::scheduleNext);
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void prerender() {
+        try {
+            for (final var endpoint : endpoints) {
+                endpoint.prerender();
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Could not pre-render the Prometheus metrics snapshot: {}", e.getMessage());
+            LOG.debug("Original exception was", e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private void scheduleNext() {
+        final var now = System.currentTimeMillis();
+        boundaryMillis = nextBoundaryMillis(boundaryMillis, now, intervalMillis);
+        final var jitter = jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+        try {
+            executor.schedule(this::prerender, boundaryMillis + jitter - now, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Returns the interval boundary of the next render, which is the one following the previous boundary, unless that
+     * one has already passed (e.g. because a render took longer than the interval) or the clock has been set back. In
+     * that case the first boundary after now is returned.
+     */
+    static long nextBoundaryMillis(final long previousBoundaryMillis, final long nowMillis, final long intervalMillis) {
+        final var next = previousBoundaryMillis + intervalMillis;
+        if (next > nowMillis && next - nowMillis <= intervalMillis) {
+            return next;
+        }
+        return nowMillis - Math.floorMod(nowMillis, intervalMillis) + intervalMillis;
+    }
+}
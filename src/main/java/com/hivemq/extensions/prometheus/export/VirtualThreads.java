@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Provides virtual threads on Java 21+ via reflection, since the extension is compiled for Java 11.
+ * <p>
+ * Virtual threads are only considered available if they can actually be created, so they are not used on Java 19 and
+ * 20 without {@code --enable-preview}.
+ */
+final class VirtualThreads {
+
+    private static final @Nullable ThreadFactory FACTORY;
+    private static final @Nullable Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        ThreadFactory factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            final var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final var candidate = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory")
+                    .invoke(builder);
+            candidate.newThread(() -> {
+            });
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            factory = candidate;
+        } catch (final Exception | LinkageError ignored) {
+            // virtual threads are not available on this Java version
+        }
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Creates a {@link ThreadFactory} for virtual threads that are named like the threads of a
+     * {@link NamedDaemonThreadFactory}.
+     *
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    static @NotNull ThreadFactory threadFactory() {
+        if (FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads are not available on Java " +
+                    System.getProperty("java.specification.version"));
+        }
+        // virtual threads are always daemon threads
+        return new NamedDaemonThreadFactory(FACTORY, true);
+    }
+
+    /**
+     * Creates an {@link ExecutorService} that starts a new virtual thread for each task.
+     *
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    static @NotNull ExecutorService newThreadPerTaskExecutor() {
+        final var threadFactory = threadFactory();
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (final ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Could not create a virtual thread executor", e);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.nio.file.Path;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -138,6 +139,679 @@ class ConfigurationReaderTest {
         assertThat(e.getMessage()).contains("port");
     }
 
+    @Test
+    void readConfiguration_withCacheMaxAge() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                cache_max_age_ms=5000
+                """);
+        assertThat(configurationReader.readConfiguration().cacheMaxAgeMillis()).isEqualTo(5000);
+    }
+
+    @Test
+    void readConfiguration_withoutCacheMaxAge_thenDefault() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        assertThat(configurationReader.readConfiguration().cacheMaxAgeMillis()).isEqualTo(1000);
+    }
+
+    @Test
+    void readConfiguration_withNegativeCacheMaxAge() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                cache_max_age_ms=-1
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("cache_max_age_ms");
+    }
+
+    @Test
+    void readConfiguration_withNioHttpServer() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                http_server=nio
+                """);
+        assertThat(configurationReader.readConfiguration().httpServer()).isEqualTo("nio");
+    }
+
+    @Test
+    void readConfiguration_withoutHttpServer_thenDefault() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        assertThat(configurationReader.readConfiguration().httpServer()).isEqualTo("jdk");
+    }
+
+    @Test
+    void readConfiguration_withInvalidHttpServer() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                http_server=netty
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("http_server");
+    }
+
+    @Test
+    void readConfiguration_withVirtualThreads() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                virtual_threads_enabled=true
+                """);
+        assertThat(configurationReader.readConfiguration().virtualThreadsEnabled()).isTrue();
+    }
+
+    @Test
+    void readConfiguration_withThreadPool() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                http_threads_min=2
+                http_threads_max=4
+                http_thread_keep_alive_ms=30000
+                http_backlog=50
+                http_queue_capacity=8
+                http_overload_policy=shed
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.httpThreadsMin()).isEqualTo(2);
+        assertThat(configuration.httpThreadsMax()).isEqualTo(4);
+        assertThat(configuration.httpThreadKeepAliveMillis()).isEqualTo(30000);
+        assertThat(configuration.httpBacklog()).isEqualTo(50);
+        assertThat(configuration.httpQueueCapacity()).isEqualTo(8);
+        assertThat(configuration.httpOverloadPolicy()).isEqualTo("shed");
+    }
+
+    @Test
+    void readConfiguration_withoutThreadPool_thenDefault() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.httpThreadsMin()).isEqualTo(1);
+        assertThat(configuration.httpThreadsMax()).isEqualTo(10);
+        assertThat(configuration.httpThreadKeepAliveMillis()).isEqualTo(120000);
+        assertThat(configuration.httpBacklog()).isEqualTo(3);
+        assertThat(configuration.httpQueueCapacity()).isEqualTo(0);
+        assertThat(configuration.httpOverloadPolicy()).isEqualTo("block");
+    }
+
+    @Test
+    void readConfiguration_withMinThreadsGreaterThanMaxThreads() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                http_threads_min=5
+                http_threads_max=2
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("http_threads_min");
+    }
+
+    @Test
+    void readConfiguration_withInvalidOverloadPolicy() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                http_overload_policy=drop
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("http_overload_policy");
+    }
+
+    @Test
+    void readConfiguration_withMetricFilter() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                metric_include=com.hivemq.messages.*   regex:com\\\\.hivemq\\\\.sessions\\\\..+
+                metric_exclude=*.rate
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(ConfigurationReader.metricPatterns(configuration.metricInclude())).containsExactly(
+                "com.hivemq.messages.*",
+                "regex:com\\.hivemq\\.sessions\\..+");
+        assertThat(ConfigurationReader.metricPatterns(configuration.metricExclude())).containsExactly("*.rate");
+    }
+
+    @Test
+    void readConfiguration_withoutMetricFilter_thenEmpty() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(ConfigurationReader.metricPatterns(configuration.metricInclude())).isEmpty();
+        assertThat(ConfigurationReader.metricPatterns(configuration.metricExclude())).isEmpty();
+    }
+
+    @Test
+    void readConfiguration_withInvalidMetricFilterRegex() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                metric_exclude=regex:[a-
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("metric_exclude");
+    }
+
+    @Test
+    void readConfiguration_withHistogramExport() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                histogram_export=histogram
+                histogram_buckets=10 100  1000
+                timer_buckets_seconds=0.01 0.1 1
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.histogramExport()).isEqualTo(
+                PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_HISTOGRAM);
+        assertThat(ConfigurationReader.buckets(configuration.histogramBuckets())).containsExactly(10.0, 100.0, 1000.0);
+        assertThat(ConfigurationReader.buckets(configuration.timerBuckets())).containsExactly(0.01, 0.1, 1.0);
+    }
+
+    @Test
+    void readConfiguration_withoutHistogramExport_thenDefault() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.histogramExport()).isEqualTo(
+                PrometheusExtensionConfiguration.HISTOGRAM_EXPORT_SUMMARY);
+        assertThat(ConfigurationReader.buckets(configuration.histogramBuckets())).isNotEmpty().isSorted();
+        assertThat(ConfigurationReader.buckets(configuration.timerBuckets())).isNotEmpty().isSorted();
+    }
+
+    @Test
+    void readConfiguration_withInvalidHistogramExport() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                histogram_export=native
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("histogram_export");
+    }
+
+    @Test
+    void readConfiguration_withUnsortedTimerBuckets() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                timer_buckets_seconds=0.1 0.01
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("timer_buckets_seconds");
+    }
+
+    @Test
+    void readConfiguration_withNonNumericHistogramBuckets() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                histogram_buckets=1 ten
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("histogram_buckets");
+    }
+
+    @Test
+    void readConfiguration_withRenderParallelism() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                render_parallelism=8
+                """);
+        assertThat(configurationReader.readConfiguration().renderParallelism()).isEqualTo(8);
+    }
+
+    @Test
+    void readConfiguration_withoutRenderParallelism_thenDefault() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        assertThat(configurationReader.readConfiguration().renderParallelism()).isEqualTo(1);
+    }
+
+    @Test
+    void readConfiguration_withInvalidRenderParallelism() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                render_parallelism=0
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("render_parallelism");
+    }
+
+    @Test
+    void readConfiguration_withPrerender() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                prerender_interval_ms=15000
+                prerender_jitter_ms=500
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.prerenderIntervalMillis()).isEqualTo(15000);
+        assertThat(configuration.prerenderJitterMillis()).isEqualTo(500);
+    }
+
+    @Test
+    void readConfiguration_withoutPrerender_thenDisabled() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.prerenderIntervalMillis()).isZero();
+        assertThat(configuration.prerenderJitterMillis()).isZero();
+    }
+
+    @Test
+    void readConfiguration_withNegativePrerenderInterval() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                prerender_interval_ms=-1
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("prerender_interval_ms");
+    }
+
+    @Test
+    void readConfiguration_withPrerenderJitterNotLessThanInterval() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                prerender_interval_ms=1000
+                prerender_jitter_ms=1000
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("prerender_jitter_ms");
+    }
+
+    @Test
+    void readConfiguration_withRenderDeadline() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                render_deadline_ms=2000
+                """);
+        assertThat(configurationReader.readConfiguration().renderDeadlineMillis()).isEqualTo(2000);
+    }
+
+    @Test
+    void readConfiguration_withNegativeRenderDeadline() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                render_deadline_ms=-1
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("render_deadline_ms");
+    }
+
+    @Test
+    void readConfiguration_withFamilySeriesLimit() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                family_series_limit=500
+                """);
+        assertThat(configurationReader.readConfiguration().familySeriesLimit()).isEqualTo(500);
+    }
+
+    @Test
+    void readConfiguration_withNegativeFamilySeriesLimit() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                family_series_limit=-1
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("family_series_limit");
+    }
+
+    @Test
+    void readConfiguration_withRemoteWrite() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                remote_write_url=https://prometheus:9090/api/v1/write
+                remote_write_interval_ms=10000
+                remote_write_labels=instance=broker-1 cluster=eu
+                remote_write_buffer_off_heap=true
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.remoteWriteUrl()).isEqualTo("https://prometheus:9090/api/v1/write");
+        assertThat(configuration.remoteWriteIntervalMillis()).isEqualTo(10000);
+        assertThat(configuration.remoteWriteBufferOffHeap()).isTrue();
+        assertThat(ConfigurationReader.remoteWriteLabels(configuration.remoteWriteLabels())).containsExactly(
+                entry("instance", "broker-1"),
+                entry("cluster", "eu"));
+    }
+
+    @Test
+    void readConfiguration_withoutRemoteWrite_thenDisabled() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.remoteWriteUrl()).isEmpty();
+        assertThat(configuration.remoteWriteMaxSamplesPerSend()).isEqualTo(2000);
+    }
+
+    @Test
+    void readConfiguration_withInvalidRemoteWriteUrl() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                remote_write_url=prometheus:9090
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("remote_write_url");
+    }
+
+    @Test
+    void readConfiguration_withRemoteWriteMaxBackoffLessThanMin() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                remote_write_url=http://prometheus:9090/api/v1/write
+                remote_write_min_backoff_ms=1000
+                remote_write_max_backoff_ms=500
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("remote_write_max_backoff_ms");
+    }
+
+    @Test
+    void readConfiguration_withInvalidRemoteWriteLabels() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                remote_write_url=http://prometheus:9090/api/v1/write
+                remote_write_labels=instance
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("remote_write_labels");
+    }
+
+    @Test
+    void readConfiguration_withOtlp() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                otlp_url=http://otel-collector:4318/v1/metrics
+                otlp_interval_ms=30000
+                otlp_temporality=delta
+                otlp_resource_attributes=service.name=broker host.name=broker-1
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.otlpUrl()).isEqualTo("http://otel-collector:4318/v1/metrics");
+        assertThat(configuration.otlpIntervalMillis()).isEqualTo(30000);
+        assertThat(configuration.otlpTemporality()).isEqualTo(PrometheusExtensionConfiguration.OTLP_TEMPORALITY_DELTA);
+        assertThat(ConfigurationReader.otlpResourceAttributes(configuration.otlpResourceAttributes())).containsExactly(
+                entry("service.name", "broker"),
+                entry("host.name", "broker-1"));
+    }
+
+    @Test
+    void readConfiguration_withoutOtlp_thenDisabled() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = configurationReader.readConfiguration();
+        assertThat(configuration.otlpUrl()).isEmpty();
+        assertThat(configuration.otlpTemporality()).isEqualTo(
+                PrometheusExtensionConfiguration.OTLP_TEMPORALITY_CUMULATIVE);
+        assertThat(configuration.otlpResourceAttributes()).isEqualTo("service.name=hivemq");
+    }
+
+    @Test
+    void readConfiguration_withInvalidOtlpTemporality() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                otlp_url=http://otel-collector:4318/v1/metrics
+                otlp_temporality=cumulative-delta
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("otlp_temporality");
+    }
+
+    @Test
+    void readConfiguration_withInvalidOtlpUrl() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                otlp_url=otel-collector:4318
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("otlp_url");
+    }
+
+    @Test
+    void readConfiguration_withEndpoints() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                cache_max_age_ms=5000
+                endpoints=clients  sessions
+                endpoint.clients.path=/metrics/clients
+                endpoint.clients.cache_max_age_ms=30000
+                endpoint.clients.metric_include=com.hivemq.clients.* com.hivemq.networking.*
+                endpoint.sessions.path=/metrics/sessions
+                endpoint.sessions.metric_exclude=*.rate
+                """);
+        final var endpoints = ConfigurationReader.endpoints(configurationReader.readConfiguration());
+        assertThat(endpoints).hasSize(2);
+        assertThat(endpoints.get(0).name()).isEqualTo("clients");
+        assertThat(endpoints.get(0).path()).isEqualTo("/metrics/clients");
+        assertThat(endpoints.get(0).cacheMaxAgeMillis()).isEqualTo(30_000L);
+        assertThat(endpoints.get(0).includedMetrics()).containsExactly("com.hivemq.clients.*",
+                "com.hivemq.networking.*");
+        assertThat(endpoints.get(0).excludedMetrics()).isEmpty();
+        assertThat(endpoints.get(1).name()).isEqualTo("sessions");
+        assertThat(endpoints.get(1).path()).isEqualTo("/metrics/sessions");
+        assertThat(endpoints.get(1).cacheMaxAgeMillis()).isEqualTo(5_000L);
+        assertThat(endpoints.get(1).includedMetrics()).isEmpty();
+        assertThat(endpoints.get(1).excludedMetrics()).containsExactly("*.rate");
+    }
+
+    @Test
+    void readConfiguration_withoutEndpoints_thenEmpty() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        assertThat(ConfigurationReader.endpoints(configurationReader.readConfiguration())).isEmpty();
+    }
+
+    @Test
+    void readConfiguration_withEndpointWithoutPath() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                endpoints=clients
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("endpoint.clients.path");
+    }
+
+    @Test
+    void readConfiguration_withEndpointAtMetricPath() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                endpoints=clients
+                endpoint.clients.path=/metrics
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("already served");
+    }
+
+    @Test
+    void readConfiguration_withInvalidEndpointCacheMaxAge() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                endpoints=clients
+                endpoint.clients.path=/metrics/clients
+                endpoint.clients.cache_max_age_ms=-1
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("endpoint.clients.cache_max_age_ms");
+    }
+
+    @Test
+    void readConfiguration_withInvalidEndpointMetricFilterRegex() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                endpoints=clients
+                endpoint.clients.path=/metrics/clients
+                endpoint.clients.metric_include=regex:[a-
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readConfiguration);
+        assertThat(e.getMessage()).contains("endpoint.clients.metric_include");
+    }
+
+    @Test
+    void readLabelMappings() throws Exception {
+        Files.writeString(tempDir.resolve(ConfigurationReader.LABEL_MAPPINGS_PATH), """
+                # messages by type
+                com.hivemq.messages.incoming.*.count = com.hivemq.messages.incoming.count type=$1
+
+                com.hivemq.*.*.bytes=com.hivemq.$1.bytes   direction=$2 source=hivemq
+                """);
+        final var rules = configurationReader.readLabelMappings();
+        assertThat(rules).hasSize(2);
+        assertThat(rules.get(0).pattern()).isEqualTo("com.hivemq.messages.incoming.*.count");
+        assertThat(rules.get(0).name()).isEqualTo("com.hivemq.messages.incoming.count");
+        assertThat(rules.get(0).labels()).containsExactly(entry("type", "$1"));
+        assertThat(rules.get(1).pattern()).isEqualTo("com.hivemq.*.*.bytes");
+        assertThat(rules.get(1).name()).isEqualTo("com.hivemq.$1.bytes");
+        assertThat(rules.get(1).labels()).containsExactly(entry("direction", "$2"), entry("source", "hivemq"));
+        assertThat(rules.get(1).captures()).isEqualTo(2);
+    }
+
+    @Test
+    void readLabelMappings_withoutFile_thenEmpty() throws Exception {
+        assertThat(configurationReader.readLabelMappings()).isEmpty();
+    }
+
+    @Test
+    void readLabelMappings_twice_thenRulesAreEqual() throws Exception {
+        final var path = tempDir.resolve(ConfigurationReader.LABEL_MAPPINGS_PATH);
+        Files.writeString(path, """
+                com.hivemq.*.*.bytes = com.hivemq.$1.bytes direction=$2 source=hivemq
+                """);
+        final var rules = configurationReader.readLabelMappings();
+        assertThat(configurationReader.readLabelMappings()).isEqualTo(rules);
+        // the labels are exported in the order of the file
+        Files.writeString(path, """
+                com.hivemq.*.*.bytes = com.hivemq.$1.bytes source=hivemq direction=$2
+                """);
+        assertThat(configurationReader.readLabelMappings()).isNotEqualTo(rules);
+    }
+
+    @Test
+    void readLabelMappings_withUncapturedSegment() throws Exception {
+        Files.writeString(tempDir.resolve(ConfigurationReader.LABEL_MAPPINGS_PATH), """
+                com.hivemq.*.count = com.hivemq.count type=$2
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readLabelMappings);
+        assertThat(e.getMessage()).contains("line 1").contains("$2");
+    }
+
+    @Test
+    void readLabelMappings_withInvalidLabelName() throws Exception {
+        Files.writeString(tempDir.resolve(ConfigurationReader.LABEL_MAPPINGS_PATH), """
+                # reserved by summaries
+                com.hivemq.*.count = com.hivemq.count quantile=$1
+                """);
+        final var e = assertThrows(InvalidConfigurationException.class, configurationReader::readLabelMappings);
+        assertThat(e.getMessage()).contains("line 2").contains("quantile");
+    }
+
+    @Test
+    void readLabelMappings_withPartialWildcard() throws Exception {
+        Files.writeString(tempDir.resolve(ConfigurationReader.LABEL_MAPPINGS_PATH), """
+                com.hivemq.mess*.count = com.hivemq.count
+                """);
+        assertThrows(InvalidConfigurationException.class, configurationReader::readLabelMappings);
+    }
+
+    @Test
+    void readLabelMappings_withoutName() throws Exception {
+        Files.writeString(tempDir.resolve(ConfigurationReader.LABEL_MAPPINGS_PATH), """
+                com.hivemq.*.count
+                """);
+        assertThrows(InvalidConfigurationException.class, configurationReader::readLabelMappings);
+    }
+
     @Test
     void readConfiguration_withLegacyLocation() throws Exception {
         Files.writeString(tempDir.resolve(ConfigurationReader.LEGACY_CONFIG_PATH), """
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.configuration;
+
+import com.hivemq.extension.sdk.api.parameter.ExtensionInformation;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ConfigurationReloaderTest {
+
+    private final @NotNull BlockingQueue<PrometheusExtensionConfiguration> reloaded = new LinkedBlockingQueue<>();
+    private @NotNull ConfigurationReloader configurationReloader;
+    private @NotNull Path configPath;
+
+    @TempDir
+    private @NotNull Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final var extensionInformation = mock(ExtensionInformation.class);
+        when(extensionInformation.getExtensionHomeFolder()).thenReturn(tempDir.toFile());
+        configPath = tempDir.resolve(ConfigurationReader.CONFIG_PATH);
+        Files.createDirectories(configPath.getParent());
+        Files.writeString(configPath, """
+                metric_path=/metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        configurationReloader = new ConfigurationReloader(new ConfigurationReader(extensionInformation),
+                (configuration, labelMappings) -> reloaded.add(configuration));
+        configurationReloader.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        configurationReloader.stop();
+    }
+
+    @Test
+    void start_whenConfigurationChanges_thenConfigurationIsReloaded() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/other-metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = reloaded.poll(30, TimeUnit.SECONDS);
+        assertThat(configuration).isNotNull();
+        assertThat(configuration.metricPath()).isEqualTo("/other-metrics");
+    }
+
+    @Test
+    void start_whenConfigurationIsInvalid_thenConfigurationIsNotReloaded() throws Exception {
+        Files.writeString(configPath, """
+                metric_path=/invalid-metrics
+                ip=127.0.0.1
+                port=-1
+                """);
+        assertThat(reloaded.poll(2, TimeUnit.SECONDS)).isNull();
+
+        // the configuration is reloaded once it has been fixed
+        Files.writeString(configPath, """
+                metric_path=/fixed-metrics
+                ip=127.0.0.1
+                port=1234
+                """);
+        final var configuration = reloaded.poll(30, TimeUnit.SECONDS);
+        assertThat(configuration).isNotNull();
+        assertThat(configuration.metricPath()).isEqualTo("/fixed-metrics");
+    }
+
+    @Test
+    void start_whenContentIsUnchanged_thenConfigurationIsNotReloaded() throws Exception {
+        Files.setLastModifiedTime(configPath, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+        assertThat(reloaded.poll(2, TimeUnit.SECONDS)).isNull();
+    }
+}
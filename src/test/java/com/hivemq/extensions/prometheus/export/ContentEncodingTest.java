@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentEncodingTest {
+
+    @Test
+    void negotiate_withoutHeader_thenIdentity() {
+        assertThat(ContentEncoding.negotiate(null, true)).isEqualTo(ContentEncoding.IDENTITY);
+    }
+
+    @Test
+    void negotiate_withGzip_thenGzip() {
+        assertThat(ContentEncoding.negotiate(List.of("gzip"), true)).isEqualTo(ContentEncoding.GZIP);
+        assertThat(ContentEncoding.negotiate(List.of("deflate, GZIP;q=0.5"), false)).isEqualTo(ContentEncoding.GZIP);
+    }
+
+    @Test
+    void negotiate_withZstd_thenZstdOnlyIfEnabled() {
+        assertThat(ContentEncoding.negotiate(List.of("gzip, zstd"), true)).isEqualTo(ContentEncoding.ZSTD);
+        assertThat(ContentEncoding.negotiate(List.of("gzip, zstd"), false)).isEqualTo(ContentEncoding.GZIP);
+        assertThat(ContentEncoding.negotiate(List.of("zstd"), false)).isEqualTo(ContentEncoding.IDENTITY);
+    }
+
+    @Test
+    void negotiate_withZeroQuality_thenRejected() {
+        assertThat(ContentEncoding.negotiate(List.of("gzip;q=0"), true)).isEqualTo(ContentEncoding.IDENTITY);
+        assertThat(ContentEncoding.negotiate(List.of("zstd;q=0", "gzip"), true)).isEqualTo(ContentEncoding.GZIP);
+    }
+}
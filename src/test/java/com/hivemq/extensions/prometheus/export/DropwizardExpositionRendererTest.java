@@ -0,0 +1,492 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DropwizardExpositionRendererTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull DropwizardExpositionRenderer renderer = new DropwizardExpositionRenderer(metricRegistry,
+            MetricNameFilter.ALL,
+            LabelMapper.NONE,
+            null,
+            null,
+            ReservoirSnapshotCache.NONE,
+            new IncrementalHistograms(),
+            null,
+            0);
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry.counter("my-counter").inc(3);
+        metricRegistry.counter("my.big.counter").inc(123_456_789L);
+        metricRegistry.gauge("my.gauge", () -> () -> 1.5);
+        metricRegistry.gauge("my.int.gauge", () -> () -> 7);
+        metricRegistry.gauge("my.boolean.gauge", () -> () -> true);
+        metricRegistry.gauge("my.string.gauge", () -> () -> "invalid");
+        metricRegistry.meter("my.meter").mark(42);
+        final var histogram = metricRegistry.register("my.histogram", new Histogram(new UniformReservoir()));
+        final var timer = metricRegistry.register("my.timer", new Timer(new UniformReservoir()));
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+            timer.update(i, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void render_text004_matchesDropwizardExports() throws Exception {
+        final var expected = new StringWriter();
+        TextFormat.write004(expected, dropwizardExports().metricFamilySamples());
+        final var expectedLines = lines(expected.toString());
+        assertThat(render(ExpositionFormat.TEXT_004)).containsExactlyInAnyOrderElementsOf(expectedLines);
+    }
+
+    @Test
+    void render_openMetrics_matchesDropwizardExports() throws Exception {
+        final var expected = new StringWriter();
+        TextFormat.writeOpenMetrics100(expected, dropwizardExports().metricFamilySamples());
+        final var expectedLines = lines(expected.toString());
+        assertThat(render(ExpositionFormat.OPENMETRICS_100)).containsExactlyInAnyOrderElementsOf(expectedLines);
+    }
+
+    @Test
+    void render_text004_samples() {
+        assertThat(render(ExpositionFormat.TEXT_004)).contains("# TYPE my_counter gauge",
+                "my_counter 3.0",
+                "my_big_counter 1.23456789E8",
+                "my_gauge 1.5",
+                "my_int_gauge 7.0",
+                "my_boolean_gauge 1.0",
+                "# TYPE my_meter_total counter",
+                "my_meter_total 42.0",
+                "# TYPE my_histogram summary",
+                "my_histogram{quantile=\"0.5\",} 50.5",
+                "my_histogram_count 100.0",
+                "my_timer_count 100.0").noneMatch(line -> line.startsWith("my_string_gauge"));
+    }
+
+    @Test
+    void render_withDuplicateName_thenRenderedOnce() {
+        metricRegistry.counter("a.b").inc();
+        metricRegistry.counter("a_b").inc();
+        assertThat(render(ExpositionFormat.TEXT_004)).filteredOn(line -> line.startsWith("# TYPE a_b ")).hasSize(1);
+    }
+
+    @Test
+    void render_withReplacedMetric_thenNewMetricIsRendered() {
+        render(ExpositionFormat.TEXT_004);
+        metricRegistry.remove("my-counter");
+        metricRegistry.meter("my-counter").mark();
+        assertThat(render(ExpositionFormat.TEXT_004)).contains("my_counter_total 1.0").doesNotContain("my_counter 3.0");
+    }
+
+    @Test
+    void render_withChangedGauge_thenNewValueIsRendered() {
+        final var value = new AtomicInteger(1);
+        metricRegistry.gauge("my.changing.gauge", () -> () -> value.get() / 2.0);
+        for (final var format : List.of(ExpositionFormat.TEXT_004, ExpositionFormat.OPENMETRICS_100)) {
+            value.set(1);
+            assertThat(render(format)).contains("my_changing_gauge 0.5");
+            assertThat(render(format)).contains("my_changing_gauge 0.5");
+            value.set(3);
+            assertThat(render(format)).contains("my_changing_gauge 1.5").doesNotContain("my_changing_gauge 0.5");
+        }
+    }
+
+    @Test
+    void render_withSampleNameFilter_thenOnlyAcceptedSamples() {
+        final var buffer = new ExpositionBuffer(1024);
+        renderer.render(ExpositionFormat.TEXT_004, Set.of("my_timer_count", "my_meter_total")::contains, buffer);
+        final var lines = lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(lines).filteredOn(line -> !line.startsWith("#"))
+                .containsExactlyInAnyOrder("my_timer_count 100.0", "my_meter_total 42.0");
+    }
+
+    @Test
+    void render_protobuf_families() {
+        final var buffer = new ExpositionBuffer(1024);
+        renderer.render(ExpositionFormat.PROTOBUF, null, buffer);
+        final var families = new HashMap<String, ProtobufMessage>();
+        for (final var family : ProtobufMessage.parseDelimited(buffer.toByteArray())) {
+            families.put(family.string(ProtobufEncoding.FAMILY_NAME), family);
+        }
+        assertThat(families).containsOnlyKeys("my_counter",
+                "my_big_counter",
+                "my_gauge",
+                "my_int_gauge",
+                "my_boolean_gauge",
+                "my_meter_total",
+                "my_histogram",
+                "my_timer");
+        assertThat(buffer.families()).isEqualTo(families.size());
+
+        final var counter = families.get("my_counter");
+        assertThat(counter.varint(ProtobufEncoding.FAMILY_TYPE)).isEqualTo(1);
+        assertThat(counter.message(ProtobufEncoding.FAMILY_METRIC)
+                .message(ProtobufEncoding.METRIC_GAUGE)
+                .doubleValue(ProtobufEncoding.VALUE)).isEqualTo(3);
+        assertThat(families.get("my_gauge")
+                .message(ProtobufEncoding.FAMILY_METRIC)
+                .message(ProtobufEncoding.METRIC_GAUGE)
+                .doubleValue(ProtobufEncoding.VALUE)).isEqualTo(1.5);
+
+        final var meter = families.get("my_meter_total");
+        assertThat(meter.varint(ProtobufEncoding.FAMILY_TYPE)).isEqualTo(0);
+        assertThat(meter.message(ProtobufEncoding.FAMILY_METRIC)
+                .message(ProtobufEncoding.METRIC_COUNTER)
+                .doubleValue(ProtobufEncoding.VALUE)).isEqualTo(42);
+
+        final var timer = families.get("my_timer");
+        assertThat(timer.varint(ProtobufEncoding.FAMILY_TYPE)).isEqualTo(2);
+        final var summary = timer.message(ProtobufEncoding.FAMILY_METRIC).message(ProtobufEncoding.METRIC_SUMMARY);
+        assertThat(summary.varint(ProtobufEncoding.SUMMARY_SAMPLE_COUNT)).isEqualTo(100);
+        final var quantiles = summary.messages(ProtobufEncoding.SUMMARY_QUANTILE);
+        assertThat(quantiles).hasSize(MetricExposition.QUANTILES.size());
+        assertThat(quantiles.get(0).doubleValue(ProtobufEncoding.QUANTILE_QUANTILE)).isEqualTo(0.5);
+        assertThat(quantiles.get(0).doubleValue(ProtobufEncoding.QUANTILE_VALUE)).isCloseTo(0.0505, within(1e-9));
+    }
+
+    @Test
+    void render_withLabelMapping_thenMappedMetricsShareFamily() {
+        final var labelMapper = LabelMapper.of(List.of(LabelMappingRule.of("my.*.timer",
+                "my.labeled.timer",
+                Map.of("kind", "$1"))));
+        final var mappedRenderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                labelMapper,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        metricRegistry.timer("my.fast.timer").update(1, TimeUnit.MILLISECONDS);
+        metricRegistry.timer("my.slow.timer").update(1, TimeUnit.SECONDS);
+        final var buffer = new ExpositionBuffer(1024);
+        mappedRenderer.render(ExpositionFormat.TEXT_004, null, buffer);
+        final var lines = lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(lines).filteredOn(line -> line.startsWith("# TYPE my_labeled_timer ")).hasSize(1);
+        assertThat(lines).contains("my_labeled_timer{kind=\"fast\",quantile=\"0.5\",} 0.001",
+                "my_labeled_timer{kind=\"slow\",quantile=\"0.5\",} 1.0",
+                "my_labeled_timer_count{kind=\"fast\",} 1.0",
+                "my_labeled_timer_count{kind=\"slow\",} 1.0",
+                "my_timer_count 100.0");
+
+        final var protobuf = new ExpositionBuffer(1024);
+        mappedRenderer.render(ExpositionFormat.PROTOBUF, null, protobuf);
+        final var family = ProtobufMessage.parseDelimited(protobuf.toByteArray())
+                .stream()
+                .filter(message -> "my_labeled_timer".equals(message.string(ProtobufEncoding.FAMILY_NAME)))
+                .findFirst()
+                .orElseThrow();
+        final var metrics = family.messages(ProtobufEncoding.FAMILY_METRIC);
+        assertThat(metrics).extracting(metric -> metric.message(ProtobufEncoding.METRIC_LABEL)
+                .string(ProtobufEncoding.LABEL_VALUE)).containsExactlyInAnyOrder("fast", "slow");
+        mappedRenderer.close();
+    }
+
+    @Test
+    void render_withBuckets_thenHistograms() {
+        final var bucketRenderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                HistogramBuckets.of(List.of(10.0, 50.0), 1.0),
+                HistogramBuckets.of(List.of(0.01, 0.05), ExporterHistogram.NANOS_PER_SECOND),
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        final var buffer = new ExpositionBuffer(1024);
+        bucketRenderer.render(ExpositionFormat.TEXT_004, null, buffer);
+        final var lines = lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(lines).contains("# TYPE my_histogram histogram",
+                "my_histogram_bucket{le=\"10.0\",} 10.0",
+                "my_histogram_bucket{le=\"50.0\",} 50.0",
+                "my_histogram_bucket{le=\"+Inf\",} 100.0",
+                "my_histogram_count 100.0",
+                "my_histogram_sum 5050.0",
+                "# TYPE my_timer histogram",
+                "my_timer_bucket{le=\"0.01\",} 10.0",
+                "my_timer_bucket{le=\"0.05\",} 50.0",
+                "my_timer_bucket{le=\"+Inf\",} 100.0",
+                "my_timer_count 100.0").noneMatch(line -> line.startsWith("my_timer{"));
+
+        final var protobuf = new ExpositionBuffer(1024);
+        bucketRenderer.render(ExpositionFormat.PROTOBUF, null, protobuf);
+        final var family = ProtobufMessage.parseDelimited(protobuf.toByteArray())
+                .stream()
+                .filter(message -> "my_timer".equals(message.string(ProtobufEncoding.FAMILY_NAME)))
+                .findFirst()
+                .orElseThrow();
+        assertThat(family.varint(ProtobufEncoding.FAMILY_TYPE)).isEqualTo(4);
+        final var histogram =
+                family.message(ProtobufEncoding.FAMILY_METRIC).message(ProtobufEncoding.METRIC_HISTOGRAM);
+        assertThat(histogram.varint(ProtobufEncoding.HISTOGRAM_SAMPLE_COUNT)).isEqualTo(100);
+        assertThat(histogram.doubleValue(ProtobufEncoding.HISTOGRAM_SAMPLE_SUM)).isCloseTo(5.05, within(1e-9));
+        final var buckets = histogram.messages(ProtobufEncoding.HISTOGRAM_BUCKET);
+        assertThat(buckets).extracting(bucket -> bucket.doubleValue(ProtobufEncoding.BUCKET_UPPER_BOUND))
+                .containsExactly(0.01, 0.05);
+        assertThat(buckets).extracting(bucket -> bucket.varint(ProtobufEncoding.BUCKET_CUMULATIVE_COUNT))
+                .containsExactly(10L, 50L);
+        bucketRenderer.close();
+    }
+
+    @Test
+    void render_withBucketsAndSampleNameFilter_thenOnlyAcceptedSamples() {
+        final var bucketRenderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                HistogramBuckets.of(List.of(10.0, 50.0), 1.0),
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        final var buffer = new ExpositionBuffer(1024);
+        bucketRenderer.render(ExpositionFormat.TEXT_004,
+                Set.of("my_histogram_count", "my_timer_count")::contains,
+                buffer);
+        final var lines = lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(lines).filteredOn(line -> !line.startsWith("#"))
+                .containsExactlyInAnyOrder("my_histogram_count 100.0", "my_timer_count 100.0");
+        bucketRenderer.close();
+    }
+
+    @Test
+    void render_withSharedHistograms_thenSameBucketCounts() {
+        final var buckets = HistogramBuckets.of(List.of(10.0, 50.0), 1.0);
+        final var histograms = new IncrementalHistograms();
+        final var first = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                buckets,
+                null,
+                ReservoirSnapshotCache.NONE,
+                histograms,
+                null,
+                0);
+        first.render(ExpositionFormat.TEXT_004, null, new ExpositionBuffer(1024));
+        // the reservoir changes, so a histogram of its own would estimate all buckets from the new distribution
+        final var histogram = metricRegistry.histogram("my.histogram");
+        for (int i = 0; i < 100; i++) {
+            histogram.update(5);
+        }
+        final var second = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                HistogramBuckets.of(List.of(10.0, 50.0), 1.0),
+                null,
+                ReservoirSnapshotCache.NONE,
+                histograms,
+                null,
+                0);
+        final var firstBuffer = new ExpositionBuffer(1024);
+        first.render(ExpositionFormat.TEXT_004, null, firstBuffer);
+        final var secondBuffer = new ExpositionBuffer(1024);
+        second.render(ExpositionFormat.TEXT_004, null, secondBuffer);
+        final var firstLines = lines(new String(firstBuffer.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(firstLines).contains("my_histogram_count 200.0");
+        assertThat(lines(new String(secondBuffer.toByteArray(), StandardCharsets.UTF_8))).isEqualTo(firstLines);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void render_withSnapshotCache_thenSnapshotTakenOncePerMetric() {
+        final var snapshots = new AtomicInteger();
+        metricRegistry.register("my.counted.timer", new Timer(new UniformReservoir()) {
+            @Override
+            public @NotNull Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return super.getSnapshot();
+            }
+        }).update(1, TimeUnit.SECONDS);
+        final var snapshotCache = new ReservoirSnapshotCache();
+        final var first = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                snapshotCache.withMaxAge(Duration.ofMinutes(1)),
+                new IncrementalHistograms(),
+                null,
+                0);
+        final var second = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                snapshotCache.withMaxAge(Duration.ofMinutes(1)),
+                new IncrementalHistograms(),
+                null,
+                0);
+        for (final var format : ExpositionFormat.values()) {
+            first.render(format, null, new ExpositionBuffer(1024));
+            second.render(format, null, new ExpositionBuffer(1024));
+        }
+        assertThat(snapshots).hasValue(1);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void render_withRenderPool_thenSameAsSequential() {
+        for (int i = 0; i < 4 * DropwizardExpositionRenderer.MIN_FAMILIES_PER_SHARD; i++) {
+            metricRegistry.counter("my.sharded.counter." + i).inc(i);
+        }
+        final var renderPool = new ForkJoinPool(4);
+        final var parallelRenderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                renderPool,
+                0);
+        try {
+            for (final var format : ExpositionFormat.values()) {
+                final var sequential = new ExpositionBuffer(1024);
+                renderer.render(format, null, sequential);
+                for (int i = 0; i < 3; i++) {
+                    final var parallel = new ExpositionBuffer(1024);
+                    parallelRenderer.render(format, null, parallel);
+                    assertThat(parallel.toByteArray()).isEqualTo(sequential.toByteArray());
+                    assertThat(parallel.families()).isEqualTo(sequential.families());
+                    assertThat(parallel.series()).isEqualTo(sequential.series());
+                }
+            }
+        } finally {
+            parallelRenderer.close();
+            renderPool.shutdown();
+        }
+    }
+
+    @Test
+    void render_withSeriesLimit_thenFamilyIsTruncatedAndReported() {
+        final var labelMapper = LabelMapper.of(List.of(LabelMappingRule.of("my.client.*.counter",
+                "my.client.counter",
+                Map.of("client", "$1"))));
+        final var limitedRenderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                labelMapper,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                2);
+        metricRegistry.counter("my.client.a.counter").inc();
+        metricRegistry.counter("my.client.b.counter").inc();
+        metricRegistry.counter("my.client.c.counter").inc();
+        final var buffer = new ExpositionBuffer(1024);
+        limitedRenderer.render(ExpositionFormat.TEXT_004, null, buffer);
+        assertThat(lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8))).filteredOn(line -> line.startsWith(
+                "my_client_counter_total")).containsExactly("my_client_counter_total{client=\"a\",} 1.0",
+                "my_client_counter_total{client=\"b\",} 1.0");
+        assertThat(buffer.truncatedFamilies()).isEqualTo(1);
+        assertThat(buffer.truncatedSeries()).isEqualTo(1);
+
+        final var report = new CardinalityReport();
+        limitedRenderer.report(report);
+        final var lines = lines(new String(report.render(20), StandardCharsets.UTF_8));
+        assertThat(lines).contains("# truncated families: 1, truncated series: 1", "# top 20 families by series");
+        assertThat(lines).filteredOn(line -> line.endsWith(" my_client_counter"))
+                .hasSize(2)
+                .allSatisfy(line -> assertThat(line).startsWith("3 1 "));
+        limitedRenderer.close();
+    }
+
+    @Test
+    void render_withSeriesLimit_thenSamplesOfHistogramsAreCounted() {
+        final var labelMapper = LabelMapper.of(List.of(LabelMappingRule.of("my.client.*.histogram",
+                "my.client.histogram",
+                Map.of("client", "$1"))));
+        final var limitedRenderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                labelMapper,
+                HistogramBuckets.of(List.of(10.0, 50.0), 1.0),
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                12);
+        metricRegistry.histogram("my.client.a.histogram").update(5);
+        metricRegistry.histogram("my.client.b.histogram").update(5);
+        metricRegistry.histogram("my.client.c.histogram").update(5);
+        final var buffer = new ExpositionBuffer(1024);
+        limitedRenderer.render(ExpositionFormat.TEXT_004, null, buffer);
+        // each histogram has three buckets, a count and a sum, so only two of them fit into the limit
+        assertThat(lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8))).filteredOn(line -> line.startsWith(
+                "my_client_histogram_count")).containsExactly("my_client_histogram_count{client=\"a\",} 1.0",
+                "my_client_histogram_count{client=\"b\",} 1.0");
+        assertThat(buffer.truncatedFamilies()).isEqualTo(1);
+        assertThat(buffer.truncatedSeries()).isEqualTo(5);
+
+        final var report = new CardinalityReport();
+        limitedRenderer.report(report);
+        final var lines = lines(new String(report.render(20), StandardCharsets.UTF_8));
+        assertThat(lines).contains("# truncated families: 1, truncated series: 5");
+        assertThat(lines).filteredOn(line -> line.endsWith(" my_client_histogram"))
+                .hasSize(2)
+                .allSatisfy(line -> assertThat(line).startsWith("15 5 "));
+        limitedRenderer.close();
+    }
+
+    private @NotNull CollectorRegistry dropwizardExports() {
+        final var collectorRegistry = new CollectorRegistry(true);
+        collectorRegistry.register(new DropwizardExports(metricRegistry));
+        return collectorRegistry;
+    }
+
+    private @NotNull List<String> render(final @NotNull ExpositionFormat format) {
+        final var buffer = new ExpositionBuffer(1024);
+        renderer.render(format, null, buffer);
+        format.writeTerminator(buffer);
+        return lines(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static @NotNull List<String> lines(final @NotNull String exposition) {
+        return exposition.lines().toList();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExporterHistogramTest {
+
+    private final @NotNull ExporterHistogram histogram = new ExporterHistogram("test_seconds",
+            "Test durations",
+            new long[]{1_000_000L, 1_000_000_000L},
+            ExporterHistogram.NANOS_PER_SECOND);
+
+    @Test
+    void render_text004() {
+        histogram.record(500_000L);
+        histogram.record(2_000_000L);
+        histogram.record(5_000_000_000L);
+        assertThat(render(ExpositionFormat.TEXT_004, null)).isEqualTo("""
+                # HELP hivemq_prometheus_exporter_test_seconds Test durations
+                # TYPE hivemq_prometheus_exporter_test_seconds histogram
+                hivemq_prometheus_exporter_test_seconds_bucket{le="0.001",} 1.0
+                hivemq_prometheus_exporter_test_seconds_bucket{le="1.0",} 2.0
+                hivemq_prometheus_exporter_test_seconds_bucket{le="+Inf",} 3.0
+                hivemq_prometheus_exporter_test_seconds_count 3.0
+                hivemq_prometheus_exporter_test_seconds_sum 5.0025
+                """);
+    }
+
+    @Test
+    void render_openMetrics() {
+        histogram.record(1_000_000L);
+        assertThat(render(ExpositionFormat.OPENMETRICS_100, null)).isEqualTo("""
+                # TYPE hivemq_prometheus_exporter_test_seconds histogram
+                # HELP hivemq_prometheus_exporter_test_seconds Test durations
+                hivemq_prometheus_exporter_test_seconds_bucket{le="0.001"} 1.0
+                hivemq_prometheus_exporter_test_seconds_bucket{le="1.0"} 1.0
+                hivemq_prometheus_exporter_test_seconds_bucket{le="+Inf"} 1.0
+                hivemq_prometheus_exporter_test_seconds_count 1.0
+                hivemq_prometheus_exporter_test_seconds_sum 0.001
+                """);
+    }
+
+    @Test
+    void render_protobuf() {
+        histogram.record(500_000L);
+        histogram.record(2_000_000L);
+        histogram.record(5_000_000_000L);
+        final var buffer = new ExpositionBuffer(1024);
+        histogram.render(ExpositionFormat.PROTOBUF, null, buffer);
+
+        final var families = ProtobufMessage.parseDelimited(buffer.toByteArray());
+        assertThat(families).hasSize(1);
+        assertThat(families.get(0).string(ProtobufEncoding.FAMILY_NAME)).isEqualTo(
+                "hivemq_prometheus_exporter_test_seconds");
+        assertThat(families.get(0).varint(ProtobufEncoding.FAMILY_TYPE)).isEqualTo(4);
+        final var metric = families.get(0).message(ProtobufEncoding.FAMILY_METRIC);
+        assertThat(metric.has(ProtobufEncoding.METRIC_LABEL)).isFalse();
+        final var protobufHistogram = metric.message(ProtobufEncoding.METRIC_HISTOGRAM);
+        assertThat(protobufHistogram.varint(ProtobufEncoding.HISTOGRAM_SAMPLE_COUNT)).isEqualTo(3);
+        assertThat(protobufHistogram.doubleValue(ProtobufEncoding.HISTOGRAM_SAMPLE_SUM)).isEqualTo(5.0025);
+        final var buckets = protobufHistogram.messages(ProtobufEncoding.HISTOGRAM_BUCKET);
+        assertThat(buckets).hasSize(2);
+        assertThat(buckets.get(0).doubleValue(ProtobufEncoding.BUCKET_UPPER_BOUND)).isEqualTo(0.001);
+        assertThat(buckets.get(0).varint(ProtobufEncoding.BUCKET_CUMULATIVE_COUNT)).isEqualTo(1);
+        assertThat(buckets.get(1).doubleValue(ProtobufEncoding.BUCKET_UPPER_BOUND)).isEqualTo(1.0);
+        assertThat(buckets.get(1).varint(ProtobufEncoding.BUCKET_CUMULATIVE_COUNT)).isEqualTo(2);
+    }
+
+    @Test
+    void render_withSampleNameFilter() {
+        histogram.record(500_000L);
+        assertThat(render(ExpositionFormat.TEXT_004,
+                "hivemq_prometheus_exporter_test_seconds_count"::equals)).isEqualTo("""
+                # HELP hivemq_prometheus_exporter_test_seconds Test durations
+                # TYPE hivemq_prometheus_exporter_test_seconds histogram
+                hivemq_prometheus_exporter_test_seconds_count 1.0
+                """);
+        assertThat(render(ExpositionFormat.TEXT_004, "other"::equals)).isEmpty();
+    }
+
+    @Test
+    void render_countsFamilyAndSeries() {
+        final var buffer = new ExpositionBuffer(1024);
+        histogram.render(ExpositionFormat.TEXT_004, null, buffer);
+        assertThat(buffer.families()).isEqualTo(1);
+        assertThat(buffer.series()).isEqualTo(5);
+    }
+
+    private @NotNull String render(final @NotNull ExpositionFormat format, final Predicate<String> sampleNameFilter) {
+        final var buffer = new ExpositionBuffer(1024);
+        histogram.render(format, sampleNameFilter, buffer);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpositionFormatTest {
+
+    private static final String PROTOBUF =
+            "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited";
+
+    @Test
+    void negotiate_withoutHeader_thenText004() {
+        assertThat(ExpositionFormat.negotiate(null)).isEqualTo(ExpositionFormat.TEXT_004);
+        assertThat(ExpositionFormat.negotiate("")).isEqualTo(ExpositionFormat.TEXT_004);
+        assertThat(ExpositionFormat.negotiate("application/json")).isEqualTo(ExpositionFormat.TEXT_004);
+    }
+
+    @Test
+    void negotiate_withOpenMetrics_thenOpenMetrics() {
+        assertThat(ExpositionFormat.negotiate("application/openmetrics-text; version=1.0.0; charset=utf-8")).isEqualTo(
+                ExpositionFormat.OPENMETRICS_100);
+        assertThat(ExpositionFormat.negotiate(
+                "application/openmetrics-text;version=1.0.0;q=0.5,text/plain;version=0.0.4;q=0.3,*/*;q=0.2")).isEqualTo(
+                ExpositionFormat.OPENMETRICS_100);
+    }
+
+    @Test
+    void negotiate_withProtobuf_thenProtobuf() {
+        assertThat(ExpositionFormat.negotiate(PROTOBUF)).isEqualTo(ExpositionFormat.PROTOBUF);
+        assertThat(ExpositionFormat.negotiate(PROTOBUF +
+                ";q=0.6,application/openmetrics-text;version=1.0.0;q=0.5,text/plain;version=0.0.4;q=0.3")).isEqualTo(
+                ExpositionFormat.PROTOBUF);
+    }
+
+    @Test
+    void negotiate_withProtobufOfOtherMessage_thenIgnored() {
+        assertThat(ExpositionFormat.negotiate("application/vnd.google.protobuf;proto=other;encoding=delimited"))
+                .isEqualTo(ExpositionFormat.TEXT_004);
+        assertThat(ExpositionFormat.negotiate(
+                "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=text")).isEqualTo(
+                ExpositionFormat.TEXT_004);
+    }
+
+    @Test
+    void negotiate_withQualities_thenHighestQualityWins() {
+        assertThat(ExpositionFormat.negotiate(PROTOBUF + ";q=0.4,application/openmetrics-text;q=0.5")).isEqualTo(
+                ExpositionFormat.OPENMETRICS_100);
+        assertThat(ExpositionFormat.negotiate("application/openmetrics-text;q=0.5,text/plain")).isEqualTo(
+                ExpositionFormat.TEXT_004);
+        assertThat(ExpositionFormat.negotiate("text/plain;q=0.5," + PROTOBUF + ";q=0.5")).isEqualTo(
+                ExpositionFormat.TEXT_004);
+    }
+
+    @Test
+    void negotiate_withZeroQuality_thenRejected() {
+        assertThat(ExpositionFormat.negotiate("application/openmetrics-text;q=0")).isEqualTo(
+                ExpositionFormat.TEXT_004);
+        assertThat(ExpositionFormat.negotiate(PROTOBUF + ";q=0,application/openmetrics-text;q=0.1")).isEqualTo(
+                ExpositionFormat.OPENMETRICS_100);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FormattedValuesTest {
+
+    private final @NotNull FormattedValues values = new FormattedValues(0, 2);
+
+    @Test
+    void writeDouble_withUnchangedValue_thenSameText() {
+        assertThat(write(0, 1.25)).isEqualTo("1.25");
+        assertThat(write(0, 1.25)).isEqualTo("1.25");
+    }
+
+    @Test
+    void writeDouble_withChangedValue_thenNewText() {
+        assertThat(write(0, 1.25)).isEqualTo("1.25");
+        assertThat(write(0, 2.5)).isEqualTo("2.5");
+    }
+
+    @Test
+    void writeDouble_withNegativeZero_thenDistinctFromZero() {
+        assertThat(write(0, 0.0)).isEqualTo("0.0");
+        assertThat(write(0, -0.0)).isEqualTo("-0.0");
+        assertThat(write(0, 0.0)).isEqualTo("0.0");
+    }
+
+    @Test
+    void writeDouble_withOtherIndex_thenIndependentText() {
+        assertThat(write(0, 1.0)).isEqualTo("1.0");
+        assertThat(write(1, 2.0)).isEqualTo("2.0");
+        assertThat(write(0, 1.0)).isEqualTo("1.0");
+    }
+
+    @Test
+    void writeDouble_withSpecialValues_thenGoFormat() {
+        assertThat(write(0, Double.NaN)).isEqualTo("NaN");
+        assertThat(write(0, Double.POSITIVE_INFINITY)).isEqualTo("+Inf");
+        assertThat(write(0, Double.NEGATIVE_INFINITY)).isEqualTo("-Inf");
+    }
+
+    @Test
+    void writeDouble_withIntegralValues_thenLikeDoubleToString() {
+        for (final var value : new double[]{1, -1, 42, 9_999_999, -9_999_999, 10_000_000, 123_456_789, 1e300}) {
+            assertThat(write(0, value)).isEqualTo(Double.toString(value));
+        }
+    }
+
+    @Test
+    void writeDouble_withFirstIndex_thenSlotsStartAtFirstIndex() {
+        final var sums = new FormattedValues(12, 1);
+        assertThat(write(sums, 12, 1.5)).isEqualTo("1.5");
+        assertThat(write(sums, 12, 1.5)).isEqualTo("1.5");
+        assertThat(write(sums, 12, 3.0)).isEqualTo("3.0");
+    }
+
+    @Test
+    void writeDouble_withLongestText_thenSlotsDontOverlap() {
+        final var longest = -1.2345678901234567E-300;
+        assertThat(write(0, longest)).isEqualTo(Double.toString(longest));
+        assertThat(write(1, longest)).isEqualTo(Double.toString(longest));
+        assertThat(write(0, longest)).isEqualTo(Double.toString(longest));
+        assertThat(write(1, longest)).isEqualTo(Double.toString(longest));
+    }
+
+    private @NotNull String write(final int index, final double value) {
+        return write(values, index, value);
+    }
+
+    private static @NotNull String write(
+            final @NotNull FormattedValues values,
+            final int index,
+            final double value) {
+        final var buffer = new ExpositionBuffer(1);
+        buffer.write('x');
+        values.writeDouble(buffer, index, value);
+        return new String(buffer.toByteArray(), 1, buffer.size() - 1, StandardCharsets.US_ASCII);
+    }
+}
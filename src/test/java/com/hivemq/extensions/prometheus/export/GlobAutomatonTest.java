@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GlobAutomatonTest {
+
+    @Test
+    void matches_literal() {
+        final var automaton = new GlobAutomaton(List.of("com.hivemq.messages", "com.hivemq.sessions"));
+        assertThat(automaton.matches("com.hivemq.messages")).isTrue();
+        assertThat(automaton.matches("com.hivemq.sessions")).isTrue();
+        assertThat(automaton.matches("com.hivemq.message")).isFalse();
+        assertThat(automaton.matches("com.hivemq.messages.count")).isFalse();
+        assertThat(automaton.matches("")).isFalse();
+    }
+
+    @Test
+    void matches_star() {
+        final var automaton = new GlobAutomaton(List.of("com.hivemq.*.count", "*.rate"));
+        assertThat(automaton.matches("com.hivemq.messages.count")).isTrue();
+        assertThat(automaton.matches("com.hivemq..count")).isTrue();
+        assertThat(automaton.matches("com.hivemq.a.b.count")).isTrue();
+        assertThat(automaton.matches("com.hivemq.messages.count.total")).isFalse();
+        assertThat(automaton.matches("com.hivemq.publish.rate")).isTrue();
+        assertThat(automaton.matches(".rate")).isTrue();
+        assertThat(automaton.matches("rate")).isFalse();
+    }
+
+    @Test
+    void matches_questionMark() {
+        final var automaton = new GlobAutomaton(List.of("node-?.up"));
+        assertThat(automaton.matches("node-1.up")).isTrue();
+        assertThat(automaton.matches("node-.up")).isFalse();
+        assertThat(automaton.matches("node-12.up")).isFalse();
+    }
+
+    @Test
+    void matches_onlyStar_thenEverything() {
+        final var automaton = new GlobAutomaton(List.of("**"));
+        assertThat(automaton.matches("")).isTrue();
+        assertThat(automaton.matches("anything")).isTrue();
+    }
+
+    @Test
+    void matches_withoutPatterns_thenNothing() {
+        final var automaton = new GlobAutomaton(List.of());
+        assertThat(automaton.matches("")).isFalse();
+        assertThat(automaton.matches("anything")).isFalse();
+    }
+
+    @Test
+    void matches_sameResultsAsRegex() {
+        final var random = new Random(42);
+        final var alphabet = "ab.";
+        for (int round = 0; round < 50; round++) {
+            final var globs = new ArrayList<String>();
+            final var regexes = new ArrayList<Pattern>();
+            for (int i = 0; i < 1 + random.nextInt(4); i++) {
+                final var glob = randomString(random, "ab.*?", 6);
+                globs.add(glob);
+                regexes.add(Pattern.compile(glob.replace(".", "\\.").replace("?", ".").replace("*", ".*")));
+            }
+            final var automaton = new GlobAutomaton(globs);
+            for (int i = 0; i < 200; i++) {
+                final var name = randomString(random, alphabet, 8);
+                final var expected = regexes.stream().anyMatch(regex -> regex.matcher(name).matches());
+                assertThat(automaton.matches(name)).as("%s matches %s", globs, name).isEqualTo(expected);
+            }
+        }
+    }
+
+    private static String randomString(final Random random, final String alphabet, final int maxLength) {
+        final var sb = new StringBuilder();
+        final var length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
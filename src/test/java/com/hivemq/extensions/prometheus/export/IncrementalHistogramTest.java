@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IncrementalHistogramTest {
+
+    private final @NotNull IncrementalHistogram histogram =
+            new IncrementalHistogram(HistogramBuckets.of(List.of(10.0, 50.0, 150.0), 1.0));
+
+    @Test
+    void update_distributesCountBySnapshot() {
+        histogram.update(100, () -> snapshot(1, 100));
+        assertThat(cumulativeCounts()).containsExactly(10L, 50L, 100L, 100L);
+        assertThat(histogram.count()).isEqualTo(100);
+        assertThat(histogram.sum()).isCloseTo(5050, within(1e-9));
+    }
+
+    @Test
+    void update_onlyDistributesNewValues() {
+        histogram.update(100, () -> snapshot(1, 100));
+        histogram.update(200, () -> snapshot(101, 200));
+        assertThat(cumulativeCounts()).containsExactly(10L, 50L, 150L, 200L);
+        assertThat(histogram.count()).isEqualTo(200);
+        assertThat(histogram.sum()).isCloseTo(20_100, within(1e-9));
+    }
+
+    @Test
+    void update_withUnchangedCount_thenSnapshotNotTaken() {
+        final var snapshots = new AtomicInteger();
+        histogram.update(100, () -> {
+            snapshots.incrementAndGet();
+            return snapshot(1, 100);
+        });
+        histogram.update(100, () -> {
+            snapshots.incrementAndGet();
+            return snapshot(1, 100);
+        });
+        assertThat(snapshots).hasValue(1);
+        assertThat(cumulativeCounts()).containsExactly(10L, 50L, 100L, 100L);
+    }
+
+    @Test
+    void update_withEmptySnapshot_thenOnlyInfBucket() {
+        histogram.update(5, () -> new UniformSnapshot(new long[0]));
+        assertThat(cumulativeCounts()).containsExactly(0L, 0L, 0L, 5L);
+        assertThat(histogram.sum()).isZero();
+    }
+
+    @Test
+    void update_withSecondsBuckets_thenConvertsNanoseconds() {
+        final var timer = new IncrementalHistogram(HistogramBuckets.of(List.of(0.001, 0.05),
+                ExporterHistogram.NANOS_PER_SECOND));
+        timer.update(4, () -> new UniformSnapshot(new long[]{500_000L, 1_000_000L, 5_000_000L, 50_000_000L}));
+        assertThat(timer.cumulativeCount(0)).isEqualTo(2);
+        assertThat(timer.cumulativeCount(1)).isEqualTo(4);
+        assertThat(timer.cumulativeCount(2)).isEqualTo(4);
+        assertThat(timer.sum()).isCloseTo(0.0565, within(1e-9));
+    }
+
+    @Test
+    void of_withoutBuckets() {
+        assertThrows(IllegalArgumentException.class, () -> HistogramBuckets.of(List.of(), 1.0));
+    }
+
+    @Test
+    void of_withUnsortedBuckets() {
+        assertThrows(IllegalArgumentException.class, () -> HistogramBuckets.of(List.of(2.0, 1.0), 1.0));
+        assertThrows(IllegalArgumentException.class, () -> HistogramBuckets.of(List.of(1.0, 1.0), 1.0));
+    }
+
+    @Test
+    void of_withInfiniteBucket() {
+        assertThrows(IllegalArgumentException.class,
+                () -> HistogramBuckets.of(List.of(1.0, Double.POSITIVE_INFINITY), 1.0));
+    }
+
+    private @NotNull List<Long> cumulativeCounts() {
+        return IntStream.range(0, histogram.buckets().size()).mapToLong(histogram::cumulativeCount).boxed().toList();
+    }
+
+    private static @NotNull Snapshot snapshot(final long from, final long to) {
+        return new UniformSnapshot(LongStream.rangeClosed(from, to).toArray());
+    }
+}
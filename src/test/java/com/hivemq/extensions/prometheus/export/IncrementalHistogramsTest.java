@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.UniformReservoir;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IncrementalHistogramsTest {
+
+    private final @NotNull IncrementalHistograms histograms = new IncrementalHistograms();
+    private final @NotNull Histogram metric = new Histogram(new UniformReservoir());
+
+    @Test
+    void get_withSameBuckets_thenSameHistogram() {
+        final var histogram = histograms.get(metric, HistogramBuckets.of(List.of(1.0, 2.0), 1.0));
+        assertThat(histograms.get(metric, HistogramBuckets.of(List.of(1.0, 2.0), 1.0))).isSameAs(histogram);
+    }
+
+    @Test
+    void get_withOtherMetric_thenOtherHistogram() {
+        final var buckets = HistogramBuckets.of(List.of(1.0, 2.0), 1.0);
+        final var histogram = histograms.get(metric, buckets);
+        assertThat(histograms.get(new Histogram(new UniformReservoir()), buckets)).isNotSameAs(histogram);
+    }
+
+    @Test
+    void get_withChangedBuckets_thenNewHistogram() {
+        final var histogram = histograms.get(metric, HistogramBuckets.of(List.of(1.0, 2.0), 1.0));
+        final var changed = histograms.get(metric, HistogramBuckets.of(List.of(1.0, 5.0), 1.0));
+        assertThat(changed).isNotSameAs(histogram);
+        assertThat(changed.buckets().upperBound(1)).isEqualTo(5.0);
+        assertThat(histograms.get(metric, HistogramBuckets.of(List.of(1.0, 5.0), 1.0))).isSameAs(changed);
+    }
+}
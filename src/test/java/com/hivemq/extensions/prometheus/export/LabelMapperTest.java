@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LabelMapperTest {
+
+    private final @NotNull LabelMapper labelMapper = LabelMapper.of(List.of(LabelMappingRule.of(
+            "com.hivemq.messages.incoming.*.count",
+            "com.hivemq.messages.incoming.count",
+            Map.of("type", "$1")), LabelMappingRule.of("com.hivemq.*.*.*", "com.hivemq.$1.$3", labels())));
+
+    @Test
+    void map_withMatchingRule_thenFamilyWithLabels() {
+        final var mapping = labelMapper.map("com.hivemq.messages.incoming.publish.count");
+        assertThat(mapping.familyName()).isEqualTo("com_hivemq_messages_incoming_count");
+        assertThat(mapping.source()).isEqualTo("com.hivemq.messages.incoming.*.count");
+        assertThat(mapping.labelNames()).containsExactly("type");
+        assertThat(mapping.labelValues()).containsExactly("publish");
+    }
+
+    @Test
+    void map_withSeveralMatchingRules_thenFirstRuleApplies() {
+        final var mapping = labelMapper.map("com.hivemq.networking.bytes.read");
+        assertThat(mapping.familyName()).isEqualTo("com_hivemq_networking_read");
+        assertThat(mapping.labelNames()).containsExactly("unit", "origin");
+        assertThat(mapping.labelValues()).containsExactly("bytes", "hivemq-networking");
+    }
+
+    @Test
+    void map_withoutMatchingRule_thenUnmapped() {
+        final var mapping = labelMapper.map("com.hivemq.messages.incoming.count");
+        assertThat(mapping.familyName()).isEqualTo("com_hivemq_messages_incoming_count");
+        assertThat(mapping.source()).isEqualTo("com.hivemq.messages.incoming.count");
+        assertThat(mapping.labelNames()).isEmpty();
+        assertThat(mapping.labelValues()).isEmpty();
+    }
+
+    @Test
+    void map_thenNamesAndLabelsAreInterned() {
+        final var first = labelMapper.map("com.hivemq.messages.incoming.publish.count");
+        final var second = labelMapper.map("com.hivemq.messages.incoming.publish.count");
+        final var other = labelMapper.map("com.hivemq.messages.incoming.connect.count");
+        assertThat(second.familyName()).isSameAs(first.familyName()).isSameAs(other.familyName());
+        assertThat(second.labelNames()).isSameAs(first.labelNames()).isSameAs(other.labelNames());
+        assertThat(second.labelValues().get(0)).isSameAs(first.labelValues().get(0));
+    }
+
+    @Test
+    void of_withoutRules_thenNone() {
+        assertThat(LabelMapper.of(List.of())).isSameAs(LabelMapper.NONE);
+        assertThat(LabelMapper.NONE.map("a.b").familyName()).isEqualTo("a_b");
+    }
+
+    private static @NotNull Map<String, String> labels() {
+        final var labels = new LinkedHashMap<String, String>();
+        labels.put("unit", "$2");
+        labels.put("origin", "hivemq-$1");
+        return labels;
+    }
+}
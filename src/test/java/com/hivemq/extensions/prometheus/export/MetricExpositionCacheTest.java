@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetricExpositionCacheTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull MetricExpositionCache cache = newCache(MetricNameFilter.ALL, LabelMapper.NONE, 0);
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry.counter("com.hivemq.existing").inc();
+        metricRegistry.addListener(cache);
+    }
+
+    @Test
+    void addListener_thenExistingMetricsAreCached() {
+        assertThat(cache.expositions()).extracting(MetricExposition::familyName).containsExactly("com_hivemq_existing");
+    }
+
+    @Test
+    void metricAdded_thenCached() {
+        final var meter = metricRegistry.meter("com.hivemq.meter");
+        assertThat(cache.expositions()).filteredOn(exposition -> exposition.metric() == meter)
+                .singleElement()
+                .satisfies(exposition -> {
+                    assertThat(exposition.kind()).isEqualTo(MetricExposition.Kind.METER);
+                    assertThat(exposition.familyName()).isEqualTo("com_hivemq_meter");
+                    assertThat(exposition.sampleName(0)).isEqualTo("com_hivemq_meter_total");
+                });
+    }
+
+    @Test
+    void metricRemoved_thenEvicted() {
+        metricRegistry.remove("com.hivemq.existing");
+        assertThat(cache.expositions()).isEmpty();
+    }
+
+    @Test
+    void duplicateRemoved_thenOwnerIsKept() {
+        metricRegistry.counter("com_hivemq_existing");
+        assertThat(cache.expositions()).filteredOn(MetricExposition::isDuplicate)
+                .extracting(MetricExposition::dropwizardName)
+                .containsExactly("com_hivemq_existing");
+
+        metricRegistry.remove("com_hivemq_existing");
+        assertThat(cache.expositions()).extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.existing");
+        assertThat(cache.expositions()).noneMatch(MetricExposition::isDuplicate);
+    }
+
+    @Test
+    void ownerRemoved_thenDuplicateIsPromoted() {
+        final var duplicate = metricRegistry.counter("com_hivemq_existing");
+        metricRegistry.remove("com.hivemq.existing");
+        assertThat(cache.expositions()).singleElement().satisfies(exposition -> {
+            assertThat(exposition.metric()).isSameAs(duplicate);
+            assertThat(exposition.isDuplicate()).isFalse();
+        });
+    }
+
+    @Test
+    void duplicateRemovedBeforeOwner_thenNotPromoted() {
+        metricRegistry.counter("com_hivemq_existing");
+        metricRegistry.remove("com_hivemq_existing");
+        metricRegistry.remove("com.hivemq.existing");
+        assertThat(cache.expositions()).isEmpty();
+        assertThat(cache.families()).isEmpty();
+    }
+
+    @Test
+    void removeListener_thenNoLongerUpdated() {
+        metricRegistry.removeListener(cache);
+        metricRegistry.counter("com.hivemq.ignored");
+        assertThat(cache.expositions()).extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.existing");
+    }
+
+    @Test
+    void metricAdded_withMetricFilter_thenOnlyAcceptedMetricsAreCached() {
+        final var filteredCache = newCache(MetricNameFilter.of(List.of(), List.of("*.excluded")), LabelMapper.NONE, 0);
+        metricRegistry.addListener(filteredCache);
+        metricRegistry.counter("com.hivemq.excluded");
+        metricRegistry.counter("com_hivemq_excluded");
+        assertThat(filteredCache.expositions()).extracting(MetricExposition::dropwizardName)
+                .containsExactlyInAnyOrder("com.hivemq.existing", "com_hivemq_excluded");
+        assertThat(filteredCache.expositions()).noneMatch(MetricExposition::isDuplicate);
+
+        metricRegistry.remove("com.hivemq.excluded");
+        assertThat(filteredCache.expositions()).extracting(MetricExposition::dropwizardName)
+                .containsExactlyInAnyOrder("com.hivemq.existing", "com_hivemq_excluded");
+    }
+
+    @Test
+    void metricAdded_withLabelMapping_thenMappedMetricsShareFamily() {
+        final var mappedCache = newCache(MetricNameFilter.ALL,
+                LabelMapper.of(List.of(LabelMappingRule.of("com.hivemq.*.count",
+                        "com.hivemq.count",
+                        Map.of("type", "$1")))),
+                0);
+        metricRegistry.addListener(mappedCache);
+        metricRegistry.counter("com.hivemq.publish.count");
+        metricRegistry.counter("com.hivemq.connect.count");
+        assertThat(mappedCache.families()).extracting(FamilyExposition::familyName)
+                .containsExactlyInAnyOrder("com_hivemq_existing", "com_hivemq_count");
+        final var family = mappedCache.families()
+                .stream()
+                .filter(candidate -> candidate.familyName().equals("com_hivemq_count"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(family.members()).extracting(exposition -> exposition.labelValues().get(0))
+                .containsExactlyInAnyOrder("publish", "connect");
+
+        metricRegistry.remove("com.hivemq.publish.count");
+        assertThat(family.members()).extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.connect.count");
+        metricRegistry.remove("com.hivemq.connect.count");
+        assertThat(mappedCache.families()).extracting(FamilyExposition::familyName)
+                .containsExactly("com_hivemq_existing");
+    }
+
+    @Test
+    void metricAdded_withLabelMappingToDifferentType_thenDuplicateUntilFamilyIsEmpty() {
+        final var mappedCache = newCache(MetricNameFilter.ALL,
+                LabelMapper.of(List.of(LabelMappingRule.of("com.hivemq.*.count",
+                        "com.hivemq.count",
+                        Map.of("type", "$1")))),
+                0);
+        metricRegistry.addListener(mappedCache);
+        metricRegistry.counter("com.hivemq.publish.count");
+        metricRegistry.meter("com.hivemq.connect.count");
+        assertThat(mappedCache.expositions()).filteredOn(MetricExposition::isDuplicate)
+                .extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.connect.count");
+
+        metricRegistry.remove("com.hivemq.publish.count");
+        assertThat(mappedCache.expositions()).noneMatch(MetricExposition::isDuplicate);
+        assertThat(mappedCache.families()).flatExtracting(family -> List.of(family.members()))
+                .extracting(MetricExposition::dropwizardName)
+                .containsExactlyInAnyOrder("com.hivemq.existing", "com.hivemq.connect.count");
+    }
+
+    @Test
+    void metricAdded_withSeriesLimit_thenFamilyIsTruncatedUntilMembersAreRemoved() {
+        final var limitedCache = newCache(MetricNameFilter.ALL,
+                LabelMapper.of(List.of(LabelMappingRule.of("com.hivemq.client.*.count",
+                        "com.hivemq.client.count",
+                        Map.of("client", "$1")))),
+                2);
+        metricRegistry.addListener(limitedCache);
+        metricRegistry.counter("com.hivemq.client.a.count");
+        metricRegistry.counter("com.hivemq.client.b.count");
+        metricRegistry.counter("com.hivemq.client.c.count");
+        final var family = limitedCache.families()
+                .stream()
+                .filter(candidate -> candidate.familyName().equals("com_hivemq_client_count"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(family.members()).hasSize(3);
+        assertThat(family.exported()).extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.client.a.count", "com.hivemq.client.b.count");
+        assertThat(family.truncated()).isEqualTo(1);
+
+        metricRegistry.remove("com.hivemq.client.a.count");
+        assertThat(family.exported()).extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.client.b.count", "com.hivemq.client.c.count");
+        assertThat(family.truncated()).isZero();
+    }
+
+    @Test
+    void metricAdded_withSeriesLimit_thenSamplesOfSummariesAreCounted() {
+        final var limitedCache = newCache(MetricNameFilter.ALL,
+                LabelMapper.of(List.of(LabelMappingRule.of("com.hivemq.client.*.latency",
+                        "com.hivemq.client.latency",
+                        Map.of("client", "$1")))),
+                20);
+        metricRegistry.addListener(limitedCache);
+        metricRegistry.timer("com.hivemq.client.a.latency");
+        metricRegistry.timer("com.hivemq.client.b.latency");
+        metricRegistry.timer("com.hivemq.client.c.latency");
+        final var family = limitedCache.families()
+                .stream()
+                .filter(candidate -> candidate.familyName().equals("com_hivemq_client_latency"))
+                .findFirst()
+                .orElseThrow();
+        // each summary has six quantiles and a count, so only two of them fit into the limit
+        assertThat(family.series()).isEqualTo(21);
+        assertThat(family.exported()).extracting(MetricExposition::dropwizardName)
+                .containsExactly("com.hivemq.client.a.latency", "com.hivemq.client.b.latency");
+        assertThat(family.truncated()).isEqualTo(7);
+    }
+
+    private static @NotNull MetricExpositionCache newCache(
+            final @NotNull Predicate<String> metricFilter,
+            final @NotNull LabelMapper labelMapper,
+            final int seriesLimit) {
+        return new MetricExpositionCache(metricFilter,
+                labelMapper,
+                null,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                seriesLimit);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricNameFilterTest {
+
+    @Test
+    void of_withoutPatterns_thenAll() {
+        final var filter = MetricNameFilter.of(List.of(), List.of());
+        assertThat(filter).isSameAs(MetricNameFilter.ALL);
+        assertThat(filter.test("com.hivemq.anything")).isTrue();
+    }
+
+    @Test
+    void test_withIncludes_thenOnlyIncluded() {
+        final var filter = MetricNameFilter.of(
+                List.of("com.hivemq.messages.*", "regex:com\\.hivemq\\.sessions\\.[a-z]+"),
+                List.of());
+        assertThat(filter.test("com.hivemq.messages.incoming.count")).isTrue();
+        assertThat(filter.test("com.hivemq.sessions.overall")).isTrue();
+        assertThat(filter.test("com.hivemq.sessions.overall.current")).isFalse();
+        assertThat(filter.test("com.hivemq.networking.connections")).isFalse();
+    }
+
+    @Test
+    void test_withExcludes_thenAllButExcluded() {
+        final var filter = MetricNameFilter.of(List.of(), List.of("*.rate", "regex:.*\\.percentile\\d+"));
+        assertThat(filter.test("com.hivemq.messages.incoming.count")).isTrue();
+        assertThat(filter.test("com.hivemq.messages.incoming.rate")).isFalse();
+        assertThat(filter.test("com.hivemq.latency.percentile99")).isFalse();
+    }
+
+    @Test
+    void test_withIncludesAndExcludes_thenExcludeWins() {
+        final var filter = MetricNameFilter.of(List.of("com.hivemq.messages.*"), List.of("*.dropped.*"));
+        assertThat(filter.test("com.hivemq.messages.incoming.count")).isTrue();
+        assertThat(filter.test("com.hivemq.messages.dropped.count")).isFalse();
+        assertThat(filter.test("com.hivemq.sessions.count")).isFalse();
+    }
+
+    @Test
+    void of_withInvalidRegex_thenException() {
+        assertThatThrownBy(() -> MetricNameFilter.of(List.of("regex:[a-"), List.of())).isInstanceOf(
+                PatternSyntaxException.class);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NumberWriterTest {
+
+    @Test
+    void writeDouble_thenLikeDoubleToString() {
+        for (final var value : new double[]{
+                0, 1, -1, 42, 0.5, -1.5, 0.1, 0.3, 1.0 / 3, 50.5, 123456.789, 9_999_999, 10_000_000, 123_456_789, 0.001,
+                9.99e-4, 1e-5, 1e15, 1e300, -2.5e-300, Double.MAX_VALUE, Double.MIN_NORMAL}) {
+            assertThat(write(value)).isEqualTo(Double.toString(value));
+        }
+    }
+
+    @Test
+    void writeDouble_withSpecialValues_thenGoFormat() {
+        assertThat(write(Double.NaN)).isEqualTo("NaN");
+        assertThat(write(Double.POSITIVE_INFINITY)).isEqualTo("+Inf");
+        assertThat(write(Double.NEGATIVE_INFINITY)).isEqualTo("-Inf");
+        assertThat(write(-0.0)).isEqualTo("-0.0");
+    }
+
+    @Test
+    void writeDouble_withExtraDigitOfOldDoubleToString_thenShortest() {
+        assertThat(write(2.82879384806159E17)).isEqualTo("2.82879384806159E17");
+        assertThat(write(1e23)).isEqualTo("1.0E23");
+    }
+
+    @Test
+    void writeDouble_withRandomValues_thenParsesBackToSameValue() {
+        final var random = new Random(42);
+        for (int i = 0; i < 1_000_000; i++) {
+            final double value;
+            switch (i % 3) {
+                case 0:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+                    break;
+                default:
+                    value = Math.round(random.nextDouble() * 1e6) / Math.pow(10, random.nextInt(8));
+                    break;
+            }
+            if (!Double.isFinite(value)) {
+                continue;
+            }
+            final var text = write(value);
+            final var expected = Double.toString(value);
+            assertThat(Double.doubleToRawLongBits(Double.parseDouble(text))).as(expected)
+                    .isEqualTo(Double.doubleToRawLongBits(value));
+            assertThat(text.length()).as(expected).isLessThanOrEqualTo(expected.length());
+            assertThat(text.contains("E")).as(expected).isEqualTo(expected.contains("E"));
+        }
+    }
+
+    @Test
+    void writeLongAsDouble_thenLikeDoubleToString() {
+        final var bytes = new byte[NumberWriter.MAX_LENGTH];
+        for (final var value : new long[]{
+                0, 1, -1, 42, 9_999_999, -9_999_999, 10_000_000, -10_000_000, 123_456_789, Long.MAX_VALUE,
+                Long.MIN_VALUE}) {
+            final var length = NumberWriter.writeLongAsDouble(bytes, 0, value);
+            assertThat(new String(bytes, 0, length, StandardCharsets.US_ASCII)).isEqualTo(Double.toString(value));
+        }
+    }
+
+    private static @NotNull String write(final double value) {
+        final var bytes = new byte[NumberWriter.MAX_LENGTH + 1];
+        bytes[0] = 'x';
+        final var end = NumberWriter.writeDouble(bytes, 1, value);
+        assertThat(end - 1).isLessThanOrEqualTo(NumberWriter.MAX_LENGTH);
+        return new String(bytes, 1, end - 1, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.UniformReservoir;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class OtlpEncoderTest {
+
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull PushMetrics metrics = new PushMetrics("otlp", "OTLP receiver");
+    private final @NotNull PushBuffer buffer = new PushBuffer(1 << 20, false, metrics);
+
+    @Test
+    void encode_cumulative_thenCountersAreMonotonicSums() {
+        metricRegistry.meter("my.meter").mark(3);
+        metricRegistry.gauge("my.gauge", () -> () -> 1.5);
+        final var encoder = encoder(false, 100);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS + 1000);
+
+        assertThat(buffer.size()).isEqualTo(1);
+        final var request = decode(buffer.peek());
+        final var metrics = metrics(request);
+        assertThat(metrics).containsOnlyKeys("my_meter", "my_gauge");
+
+        final var sum = metrics.get("my_meter").message(OtlpEncoder.METRIC_SUM);
+        assertThat(sum.varint(OtlpEncoder.AGGREGATION_TEMPORALITY)).isEqualTo(OtlpEncoder.TEMPORALITY_CUMULATIVE);
+        assertThat(sum.varint(OtlpEncoder.SUM_IS_MONOTONIC)).isEqualTo(1);
+        final var sumPoint = sum.message(OtlpEncoder.DATA_POINTS);
+        assertThat(sumPoint.doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE)).isEqualTo(3);
+        assertThat(sumPoint.fixed64(OtlpEncoder.POINT_START_TIME)).isEqualTo(START_MILLIS * NANOS_PER_MILLI);
+        assertThat(sumPoint.fixed64(OtlpEncoder.POINT_TIME)).isEqualTo((START_MILLIS + 1000) * NANOS_PER_MILLI);
+
+        final var gaugePoint =
+                metrics.get("my_gauge").message(OtlpEncoder.METRIC_GAUGE).message(OtlpEncoder.DATA_POINTS);
+        assertThat(gaugePoint.doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE)).isEqualTo(1.5);
+        assertThat(gaugePoint.has(OtlpEncoder.POINT_START_TIME)).isFalse();
+    }
+
+    @Test
+    void encode_thenRequestHasResourceAttributesAndScope() {
+        metricRegistry.meter("my.meter").mark();
+        encode(encoder(false, 100), render(null, LabelMapper.NONE), START_MILLIS);
+
+        final var resourceMetrics = decode(buffer.peek()).message(OtlpEncoder.REQUEST_RESOURCE_METRICS);
+        final var resource = resourceMetrics.message(OtlpEncoder.RESOURCE_METRICS_RESOURCE);
+        assertThat(attributes(resource.messages(OtlpEncoder.RESOURCE_ATTRIBUTES))).containsExactly(
+                entry("service.name", "hivemq"),
+                entry("host.name", "broker-1"));
+        final var scope = resourceMetrics.message(OtlpEncoder.RESOURCE_METRICS_SCOPE_METRICS)
+                .message(OtlpEncoder.SCOPE_METRICS_SCOPE);
+        assertThat(scope.string(OtlpEncoder.SCOPE_NAME_FIELD)).isEqualTo(OtlpEncoder.SCOPE_NAME);
+    }
+
+    @Test
+    void encode_withLabelMapping_thenLabelsAreAttributes() {
+        metricRegistry.meter("my.fast.meter").mark(1);
+        metricRegistry.meter("my.slow.meter").mark(2);
+        final var labelMapper = LabelMapper.of(List.of(LabelMappingRule.of("my.*.meter",
+                "my.labeled.meter",
+                Map.of("kind", "$1"))));
+        encode(encoder(false, 100), render(null, labelMapper), START_MILLIS);
+
+        final var points = metrics(decode(buffer.peek())).get("my_labeled_meter")
+                .message(OtlpEncoder.METRIC_SUM)
+                .messages(OtlpEncoder.DATA_POINTS);
+        final var values = new LinkedHashMap<Map<String, String>, Double>();
+        for (final var point : points) {
+            values.put(attributes(point.messages(OtlpEncoder.NUMBER_POINT_ATTRIBUTES)),
+                    point.doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE));
+        }
+        assertThat(values).containsOnly(entry(Map.of("kind", "fast"), 1.0), entry(Map.of("kind", "slow"), 2.0));
+    }
+
+    @Test
+    void encode_withHistogramBuckets_thenExplicitBucketHistogram() {
+        final var histogram = metricRegistry.register("my.histogram", new Histogram(new UniformReservoir()));
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        encode(encoder(false, 100), render(HistogramBuckets.of(List.of(10.0, 50.0), 1.0), LabelMapper.NONE), 1L);
+
+        final var otlpHistogram = metrics(decode(buffer.peek())).get("my_histogram")
+                .message(OtlpEncoder.METRIC_HISTOGRAM);
+        assertThat(otlpHistogram.varint(OtlpEncoder.AGGREGATION_TEMPORALITY)).isEqualTo(
+                OtlpEncoder.TEMPORALITY_CUMULATIVE);
+        final var point = otlpHistogram.message(OtlpEncoder.DATA_POINTS);
+        assertThat(point.fixed64(OtlpEncoder.HISTOGRAM_POINT_COUNT)).isEqualTo(100);
+        assertThat(point.doubleValue(OtlpEncoder.HISTOGRAM_POINT_SUM)).isEqualTo(5050);
+        assertThat(point.packedDoubles(OtlpEncoder.HISTOGRAM_POINT_EXPLICIT_BOUNDS)).containsExactly(10, 50);
+        assertThat(point.packedFixed64(OtlpEncoder.HISTOGRAM_POINT_BUCKET_COUNTS)).containsExactly(10, 40, 50);
+    }
+
+    @Test
+    void encode_withSummary_thenSummaryWithQuantiles() {
+        metricRegistry.histogram("my.summary").update(7);
+        encode(encoder(true, 100), render(null, LabelMapper.NONE), 1L);
+
+        final var point = metrics(decode(buffer.peek())).get("my_summary")
+                .message(OtlpEncoder.METRIC_SUMMARY)
+                .message(OtlpEncoder.DATA_POINTS);
+        assertThat(point.fixed64(OtlpEncoder.SUMMARY_POINT_COUNT)).isEqualTo(1);
+        final var quantiles = point.messages(OtlpEncoder.SUMMARY_POINT_QUANTILE_VALUES);
+        assertThat(quantiles).hasSize(6);
+        assertThat(quantiles.get(0).doubleValue(OtlpEncoder.QUANTILE_QUANTILE)).isEqualTo(0.5);
+        assertThat(quantiles.get(0).doubleValue(OtlpEncoder.QUANTILE_VALUE)).isEqualTo(7);
+    }
+
+    @Test
+    void encode_delta_thenDifferenceSincePreviousEncoding() {
+        final var meter = metricRegistry.meter("my.meter");
+        meter.mark(5);
+        final var encoder = encoder(true, 100);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS + 1000);
+        // the difference of the first value is unknown
+        assertThat(buffer.size()).isZero();
+
+        meter.mark(3);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS + 2000);
+        final var sum = metrics(decode(buffer.peek())).get("my_meter").message(OtlpEncoder.METRIC_SUM);
+        assertThat(sum.varint(OtlpEncoder.AGGREGATION_TEMPORALITY)).isEqualTo(OtlpEncoder.TEMPORALITY_DELTA);
+        final var point = sum.message(OtlpEncoder.DATA_POINTS);
+        assertThat(point.doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE)).isEqualTo(3);
+        assertThat(point.fixed64(OtlpEncoder.POINT_START_TIME)).isEqualTo((START_MILLIS + 1000) * NANOS_PER_MILLI);
+        assertThat(point.fixed64(OtlpEncoder.POINT_TIME)).isEqualTo((START_MILLIS + 2000) * NANOS_PER_MILLI);
+    }
+
+    @Test
+    void encode_deltaAfterReset_thenCurrentValue() {
+        metricRegistry.meter("my.meter").mark(5);
+        final var encoder = encoder(true, 100);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS);
+        metricRegistry.remove("my.meter");
+        metricRegistry.meter("my.meter").mark(2);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS + 1000);
+
+        final var point = metrics(decode(buffer.peek())).get("my_meter")
+                .message(OtlpEncoder.METRIC_SUM)
+                .message(OtlpEncoder.DATA_POINTS);
+        assertThat(point.doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE)).isEqualTo(2);
+    }
+
+    @Test
+    void encode_deltaHistogram_thenBucketCountsSincePreviousEncoding() {
+        final var histogram = metricRegistry.register("my.histogram", new Histogram(new UniformReservoir()));
+        histogram.update(1);
+        final var encoder = encoder(true, 100);
+        final var buckets = HistogramBuckets.of(List.of(10.0, 50.0), 1.0);
+        encode(encoder, render(buckets, LabelMapper.NONE), START_MILLIS);
+        for (int i = 0; i < 4; i++) {
+            histogram.update(1);
+        }
+        encode(encoder, render(buckets, LabelMapper.NONE), START_MILLIS + 1000);
+
+        final var otlpHistogram = metrics(decode(buffer.peek())).get("my_histogram")
+                .message(OtlpEncoder.METRIC_HISTOGRAM);
+        assertThat(otlpHistogram.varint(OtlpEncoder.AGGREGATION_TEMPORALITY)).isEqualTo(OtlpEncoder.TEMPORALITY_DELTA);
+        final var point = otlpHistogram.message(OtlpEncoder.DATA_POINTS);
+        assertThat(point.fixed64(OtlpEncoder.HISTOGRAM_POINT_COUNT)).isEqualTo(4);
+        assertThat(point.doubleValue(OtlpEncoder.HISTOGRAM_POINT_SUM)).isEqualTo(4);
+        assertThat(point.packedFixed64(OtlpEncoder.HISTOGRAM_POINT_BUCKET_COUNTS)).containsExactly(4, 0, 0);
+    }
+
+    @Test
+    void encode_deltaAfterSeriesWasRemoved_thenSeriesIsForgotten() {
+        metricRegistry.meter("my.meter").mark(5);
+        final var encoder = encoder(true, 100);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS);
+        metricRegistry.remove("my.meter");
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS + 1000);
+        metricRegistry.meter("my.meter").mark(7);
+        encode(encoder, render(null, LabelMapper.NONE), START_MILLIS + 2000);
+
+        // the re-registered meter is a new series whose difference is unknown
+        assertThat(buffer.size()).isZero();
+    }
+
+    @Test
+    void encode_moreDataPointsThanMaxPerRequest_thenSplitIntoRequests() {
+        for (int i = 0; i < 5; i++) {
+            metricRegistry.meter("my.meter." + i).mark(i);
+        }
+        encode(encoder(false, 2), render(null, LabelMapper.NONE), 1L);
+
+        assertThat(buffer.size()).isEqualTo(3);
+        final var dataPoints = new ArrayList<Integer>();
+        final var names = new ArrayList<String>();
+        while (buffer.peek() != null) {
+            dataPoints.add(buffer.peek().samples());
+            names.addAll(metrics(decode(buffer.peek())).keySet());
+            buffer.remove();
+        }
+        assertThat(dataPoints).containsExactly(2, 2, 1);
+        assertThat(names).containsExactlyInAnyOrder("my_meter_0",
+                "my_meter_1",
+                "my_meter_2",
+                "my_meter_3",
+                "my_meter_4");
+    }
+
+    private @NotNull OtlpEncoder encoder(final boolean delta, final int maxDataPointsPerRequest) {
+        return new OtlpEncoder(List.of("service.name", "host.name"),
+                List.of("hivemq", "broker-1"),
+                delta,
+                maxDataPointsPerRequest,
+                buffer,
+                START_MILLIS);
+    }
+
+    private static void encode(
+            final @NotNull OtlpEncoder encoder,
+            final @NotNull ExpositionBuffer exposition,
+            final long timestampMillis) {
+        encoder.encode(exposition.array(), exposition.size(), timestampMillis);
+    }
+
+    private @NotNull ExpositionBuffer render(
+            final @Nullable HistogramBuckets histogramBuckets,
+            final @NotNull LabelMapper labelMapper) {
+        final var renderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                labelMapper,
+                histogramBuckets,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        final var exposition = new ExpositionBuffer(1024);
+        renderer.render(ExpositionFormat.PROTOBUF, null, exposition);
+        return exposition;
+    }
+
+    static @NotNull ProtobufMessage decode(final @NotNull PushBuffer.Request request) {
+        return decode(request.body());
+    }
+
+    /**
+     * Decodes a gzip compressed {@code ExportMetricsServiceRequest}.
+     */
+    static @NotNull ProtobufMessage decode(final byte @NotNull [] body) {
+        try (final var gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return ProtobufMessage.parse(gzip.readAllBytes());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the {@code Metric}s of a request by their name.
+     */
+    static @NotNull Map<String, ProtobufMessage> metrics(final @NotNull ProtobufMessage request) {
+        final var metrics = new LinkedHashMap<String, ProtobufMessage>();
+        for (final var resourceMetrics : request.messages(OtlpEncoder.REQUEST_RESOURCE_METRICS)) {
+            for (final var scopeMetrics : resourceMetrics.messages(OtlpEncoder.RESOURCE_METRICS_SCOPE_METRICS)) {
+                for (final var metric : scopeMetrics.messages(OtlpEncoder.SCOPE_METRICS_METRICS)) {
+                    metrics.put(metric.string(OtlpEncoder.METRIC_NAME), metric);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static @NotNull Map<String, String> attributes(final @NotNull List<ProtobufMessage> keyValues) {
+        final var attributes = new LinkedHashMap<String, String>();
+        for (final var keyValue : keyValues) {
+            attributes.put(keyValue.string(OtlpEncoder.KEY_VALUE_KEY),
+                    keyValue.message(OtlpEncoder.KEY_VALUE_VALUE).string(OtlpEncoder.ANY_VALUE_STRING));
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Exports to a fake OpenTelemetry collector that decodes the OTLP/HTTP requests.
+ */
+class OtlpMetricsExporterTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull LinkedBlockingQueue<Map<String, ProtobufMessage>> received = new LinkedBlockingQueue<>();
+    private final @NotNull AtomicInteger failures = new AtomicInteger();
+    private final @NotNull AtomicInteger failureStatus = new AtomicInteger(503);
+    private @NotNull HttpServer collector;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        collector = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        collector.createContext("/v1/metrics", this::receive);
+        collector.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        collector.stop(0);
+    }
+
+    @Test
+    void export_cumulative_thenCollectorGetsCumulativeSums() throws Exception {
+        metricRegistry.meter("my.meter").mark(3);
+        final var exporter = exporter().buildAndStart();
+        try {
+            final var metrics = received.poll(10, TimeUnit.SECONDS);
+            assertThat(metrics).isNotNull();
+            final var sum = metrics.get("my_meter").message(OtlpEncoder.METRIC_SUM);
+            assertThat(sum.varint(OtlpEncoder.AGGREGATION_TEMPORALITY)).isEqualTo(
+                    OtlpEncoder.TEMPORALITY_CUMULATIVE);
+            assertThat(sum.message(OtlpEncoder.DATA_POINTS)
+                    .doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE)).isEqualTo(3);
+            assertThat(metrics).containsKey("hivemq_prometheus_exporter_otlp_samples_sent");
+        } finally {
+            exporter.stop();
+        }
+    }
+
+    @Test
+    void export_delta_thenCollectorGetsDifferences() throws Exception {
+        final var meter = metricRegistry.meter("my.meter");
+        meter.mark(3);
+        final var exporter = exporter().temporality(OtlpMetricsExporter.Temporality.DELTA).buildAndStart();
+        try {
+            var total = 0.0D;
+            final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (total < 7 && System.nanoTime() < deadline) {
+                meter.mark(1);
+                final var metrics = received.poll(10, TimeUnit.SECONDS);
+                assertThat(metrics).isNotNull();
+                final var metric = metrics.get("my_meter");
+                if (metric != null) {
+                    final var sum = metric.message(OtlpEncoder.METRIC_SUM);
+                    assertThat(sum.varint(OtlpEncoder.AGGREGATION_TEMPORALITY)).isEqualTo(
+                            OtlpEncoder.TEMPORALITY_DELTA);
+                    total += sum.message(OtlpEncoder.DATA_POINTS).doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE);
+                }
+            }
+            // the first value is not exported, the differences add up to the later marks
+            assertThat(total).isGreaterThanOrEqualTo(7);
+            assertThat(total).isLessThanOrEqualTo(meter.getCount() - 3);
+        } finally {
+            exporter.stop();
+        }
+    }
+
+    @Test
+    void export_whenCollectorUnavailable_thenRequestIsRetried() throws Exception {
+        metricRegistry.meter("my.meter").mark(3);
+        failures.set(2);
+        final var exporter = exporter().buildAndStart();
+        try {
+            final var metrics = received.poll(10, TimeUnit.SECONDS);
+            assertThat(metrics).isNotNull();
+            assertThat(metrics).containsKey("my_meter");
+            assertThat(failures).hasValue(0);
+        } finally {
+            exporter.stop();
+        }
+    }
+
+    @Test
+    void export_whenCollectorRejectsRequest_thenRequestIsDropped() throws Exception {
+        metricRegistry.meter("my.meter").mark(3);
+        failures.set(1);
+        failureStatus.set(500);
+        final var exporter = exporter().buildAndStart();
+        try {
+            final var metrics = received.poll(10, TimeUnit.SECONDS);
+            assertThat(metrics).isNotNull();
+            final var dropped = metrics.get("hivemq_prometheus_exporter_otlp_samples_dropped")
+                    .message(OtlpEncoder.METRIC_SUM)
+                    .message(OtlpEncoder.DATA_POINTS)
+                    .doubleValue(OtlpEncoder.NUMBER_POINT_AS_DOUBLE);
+            assertThat(dropped).isPositive();
+        } finally {
+            exporter.stop();
+        }
+    }
+
+    @Test
+    void url_withoutHttpScheme() {
+        assertThatThrownBy(() -> OtlpMetricsExporter.builder()
+                .url(URI.create("grpc://localhost:4317"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private @NotNull OtlpMetricsExporter.Builder exporter() {
+        return OtlpMetricsExporter.builder()
+                .metricRegistry(metricRegistry)
+                .url(URI.create("http://localhost:" + collector.getAddress().getPort() + "/v1/metrics"))
+                .interval(Duration.ofMillis(50))
+                .backoff(Duration.ofMillis(10), Duration.ofMillis(20));
+    }
+
+    private void receive(final @NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            assertThat(exchange.getRequestMethod()).isEqualTo("POST");
+            assertThat(exchange.getRequestHeaders().getFirst("Content-Encoding")).isEqualTo("gzip");
+            assertThat(exchange.getRequestHeaders().getFirst("Content-Type")).isEqualTo("application/x-protobuf");
+            final var body = exchange.getRequestBody().readAllBytes();
+            if (failures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+                exchange.sendResponseHeaders(failureStatus.get(), -1);
+                return;
+            }
+            received.add(OtlpEncoderTest.metrics(OtlpEncoderTest.decode(body)));
+            exchange.getResponseHeaders().add("Content-Type", "application/x-protobuf");
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+}
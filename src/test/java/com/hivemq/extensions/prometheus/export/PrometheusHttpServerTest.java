@@ -16,13 +16,28 @@
 
 package com.hivemq.extensions.prometheus.export;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.hivemq.extensions.prometheus.configuration.LabelMappingRule;
 import io.prometheus.client.Collector;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -64,6 +79,475 @@ class PrometheusHttpServerTest {
         run(PrometheusHttpServer.builder().port(0).metricsHandlerPath("/").collector(collector).buildAndStart(), "/");
     }
 
+    @Test
+    void nonBlocking_defaultHandler() throws Exception {
+        run(PrometheusHttpServer.builder().collector(collector).nonBlocking(true).buildAndStart(), "/metrics");
+    }
+
+    @Test
+    void nonBlocking_metricsCustomPath() throws Exception {
+        run(PrometheusHttpServer.builder()
+                .port(0)
+                .metricsHandlerPath("/my-metrics")
+                .collector(collector)
+                .nonBlocking(true)
+                .buildAndStart(), "/my-metrics");
+    }
+
+    @Test
+    void nonBlocking_invalidPort() {
+        assertThatThrownBy(() -> PrometheusHttpServer.builder()
+                .port(-1)
+                .collector(collector)
+                .nonBlocking(true)
+                .buildAndStart()).isInstanceOf(IllegalArgumentException.class).hasMessage("port out of range:-1");
+    }
+
+    @Test
+    void virtualThreads_defaultHandler() throws Exception {
+        run(PrometheusHttpServer.builder().collector(collector).virtualThreads(true).buildAndStart(), "/metrics");
+    }
+
+    @Test
+    void nonBlocking_virtualThreads_defaultHandler() throws Exception {
+        run(PrometheusHttpServer.builder()
+                .collector(collector)
+                .nonBlocking(true)
+                .virtualThreads(true)
+                .buildAndStart(), "/metrics");
+    }
+
+    @Test
+    void nonBlocking_keepAlive() throws Exception {
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(new MetricRegistry())
+                .cacheMaxAge(Duration.ofMinutes(1))
+                .nonBlocking(true)
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var uri = URI.create("http://localhost:" + server.getPort() + "/metrics");
+            for (int i = 0; i < 3; i++) {
+                final var response =
+                        client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+                assertThat(response.statusCode()).isEqualTo(200);
+                assertThat(response.headers().firstValue("Connection")).hasValue("keep-alive");
+                assertThat(response.body()).contains("hivemq_prometheus_exporter_compressions_total");
+            }
+            final var notFound = client.send(HttpRequest.newBuilder(uri.resolve("/other")).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            assertThat(notFound.statusCode()).isEqualTo(404);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void nonBlocking_largeResponse_thenWrittenInSlices() throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        for (int i = 0; i < 10_000; i++) {
+            metricRegistry.counter("my.counter." + i).inc(i);
+        }
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .cacheMaxAge(Duration.ofMinutes(1))
+                .nonBlocking(true)
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var uri = URI.create("http://localhost:" + server.getPort() + "/metrics");
+            for (int i = 0; i < 2; i++) {
+                final var response =
+                        client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+                assertThat(response.statusCode()).isEqualTo(200);
+                assertThat(response.body().length()).isGreaterThan(4 * 64 * 1024);
+                assertThat(response.body()).contains("my_counter_0 0.0", "my_counter_9999 9999.0");
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void negotiatesExpositionFormat() throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        metricRegistry.counter("my.counter").inc(3);
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .cacheMaxAge(Duration.ofMinutes(1))
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var uri = URI.create("http://localhost:" + server.getPort() + "/metrics");
+
+            final var text = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+            assertThat(text.headers().firstValue("Content-Type")).hasValue(ExpositionFormat.TEXT_004.contentType());
+            assertThat(text.body()).contains("my_counter 3.0");
+
+            final var openMetrics = client.send(HttpRequest.newBuilder(uri)
+                    .header("Accept", "application/openmetrics-text;version=1.0.0;q=0.5,text/plain;q=0.3")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertThat(openMetrics.headers().firstValue("Content-Type")).hasValue(
+                    ExpositionFormat.OPENMETRICS_100.contentType());
+            assertThat(openMetrics.body()).contains("my_counter 3.0").endsWith("# EOF\n");
+
+            final var protobuf = client.send(HttpRequest.newBuilder(uri)
+                    .header("Accept",
+                            "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;" +
+                                    "encoding=delimited;q=0.7,text/plain;q=0.3")
+                    .build(), HttpResponse.BodyHandlers.ofByteArray());
+            assertThat(protobuf.headers().firstValue("Content-Type")).hasValue(ExpositionFormat.PROTOBUF.contentType());
+            assertThat(ProtobufMessage.parseDelimited(protobuf.body())).anySatisfy(family -> {
+                assertThat(family.string(ProtobufEncoding.FAMILY_NAME)).isEqualTo("my_counter");
+                assertThat(family.message(ProtobufEncoding.FAMILY_METRIC)
+                        .message(ProtobufEncoding.METRIC_GAUGE)
+                        .doubleValue(ProtobufEncoding.VALUE)).isEqualTo(3);
+            });
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void nonBlocking_pipelinedRequests() throws Exception {
+        final var server = PrometheusHttpServer.builder().collector(collector).nonBlocking(true).buildAndStart();
+        try (final var socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", server.getPort()));
+            final var httpRequests = """
+                    GET /metrics HTTP/1.1\r
+                    HOST: localhost\r
+                    \r
+                    HEAD /metrics HTTP/1.1\r
+                    HOST: localhost\r
+                    Connection: close\r
+                    \r
+                    """;
+            socket.getOutputStream().write(httpRequests.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            final var actualResponse = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertThat(actualResponse.split("HTTP/1.1 200 OK", -1)).hasSize(3);
+            assertThat(actualResponse).contains("Connection: keep-alive").endsWith("Connection: close\r\n\r\n");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void shedOverload_rejectsWithServiceUnavailable() throws Exception {
+        assertShedOverload(false, false);
+    }
+
+    @Test
+    void nonBlocking_shedOverload_rejectsWithServiceUnavailable() throws Exception {
+        assertShedOverload(true, false);
+    }
+
+    @Test
+    void reconfigure_withShedOverload_thenThreadPoolIsReconfigured() throws Exception {
+        assertShedOverload(false, true);
+    }
+
+    @Test
+    void nonBlocking_reconfigure_withMaxThreads_thenThreadPoolIsReconfigured() throws Exception {
+        assertShedOverload(true, true);
+    }
+
+    @Test
+    void minThreadsGreaterThanMaxThreads() {
+        assertThatThrownBy(() -> PrometheusHttpServer.builder()
+                .collector(collector)
+                .minThreads(5)
+                .maxThreads(2)
+                .buildAndStart()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void renderParallelism_withoutThreads() {
+        assertThatThrownBy(() -> PrometheusHttpServer.builder().renderParallelism(0)).isInstanceOf(
+                IllegalArgumentException.class);
+    }
+
+    @Test
+    void prerenderJitter_notLessThanInterval() {
+        assertThatThrownBy(() -> PrometheusHttpServer.builder()
+                .collector(collector)
+                .prerenderInterval(Duration.ofSeconds(1))
+                .prerenderJitter(Duration.ofSeconds(1))
+                .buildAndStart()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void prerender_servesLatestSnapshot() throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        final var value = new AtomicLong(1);
+        metricRegistry.register("clients.connected", (Gauge<Long>) value::get);
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .prerenderInterval(Duration.ofMillis(50))
+                .prerenderJitter(Duration.ofMillis(10))
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var request =
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build();
+            assertThat(client.send(request, HttpResponse.BodyHandlers.ofString()).body()).contains(
+                    "clients_connected 1.0");
+            value.set(2);
+            final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            var body = "";
+            while (!body.contains("clients_connected 2.0") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            }
+            assertThat(body).contains("clients_connected 2.0")
+                    .contains("hivemq_prometheus_exporter_snapshot_age_seconds_count");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void endpoints_serveTheirOwnMetrics() throws Exception {
+        assertEndpoints(false);
+    }
+
+    @Test
+    void nonBlocking_endpoints_serveTheirOwnMetrics() throws Exception {
+        assertEndpoints(true);
+    }
+
+    @Test
+    void endpoint_withDuplicatePath() {
+        assertThatThrownBy(() -> PrometheusHttpServer.builder()
+                .collector(collector)
+                .endpoint("/metrics", Duration.ZERO, List.of(), List.of())
+                .buildAndStart()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void endpoint_withoutLeadingSlash() {
+        assertThatThrownBy(() -> PrometheusHttpServer.builder()
+                .endpoint("metrics", Duration.ZERO, List.of(), List.of())).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void reconfigure_thenEndpointsAreReplaced() throws Exception {
+        assertReconfigure(false);
+    }
+
+    @Test
+    void nonBlocking_reconfigure_thenEndpointsAreReplaced() throws Exception {
+        assertReconfigure(true);
+    }
+
+    @Test
+    void reconfigure_withDuplicatePath_thenServerIsUnchanged() throws Exception {
+        final var server = PrometheusHttpServer.builder().metricRegistry(new MetricRegistry()).buildAndStart();
+        try {
+            assertThatThrownBy(() -> server.reconfigure(PrometheusHttpServer.builder()
+                    .metricRegistry(new MetricRegistry())
+                    .metricsHandlerPath("/other")
+                    .endpoint("/other", Duration.ZERO, List.of(), List.of()))).isInstanceOf(
+                    IllegalArgumentException.class);
+            final var request =
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build();
+            final var response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void reconfigure_withSameBuckets_thenHistogramCountsAreKept() throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        final var histogram = metricRegistry.register("my.histogram", new Histogram(new SlidingWindowReservoir(100)));
+        for (int i = 0; i < 100; i++) {
+            histogram.update(5);
+        }
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .histogramBuckets(List.of(10.0, 50.0))
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var request =
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build();
+            assertThat(client.send(request, HttpResponse.BodyHandlers.ofString()).body()).contains(
+                    "my_histogram_bucket{le=\"10.0\",} 100.0");
+            // the values of the reservoir are replaced, so a new histogram would count all values in the +Inf bucket
+            for (int i = 0; i < 100; i++) {
+                histogram.update(100);
+            }
+            server.reconfigure(PrometheusHttpServer.builder()
+                    .metricRegistry(metricRegistry)
+                    .histogramBuckets(List.of(10.0, 50.0))
+                    .cacheMaxAge(Duration.ofSeconds(1)));
+            assertThat(client.send(request, HttpResponse.BodyHandlers.ofString()).body()).contains(
+                    "my_histogram_bucket{le=\"10.0\",} 100.0",
+                    "my_histogram_bucket{le=\"+Inf\",} 200.0");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void familySeriesLimit_thenFamiliesAreTruncatedAndReported() throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        for (final var client : List.of("a", "b", "c")) {
+            metricRegistry.counter("com.hivemq.client." + client + ".count").inc();
+        }
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .labelMappings(List.of(LabelMappingRule.of("com.hivemq.client.*.count",
+                        "com.hivemq.client.count",
+                        Map.of("client", "$1"))))
+                .familySeriesLimit(2)
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var uri = "http://localhost:" + server.getPort() + "/metrics";
+            final var metrics = client.send(HttpRequest.newBuilder(URI.create(uri)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(metrics.body()).contains("com_hivemq_client_count_total{client=\"b\",} 1.0")
+                    .doesNotContain("client=\"c\"")
+                    .contains("hivemq_prometheus_exporter_snapshot_truncated_families 1.0")
+                    .contains("hivemq_prometheus_exporter_snapshot_truncated_series 1.0");
+
+            final var report = client.send(HttpRequest.newBuilder(URI.create(uri + "?debug=cardinality&top=1")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(report.statusCode()).isEqualTo(200);
+            assertThat(report.headers().firstValue("Content-Type")).hasValue(CardinalityReport.CONTENT_TYPE);
+            assertThat(report.body()).startsWith("# families: 1, series: 3, ")
+                    .contains("# top 1 families by series\n# series truncated bytes family\n3 1 ")
+                    .doesNotContain("hivemq_prometheus_exporter_");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void assertReconfigure(final boolean nonBlocking) throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        metricRegistry.counter("clients.connected").inc();
+        metricRegistry.counter("messages.incoming").inc();
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .excludedMetrics(List.of("clients.*"))
+                .endpoint("/metrics/clients", Duration.ofMinutes(1), List.of("clients.*"), List.of())
+                .nonBlocking(nonBlocking)
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var port = server.getPort();
+            final var url = "http://localhost:" + port;
+            assertThat(client.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).body()).doesNotContain("clients_connected");
+
+            server.reconfigure(PrometheusHttpServer.builder()
+                    .metricRegistry(metricRegistry)
+                    .metricsHandlerPath("/new-metrics")
+                    .includedMetrics(List.of("clients.*")));
+            assertThat(server.getPort()).isEqualTo(port);
+            final var metrics = client.send(HttpRequest.newBuilder(URI.create(url + "/new-metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(metrics.statusCode()).isEqualTo(200);
+            assertThat(metrics.body()).contains("clients_connected 1.0").doesNotContain("messages_incoming");
+            assertThat(client.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+            assertThat(client.send(HttpRequest.newBuilder(URI.create(url + "/metrics/clients")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void assertEndpoints(final boolean nonBlocking) throws Exception {
+        final var metricRegistry = new MetricRegistry();
+        metricRegistry.counter("clients.connected").inc();
+        metricRegistry.counter("messages.incoming").inc();
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .excludedMetrics(List.of("clients.*"))
+                .endpoint("/metrics/clients", Duration.ofMinutes(1), List.of("clients.*"), List.of())
+                .nonBlocking(nonBlocking)
+                .buildAndStart();
+        try {
+            final var client = HttpClient.newHttpClient();
+            final var url = "http://localhost:" + server.getPort();
+            final var metrics = client.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(metrics.statusCode()).isEqualTo(200);
+            assertThat(metrics.body()).contains("messages_incoming 1.0").doesNotContain("clients_connected");
+
+            final var clientsRequest = HttpRequest.newBuilder(URI.create(url + "/metrics/clients")).build();
+            final var clients = client.send(clientsRequest, HttpResponse.BodyHandlers.ofString());
+            assertThat(clients.statusCode()).isEqualTo(200);
+            assertThat(clients.body()).contains("clients_connected 1.0").doesNotContain("messages_incoming");
+
+            // the snapshot of the clients endpoint is cached independently of the default endpoint
+            metricRegistry.counter("clients.connected").inc();
+            metricRegistry.counter("messages.incoming").inc();
+            assertThat(client.send(clientsRequest, HttpResponse.BodyHandlers.ofString()).body()).contains(
+                    "clients_connected 1.0");
+            assertThat(client.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).body()).contains("messages_incoming 2.0");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void assertShedOverload(final boolean nonBlocking, final boolean reconfigure) throws Exception {
+        final var entered = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var metricRegistry = new MetricRegistry();
+        metricRegistry.register("blocking", (Gauge<Integer>) () -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        });
+        final var server = PrometheusHttpServer.builder()
+                .metricRegistry(metricRegistry)
+                .minThreads(1)
+                .maxThreads(reconfigure ? 10 : 1)
+                .shedOverload(!reconfigure)
+                .nonBlocking(nonBlocking)
+                .buildAndStart();
+        try {
+            if (reconfigure) {
+                // the thread pool of the running server is shrunk and sheds the scrapes it rejects
+                server.reconfigure(PrometheusHttpServer.builder()
+                        .metricRegistry(metricRegistry)
+                        .minThreads(1)
+                        .maxThreads(1)
+                        .shedOverload(true)
+                        .renderParallelism(2));
+            }
+            final var client = HttpClient.newHttpClient();
+            final var request =
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build();
+            final var blocked = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+
+            final var rejected = client.send(request, HttpResponse.BodyHandlers.ofString());
+            assertThat(rejected.statusCode()).isEqualTo(503);
+            assertThat(rejected.headers().firstValue("Retry-After")).hasValue("1");
+
+            release.countDown();
+            final var response = blocked.get(10, TimeUnit.SECONDS);
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).contains("hivemq_prometheus_exporter_scrapes_rejected_total 1.0")
+                    .contains("hivemq_prometheus_exporter_scrapes_in_flight 1.0")
+                    .contains("hivemq_prometheus_exporter_scrapes_queued 0.0");
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+
     private void run(final @NotNull PrometheusHttpServer server, final @NotNull String path) throws Exception {
         try (final var socket = new Socket()) {
             socket.connect(new InetSocketAddress("localhost", server.getPort()));
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PrometheusRemoteWriterTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull LinkedBlockingQueue<Map<String, double[]>> received = new LinkedBlockingQueue<>();
+    private final @NotNull AtomicInteger failures = new AtomicInteger();
+    private final @NotNull AtomicInteger failureStatus = new AtomicInteger(503);
+    private @NotNull HttpServer receiver;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        receiver = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        receiver.createContext("/api/v1/write", this::receive);
+        receiver.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        receiver.stop(0);
+    }
+
+    @Test
+    void push_thenReceiverGetsSnappyCompressedWriteRequest() throws Exception {
+        metricRegistry.counter("my.counter").inc(3);
+        final var writer = writer().externalLabels(Map.of("instance", "broker-1")).buildAndStart();
+        try {
+            final var series = received.poll(10, TimeUnit.SECONDS);
+            assertThat(series).isNotNull();
+            assertThat(series.get("__name__=my_counter,instance=broker-1")[0]).isEqualTo(3);
+            assertThat(series).containsKey(
+                    "__name__=hivemq_prometheus_exporter_remote_write_samples_sent_total,instance=broker-1");
+        } finally {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void push_whenReceiverUnavailable_thenRequestIsRetried() throws Exception {
+        metricRegistry.counter("my.counter").inc(3);
+        failures.set(2);
+        final var writer = writer().buildAndStart();
+        try {
+            final var series = received.poll(10, TimeUnit.SECONDS);
+            assertThat(series).isNotNull();
+            assertThat(series.get("__name__=my_counter")[0]).isEqualTo(3);
+            assertThat(failures).hasValue(0);
+            // the first request was sent before the failures were counted
+            assertThat(series.get("__name__=hivemq_prometheus_exporter_remote_write_requests_failed_total")[0])
+                    .isZero();
+            // a later request reports the failures
+            var failed = 0.0D;
+            final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (failed < 2 && System.nanoTime() < deadline) {
+                final var next = received.poll(10, TimeUnit.SECONDS);
+                assertThat(next).isNotNull();
+                failed = next.get("__name__=hivemq_prometheus_exporter_remote_write_requests_failed_total")[0];
+            }
+            assertThat(failed).isEqualTo(2);
+        } finally {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void push_whenReceiverRejectsRequest_thenRequestIsDropped() throws Exception {
+        metricRegistry.counter("my.counter").inc(3);
+        failures.set(1);
+        failureStatus.set(400);
+        final var writer = writer().buildAndStart();
+        try {
+            final var series = received.poll(10, TimeUnit.SECONDS);
+            assertThat(series).isNotNull();
+            assertThat(series.get("__name__=hivemq_prometheus_exporter_remote_write_samples_dropped_total")[0])
+                    .isPositive();
+            assertThat(series.get("__name__=hivemq_prometheus_exporter_remote_write_requests_failed_total")[0])
+                    .isZero();
+        } finally {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void url_withoutHttpScheme() {
+        assertThatThrownBy(() -> PrometheusRemoteWriter.builder()
+                .url(URI.create("ftp://localhost/write"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void externalLabels_withReservedName() {
+        assertThatThrownBy(() -> writer().externalLabels(Map.of("__name__", "other")).buildAndStart()).isInstanceOf(
+                IllegalArgumentException.class);
+    }
+
+    private @NotNull PrometheusRemoteWriter.Builder writer() {
+        return PrometheusRemoteWriter.builder()
+                .metricRegistry(metricRegistry)
+                .url(URI.create("http://localhost:" + receiver.getAddress().getPort() + "/api/v1/write"))
+                .interval(Duration.ofMillis(50))
+                .backoff(Duration.ofMillis(10), Duration.ofMillis(20));
+    }
+
+    private void receive(final @NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            assertThat(exchange.getRequestMethod()).isEqualTo("POST");
+            assertThat(exchange.getRequestHeaders().getFirst("Content-Encoding")).isEqualTo("snappy");
+            assertThat(exchange.getRequestHeaders().getFirst("Content-Type")).isEqualTo("application/x-protobuf");
+            assertThat(exchange.getRequestHeaders().getFirst("X-Prometheus-Remote-Write-Version")).isEqualTo("0.1.0");
+            final var body = exchange.getRequestBody().readAllBytes();
+            if (failures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+                exchange.sendResponseHeaders(failureStatus.get(), -1);
+                return;
+            }
+            received.add(RemoteWriteEncoderTest.decode(body));
+            exchange.sendResponseHeaders(204, -1);
+        }
+    }
+}
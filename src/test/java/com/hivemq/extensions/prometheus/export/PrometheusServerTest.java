@@ -28,6 +28,7 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -40,14 +41,155 @@ class PrometheusServerTest {
 
     @BeforeEach
     void setUp() {
-        final var port = createRandomPort();
-        when(config.hostIp()).thenReturn("localhost");
-        when(config.port()).thenReturn(port);
-        when(config.metricPath()).thenReturn("/metrics");
+        stub(config, createRandomPort());
     }
 
     @Test
     void startStop() throws Exception {
+        assertStartStop();
+    }
+
+    @Test
+    void startStop_withNioServer() throws Exception {
+        when(config.httpServer()).thenReturn(PrometheusExtensionConfiguration.HTTP_SERVER_NIO);
+        when(config.httpOverloadPolicy()).thenReturn(PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_SHED);
+        assertStartStop();
+    }
+
+    @Test
+    void start_withMetricFilter_thenExcludedMetricsAreNotExported() throws Exception {
+        when(config.metricInclude()).thenReturn("my-counter-* regex:other\\..+");
+        when(config.metricExclude()).thenReturn("*-2");
+        metricRegistry.counter("my-counter-1").inc();
+        metricRegistry.counter("my-counter-2").inc();
+        metricRegistry.counter("other.counter").inc();
+        metricRegistry.counter("unrelated").inc();
+
+        final var prometheusServer = new PrometheusServer(config, metricRegistry);
+        prometheusServer.start();
+        try (final var httpClient = HttpClient.newHttpClient()) {
+            // noinspection HttpUrlsUsage
+            final var url = "http://%s:%d%s".formatted(config.hostIp(), config.port(), config.metricPath());
+            final var httpRequest = HttpRequest.newBuilder(URI.create(url)).build();
+            final var response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).contains("my_counter_1 1.0")
+                    .contains("other_counter 1.0")
+                    .doesNotContain("my_counter_2")
+                    .doesNotContain("unrelated");
+        } finally {
+            prometheusServer.stop();
+        }
+    }
+
+    @Test
+    void start_withEndpoints_thenEachEndpointExportsItsMetrics() throws Exception {
+        when(config.endpoints()).thenReturn("clients");
+        when(config.getProperty("endpoint.clients.path")).thenReturn("/metrics/clients");
+        when(config.getProperty("endpoint.clients.metric_include", "")).thenReturn("clients.*");
+        when(config.getProperty("endpoint.clients.metric_exclude", "")).thenReturn("");
+        when(config.metricExclude()).thenReturn("clients.*");
+        metricRegistry.counter("clients.connected").inc();
+        metricRegistry.counter("messages.incoming").inc();
+
+        final var prometheusServer = new PrometheusServer(config, metricRegistry);
+        prometheusServer.start();
+        try (final var httpClient = HttpClient.newHttpClient()) {
+            // noinspection HttpUrlsUsage
+            final var url = "http://%s:%d".formatted(config.hostIp(), config.port());
+            final var metricsResponse = httpClient.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(metricsResponse.statusCode()).isEqualTo(200);
+            assertThat(metricsResponse.body()).contains("messages_incoming 1.0").doesNotContain("clients_connected");
+            final var clientsResponse =
+                    httpClient.send(HttpRequest.newBuilder(URI.create(url + "/metrics/clients")).build(),
+                            HttpResponse.BodyHandlers.ofString());
+            assertThat(clientsResponse.statusCode()).isEqualTo(200);
+            assertThat(clientsResponse.body()).contains("clients_connected 1.0").doesNotContain("messages_incoming");
+        } finally {
+            prometheusServer.stop();
+        }
+    }
+
+    @Test
+    void reconfigure_withChangedMetricPath_thenServedOnSamePort() throws Exception {
+        metricRegistry.counter("my-counter-1").inc();
+        final var reloadedConfig = mock(PrometheusExtensionConfiguration.class);
+        stub(reloadedConfig, config.port());
+        when(reloadedConfig.metricPath()).thenReturn("/reloaded-metrics");
+
+        final var prometheusServer = new PrometheusServer(config, metricRegistry);
+        prometheusServer.start();
+        try (final var httpClient = HttpClient.newHttpClient()) {
+            prometheusServer.reconfigure(reloadedConfig, List.of());
+            // noinspection HttpUrlsUsage
+            final var url = "http://%s:%d".formatted(config.hostIp(), config.port());
+            final var response =
+                    httpClient.send(HttpRequest.newBuilder(URI.create(url + "/reloaded-metrics")).build(),
+                            HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).contains("my_counter_1 1.0");
+            assertThat(httpClient.send(HttpRequest.newBuilder(URI.create(url + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+        } finally {
+            prometheusServer.stop();
+        }
+    }
+
+    @Test
+    void reconfigure_withChangedThreadSettings_thenServedOnSamePort() throws Exception {
+        metricRegistry.counter("my-counter-1").inc();
+        final var reloadedConfig = mock(PrometheusExtensionConfiguration.class);
+        stub(reloadedConfig, config.port());
+        when(reloadedConfig.httpThreadsMin()).thenReturn(2);
+        when(reloadedConfig.httpThreadsMax()).thenReturn(2);
+        when(reloadedConfig.httpOverloadPolicy()).thenReturn(
+                PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_SHED);
+        when(reloadedConfig.renderParallelism()).thenReturn(2);
+        // the backlog can't be applied to the bound socket, so it is only logged
+        when(reloadedConfig.httpBacklog()).thenReturn(10);
+
+        final var prometheusServer = new PrometheusServer(config, metricRegistry);
+        prometheusServer.start();
+        try (final var httpClient = HttpClient.newHttpClient()) {
+            prometheusServer.reconfigure(reloadedConfig, List.of());
+            // noinspection HttpUrlsUsage
+            final var url = "http://%s:%d%s".formatted(config.hostIp(), config.port(), config.metricPath());
+            final var response = httpClient.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).contains("my_counter_1 1.0");
+        } finally {
+            prometheusServer.stop();
+        }
+    }
+
+    @Test
+    void reconfigure_withChangedPort_thenServedOnNewPort() throws Exception {
+        metricRegistry.counter("my-counter-1").inc();
+        final var reloadedConfig = mock(PrometheusExtensionConfiguration.class);
+        stub(reloadedConfig, createRandomPort());
+
+        final var prometheusServer = new PrometheusServer(config, metricRegistry);
+        prometheusServer.start();
+        try (final var httpClient = HttpClient.newHttpClient()) {
+            prometheusServer.reconfigure(reloadedConfig, List.of());
+            // noinspection HttpUrlsUsage
+            final var url = "http://%s:%d%s".formatted(reloadedConfig.hostIp(),
+                    reloadedConfig.port(),
+                    reloadedConfig.metricPath());
+            final var response = httpClient.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).contains("my_counter_1 1.0");
+            // the previous port has been released
+            new ServerSocket(config.port()).close();
+        } finally {
+            prometheusServer.stop();
+        }
+    }
+
+    private void assertStartStop() throws Exception {
         metricRegistry.counter("my-counter-1").inc();
 
         final var prometheusServer = new PrometheusServer(config, metricRegistry);
@@ -67,6 +209,25 @@ class PrometheusServerTest {
         prometheusServer.stop();
     }
 
+    private static void stub(final @NotNull PrometheusExtensionConfiguration config, final int port) {
+        when(config.hostIp()).thenReturn("localhost");
+        when(config.port()).thenReturn(port);
+        when(config.metricPath()).thenReturn("/metrics");
+        when(config.gzipCompressionLevel()).thenReturn(6);
+        when(config.httpServer()).thenReturn(PrometheusExtensionConfiguration.HTTP_SERVER_JDK);
+        when(config.httpThreadsMin()).thenReturn(1);
+        when(config.httpThreadsMax()).thenReturn(10);
+        when(config.httpThreadKeepAliveMillis()).thenReturn(120_000L);
+        when(config.httpBacklog()).thenReturn(3);
+        when(config.httpOverloadPolicy()).thenReturn(PrometheusExtensionConfiguration.HTTP_OVERLOAD_POLICY_BLOCK);
+        when(config.renderParallelism()).thenReturn(1);
+        when(config.metricInclude()).thenReturn("");
+        when(config.metricExclude()).thenReturn("");
+        when(config.endpoints()).thenReturn("");
+        when(config.remoteWriteUrl()).thenReturn("");
+        when(config.otlpUrl()).thenReturn("");
+    }
+
     private int createRandomPort() {
         try {
             final var serverSocket = new ServerSocket(0);
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.prometheus.client.Collector;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProtobufEncodingTest {
+
+    @Test
+    void varintSize() {
+        assertThat(ProtobufEncoding.varintSize(0)).isEqualTo(1);
+        assertThat(ProtobufEncoding.varintSize(127)).isEqualTo(1);
+        assertThat(ProtobufEncoding.varintSize(128)).isEqualTo(2);
+        assertThat(ProtobufEncoding.varintSize(16_383)).isEqualTo(2);
+        assertThat(ProtobufEncoding.varintSize(16_384)).isEqualTo(3);
+        assertThat(ProtobufEncoding.varintSize(-1)).isEqualTo(10);
+    }
+
+    @Test
+    void writeVarint() {
+        final var buffer = new ExpositionBuffer(16);
+        buffer.writeVarint(1);
+        buffer.writeVarint(300);
+        assertThat(buffer.toByteArray()).containsExactly(0x01, 0xAC, 0x02);
+    }
+
+    @Test
+    void endDelimited_withShortAndLongMessages() {
+        final var buffer = new ExpositionBuffer(16);
+        final var shortMessage = buffer.beginDelimited();
+        buffer.writeVarintField(1, 42);
+        buffer.endDelimited(shortMessage);
+        final var longMessage = buffer.beginDelimited();
+        final var nested = buffer.beginMessage(2);
+        buffer.write(new byte[200]);
+        buffer.endDelimited(nested);
+        buffer.writeDoubleField(3, 1.5);
+        buffer.endDelimited(longMessage);
+
+        final var messages = ProtobufMessage.parseDelimited(buffer.toByteArray());
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).varint(1)).isEqualTo(42);
+        assertThat(messages.get(1).doubleValue(3)).isEqualTo(1.5);
+        assertThat(messages.get(1).messages(2)).hasSize(1);
+    }
+
+    @Test
+    void familyHeader() {
+        final var family = ProtobufMessage.parse(ExpositionFormat.PROTOBUF.familyHeader("requests",
+                Collector.Type.COUNTER,
+                "Number of requests"));
+        assertThat(family.string(ProtobufEncoding.FAMILY_NAME)).isEqualTo("requests_total");
+        assertThat(family.string(ProtobufEncoding.FAMILY_HELP)).isEqualTo("Number of requests");
+        assertThat(family.varint(ProtobufEncoding.FAMILY_TYPE)).isEqualTo(0);
+    }
+
+    @Test
+    void samplePrefix_withValue_thenCompleteMetric() {
+        final var buffer = new ExpositionBuffer(64);
+        ExpositionFormat.PROTOBUF.writeSample(buffer,
+                ExpositionFormat.PROTOBUF.samplePrefix(Collector.Type.GAUGE,
+                        "temperature",
+                        List.of("room", "floor"),
+                        List.of("kitchen", "1")),
+                21.5);
+
+        final var metric = ProtobufMessage.parse(buffer.toByteArray()).message(ProtobufEncoding.FAMILY_METRIC);
+        final var labels = metric.messages(ProtobufEncoding.METRIC_LABEL);
+        assertThat(labels).hasSize(2);
+        assertThat(labels.get(0).string(ProtobufEncoding.LABEL_NAME)).isEqualTo("room");
+        assertThat(labels.get(0).string(ProtobufEncoding.LABEL_VALUE)).isEqualTo("kitchen");
+        assertThat(labels.get(1).string(ProtobufEncoding.LABEL_NAME)).isEqualTo("floor");
+        assertThat(labels.get(1).string(ProtobufEncoding.LABEL_VALUE)).isEqualTo("1");
+        assertThat(metric.message(ProtobufEncoding.METRIC_GAUGE).doubleValue(ProtobufEncoding.VALUE)).isEqualTo(21.5);
+    }
+}
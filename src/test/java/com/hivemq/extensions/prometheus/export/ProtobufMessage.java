@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal protobuf decoder that verifies the protobuf exposition in tests without a protobuf runtime.
+ */
+final class ProtobufMessage {
+
+    private final @NotNull Map<Integer, List<Object>> fields = new HashMap<>();
+
+    private ProtobufMessage(final byte @NotNull [] bytes, final int offset, final int length) {
+        final var buffer = ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            final var tag = (int) readVarint(buffer);
+            final Object value;
+            switch (tag & 7) {
+                case ProtobufEncoding.WIRE_TYPE_VARINT:
+                    value = readVarint(buffer);
+                    break;
+                case ProtobufEncoding.WIRE_TYPE_I64:
+                    value = buffer.getDouble();
+                    break;
+                case ProtobufEncoding.WIRE_TYPE_LEN:
+                    final var bytesValue = new byte[(int) readVarint(buffer)];
+                    buffer.get(bytesValue);
+                    value = bytesValue;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported wire type in tag " + tag);
+            }
+            fields.computeIfAbsent(tag >>> 3, field -> new ArrayList<>()).add(value);
+        }
+    }
+
+    /**
+     * Decodes a stream of length-delimited messages.
+     */
+    static @NotNull List<ProtobufMessage> parseDelimited(final byte @NotNull [] bytes) {
+        final var messages = new ArrayList<ProtobufMessage>();
+        final var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            final var length = (int) readVarint(buffer);
+            messages.add(new ProtobufMessage(bytes, buffer.position(), length));
+            buffer.position(buffer.position() + length);
+        }
+        return messages;
+    }
+
+    static @NotNull ProtobufMessage parse(final byte @NotNull [] bytes) {
+        return new ProtobufMessage(bytes, 0, bytes.length);
+    }
+
+    boolean has(final int field) {
+        return fields.containsKey(field);
+    }
+
+    @NotNull String string(final int field) {
+        return new String((byte[]) single(field), StandardCharsets.UTF_8);
+    }
+
+    long varint(final int field) {
+        return (long) single(field);
+    }
+
+    double doubleValue(final int field) {
+        return (double) single(field);
+    }
+
+    long fixed64(final int field) {
+        return Double.doubleToRawLongBits((double) single(field));
+    }
+
+    long @NotNull [] packedFixed64(final int field) {
+        final var buffer = ByteBuffer.wrap((byte[]) single(field)).order(ByteOrder.LITTLE_ENDIAN);
+        final var values = new long[buffer.remaining() / 8];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getLong();
+        }
+        return values;
+    }
+
+    double @NotNull [] packedDoubles(final int field) {
+        final var buffer = ByteBuffer.wrap((byte[]) single(field)).order(ByteOrder.LITTLE_ENDIAN);
+        final var values = new double[buffer.remaining() / 8];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getDouble();
+        }
+        return values;
+    }
+
+    @NotNull ProtobufMessage message(final int field) {
+        return parse((byte[]) single(field));
+    }
+
+    @NotNull List<ProtobufMessage> messages(final int field) {
+        final var messages = new ArrayList<ProtobufMessage>();
+        for (final var value : fields.getOrDefault(field, List.of())) {
+            messages.add(parse((byte[]) value));
+        }
+        return messages;
+    }
+
+    private @NotNull Object single(final int field) {
+        final var values = fields.get(field);
+        if (values == null || values.size() != 1) {
+            throw new IllegalStateException("expected a single value of field " + field + " but got " + values);
+        }
+        return values.get(0);
+    }
+
+    private static long readVarint(final @NotNull ByteBuffer buffer) {
+        var value = 0L;
+        for (int shift = 0; ; shift += 7) {
+            final var b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PushBufferTest {
+
+    private final @NotNull PushMetrics metrics = new PushMetrics("remote_write", "remote write receiver");
+
+    @Test
+    void add_beyondCapacity_thenOldestRequestsAreDropped() {
+        final var buffer = new PushBuffer(10, false, metrics);
+        buffer.add(new byte[4], 4, 1);
+        buffer.add(new byte[4], 4, 2);
+        buffer.add(new byte[4], 4, 3);
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.bytes()).isEqualTo(8);
+        assertThat(buffer.peek().samples()).isEqualTo(2);
+        assertThat(render()).contains("hivemq_prometheus_exporter_remote_write_samples_dropped_total 1.0")
+                .contains("hivemq_prometheus_exporter_remote_write_buffer_bytes 8.0");
+    }
+
+    @Test
+    void add_largerThanCapacity_thenRequestIsDropped() {
+        final var buffer = new PushBuffer(10, false, metrics);
+        buffer.add(new byte[4], 4, 1);
+        buffer.add(new byte[11], 11, 5);
+        assertThat(buffer.size()).isEqualTo(1);
+        assertThat(render()).contains("hivemq_prometheus_exporter_remote_write_samples_dropped_total 5.0");
+    }
+
+    @Test
+    void add_offHeap_thenBodyIsCopied() {
+        final var buffer = new PushBuffer(100, true, metrics);
+        final var body = "request-body".getBytes(StandardCharsets.US_ASCII);
+        buffer.add(body, 7, 1);
+        body[0] = 'x';
+        assertThat(new String(buffer.peek().body(), StandardCharsets.US_ASCII)).isEqualTo("request");
+        buffer.remove();
+        assertThat(buffer.peek()).isNull();
+        assertThat(buffer.bytes()).isZero();
+    }
+
+    private @NotNull String render() {
+        final var buffer = new ExpositionBuffer(1024);
+        metrics.render(ExpositionFormat.TEXT_004, null, buffer);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.UniformReservoir;
+import io.airlift.compress.snappy.SnappyDecompressor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RemoteWriteEncoderTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull PushMetrics metrics = new PushMetrics("remote_write", "remote write receiver");
+    private final @NotNull PushBuffer buffer = new PushBuffer(1 << 20, false, metrics);
+
+    @Test
+    void encode_thenSeriesHaveSortedLabelsAndTimestamp() {
+        metricRegistry.counter("my.counter").inc(3);
+        metricRegistry.gauge("my.gauge", () -> () -> 1.5);
+        final var encoder =
+                new RemoteWriteEncoder(List.of("instance", "job"), List.of("broker-1", "hivemq"), 100, buffer);
+        encode(encoder, render(null), 1_700_000_000_000L);
+
+        assertThat(buffer.size()).isEqualTo(1);
+        final var series = decode(buffer.peek());
+        assertThat(series.get("__name__=my_counter,instance=broker-1,job=hivemq")).containsExactly(3,
+                1_700_000_000_000L);
+        assertThat(series.get("__name__=my_gauge,instance=broker-1,job=hivemq")).containsExactly(1.5,
+                1_700_000_000_000L);
+    }
+
+    @Test
+    void encode_withHistogramBuckets_thenBucketCountAndSumSeries() {
+        final var histogram = metricRegistry.register("my.histogram", new Histogram(new UniformReservoir()));
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        final var encoder = new RemoteWriteEncoder(List.of(), List.of(), 100, buffer);
+        encode(encoder, render(HistogramBuckets.of(List.of(10.0, 50.0), 1.0)), 1L);
+
+        final var series = decode(buffer.peek());
+        assertThat(series.get("__name__=my_histogram_bucket,le=10.0")[0]).isEqualTo(10);
+        assertThat(series.get("__name__=my_histogram_bucket,le=50.0")[0]).isEqualTo(50);
+        assertThat(series.get("__name__=my_histogram_bucket,le=+Inf")[0]).isEqualTo(100);
+        assertThat(series.get("__name__=my_histogram_count")[0]).isEqualTo(100);
+        assertThat(series.get("__name__=my_histogram_sum")[0]).isEqualTo(5050);
+    }
+
+    @Test
+    void encode_withSummary_thenQuantileSeries() {
+        metricRegistry.histogram("my.summary").update(7);
+        final var encoder = new RemoteWriteEncoder(List.of(), List.of(), 100, buffer);
+        encode(encoder, render(null), 1L);
+
+        final var series = decode(buffer.peek());
+        assertThat(series.get("__name__=my_summary,quantile=0.5")[0]).isEqualTo(7);
+        assertThat(series.get("__name__=my_summary,quantile=0.999")[0]).isEqualTo(7);
+        assertThat(series.get("__name__=my_summary_count")[0]).isEqualTo(1);
+    }
+
+    @Test
+    void encode_withExternalLabelOfSeries_thenSeriesLabelWins() {
+        metricRegistry.counter("my.counter").inc();
+        final var encoder = new RemoteWriteEncoder(List.of("__name__"), List.of("other"), 100, buffer);
+        encode(encoder, render(null), 1L);
+
+        assertThat(decode(buffer.peek())).containsOnlyKeys("__name__=my_counter");
+    }
+
+    @Test
+    void encode_moreSamplesThanMaxPerRequest_thenSplitIntoRequests() {
+        for (int i = 0; i < 5; i++) {
+            metricRegistry.counter("my.counter." + i).inc(i);
+        }
+        final var encoder = new RemoteWriteEncoder(List.of(), List.of(), 2, buffer);
+        encode(encoder, render(null), 1L);
+
+        assertThat(buffer.size()).isEqualTo(3);
+        final var samples = new ArrayList<Integer>();
+        final var series = new LinkedHashMap<String, double[]>();
+        while (buffer.peek() != null) {
+            samples.add(buffer.peek().samples());
+            series.putAll(decode(buffer.peek()));
+            buffer.remove();
+        }
+        assertThat(samples).containsExactly(2, 2, 1);
+        assertThat(series).hasSize(5);
+    }
+
+    private static void encode(
+            final @NotNull RemoteWriteEncoder encoder,
+            final @NotNull ExpositionBuffer exposition,
+            final long timestampMillis) {
+        encoder.encode(exposition.array(), exposition.size(), timestampMillis);
+    }
+
+    private @NotNull ExpositionBuffer render(final @Nullable HistogramBuckets histogramBuckets) {
+        final var renderer = new DropwizardExpositionRenderer(metricRegistry,
+                MetricNameFilter.ALL,
+                LabelMapper.NONE,
+                histogramBuckets,
+                null,
+                ReservoirSnapshotCache.NONE,
+                new IncrementalHistograms(),
+                null,
+                0);
+        final var exposition = new ExpositionBuffer(1024);
+        renderer.render(ExpositionFormat.PROTOBUF, null, exposition);
+        return exposition;
+    }
+
+    /**
+     * Decodes a compressed {@code WriteRequest} into its series, keyed by their comma separated labels, with the value
+     * and timestamp of their sample.
+     */
+    static @NotNull Map<String, double[]> decode(final @NotNull PushBuffer.Request request) {
+        return decode(request.body());
+    }
+
+    static @NotNull Map<String, double[]> decode(final byte @NotNull [] compressed) {
+        final var decompressor = new SnappyDecompressor();
+        final var body = new byte[SnappyDecompressor.getUncompressedLength(compressed, 0)];
+        decompressor.decompress(compressed, 0, compressed.length, body, 0, body.length);
+        final var series = new LinkedHashMap<String, double[]>();
+        for (final var timeSeries : ProtobufMessage.parse(body).messages(RemoteWriteEncoder.WRITE_REQUEST_TIMESERIES)) {
+            final var labels = new ArrayList<String>();
+            for (final var label : timeSeries.messages(RemoteWriteEncoder.TIMESERIES_LABELS)) {
+                labels.add(label.string(RemoteWriteEncoder.LABEL_NAME) + "=" +
+                        label.string(RemoteWriteEncoder.LABEL_VALUE));
+            }
+            assertThat(labels).isSorted();
+            final var sample = timeSeries.message(RemoteWriteEncoder.TIMESERIES_SAMPLES);
+            series.put(String.join(",", labels),
+                    new double[]{
+                            sample.doubleValue(RemoteWriteEncoder.SAMPLE_VALUE),
+                            sample.varint(RemoteWriteEncoder.SAMPLE_TIMESTAMP)});
+        }
+        return series;
+    }
+}
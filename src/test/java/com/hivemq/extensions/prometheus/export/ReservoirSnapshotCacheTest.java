@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.UniformReservoir;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReservoirSnapshotCacheTest {
+
+    private final @NotNull Histogram histogram = new Histogram(new UniformReservoir());
+    private final @NotNull ReservoirSnapshotCache snapshotCache = new ReservoirSnapshotCache();
+
+    @Test
+    void sampling_withMaxAge_thenSnapshotShared() {
+        histogram.update(1);
+        final var first = snapshotCache.withMaxAge(Duration.ofMinutes(1)).sampling(histogram);
+        final var second = snapshotCache.withMaxAge(Duration.ofMinutes(1)).sampling(histogram);
+        final var snapshot = first.getSnapshot();
+        histogram.update(2);
+        assertThat(first.getSnapshot()).isSameAs(snapshot);
+        assertThat(second.getSnapshot()).isSameAs(snapshot);
+        assertThat(snapshot.size()).isEqualTo(1);
+    }
+
+    @Test
+    void sampling_withExpiredSnapshot_thenNewSnapshotShared() throws Exception {
+        histogram.update(1);
+        final var longLived = snapshotCache.withMaxAge(Duration.ofMinutes(1)).sampling(histogram);
+        final var shortLived = snapshotCache.withMaxAge(Duration.ofMillis(1)).sampling(histogram);
+        final var snapshot = longLived.getSnapshot();
+        histogram.update(2);
+        Thread.sleep(5);
+        final var newSnapshot = shortLived.getSnapshot();
+        assertThat(newSnapshot).isNotSameAs(snapshot);
+        assertThat(newSnapshot.size()).isEqualTo(2);
+        assertThat(longLived.getSnapshot()).isSameAs(newSnapshot);
+    }
+
+    @Test
+    void sampling_withoutMaxAge_thenMetricItself() {
+        assertThat(snapshotCache.withMaxAge(Duration.ZERO).sampling(histogram)).isSameAs(histogram);
+        assertThat(ReservoirSnapshotCache.NONE.sampling(histogram)).isSameAs(histogram);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ScrapeSnapshotCacheTest {
+
+    private final @NotNull AtomicInteger renderCount = new AtomicInteger();
+    private final @NotNull ExporterMetrics exporterMetrics = new ExporterMetrics();
+
+    @Test
+    void get_withinMaxAge_thenSnapshotIsReused() throws Exception {
+        final var cache = new ScrapeSnapshotCache(Duration.ofMinutes(1), this::render, exporterMetrics);
+        final var first = cache.get();
+        final var second = cache.get();
+        assertThat(second).isSameAs(first);
+        assertThat(renderCount).hasValue(1);
+    }
+
+    @Test
+    void get_withZeroMaxAge_thenSnapshotIsRenderedPerCall() throws Exception {
+        final var cache = new ScrapeSnapshotCache(Duration.ZERO, this::render, exporterMetrics);
+        final var first = cache.get();
+        final var second = cache.get();
+        assertThat(second).isNotSameAs(first);
+        assertThat(renderCount).hasValue(2);
+    }
+
+    @Test
+    void get_concurrently_thenSingleRenderIsShared() throws Exception {
+        final var renderStarted = new CountDownLatch(1);
+        final var renderRelease = new CountDownLatch(1);
+        final var cache = new ScrapeSnapshotCache(Duration.ZERO, () -> {
+            renderStarted.countDown();
+            awaitRelease(renderRelease);
+            return render();
+        }, exporterMetrics);
+        final var executor = Executors.newFixedThreadPool(4);
+        try {
+            final var owner = executor.submit(cache::get);
+            assertThat(renderStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            final var waiters = new Future<?>[3];
+            for (int i = 0; i < waiters.length; i++) {
+                waiters[i] = executor.submit(cache::get);
+            }
+            // give the waiters the chance to join the in-flight render
+            Thread.sleep(100);
+            renderRelease.countDown();
+            final var snapshot = owner.get(10, TimeUnit.SECONDS);
+            for (final var waiter : waiters) {
+                assertThat(waiter.get(10, TimeUnit.SECONDS)).isSameAs(snapshot);
+            }
+            assertThat(renderCount).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_whenRenderFails_thenNextCallRendersAgain() throws Exception {
+        final var fail = new AtomicInteger(1);
+        final var cache = new ScrapeSnapshotCache(Duration.ofMinutes(1), () -> {
+            if (fail.getAndDecrement() > 0) {
+                throw new IOException("expected");
+            }
+            return render();
+        }, exporterMetrics);
+        assertThatThrownBy(cache::get).isInstanceOf(IOException.class).hasMessage("expected");
+        assertThat(cache.get().body()).isEqualTo(new byte[]{1});
+    }
+
+    @Test
+    void refresh_withinMaxAge_thenSnapshotIsReplaced() throws Exception {
+        final var cache = new ScrapeSnapshotCache(Duration.ofMinutes(1), this::render, exporterMetrics);
+        assertThat(cache.hasSnapshot()).isFalse();
+        final var first = cache.get();
+        cache.refresh();
+        assertThat(cache.hasSnapshot()).isTrue();
+        assertThat(cache.get()).isNotSameAs(first);
+        assertThat(renderCount).hasValue(2);
+    }
+
+    @Test
+    void refresh_whileRenderInFlight_thenNoAdditionalRender() throws Exception {
+        final var renderStarted = new CountDownLatch(1);
+        final var renderRelease = new CountDownLatch(1);
+        final var cache = new ScrapeSnapshotCache(Duration.ofMinutes(1), () -> {
+            renderStarted.countDown();
+            awaitRelease(renderRelease);
+            return render();
+        }, exporterMetrics);
+        final var executor = Executors.newSingleThreadExecutor();
+        try {
+            final var scrape = executor.submit(cache::get);
+            assertThat(renderStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            cache.refresh();
+            renderRelease.countDown();
+            assertThat(cache.get()).isSameAs(scrape.get(10, TimeUnit.SECONDS));
+            assertThat(renderCount).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_recordsCacheResults() throws Exception {
+        final var cache = new ScrapeSnapshotCache(Duration.ofMinutes(1), this::render, exporterMetrics);
+        cache.get();
+        cache.get();
+        cache.get();
+        final var buffer = new ExpositionBuffer(1024);
+        exporterMetrics.render(ExpositionFormat.TEXT_004, null, buffer);
+        assertThat(new String(buffer.toByteArray(), StandardCharsets.UTF_8))
+                .contains("hivemq_prometheus_exporter_scrapes_total{cache=\"hit\",} 2.0")
+                .contains("hivemq_prometheus_exporter_scrapes_total{cache=\"miss\",} 1.0")
+                .contains("hivemq_prometheus_exporter_scrapes_total{cache=\"shared\",} 0.0");
+    }
+
+    @Test
+    void get_withRenderDeadlineExceeded_thenPreviousSnapshotIsServed() throws Exception {
+        final var slow = new AtomicBoolean();
+        final var renderRelease = new CountDownLatch(1);
+        final var executor = Executors.newCachedThreadPool();
+        try {
+            final var cache = new ScrapeSnapshotCache(Duration.ZERO, Duration.ofMillis(50), executor, () -> {
+                if (slow.get()) {
+                    awaitRelease(renderRelease);
+                }
+                return render();
+            }, exporterMetrics);
+            final var first = cache.get();
+            slow.set(true);
+            assertThat(cache.get()).isSameAs(first);
+            assertThat(cache.get()).isSameAs(first);
+            renderRelease.countDown();
+            waitUntil(() -> renderCount.get() == 2);
+            // give the background render the chance to store its snapshot
+            Thread.sleep(100);
+            // the snapshot of the background render is served to the next scrape, although the max-age is zero
+            final var background = cache.get();
+            assertThat(background).isNotSameAs(first);
+            assertThat(renderCount).hasValue(2);
+            assertThat(cache.get()).isNotSameAs(background);
+            assertThat(renderCount).hasValue(3);
+            assertThat(renderExporterMetrics()).contains(
+                    "hivemq_prometheus_exporter_scrapes_total{cache=\"stale\",} 2.0");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_withRenderDeadlineNotExceeded_thenNewSnapshotIsServed() throws Exception {
+        final var executor = Executors.newCachedThreadPool();
+        try {
+            final var cache = new ScrapeSnapshotCache(Duration.ZERO,
+                    Duration.ofSeconds(10),
+                    executor,
+                    this::render,
+                    exporterMetrics);
+            final var first = cache.get();
+            assertThat(cache.get()).isNotSameAs(first);
+            assertThat(renderCount).hasValue(2);
+            assertThat(renderExporterMetrics()).contains(
+                    "hivemq_prometheus_exporter_scrapes_total{cache=\"miss\",} 2.0",
+                    "hivemq_prometheus_exporter_scrapes_total{cache=\"stale\",} 0.0");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_withRenderDeadline_withoutPreviousSnapshot_thenWaitsForRender() throws Exception {
+        final var executor = Executors.newCachedThreadPool();
+        try {
+            final var cache = new ScrapeSnapshotCache(Duration.ZERO, Duration.ofMillis(1), executor, () -> {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                return render();
+            }, exporterMetrics);
+            assertThat(cache.get().body()).isEqualTo(new byte[]{1});
+            assertThat(renderCount).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_withRenderDeadlineExceeded_whenRenderFails_thenNextCallRendersAgain() throws Exception {
+        final var fail = new AtomicBoolean();
+        final var renderRelease = new CountDownLatch(1);
+        final var executor = Executors.newCachedThreadPool();
+        try {
+            final var cache = new ScrapeSnapshotCache(Duration.ZERO, Duration.ofMillis(50), executor, () -> {
+                if (fail.getAndSet(false)) {
+                    awaitRelease(renderRelease);
+                    throw new IOException("expected");
+                }
+                return render();
+            }, exporterMetrics);
+            final var first = cache.get();
+            fail.set(true);
+            assertThat(cache.get()).isSameAs(first);
+            renderRelease.countDown();
+            waitUntil(() -> cache.get() != first);
+            assertThat(renderCount.get()).isGreaterThanOrEqualTo(2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Blocks a render until the latch is released, the renderer may only throw an {@link IOException}.
+     */
+    private static void awaitRelease(final @NotNull CountDownLatch renderRelease) throws IOException {
+        try {
+            if (!renderRelease.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("render was not released");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("render was interrupted");
+        }
+    }
+
+    private static void waitUntil(final @NotNull Callable<Boolean> condition) throws Exception {
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.call()) {
+            assertThat(System.nanoTime()).as("condition not met within 10 seconds").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private @NotNull String renderExporterMetrics() {
+        final var buffer = new ExpositionBuffer(1024);
+        exporterMetrics.render(ExpositionFormat.TEXT_004, null, buffer);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private @NotNull ScrapeSnapshot render() {
+        renderCount.incrementAndGet();
+        return new ScrapeSnapshot("text/plain", new byte[]{1}, System.nanoTime());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import io.airlift.compress.zstd.ZstdDecompressor;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotCompressorTest {
+
+    private static final byte @NotNull [] BODY =
+            "my_counter_1 2.0\nmy_counter_2 1.0\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+    private final @NotNull ExporterMetrics exporterMetrics = new ExporterMetrics();
+    private final @NotNull SnapshotCompressor compressor = new SnapshotCompressor(exporterMetrics, 6, true);
+
+    @Test
+    void compress_gzip() throws Exception {
+        final var compressed = compressor.compress(ContentEncoding.GZIP, BODY);
+        assertThat(compressed.length).isLessThan(BODY.length);
+        try (final var in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertThat(in.readAllBytes()).isEqualTo(BODY);
+        }
+    }
+
+    @Test
+    void compress_zstd() throws Exception {
+        final var compressed = compressor.compress(ContentEncoding.ZSTD, BODY);
+        assertThat(compressed.length).isLessThan(BODY.length);
+        final var decompressed = new byte[BODY.length];
+        final var length = new ZstdDecompressor().decompress(compressed,
+                0,
+                compressed.length,
+                decompressed,
+                0,
+                decompressed.length);
+        assertThat(length).isEqualTo(BODY.length);
+        assertThat(decompressed).isEqualTo(BODY);
+    }
+
+    @Test
+    void compress_identity_thenBodyIsReturned() throws Exception {
+        assertThat(compressor.compress(ContentEncoding.IDENTITY, BODY)).isSameAs(BODY);
+    }
+
+    @Test
+    void body_compressedOncePerSnapshot() throws Exception {
+        final var snapshot = new ScrapeSnapshot("text/plain", BODY, System.nanoTime());
+        final var first = snapshot.body(ContentEncoding.GZIP, compressor);
+        final var second = snapshot.body(ContentEncoding.GZIP, compressor);
+        assertThat(second).isSameAs(first);
+        final var buffer = new ExpositionBuffer(1024);
+        exporterMetrics.render(ExpositionFormat.TEXT_004, null, buffer);
+        final var exposition = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(exposition).contains("hivemq_prometheus_exporter_compressions_total{encoding=\"gzip\",} 1.0\n",
+                "hivemq_prometheus_exporter_compressions_total{encoding=\"zstd\",} 0.0\n");
+    }
+}
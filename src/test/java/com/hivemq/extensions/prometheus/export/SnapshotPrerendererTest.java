@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotPrerendererTest {
+
+    @Test
+    void nextBoundaryMillis_initially_thenNextMultipleOfInterval() {
+        assertThat(SnapshotPrerenderer.nextBoundaryMillis(0, 12_345, 1000)).isEqualTo(13_000);
+        assertThat(SnapshotPrerenderer.nextBoundaryMillis(0, 13_000, 1000)).isEqualTo(14_000);
+    }
+
+    @Test
+    void nextBoundaryMillis_afterJitteredRender_thenBoundaryAfterPrevious() {
+        // the render of the boundary 13000 was delayed by 900ms of jitter
+        assertThat(SnapshotPrerenderer.nextBoundaryMillis(13_000, 13_900, 1000)).isEqualTo(14_000);
+    }
+
+    @Test
+    void nextBoundaryMillis_afterOverlongRender_thenSkipsPassedBoundaries() {
+        assertThat(SnapshotPrerenderer.nextBoundaryMillis(13_000, 15_500, 1000)).isEqualTo(16_000);
+    }
+
+    @Test
+    void nextBoundaryMillis_afterClockSetBack_thenRealigns() {
+        assertThat(SnapshotPrerenderer.nextBoundaryMillis(13_000, 5_500, 1000)).isEqualTo(6_000);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.prometheus.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VirtualThreadsTest {
+
+    @Test
+    void isAvailable() {
+        // the tests run on Java 21+
+        assertThat(VirtualThreads.isAvailable()).isTrue();
+    }
+
+    @Test
+    void threadFactory_namedVirtualThreads() {
+        final var threadFactory = VirtualThreads.threadFactory();
+        final var first = threadFactory.newThread(() -> {
+        });
+        final var second = threadFactory.newThread(() -> {
+        });
+        assertThat(first.isVirtual()).isTrue();
+        assertThat(first.isDaemon()).isTrue();
+        assertThat(first.getName()).matches("prometheus-http-\\d+-1");
+        assertThat(second.getName()).matches("prometheus-http-\\d+-2");
+    }
+
+    @Test
+    void newThreadPerTaskExecutor_runsTasksOnVirtualThreads() throws Exception {
+        final var executorService = VirtualThreads.newThreadPerTaskExecutor();
+        try {
+            final var thread = executorService.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+            assertThat(thread.isVirtual()).isTrue();
+            assertThat(thread.getName()).startsWith("prometheus-http-");
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}